@@ -34,6 +34,8 @@ import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.function.BiFunction;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
 
 import org.jnetpcap.PcapHandler.PacketSink;
 import org.jnetpcap.PcapHandler.PacketSink.PcapPacketSink;
@@ -42,13 +44,18 @@ import org.jnetpcap.constant.PcapCode;
 import org.jnetpcap.constant.PcapConstants;
 import org.jnetpcap.constant.PcapDirection;
 import org.jnetpcap.constant.PcapDlt;
+import org.jnetpcap.constant.PcapNextStatus;
 import org.jnetpcap.constant.PcapOption;
 import org.jnetpcap.constant.PcapSrc;
 import org.jnetpcap.constant.PcapTStampPrecision;
 import org.jnetpcap.constant.PcapTstampType;
 import org.jnetpcap.internal.PcapForeignInitializer;
+import org.jnetpcap.internal.ReusableArena;
 import org.jnetpcap.util.NetIp4Address;
+import org.jnetpcap.util.PcapCursor;
+import org.jnetpcap.util.PcapHandlerChain;
 import org.jnetpcap.util.PcapPacketRef;
+import org.jnetpcap.util.PcapSpliterator;
 import org.jnetpcap.util.PcapVersionException;
 
 /**
@@ -1185,12 +1192,14 @@ public abstract sealed class Pcap implements AutoCloseable permits Pcap0_4 {
 	}
 
 	/**
-	 * New scope.
+	 * New scope. The scope is confined to the calling thread, which is much
+	 * cheaper to close than a shared scope, and must be used within a
+	 * try-with-resources block on the same thread.
 	 *
 	 * @return the memory session
 	 */
 	protected static MemorySession newScope() {
-		return MemorySession.openShared();
+		return MemorySession.openConfined();
 	}
 
 	/**
@@ -1424,6 +1433,12 @@ public abstract sealed class Pcap implements AutoCloseable permits Pcap0_4 {
 	/** The pointer to pointer3. */
 	protected final MemorySegment POINTER_TO_POINTER3 = allocateNative(ADDRESS, openImplicit());
 
+	/**
+	 * Error string factory, bound once per handle so that per-packet native calls
+	 * do not allocate a new capturing method reference on every call.
+	 */
+	protected final IntFunction<String> errorStringFactory = this::getErrorString;
+
 	/** The pcap handle or pcap_t * address. */
 	private final MemoryAddress pcapHandle;
 
@@ -1706,12 +1721,24 @@ public abstract sealed class Pcap implements AutoCloseable permits Pcap0_4 {
 	}
 
 	/**
-	 * Dispatch based packet source.
+	 * Dispatch based packet source, which reports the handle's time stamp
+	 * precision.
 	 *
 	 * @return the packet source
 	 */
 	public final PcapHandler.PacketSource dispatch() {
-		PcapPacketSource src = this::dispatch;
+		PcapPacketSource src = new PcapPacketSource() {
+
+			@Override
+			public int sourcePackets(int count, PcapHandler.OfRawPacket handler) {
+				return dispatch(count, handler);
+			}
+
+			@Override
+			public PcapTStampPrecision tstampPrecision() {
+				return tstampPrecisionOrMicro();
+			}
+		};
 
 		return src;
 	}
@@ -1943,6 +1970,23 @@ public abstract sealed class Pcap implements AutoCloseable permits Pcap0_4 {
 		throw new UnsupportedOperationException(minApi("Pcap0_4", "0.4")); //$NON-NLS-1$ //$NON-NLS-2$
 	}
 
+	/**
+	 * Process packets from a live capture or savefile, with a composed handler
+	 * chain. The chain's method handle tree is the direct target of its own
+	 * upcall stub, so the whole per-packet pipeline can be compiled and inlined
+	 * as one unit. Reuse the same chain across calls.
+	 *
+	 * @param count maximum number of packets to process before returning
+	 * @param chain the handler chain
+	 * @return the number of packets processed on success, 0 if no packets were
+	 *         available, or a negative pcap error code
+	 * @see #dispatch(int, PcapHandler.OfRawPacket)
+	 * @since libpcap 0.4
+	 */
+	public int dispatch(int count, PcapHandlerChain chain) {
+		throw new UnsupportedOperationException(minApi("Pcap0_4", "0.4")); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
 	/**
 	 * Open a file to which to write packets.
 	 * <p>
@@ -1981,6 +2025,27 @@ public abstract sealed class Pcap implements AutoCloseable permits Pcap0_4 {
 		throw new UnsupportedOperationException(minApi("Pcap0_4", "libpcap 4.0"));
 	}
 
+	/**
+	 * Open an in-memory ''savefile'' for writing, used for upcall free batch
+	 * capture.
+	 * 
+	 * <p>
+	 * A memory stream is opened using the C library {@code open_memstream} call
+	 * and a dumper is attached to it using {@code pcap_dump_fopen}. Packets
+	 * dispatched into the returned dumper are written natively by
+	 * {@code pcap_dump}, without any java upcalls, and are then delivered as a
+	 * single contiguous block of pcap records per dispatch call.
+	 * </p>
+	 *
+	 * @return the in-memory pcap dumper
+	 * @throws PcapException the pcap exception
+	 * @see PcapMemoryDumper
+	 * @since libpcap 0.9
+	 */
+	public PcapMemoryDumper dumpOpenMemory() throws PcapException {
+		throw new UnsupportedOperationException(minApi("Pcap0_9", "0.9")); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
 	/**
 	 * Get libpcap error message text.
 	 *
@@ -2073,6 +2138,20 @@ public abstract sealed class Pcap implements AutoCloseable permits Pcap0_4 {
 		throw new UnsupportedOperationException(minApi("Pcap1_5", "1.5")); //$NON-NLS-1$ //$NON-NLS-2$
 	}
 
+	/**
+	 * The time stamp precision of the handle, or microseconds when the precision
+	 * can not be queried, as with libpcap versions before 1.5.
+	 *
+	 * @return the time stamp precision
+	 */
+	private PcapTStampPrecision tstampPrecisionOrMicro() {
+		try {
+			return getTstampPrecision();
+		} catch (PcapException | UnsupportedOperationException e) {
+			return PcapTStampPrecision.TSTAMP_PRECISION_MICRO;
+		}
+	}
+
 	/**
 	 * Returns a compatible packet sink which sends the packets to whatever sink the
 	 * Pcap handle is opened to.
@@ -2203,8 +2282,8 @@ public abstract sealed class Pcap implements AutoCloseable permits Pcap0_4 {
 	 * @throws PcapException the pcap exception
 	 */
 	public final int inject(byte[] array, int offset, int length) throws PcapException {
-		try (var scope = newScope()) {
-			MemorySegment mseg = scope.allocate(length);
+		try (var arena = ReusableArena.enter()) {
+			MemorySegment mseg = arena.allocate(length);
 
 			MemorySegment.copy(array, offset, mseg, ValueLayout.JAVA_BYTE, 0, length);
 
@@ -2259,6 +2338,17 @@ public abstract sealed class Pcap implements AutoCloseable permits Pcap0_4 {
 		}
 	}
 
+	/**
+	 * Checks if this handle reads packets from a ``savefile'', as opposed to a
+	 * live capture device.
+	 *
+	 * @return true if this is an offline handle, otherwise false
+	 * @since libpcap 0.4
+	 */
+	public boolean isOffline() {
+		throw new UnsupportedOperationException(minApi("Pcap0_4", "0.4")); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
 	/**
 	 * Find out whether a savefile has the native byte order.
 	 * 
@@ -2309,7 +2399,18 @@ public abstract sealed class Pcap implements AutoCloseable permits Pcap0_4 {
 	 */
 	public final PcapHandler.PacketSource loop() {
 
-		PcapPacketSource src = this::loop;
+		PcapPacketSource src = new PcapPacketSource() {
+
+			@Override
+			public int sourcePackets(int count, PcapHandler.OfRawPacket handler) {
+				return loop(count, handler);
+			}
+
+			@Override
+			public PcapTStampPrecision tstampPrecision() {
+				return tstampPrecisionOrMicro();
+			}
+		};
 
 		return src;
 	}
@@ -2511,6 +2612,23 @@ public abstract sealed class Pcap implements AutoCloseable permits Pcap0_4 {
 		throw new UnsupportedOperationException(minApi("Pcap0_4", "0.4")); //$NON-NLS-1$ //$NON-NLS-2$
 	}
 
+	/**
+	 * Process packets from a live capture or savefile, with a composed handler
+	 * chain, until count packets are processed, the end of the savefile is
+	 * reached, or the loop is broken out of.
+	 *
+	 * @param count maximum number of packets to process, -1 or 0 for infinity
+	 * @param chain the handler chain
+	 * @return 0 if count is exhausted or at the end of a ``savefile'',
+	 *         PCAP_ERROR_BREAK if the loop was broken out of, or another negative
+	 *         pcap error code
+	 * @see #dispatch(int, PcapHandlerChain)
+	 * @since libpcap 0.4
+	 */
+	public int loop(int count, PcapHandlerChain chain) {
+		throw new UnsupportedOperationException(minApi("Pcap0_4", "0.4")); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
 	/**
 	 * Get the version number of a savefile.
 	 * <p>
@@ -2641,13 +2759,87 @@ public abstract sealed class Pcap implements AutoCloseable permits Pcap0_4 {
 	 *         savefile.
 	 * @throws PcapException    any pcap errors such as not activated, etc.
 	 * @throws TimeoutException if packets are being read from a live capture and
-	 *                          the packet buffer timeout expired
+	 *                          the packet buffer timeout expired. The exception
+	 *                          has no stack trace, and the same instance is
+	 *                          thrown on every timeout of this handle, so it must
+	 *                          not be retained or have exceptions added to it
 	 * @since Pcap 0.8
 	 */
 	public PcapPacketRef nextEx() throws PcapException, TimeoutException {
 		throw new UnsupportedOperationException(minApi("Pcap0_8", "0.8")); //$NON-NLS-1$ //$NON-NLS-2$
 	}
 
+	/**
+	 * Read the next packet from a pcap handle into a reusable cursor, without
+	 * allocating a new packet reference for every packet. The cursor is
+	 * positioned directly on libpcap's header and packet data, which are not
+	 * copied and are only valid until the next call on this handle.
+	 *
+	 * @param cursor the cursor to position on the next packet
+	 * @return true, if positioned on a packet, or false if packets are being read
+	 *         from a ``savefile'' and there are no more packets to read, or the
+	 *         loop was broken out of with {@link #breakloop()}
+	 * @throws PcapException    any pcap errors such as not activated, etc.
+	 * @throws TimeoutException if packets are being read from a live capture and
+	 *                          the packet buffer timeout expired. The exception
+	 *                          has no stack trace, and the same instance is
+	 *                          thrown on every timeout of this handle, so it must
+	 *                          not be retained or have exceptions added to it
+	 * @see #nextEx()
+	 * @since Pcap 0.8
+	 */
+	public boolean nextEx(PcapCursor cursor) throws PcapException, TimeoutException {
+		throw new UnsupportedOperationException(minApi("Pcap0_8", "0.8")); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * Read the next packet from a pcap handle into a reusable cursor, reporting
+	 * the outcome as a status instead of throwing exceptions. Timeouts, the end
+	 * of a ``savefile'' and breakloop are all normal outcomes in a polling loop,
+	 * and none of them allocate. The status, pcap result code and any error
+	 * message are also recorded in the cursor.
+	 *
+	 * <pre>
+	 * <code>
+	 * while (true) {
+	 * 	switch (pcap.nextExStatus(cursor)) {
+	 * 	case OK -> process(cursor);
+	 * 	case TIMEOUT -> idle();
+	 * 	case EOF, BREAK -> { return; }
+	 * 	case ERROR -> throw new PcapException(cursor.errorCode(), cursor.errorMessage());
+	 * 	}
+	 * }
+	 * </code>
+	 * </pre>
+	 *
+	 * @param cursor the cursor to position on the next packet, and which receives
+	 *               the status
+	 * @return the status of the read
+	 * @see #nextEx(PcapCursor)
+	 * @since Pcap 0.8
+	 */
+	public PcapNextStatus nextExStatus(PcapCursor cursor) {
+		throw new UnsupportedOperationException(minApi("Pcap0_8", "0.8")); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * Read up to count packets from a pcap handle, in a single dispatch call, into
+	 * a reusable cursor. The packets are copied into the cursor's own buffer, and
+	 * remain valid until the cursor is loaded again. Use
+	 * {@link PcapCursor#advance()} to step through the packets read.
+	 *
+	 * @param cursor the cursor to load
+	 * @param count  maximum number of packets to read, at most the cursor's
+	 *               capacity
+	 * @return the number of packets read, 0 if no packets were available, or at
+	 *         the end of a ``savefile'', or a negative pcap error code
+	 * @see #dispatch(int, PcapHandler.OfRawPacket)
+	 * @since libpcap 0.4
+	 */
+	public int next(PcapCursor cursor, int count) {
+		throw new UnsupportedOperationException(minApi("Pcap0_4", "0.4")); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
 	/**
 	 * Returns the {@link ByteOrder} of the current capture based on results from
 	 * {@link #isSwapped()} method call. Calculates the actual byte order of the
@@ -2793,8 +2985,8 @@ public abstract sealed class Pcap implements AutoCloseable permits Pcap0_4 {
 	 * @since libpcap 0.8
 	 */
 	public final void sendPacket(final byte[] buf, int offset, int length) throws PcapException {
-		try (var scope = newScope()) {
-			MemorySegment mseg = scope.allocate(length);
+		try (var arena = ReusableArena.enter()) {
+			MemorySegment mseg = arena.allocate(length);
 
 			MemorySegment.copy(buf, offset, mseg, ValueLayout.JAVA_BYTE, 0, length);
 
@@ -3188,6 +3380,36 @@ public abstract sealed class Pcap implements AutoCloseable permits Pcap0_4 {
 		throw new UnsupportedOperationException(minApi("Pcap0_4", "0.4")); //$NON-NLS-1$ //$NON-NLS-2$
 	}
 
+	/**
+	 * A lazy, sequential, stream of packets from this handle. Packets are pulled
+	 * in dispatch sized batches of {@value PcapSpliterator#DEFAULT_BATCH_SIZE}
+	 * and copied out of libpcap's buffer, so they can be retained. For offline
+	 * handles, the stream ends at the end of the ``savefile'' and can be made
+	 * {@code parallel()}. For live handles, the stream ends when
+	 * {@link #breakloop()} is called or an error occurs, and is best limited with
+	 * a short-circuiting operation such as {@code limit} or {@code takeWhile}.
+	 *
+	 * @return the stream of packets
+	 * @since libpcap 0.4
+	 * @see PcapSpliterator
+	 */
+	public Stream<PcapPacketRef> stream() {
+		throw new UnsupportedOperationException(minApi("Pcap0_4", "0.4")); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * A lazy, sequential, stream of packets from this handle, pulled in batches of
+	 * up to {@code batchSize} packets per dispatch.
+	 *
+	 * @param batchSize number of packets pulled per dispatch
+	 * @return the stream of packets
+	 * @since libpcap 0.4
+	 * @see #stream()
+	 */
+	public Stream<PcapPacketRef> stream(int batchSize) {
+		throw new UnsupportedOperationException(minApi("Pcap0_4", "0.4")); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
 	/**
 	 * Debug info about this pcap handle.
 	 *
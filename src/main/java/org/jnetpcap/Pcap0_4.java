@@ -17,7 +17,6 @@
  */
 package org.jnetpcap;
 
-import static java.lang.foreign.MemorySegment.allocateNative;
 import static java.lang.foreign.ValueLayout.ADDRESS;
 import static java.util.Objects.requireNonNull;
 import static org.jnetpcap.PcapHeader.PCAP_HEADER_PADDED_LENGTH;
@@ -29,22 +28,28 @@ import java.lang.foreign.MemoryAddress;
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.MemorySession;
 import java.lang.foreign.ValueLayout;
+import java.lang.ref.Reference;
 import java.util.Objects;
 import java.util.concurrent.TimeUnit;
 import java.util.function.BiFunction;
+import java.util.stream.Stream;
 
 import org.jnetpcap.PcapHandler.OfRawPacket;
+import org.jnetpcap.PcapHandler.PacketSource.PcapPacketSource;
 import org.jnetpcap.constant.PcapCode;
 import org.jnetpcap.constant.PcapConstants;
 import org.jnetpcap.constant.PcapDlt;
-import org.jnetpcap.internal.ForeignReference;
 import org.jnetpcap.internal.ForeignUpcall;
 import org.jnetpcap.internal.ForeignUtils;
 import org.jnetpcap.internal.PcapForeignDowncall;
 import org.jnetpcap.internal.PcapForeignInitializer;
 import org.jnetpcap.internal.PcapStatRecord;
+import org.jnetpcap.internal.ReusableArena;
 import org.jnetpcap.util.NetIp4Address;
+import org.jnetpcap.util.PcapCursor;
+import org.jnetpcap.util.PcapHandlerChain;
 import org.jnetpcap.util.PcapPacketRef;
+import org.jnetpcap.util.PcapSpliterator;
 import org.jnetpcap.util.PcapReceiver;
 
 /**
@@ -197,15 +202,14 @@ public sealed class Pcap0_4 extends Pcap permits Pcap0_5 {
 	private static final PcapForeignDowncall pcap_strerror;
 
 	/**
-	 * This upcall foreign reference is a static callback method that is called to
-	 * java from pcap_loop and pcap_dispatch calls. Then the callback method calls
+	 * This bindable upcall is a static callback method that is called to java
+	 * from pcap_loop and pcap_dispatch calls. Then the callback method calls
 	 * actual sink objects (OfRawPacket type) with actual data.
 	 * 
 	 * <p>
-	 * Both pcap_loop and pcap_dispatch store the sink object (OfRawPacket type) as
-	 * user object during the native call. Our java callback handler, when its
-	 * called back by pcap, takes the user object or the original sink object and
-	 * passes on the received packet data.
+	 * The sink object (OfRawPacket type) is bound directly into the method handle
+	 * of each upcall stub created, so no lookup of the sink is needed when the
+	 * stub is called back by pcap. The native user argument is not used.
 	 * </p>
 	 * 
 	 * @see {@code typedef void (*pcap_handler)(u_char *user, const struct
@@ -214,9 +218,6 @@ public sealed class Pcap0_4 extends Pcap permits Pcap0_5 {
 	 */
 	private static final ForeignUpcall<OfRawPacket> nativeCallbackPcapHandler;
 
-	/** Foreign reference conversion between java Object and MemoryAddress. */
-	private static final ForeignReference<OfRawPacket> nativeSinkReferences;
-
 	static {
 
 		try (var foreign = new PcapForeignInitializer(Pcap0_4.class)) {
@@ -239,15 +240,14 @@ public sealed class Pcap0_4 extends Pcap permits Pcap0_5 {
 			pcap_snapshot      = foreign.downcall("pcap_snapshot(A)I"); //$NON-NLS-1$
 			pcap_major_version = foreign.downcall("pcap_major_version(A)I"); //$NON-NLS-1$
 			pcap_minor_version = foreign.downcall("pcap_minor_version(A)I"); //$NON-NLS-1$
-			pcap_file          = foreign.downcall("pcap_file(A)I"); //$NON-NLS-1$
+			pcap_file          = foreign.downcall("pcap_file(A)A"); //$NON-NLS-1$
 			pcap_fileno        = foreign.downcall("pcap_fileno(A)I"); //$NON-NLS-1$
 			pcap_dump_open     = foreign.downcall("pcap_dump_open(AA)A"); //$NON-NLS-1$
 			pcap_lookupdev     = foreign.downcall("pcap_lookupdev(A)A"); //$NON-NLS-1$
 			pcap_strerror      = foreign.downcall("pcap_strerror(I)A"); //$NON-NLS-1$
 			// @formatter:on
 
-			nativeCallbackPcapHandler = foreign.upcall(Pcap0_4.class, "nativeCallbackPcapHandler(AAA)V"); //$NON-NLS-1$
-			nativeSinkReferences = new ForeignReference<>(); // for java Object to MemoryAddress conversion
+			nativeCallbackPcapHandler = foreign.bindableUpcall(Pcap0_4.class, "nativeCallbackPcapHandler(AAA)V"); //$NON-NLS-1$
 		}
 
 	}
@@ -347,15 +347,16 @@ public sealed class Pcap0_4 extends Pcap permits Pcap0_5 {
 
 	/**
 	 * Native callback pcap handler referenced natively, so ignore 'unused' warning.
+	 * The sink is bound into each upcall stub.
 	 *
+	 * @param sink  the bound sink
 	 * @param user  the user
 	 * @param h     the h
 	 * @param bytes the bytes
 	 */
 	@SuppressWarnings("unused")
-	private static void nativeCallbackPcapHandler(MemoryAddress user, MemoryAddress h, MemoryAddress bytes) {
-		OfRawPacket sink = nativeSinkReferences.dereference(user);
-
+	private static void nativeCallbackPcapHandler(OfRawPacket sink, MemoryAddress user, MemoryAddress h,
+			MemoryAddress bytes) {
 		sink.handleRawPacket(h, bytes);
 	}
 
@@ -495,6 +496,32 @@ public sealed class Pcap0_4 extends Pcap permits Pcap0_5 {
 		return ForeignUtils.toJavaString(c_str);
 	}
 
+	/**
+	 * The last sink dispatched to and its dedicated bound upcall stub, created
+	 * once the same sink is used for a second time. The stub's session is owned by
+	 * this handle, and closed when the sink is replaced or the handle is closed.
+	 * Like the pcap handle itself, these are not thread safe.
+	 */
+	private OfRawPacket cachedSink;
+	private MemoryAddress cachedStub;
+	private MemorySession cachedStubSession;
+
+	/**
+	 * A shared upcall stub, bound to a trampoline which forwards to the current
+	 * sink, used for sinks seen for the first time. Avoids creating a new upcall
+	 * stub for every short lived sink, such as lambdas created per dispatch call.
+	 * Its session is owned by this handle and closed with it.
+	 */
+	private OfRawPacket trampolineTarget;
+	private MemoryAddress trampolineStub;
+	private MemorySession trampolineStubSession;
+
+	/** Number of dispatch or loop calls in progress, more than 1 if reentered */
+	private int sinkDepth;
+
+	/** Dispatch as a packet source, created once for cursor bulk loads */
+	private final PcapPacketSource dispatchSource = this::dispatch;
+
 	/**
 	 * Instantiates a new pcap 0 4.
 	 *
@@ -513,6 +540,15 @@ public sealed class Pcap0_4 extends Pcap permits Pcap0_5 {
 		pcap_close.invokeVoid(getPcapHandle());
 
 		closed = true;
+
+		releaseCachedStub();
+
+		if (trampolineStubSession != null) {
+			trampolineStubSession.close();
+			trampolineStubSession = null;
+			trampolineStub = null;
+			trampolineTarget = null;
+		}
 	}
 
 	/**
@@ -580,7 +616,7 @@ public sealed class Pcap0_4 extends Pcap permits Pcap0_5 {
 			MemoryAddress pcap_dump_func = pcapDumper.addressOfDumpFunction();
 			MemoryAddress pcap_dumper = pcapDumper.address();
 
-			return pcap_dispatch.invokeInt(getPcapHandle(), count, pcap_dump_func, pcap_dumper);
+			return pcap_dispatch.invokeExactInt(getPcapHandle(), count, pcap_dump_func, pcap_dumper);
 		}
 	}
 
@@ -593,19 +629,119 @@ public sealed class Pcap0_4 extends Pcap permits Pcap0_5 {
 		return PcapReceiver.commonArrayHandler(this::dispatch, count, handler, user);
 	}
 
+	/**
+	 * @see org.jnetpcap.Pcap#dispatch(int, org.jnetpcap.util.PcapHandlerChain)
+	 */
+	@Override
+	public final int dispatch(int count, PcapHandlerChain chain) {
+		return invokeWithChain(pcap_dispatch, count, chain);
+	}
+
 	/**
 	 * @see org.jnetpcap.Pcap#dispatch(int, org.jnetpcap.PcapHandler.OfRawPacket)
 	 */
 	@Override
 	public final int dispatch(int count, PcapHandler.OfRawPacket sink) {
-		try (var scope = newScope()) {
-			MemoryAddress upcall = nativeCallbackPcapHandler.address();
-			MemoryAddress user = nativeSinkReferences.reference(sink, scope);
+		return invokeWithSink(pcap_dispatch, count, sink);
+	}
+
+	/**
+	 * Invoke pcap_dispatch or pcap_loop with the chain's own upcall stub, whose
+	 * target is the chain's method handle tree.
+	 *
+	 * @param function pcap_dispatch or pcap_loop function
+	 * @param count    the count
+	 * @param chain    the handler chain
+	 * @return the pcap result code
+	 */
+	private int invokeWithChain(PcapForeignDowncall function, int count, PcapHandlerChain chain) {
+		MemoryAddress upcall = requireNonNull(chain, "chain").upcallStub();
+
+		try {
+			return function.invokeExactInt(getPcapHandle(), count, upcall, MemoryAddress.NULL);
+
+		} finally {
+			/* The chain owns the stub session, which must outlive the native call */
+			Reference.reachabilityFence(chain);
+		}
+	}
+
+	/**
+	 * Invoke pcap_dispatch or pcap_loop with an upcall stub bound to the sink. A
+	 * sink which is used repeatedly gets its own cached, bound upcall stub, while
+	 * a new sink is called through a shared trampoline stub.
+	 * 
+	 * <p>
+	 * Only the most recent sink is cached, so the bound, monomorphic stub is used
+	 * when the same sink instance is dispatched to on consecutive calls. Sinks
+	 * created anew for every call, and sinks alternated between calls, are all
+	 * called through the one trampoline call site, which the JIT sees as
+	 * megamorphic. Callers which need a monomorphic upcall should reuse a single
+	 * sink instance, as {@link PcapReceiver} does with one sink per receive mode,
+	 * or use a {@link PcapHandlerChain}, which always has its own stub.
+	 * </p>
+	 *
+	 * @param function pcap_dispatch or pcap_loop function
+	 * @param count    the count
+	 * @param sink     the sink
+	 * @return the pcap result code
+	 */
+	private int invokeWithSink(PcapForeignDowncall function, int count, OfRawPacket sink) {
+		requireNonNull(sink, "sink");
+
+		MemoryAddress upcall;
+
+		if (sink == cachedSink) {
+			if (cachedStub == null) {
+				cachedStubSession = MemorySession.openShared();
+				cachedStub = nativeCallbackPcapHandler.bindTo(sink, cachedStubSession);
+			}
+
+			upcall = cachedStub;
+
+		} else {
+
+			/* A reentrant call must not free the stub an outer call is using */
+			if (sinkDepth == 0) {
+				releaseCachedStub();
+				cachedSink = sink;
+			}
 
-			return pcap_dispatch.invokeInt(getPcapHandle(), count, upcall, user);
+			if (trampolineStub == null) {
+				trampolineStubSession = MemorySession.openShared();
+				trampolineStub = nativeCallbackPcapHandler.bindTo(
+						(h, bytes) -> trampolineTarget.handleRawPacket(h, bytes),
+						trampolineStubSession);
+			}
+
+			upcall = trampolineStub;
+		}
+
+		OfRawPacket previous = trampolineTarget;
+		trampolineTarget = sink;
+		sinkDepth++;
+
+		try {
+			return function.invokeExactInt(getPcapHandle(), count, upcall, MemoryAddress.NULL);
+
+		} finally {
+			sinkDepth--;
+			trampolineTarget = previous;
 		}
 	}
 
+	/**
+	 * Frees the cached sink's upcall stub.
+	 */
+	private void releaseCachedStub() {
+		if (cachedStubSession != null)
+			cachedStubSession.close();
+
+		cachedSink = null;
+		cachedStub = null;
+		cachedStubSession = null;
+	}
+
 	/**
 	 * @see org.jnetpcap.Pcap#dumpOpen(java.lang.String)
 	 */
@@ -670,6 +806,16 @@ public sealed class Pcap0_4 extends Pcap permits Pcap0_5 {
 		return pcap_geterr.invokeString(getPcapHandle());
 	}
 
+	/**
+	 * @see org.jnetpcap.Pcap#isOffline()
+	 */
+	@Override
+	public final boolean isOffline() {
+		MemoryAddress file = pcap_file.invokeObj(getPcapHandle());
+
+		return !MemoryAddress.NULL.equals(file);
+	}
+
 	/**
 	 * @see org.jnetpcap.Pcap#isSwapped()
 	 */
@@ -691,7 +837,7 @@ public sealed class Pcap0_4 extends Pcap permits Pcap0_5 {
 			MemoryAddress pcap_dump_func = pcapDumper.addressOfDumpFunction();
 			MemoryAddress pcap_dumper = pcapDumper.address();
 
-			return pcap_loop.invokeInt(getPcapHandle(), count, pcap_dump_func, pcap_dumper);
+			return pcap_loop.invokeExactInt(getPcapHandle(), count, pcap_dump_func, pcap_dumper);
 		}
 	}
 
@@ -704,17 +850,20 @@ public sealed class Pcap0_4 extends Pcap permits Pcap0_5 {
 		return PcapReceiver.commonArrayHandler(this::loop, count, handler, user);
 	}
 
+	/**
+	 * @see org.jnetpcap.Pcap#loop(int, org.jnetpcap.util.PcapHandlerChain)
+	 */
+	@Override
+	public final int loop(int count, PcapHandlerChain chain) {
+		return invokeWithChain(pcap_loop, count, chain);
+	}
+
 	/**
 	 * @see org.jnetpcap.Pcap#loop(int, org.jnetpcap.PcapHandler.OfRawPacket)
 	 */
 	@Override
 	protected final int loop(int count, PcapHandler.OfRawPacket sink) {
-		try (var scope = newScope()) {
-			MemoryAddress upcall = nativeCallbackPcapHandler.address();
-			MemoryAddress user = nativeSinkReferences.reference(sink, scope);
-
-			return pcap_loop.invokeInt(getPcapHandle(), count, upcall, user);
-		}
+		return invokeWithSink(pcap_loop, count, sink);
 	}
 
 	/**
@@ -754,6 +903,14 @@ public sealed class Pcap0_4 extends Pcap permits Pcap0_5 {
 				: new PcapPacketRef(hdr, pkt);
 	}
 
+	/**
+	 * @see org.jnetpcap.Pcap#next(org.jnetpcap.util.PcapCursor, int)
+	 */
+	@Override
+	public final int next(PcapCursor cursor, int count) {
+		return cursor.load(dispatchSource, count);
+	}
+
 	/**
 	 * @see org.jnetpcap.Pcap#perror(java.lang.String)
 	 */
@@ -789,13 +946,29 @@ public sealed class Pcap0_4 extends Pcap permits Pcap0_5 {
 	 */
 	@Override
 	public final PcapStat stats() throws PcapException {
-		try (var scope = newScope()) {
-			MemorySegment mseg = allocateNative(PcapConstants.PCAP_STAT_SIZE, scope);
+		try (var arena = ReusableArena.enter()) {
+			MemorySegment mseg = arena.allocate(PcapConstants.PCAP_STAT_SIZE, ADDRESS.byteAlignment());
 
-			pcap_stats.invokeInt(this::getErrorString, getPcapHandle(), mseg);
+			pcap_stats.invokeExactInt(errorStringFactory, getPcapHandle(), mseg);
 
 			return PcapStatRecord.ofMemoryPlatformDependent(mseg);
 		}
 	}
 
+	/**
+	 * @see org.jnetpcap.Pcap#stream()
+	 */
+	@Override
+	public final Stream<PcapPacketRef> stream() {
+		return stream(PcapSpliterator.DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * @see org.jnetpcap.Pcap#stream(int)
+	 */
+	@Override
+	public final Stream<PcapPacketRef> stream(int batchSize) {
+		return PcapSpliterator.stream(this::dispatch, batchSize, isOffline());
+	}
+
 }
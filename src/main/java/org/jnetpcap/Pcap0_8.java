@@ -31,9 +31,11 @@ import java.util.stream.IntStream;
 
 import org.jnetpcap.constant.PcapCode;
 import org.jnetpcap.constant.PcapDlt;
+import org.jnetpcap.constant.PcapNextStatus;
 import org.jnetpcap.internal.ForeignUtils;
 import org.jnetpcap.internal.PcapForeignDowncall;
 import org.jnetpcap.internal.PcapForeignInitializer;
+import org.jnetpcap.util.PcapCursor;
 import org.jnetpcap.util.PcapPacketRef;
 
 /**
@@ -160,6 +162,29 @@ public sealed class Pcap0_8 extends Pcap0_7 permits Pcap0_9 {
 	 */
 	private static final PcapForeignDowncall pcap_lib_version;
 
+	/**
+	 * A timeout exception without a stack trace, which is never filled in.
+	 * {@code Throwable.addSuppressed} is final and {@code TimeoutException} has no
+	 * constructor which disables suppression, so each handle keeps its own
+	 * instance, which is never shared with other handles.
+	 */
+	private static final class NextExTimeoutException extends TimeoutException {
+
+		private static final long serialVersionUID = -3307846335226370571L;
+
+		NextExTimeoutException() {
+			super("packet buffer timeout expired");
+		}
+
+		/**
+		 * @see java.lang.Throwable#fillInStackTrace()
+		 */
+		@Override
+		public synchronized Throwable fillInStackTrace() {
+			return this;
+		}
+	}
+
 	static {
 		try (var foreign = new PcapForeignInitializer(Pcap0_8.class)) {
 
@@ -353,6 +378,21 @@ public sealed class Pcap0_8 extends Pcap0_7 permits Pcap0_9 {
 		return Pcap0_4.openOffline(Pcap0_8::new, fname);
 	}
 
+	/**
+	 * Preallocated, stackless, timeout thrown by {@code nextEx} on every expired
+	 * packet buffer timeout, which on a quiet link can be thousands of times a
+	 * second. The same instance is thrown on every timeout of this handle.
+	 */
+	private final TimeoutException nextExTimeout = new NextExTimeoutException();
+
+	/**
+	 * Set by {@link #breakloop()} and cleared by the next {@code nextEx} call
+	 * which returns {@link PcapCode#PCAP_ERROR_BREAK}. On an offline handle,
+	 * libpcap returns the same code at the end of the savefile, so this flag is
+	 * what tells a break apart from EOF.
+	 */
+	private volatile boolean breakloopPending;
+
 	/**
 	 * Instantiates a new pcap 080.
 	 *
@@ -367,7 +407,8 @@ public sealed class Pcap0_8 extends Pcap0_7 permits Pcap0_9 {
 	 */
 	@Override
 	public final void breakloop() {
-		pcap_breakloop.invokeVoid(getPcapHandle());
+		breakloopPending = true;
+		pcap_breakloop.invokeExactVoid(getPcapHandle());
 	}
 
 	/**
@@ -473,30 +514,96 @@ public sealed class Pcap0_8 extends Pcap0_7 permits Pcap0_9 {
 	 */
 	@Override
 	public final PcapPacketRef nextEx() throws PcapException, TimeoutException {
-		int result = pcap_next_ex.invokeInt(
-				this::getErrorString,
+		int result = pcap_next_ex.invokeExactInt(
 				getPcapHandle(),
 				POINTER_TO_POINTER1, // hdr_p
 				POINTER_TO_POINTER2); // pkt_p
 
 		if (result == 0)
-			throw new TimeoutException();
+			throw nextExTimeout;
 
 		else if (result == PcapCode.PCAP_ERROR_BREAK)
 			return null;
 
+		else if (result < 0)
+			throw PcapException.withoutStackTrace(result, getErrorString(result));
+
 		MemoryAddress hdr = super.POINTER_TO_POINTER1.get(ADDRESS, 0);
 		MemoryAddress pkt = super.POINTER_TO_POINTER2.get(ADDRESS, 0);
 
 		return new PcapPacketRef(hdr, pkt);
 	}
 
+	/**
+	 * @see org.jnetpcap.Pcap#nextEx(org.jnetpcap.util.PcapCursor)
+	 */
+	@Override
+	public final boolean nextEx(PcapCursor cursor) throws PcapException, TimeoutException {
+		int result = pcap_next_ex.invokeExactInt(
+				getPcapHandle(),
+				POINTER_TO_POINTER1, // hdr_p
+				POINTER_TO_POINTER2); // pkt_p
+
+		if (result == 0)
+			throw nextExTimeout;
+
+		else if (result == PcapCode.PCAP_ERROR_BREAK) {
+			breakloopPending = false;
+			return false;
+		}
+
+		else if (result < 0)
+			throw PcapException.withoutStackTrace(result, getErrorString(result));
+
+		cursor.bind(
+				POINTER_TO_POINTER1.get(ADDRESS, 0),
+				POINTER_TO_POINTER2.get(ADDRESS, 0));
+
+		return true;
+	}
+
+	/**
+	 * On an offline handle, a {@link PcapCode#PCAP_ERROR_BREAK} result is
+	 * reported as {@link PcapNextStatus#BREAK} if {@link #breakloop()} was called
+	 * since the last break result, and as {@link PcapNextStatus#EOF} otherwise.
+	 * The breakloop flag is tracked by this handle and not read from libpcap, so
+	 * a break consumed by {@code dispatch} or {@code loop}, or requested while
+	 * the savefile was already at its end, is reported once as {@code BREAK} by
+	 * the next break result, and the call after it reports {@code EOF}.
+	 *
+	 * @see org.jnetpcap.Pcap#nextExStatus(org.jnetpcap.util.PcapCursor)
+	 */
+	@Override
+	public final PcapNextStatus nextExStatus(PcapCursor cursor) {
+		int result = pcap_next_ex.invokeExactInt(
+				getPcapHandle(),
+				POINTER_TO_POINTER1, // hdr_p
+				POINTER_TO_POINTER2); // pkt_p
+
+		/* Only a break result needs the extra call to tell EOF and breakloop apart */
+		boolean endOfFile = false;
+		if (result == PcapCode.PCAP_ERROR_BREAK) {
+			endOfFile = !breakloopPending && isOffline();
+			breakloopPending = false;
+		}
+
+		PcapNextStatus status = PcapNextStatus.valueOf(result, endOfFile);
+
+		if (status == PcapNextStatus.OK)
+			cursor.bind(
+					POINTER_TO_POINTER1.get(ADDRESS, 0),
+					POINTER_TO_POINTER2.get(ADDRESS, 0));
+
+		return cursor.setStatus(status, result,
+				(status == PcapNextStatus.ERROR) ? getErrorString(result) : null);
+	}
+
 	/**
 	 * @see org.jnetpcap.Pcap#sendPacket(java.lang.foreign.Addressable, int)
 	 */
 	@Override
 	protected void sendPacket(Addressable packet, int length) throws PcapException {
-		pcap_sendpacket.invokeInt(this::getErrorString, getPcapHandle(), packet, length);
+		pcap_sendpacket.invokeExactInt(errorStringFactory, getPcapHandle(), packet, length);
 	}
 
 	/**
@@ -17,13 +17,18 @@
  */
 package org.jnetpcap;
 
+import static java.lang.foreign.ValueLayout.ADDRESS;
+
 import java.lang.foreign.Addressable;
 import java.lang.foreign.MemoryAddress;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.MemorySession;
 import java.util.concurrent.TimeUnit;
 
 import org.jnetpcap.constant.PcapDlt;
 import org.jnetpcap.internal.PcapForeignDowncall;
 import org.jnetpcap.internal.PcapForeignInitializer;
+import org.jnetpcap.internal.StandardCLibrary;
 
 /**
  * Provides Pcap API method calls for up to libpcap version 0.8
@@ -100,12 +105,19 @@ public sealed class Pcap0_9 extends Pcap0_8 permits Pcap1_0 {
 	 */
 	private static final PcapForeignDowncall pcap_setdirection;
 
+	/**
+	 * @see {@code pcap_dumper_t *pcap_dump_fopen(pcap_t *p, FILE *fp)}
+	 * @since libpcap 0.9
+	 */
+	private static final PcapForeignDowncall pcap_dump_fopen;
+
 	static {
 		try (var foreign = new PcapForeignInitializer(Pcap0_9.class)) {
 
 			// @formatter:off
 			pcap_inject       = foreign.downcall("pcap_inject(AAJ)I");
 			pcap_setdirection = foreign.downcall("pcap_setdirection(AI)I");
+			pcap_dump_fopen   = foreign.downcall("pcap_dump_fopen(AA)A");
 			// @formatter:on
 
 		}
@@ -227,12 +239,43 @@ public sealed class Pcap0_9 extends Pcap0_8 permits Pcap1_0 {
 		super(pcapHandle, name);
 	}
 
+	/**
+	 * @see org.jnetpcap.Pcap#dumpOpenMemory()
+	 */
+	@Override
+	public final PcapMemoryDumper dumpOpenMemory() throws PcapException {
+		if (!StandardCLibrary.isMemstreamSupported())
+			throw new UnsupportedOperationException("open_memstream not supported on this platform");
+
+		MemorySession session = MemorySession.openShared();
+		MemorySegment cells = PcapMemoryDumper.allocateCells(session);
+
+		MemoryAddress stream = StandardCLibrary.openMemstream(cells, cells.asSlice(ADDRESS.byteSize()));
+		if (stream == MemoryAddress.NULL) {
+			session.close();
+			throw new PcapException("open_memstream failed");
+		}
+
+		try {
+			MemoryAddress pcap_dumper_ptr = pcap_dump_fopen.invokeObj(this::geterr, getPcapHandle(), stream);
+
+			return new PcapMemoryDumper(this, pcap_dumper_ptr, stream, cells, session);
+
+		} catch (PcapException | RuntimeException e) {
+			StandardCLibrary.fclose(stream);
+			StandardCLibrary.free(cells.get(ADDRESS, 0));
+			session.close();
+
+			throw e;
+		}
+	}
+
 	/**
 	 * @see org.jnetpcap.Pcap#inject(java.lang.foreign.Addressable, int)
 	 */
 	@Override
 	protected int inject(Addressable packet, int length) throws PcapException {
-		return pcap_inject.invokeInt(this::getErrorString, getPcapHandle(), packet, (long) length);
+		return pcap_inject.invokeExactInt(errorStringFactory, getPcapHandle(), packet, (long) length);
 	}
 
 	/**
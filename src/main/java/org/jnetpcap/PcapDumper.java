@@ -146,7 +146,7 @@ public class PcapDumper implements AutoCloseable, Flushable {
 	 * @since libpcap 0.4
 	 */
 	public void dump(MemoryAddress header, MemoryAddress packet) throws IOException {
-		pcap_dump.invokeVoid(header, packet, pcap_dumper_ptr);
+		pcap_dump.invokeExactVoid(pcap_dumper_ptr, header, packet);
 	}
 
 	/**
@@ -68,6 +68,19 @@ public class PcapException extends Exception {
 		}
 	}
 
+	/**
+	 * New pcap exception without a stack trace, for hot error paths such as
+	 * polling loops, where capturing the stack of every failed call would cost
+	 * far more than the failure itself.
+	 *
+	 * @param pcapErrorCode the pcap error code
+	 * @param message       the message
+	 * @return the new exception
+	 */
+	public static PcapException withoutStackTrace(int pcapErrorCode, String message) {
+		return new PcapException(pcapErrorCode, message, false);
+	}
+
 	/** The pcap error code. */
 	private final int pcapErrorCode;
 
@@ -91,6 +104,19 @@ public class PcapException extends Exception {
 		this.pcapErrorCode = pcapErrorCode;
 	}
 
+	/**
+	 * Instantiates a new pcap exception.
+	 *
+	 * @param pcapErrorCode      the pcap error code
+	 * @param message            the message
+	 * @param writableStackTrace whether or not the stack trace should be
+	 *                           captured
+	 */
+	protected PcapException(int pcapErrorCode, String message, boolean writableStackTrace) {
+		super(message, null, true, writableStackTrace);
+		this.pcapErrorCode = pcapErrorCode;
+	}
+
 	/**
 	 * Instantiates a new pcap exception.
 	 *
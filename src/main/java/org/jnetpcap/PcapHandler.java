@@ -23,6 +23,12 @@ import java.lang.foreign.MemorySegment;
 import java.lang.foreign.MemorySession;
 import java.nio.ByteBuffer;
 
+import org.jnetpcap.constant.PcapTStampPrecision;
+import org.jnetpcap.util.PacketBuffer;
+import org.jnetpcap.util.PacketBufferPool;
+import org.jnetpcap.util.PcapPacketBatch;
+import org.jnetpcap.util.PcapPacketFlyweight;
+
 /**
  * A marker interface for all Pcap packet handling functional interfaces.
  * 
@@ -70,11 +76,34 @@ public interface PcapHandler {
 		 * @param header the header
 		 * @param packet the packet
 		 * @param offset the offset
-		 * @param caplen the caplen
+		 * @param caplen the number of packet bytes copied into the array, which may
+		 *               be less than the header's capture length when the packet
+		 *               was truncated
 		 */
 		void handleArray(U user, PcapHeader header, byte[] packet, int offset, int caplen);
 	}
 
+	/**
+	 * A batch handler which receives a reusable, columnar, batch of packets. The
+	 * handler is called once per dispatch, or every time the batch fills up,
+	 * instead of once per packet. The batch and its contents are only valid for
+	 * the duration of the handler call.
+	 *
+	 * @param <U> the generic user type
+	 */
+	@FunctionalInterface
+	public interface OfBatch<U> extends PcapHandler {
+
+		/**
+		 * Batch handler method. This method get called to handle or consume a batch
+		 * of pcap packets.
+		 *
+		 * @param user  the user
+		 * @param batch the batch of packets
+		 */
+		void handleBatch(U user, PcapPacketBatch batch);
+	}
+
 	/**
 	 * A safe {@code ByteBuffer} packet handler. This handler may receive packets
 	 * either by copy or scoped to a temporal existence.
@@ -142,6 +171,46 @@ public interface PcapHandler {
 		void handleMemorySegment(U user, MemorySegment header, MemorySegment Packet, MemorySession scope);
 	}
 
+	/**
+	 * A packet handler which receives packets copied once into a
+	 * {@link PacketBufferPool}. The handler owns one reference to the packet
+	 * buffer and must either release it, or pass it on to a consumer which will.
+	 *
+	 * @param <U> the generic user type
+	 */
+	@FunctionalInterface
+	public interface OfPacketBuffer<U> extends PcapHandler {
+
+		/**
+		 * Packet handler method. This method get called to handle or consume a pcap
+		 * packet.
+		 *
+		 * @param user   the user
+		 * @param packet the pooled packet buffer, holding one reference
+		 */
+		void handlePacketBuffer(U user, PacketBuffer packet);
+	}
+
+	/**
+	 * A zero garbage packet handler which receives a reusable flyweight, rebound
+	 * to the native header and packet data for every packet. The flyweight and any
+	 * data read through it are only valid for the duration of the handler call.
+	 *
+	 * @param <U> the generic user type
+	 */
+	@FunctionalInterface
+	public interface OfPacketFlyweight<U> extends PcapHandler {
+
+		/**
+		 * Packet handler method. This method get called to handle or consume a pcap
+		 * packet.
+		 *
+		 * @param user   the user
+		 * @param packet the packet flyweight bound to the current packet
+		 */
+		void handlePacket(U user, PcapPacketFlyweight packet);
+	}
+
 	/**
 	 * Low level packet handler interface.
 	 */
@@ -158,6 +227,29 @@ public interface PcapHandler {
 		void handleRawPacket(Addressable headerAddress, Addressable packetAddress);
 	}
 
+	/**
+	 * An advanced low level, no copy, handler which receives a contiguous block of
+	 * pcap records, as stored in ''savefiles'', produced natively by a single
+	 * dispatch call. Each record consists of a 16 byte compact header in native
+	 * byte order, followed by {@code caplen} bytes of packet data. The block is
+	 * only valid for the duration of the handler call.
+	 *
+	 * @param <U> the generic user type
+	 * @see PcapMemoryDumper
+	 */
+	@FunctionalInterface
+	public interface OfRecordBlock<U> extends PcapHandler {
+
+		/**
+		 * Record block handler method.
+		 *
+		 * @param user    the user
+		 * @param records the block of pcap records
+		 * @param count   the number of records in the block
+		 */
+		void handleRecordBlock(U user, MemorySegment records, int count);
+	}
+
 	/**
 	 * A marker interface implemented by all packet sinks. A packet sink consumes
 	 * raw packets which contain DLT header.
@@ -205,6 +297,16 @@ public interface PcapHandler {
 			 * @return the int
 			 */
 			int sourcePackets(int count, OfRawPacket handler);
+
+			/**
+			 * The time stamp precision of the packets from this source, used by
+			 * receivers to interpret the headers' fraction of a second.
+			 *
+			 * @return the time stamp precision, microseconds by default
+			 */
+			default PcapTStampPrecision tstampPrecision() {
+				return PcapTStampPrecision.TSTAMP_PRECISION_MICRO;
+			}
 		}
 	}
 }
@@ -37,7 +37,7 @@ import org.jnetpcap.internal.PcapHeaderABI;
  * @author mark
  *
  */
-public sealed interface PcapHeader permits PcapHeaderMemory, PcapHeaderBuffer, PcapHeaderRecord, PcapHeaderObject {
+public sealed interface PcapHeader permits PcapHeaderMemory, PcapHeaderBuffer, PcapHeaderRecord, PcapHeaderObject, PcapHeaderFlyweight {
 
 	/**
 	 * The normal header length is 16 bytes. This is when all of the pcap header
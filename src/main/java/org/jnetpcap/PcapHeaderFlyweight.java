@@ -0,0 +1,226 @@
+/*
+ * Apache License, Version 2.0
+ *
+ * Copyright 2013-2022 Sly Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jnetpcap;
+
+import java.lang.foreign.Addressable;
+import java.lang.foreign.MemoryAddress;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteOrder;
+
+import org.jnetpcap.internal.PcapHeaderABI;
+
+/**
+ * A mutable, re-pointable, read-only view of a native pcap header. A single
+ * flyweight instance is rebound to a new native header address for every
+ * packet received, and reads the header fields directly from native memory
+ * using the platform's pcap header ABI, without allocating any objects.
+ *
+ * <p>
+ * The flyweight is only valid while bound to a header, typically for the
+ * duration of a packet handler call. Use {@link #asReadOnly()} to obtain a
+ * detached copy of the header which can be retained.
+ * </p>
+ *
+ * @author Sly Technologies Inc
+ * @author repos@slytechs.com
+ * @author mark
+ */
+public final class PcapHeaderFlyweight implements PcapHeader {
+
+	private static UnsupportedOperationException readOnlyError() {
+		return new UnsupportedOperationException("read-only pcap header");
+	}
+
+	/**
+	 * New, unbound, flyweight for compact, 16 byte, headers as stored in
+	 * ''savefiles'' and in blocks of records produced by {@link PcapMemoryDumper},
+	 * in native byte order.
+	 *
+	 * @return the new flyweight
+	 */
+	public static PcapHeaderFlyweight ofCompactHeader() {
+		return new PcapHeaderFlyweight(PcapHeaderABI.compactAbi());
+	}
+
+	private MemoryAddress address = MemoryAddress.NULL;
+	private PcapHeaderABI abi;
+
+	/**
+	 * Instantiates a new, unbound, flyweight using the native pcap header ABI.
+	 */
+	public PcapHeaderFlyweight() {
+		this.abi = PcapHeaderABI.nativeAbi();
+	}
+
+	/**
+	 * Instantiates a new, unbound, flyweight using specific pcap header ABI.
+	 *
+	 * @param abi the pcap header ABI used to read the header fields
+	 */
+	private PcapHeaderFlyweight(PcapHeaderABI abi) {
+		this.abi = abi;
+	}
+
+	/**
+	 * The native address this flyweight is currently bound to.
+	 *
+	 * @return the native header address or {@code MemoryAddress.NULL} if not bound
+	 * @see org.jnetpcap.PcapHeader#asMemoryReference()
+	 */
+	@Override
+	public Addressable asMemoryReference() {
+		return address;
+	}
+
+	/**
+	 * Returns a detached, read-only copy of the currently bound header values,
+	 * which is safe to retain after the flyweight is rebound.
+	 *
+	 * @see org.jnetpcap.PcapHeader#asReadOnly()
+	 */
+	@Override
+	public PcapHeader asReadOnly() {
+		return new PcapHeaderRecord(tvSec(), tvUsec(), captureLength(), wireLength(), order());
+	}
+
+	/**
+	 * Rebind this flyweight to a new native header.
+	 *
+	 * @param header the native pcap header address
+	 * @return this flyweight
+	 */
+	public PcapHeaderFlyweight bind(Addressable header) {
+		this.address = header.address();
+
+		return this;
+	}
+
+	/**
+	 * @see org.jnetpcap.PcapHeader#captureLength()
+	 */
+	@Override
+	public int captureLength() {
+		return abi.captureLength(address);
+	}
+
+	/**
+	 * @see org.jnetpcap.PcapHeader#copyTo(java.lang.foreign.MemorySegment)
+	 */
+	@Override
+	public int copyTo(MemorySegment dst) {
+		return PcapHeader.write(tvSec(), tvUsec(), captureLength(), wireLength(), dst, order());
+	}
+
+	/**
+	 * Checks if this flyweight is currently bound to a native header.
+	 *
+	 * @return true, if bound
+	 */
+	public boolean isBound() {
+		return address != MemoryAddress.NULL;
+	}
+
+	/**
+	 * Flyweight headers are always read-only views of native memory.
+	 *
+	 * @see org.jnetpcap.PcapHeader#isReadOnly()
+	 */
+	@Override
+	public boolean isReadOnly() {
+		return true;
+	}
+
+	/**
+	 * @see org.jnetpcap.PcapHeader#order()
+	 */
+	@Override
+	public ByteOrder order() {
+		return abi.order();
+	}
+
+	/**
+	 * @see org.jnetpcap.PcapHeader#order(java.nio.ByteOrder)
+	 */
+	@Override
+	public PcapHeader order(ByteOrder newOrder) {
+		this.abi = (abi.headerLength() == PCAP_HEADER_LENGTH)
+				? PcapHeaderABI.compactAbi(newOrder)
+				: PcapHeaderABI.paddedAbi(newOrder);
+
+		return this;
+	}
+
+	/**
+	 * @see org.jnetpcap.PcapHeader#set(long, long, int, int)
+	 */
+	@Override
+	public PcapHeader set(long tvSec, long tvUsec, int caplen, int wirelen) {
+		throw readOnlyError();
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		if (!isBound())
+			return "PcapHeaderFlyweight [unbound]";
+
+		return "PcapHeaderFlyweight"
+				+ " [tvSec=" + tvSec()
+				+ ", tvUsec=" + tvUsec()
+				+ ", captureLength=" + captureLength()
+				+ ", wireLength=" + wireLength()
+				+ "]";
+	}
+
+	/**
+	 * @see org.jnetpcap.PcapHeader#tvSec()
+	 */
+	@Override
+	public long tvSec() {
+		return abi.tvSec(address);
+	}
+
+	/**
+	 * @see org.jnetpcap.PcapHeader#tvUsec()
+	 */
+	@Override
+	public long tvUsec() {
+		return abi.tvUsec(address);
+	}
+
+	/**
+	 * Unbind this flyweight from the native header.
+	 *
+	 * @return this flyweight
+	 */
+	public PcapHeaderFlyweight unbind() {
+		this.address = MemoryAddress.NULL;
+
+		return this;
+	}
+
+	/**
+	 * @see org.jnetpcap.PcapHeader#wireLength()
+	 */
+	@Override
+	public int wireLength() {
+		return abi.wireLength(address);
+	}
+}
@@ -0,0 +1,215 @@
+/*
+ * Apache License, Version 2.0
+ *
+ * Copyright 2013-2022 Sly Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jnetpcap;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+
+import java.lang.foreign.MemoryAddress;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.MemorySession;
+import java.lang.foreign.ValueLayout.OfInt;
+
+import org.jnetpcap.internal.PcapHeaderABI;
+import org.jnetpcap.internal.StandardCLibrary;
+
+/**
+ * A pcap dumper which writes to an in-memory C stream, instead of a file. Used
+ * to capture packets in batches without any java upcalls.
+ *
+ * <p>
+ * The native {@code pcap_dump} function is passed directly to
+ * {@code pcap_dispatch} as the callback, which writes each packet as a pcap
+ * record into a memory stream opened with {@code open_memstream}. After each
+ * dispatch, the records written are handed to java as a single contiguous
+ * off-heap memory block and the stream is rewound for the next dispatch.
+ * </p>
+ *
+ * <pre>
+ * <code>
+try (Pcap pcap = Pcap.openOffline(PCAP_FILE);
+		PcapMemoryDumper dumper = pcap.dumpOpenMemory()) {
+
+	while (dumper.dispatch(100, (user, records, count) -> parse(records, count), "") > 0)
+		;
+}
+ * </code>
+ * </pre>
+ *
+ * <p>
+ * Each record in a block is a 16 byte compact pcap header, in native byte
+ * order, followed by {@code caplen} bytes of packet data.
+ * </p>
+ *
+ * @author Sly Technologies Inc
+ * @author repos@slytechs.com
+ * @author mark
+ * @since libpcap 0.9
+ */
+public final class PcapMemoryDumper extends PcapDumper {
+
+	/** Records written by pcap_dump are always in compact, host byte order. */
+	private static final PcapHeaderABI RECORD_ABI = PcapHeaderABI.compactAbi();
+	private static final OfInt RECORD_INT = JAVA_INT.withOrder(RECORD_ABI.order());
+	private static final int RECORD_HEADER_LENGTH = RECORD_ABI.headerLength();
+	private static final int CAPLEN_OFFSET = RECORD_ABI.captureLengthOffset();
+
+	/**
+	 * Allocates the pointer cells which receive the memstream buffer address and
+	 * size.
+	 *
+	 * @param session the session
+	 * @return the cells segment
+	 */
+	static MemorySegment allocateCells(MemorySession session) {
+		return MemorySegment.allocateNative(ADDRESS.byteSize() * 2, ADDRESS.byteAlignment(), session);
+	}
+
+	private final Pcap pcap;
+	private final MemoryAddress stream;
+	private final MemorySegment cells;
+	private final MemorySession session;
+
+	/** Stream position right after the pcap file header */
+	private final long recordsStart;
+
+	/**
+	 * Instantiates a new in-memory pcap dumper.
+	 *
+	 * @param pcap        the pcap handle used for dispatching
+	 * @param pcap_dumper pcap_dumper_t opened on the stream
+	 * @param stream      the memstream FILE
+	 * @param cells       the buffer address and size cells
+	 * @param session     the session which owns the cells
+	 */
+	PcapMemoryDumper(Pcap pcap, MemoryAddress pcap_dumper, MemoryAddress stream, MemorySegment cells,
+			MemorySession session) {
+		super(pcap_dumper, "memstream");
+		this.pcap = pcap;
+		this.stream = stream;
+		this.cells = cells;
+		this.session = session;
+
+		StandardCLibrary.fflush(stream);
+		this.recordsStart = StandardCLibrary.ftell(stream);
+	}
+
+	/**
+	 * Closes the dumper, the underlying stream and releases the memory buffer.
+	 *
+	 * @see org.jnetpcap.PcapDumper#close()
+	 */
+	@Override
+	public void close() {
+		super.close(); // pcap_dump_close also fcloses the stream
+
+		StandardCLibrary.free(cells.get(ADDRESS, 0));
+		session.close();
+	}
+
+	/**
+	 * Dispatch up to count packets natively into the memory stream and hand all of
+	 * the records captured to the handler as a single block.
+	 *
+	 * @param <U>     the generic user type
+	 * @param count   maximum number of packets to process
+	 * @param handler the record block handler
+	 * @param user    the user opaque data object
+	 * @return the number of packets processed, 0 or less on error, timeout or end
+	 *         of file (see {@link Pcap#dispatch(int, PcapDumper)})
+	 * @throws PcapException any pcap errors
+	 */
+	public <U> int dispatch(int count, PcapHandler.OfRecordBlock<U> handler, U user) throws PcapException {
+		int result = pcap.dispatch(count, this);
+		try {
+			if (result > 0)
+				handler.handleRecordBlock(user, records(), result);
+
+		} finally {
+			rewind();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Dispatch up to count packets natively into the memory stream and then
+	 * iterate over the records captured in a tight loop. The header segment is in
+	 * the compact, 16 byte, pcap record format.
+	 *
+	 * @param <U>     the generic user type
+	 * @param count   maximum number of packets to process
+	 * @param handler the memory segment handler
+	 * @param user    the user opaque data object
+	 * @return the number of packets processed, 0 or less on error, timeout or end
+	 *         of file (see {@link Pcap#dispatch(int, PcapDumper)})
+	 * @throws PcapException any pcap errors
+	 */
+	public <U> int dispatch(int count, PcapHandler.OfMemorySegment<U> handler, U user) throws PcapException {
+		return dispatch(count, (u, records, n) -> {
+			long limit = records.byteSize();
+			long offset = 0;
+
+			while (offset + RECORD_HEADER_LENGTH <= limit) {
+				int caplen = records.get(RECORD_INT, offset + CAPLEN_OFFSET);
+
+				MemorySegment header = records.asSlice(offset, RECORD_HEADER_LENGTH);
+				MemorySegment packet = records.asSlice(offset + RECORD_HEADER_LENGTH, caplen);
+
+				handler.handleMemorySegment(u, header, packet, session);
+
+				offset += RECORD_HEADER_LENGTH + caplen;
+			}
+		}, user);
+	}
+
+	/**
+	 * Flushes the stream and returns a view of all the records written since the
+	 * last {@link #rewind()}. The view is valid until the next rewind or close.
+	 *
+	 * @return the block of pcap records
+	 */
+	public MemorySegment records() {
+		if (!session.isAlive())
+			throw new IllegalStateException("already closed");
+
+		StandardCLibrary.fflush(stream);
+		long end = StandardCLibrary.ftell(stream);
+
+		/* Buffer may be reallocated by the C library on every write, reload it */
+		MemoryAddress buffer = cells.get(ADDRESS, 0);
+
+		return MemorySegment.ofAddress(buffer.addOffset(recordsStart), end - recordsStart, session);
+	}
+
+	/**
+	 * Rewinds the stream to the first record, right after the pcap file header.
+	 * Any subsequent packets dumped will overwrite the previous records.
+	 */
+	public void rewind() {
+		StandardCLibrary.fseek(stream, recordsStart, StandardCLibrary.SEEK_SET);
+	}
+
+	/**
+	 * @see org.jnetpcap.PcapDumper#toString()
+	 */
+	@Override
+	public String toString() {
+		return "PcapMemoryDumper [pcap=" + pcap + "]";
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * Apache License, Version 2.0
+ *
+ * Copyright 2013-2022 Sly Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jnetpcap.constant;
+
+/**
+ * Outcome of a non-throwing {@code nextEx} call, decoded from the return value
+ * of pcap_next_ex(3PCAP).
+ *
+ * @author Sly Technologies
+ * @author repos@slytechs.com
+ */
+public enum PcapNextStatus {
+
+	/** A packet was read without problems. */
+	OK,
+	/** Packets are being read from a live capture and the buffer timeout expired. */
+	TIMEOUT,
+	/** Packets are being read from a ``savefile'' and there are no more packets. */
+	EOF,
+	/**
+	 * The loop was broken out of with {@code breakloop}. On an offline handle,
+	 * libpcap returns the same code at the end of the savefile, and the handle
+	 * tells the two apart by tracking its own {@code breakloop} calls.
+	 */
+	BREAK,
+	/** An error occurred while reading the packet. */
+	ERROR,
+
+	;
+
+	/**
+	 * Decodes a pcap_next_ex return value. Libpcap returns
+	 * {@link PcapCode#PCAP_ERROR_BREAK} both at the end of a savefile and after a
+	 * breakloop, which libpcap does not tell apart. The caller decides which one
+	 * it was, for example by tracking its own breakloop calls.
+	 *
+	 * @param result  the pcap_next_ex return value
+	 * @param offline true, if a {@link PcapCode#PCAP_ERROR_BREAK} result is the
+	 *                end of a savefile and not a breakloop
+	 * @return the status
+	 */
+	public static PcapNextStatus valueOf(int result, boolean offline) {
+		if (result == 1)
+			return OK;
+
+		if (result == 0)
+			return TIMEOUT;
+
+		if (result == PcapCode.PCAP_ERROR_BREAK)
+			return offline ? EOF : BREAK;
+
+		return ERROR;
+	}
+
+	/**
+	 * Checks if the status indicates that a packet was read.
+	 *
+	 * @return true, if ok
+	 */
+	public boolean isOk() {
+		return this == OK;
+	}
+}
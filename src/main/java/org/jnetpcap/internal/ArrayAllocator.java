@@ -19,20 +19,26 @@ package org.jnetpcap.internal;
 
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.ValueLayout;
+import java.util.function.Consumer;
 import java.util.function.IntFunction;
 
 /**
- * Arena array block allocator utility. 
+ * Arena array block allocator utility. Allocations are made back to back
+ * within large byte array blocks. When an allocation does not fit into the
+ * remaining space of the current block, the block is retired and handed to the
+ * block recycler, and a new block is requested from the block allocator.
  */
 public class ArrayAllocator {
 	public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
 
 	private final IntFunction<byte[]> blockAllocator;
-	private int blockSize = DEFAULT_BLOCK_SIZE; // 1MB
+	private final Consumer<byte[]> blockRecycler;
+	private final int blockSize;
 
 	private byte[] array;
-	private int offset;
-	private int length;
+	private int position; // next free byte in current block
+	private int offset; // offset of the last allocation
+	private int length; // length of the last allocation
 
 	public ArrayAllocator() {
 		this(byte[]::new);
@@ -43,31 +49,54 @@ public class ArrayAllocator {
 	}
 
 	ArrayAllocator(IntFunction<byte[]> blockAllocator, int blockSize) {
+		this(blockAllocator, blockSize, block -> {});
+	}
+
+	/**
+	 * Instantiates a new array allocator.
+	 *
+	 * @param blockAllocator allocates new blocks, of at least the requested size
+	 * @param blockSize      the default block size
+	 * @param blockRecycler  receives every block retired by the allocator, once
+	 *                       no more allocations will be made from it
+	 */
+	public ArrayAllocator(IntFunction<byte[]> blockAllocator, int blockSize, Consumer<byte[]> blockRecycler) {
+		if (blockSize <= 0)
+			throw new IllegalArgumentException("invalid block size (%d)".formatted(blockSize));
+
 		this.blockAllocator = blockAllocator;
 		this.blockSize = blockSize;
+		this.blockRecycler = blockRecycler;
 	}
 
 	public int allocate(int len) {
-		offset += len; // advance
+		if (array == null || position + len > array.length) {
+			retire();
 
-		if (array == null || offset + len >= array.length) {
-			offset = 0;
 			array = blockAllocator.apply(len > blockSize ? len : blockSize);
 			assert array.length >= len;
 		}
 
-		int allocatedOffset = offset;
-
-		offset += len;
+		offset = position;
+		position += len;
 		length = len;
 
-		return allocatedOffset;
+		return offset;
 	}
 
 	public byte[] array() {
 		return array;
 	}
 
+	public int blockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * Copies the memory segment into the last allocation.
+	 *
+	 * @param mseg the source segment, at least {@link #length()} bytes long
+	 */
 	public void copy(MemorySegment mseg) {
 		MemorySegment.copy(mseg, ValueLayout.JAVA_BYTE, 0, array, offset, length);
 	}
@@ -79,4 +108,19 @@ public class ArrayAllocator {
 	public int offset() {
 		return offset;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Retires the current block, if any, handing it to the block recycler. The
+	 * next allocation will start a new block.
+	 */
+	public void retire() {
+		byte[] block = array;
+		if (block == null)
+			return;
+
+		array = null;
+		position = offset = length = 0;
+
+		blockRecycler.accept(block);
+	}
+}
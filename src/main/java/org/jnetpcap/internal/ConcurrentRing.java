@@ -0,0 +1,150 @@
+/*
+ * Apache License, Version 2.0
+ *
+ * Copyright 2013-2022 Sly Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jnetpcap.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free, multi-producer multi-consumer ring buffer. Each slot
+ * carries a sequence number which tells producers and consumers whether the
+ * slot is free for writing or ready for reading, so neither side ever blocks
+ * or takes a lock. Offers and polls do not allocate.
+ *
+ * @param <E> the element type
+ * @author Sly Technologies Inc
+ * @author repos@slytechs.com
+ * @author mark
+ */
+public final class ConcurrentRing<E> {
+
+	private final AtomicReferenceArray<E> elements;
+	private final AtomicLongArray sequences;
+	private final int mask;
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * Instantiates a new ring.
+	 *
+	 * @param capacity the capacity, rounded up to the next power of 2
+	 */
+	public ConcurrentRing(int capacity) {
+		if (capacity <= 0 || capacity > (1 << 30))
+			throw new IllegalArgumentException("invalid capacity (%d)".formatted(capacity));
+
+		int size = Integer.highestOneBit(capacity - 1) << 1;
+		if (size == 0)
+			size = 1;
+
+		this.mask = size - 1;
+		this.elements = new AtomicReferenceArray<>(size);
+		this.sequences = new AtomicLongArray(size);
+
+		for (int i = 0; i < size; i++)
+			sequences.set(i, i);
+	}
+
+	/**
+	 * The ring's capacity.
+	 *
+	 * @return the capacity
+	 */
+	public int capacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * Checks if the ring is empty.
+	 *
+	 * @return true, if empty at the time of the call
+	 */
+	public boolean isEmpty() {
+		return head.get() >= tail.get();
+	}
+
+	/**
+	 * Offers a new element to the ring.
+	 *
+	 * @param e the non-null element
+	 * @return true, if added, or false if the ring is full
+	 */
+	public boolean offer(E e) {
+		for (;;) {
+			long pos = tail.get();
+			int index = (int) pos & mask;
+			long diff = sequences.get(index) - pos;
+
+			if (diff == 0) {
+				if (tail.compareAndSet(pos, pos + 1)) {
+					elements.lazySet(index, e);
+					sequences.set(index, pos + 1);
+
+					return true;
+				}
+
+			} else if (diff < 0) {
+				return false; // Full
+
+			} else {
+				Thread.onSpinWait();
+			}
+		}
+	}
+
+	/**
+	 * Removes the next element from the ring.
+	 *
+	 * @return the element, or null if the ring is empty
+	 */
+	public E poll() {
+		for (;;) {
+			long pos = head.get();
+			int index = (int) pos & mask;
+			long diff = sequences.get(index) - (pos + 1);
+
+			if (diff == 0) {
+				if (head.compareAndSet(pos, pos + 1)) {
+					E e = elements.get(index);
+					elements.lazySet(index, null);
+					sequences.set(index, pos + mask + 1);
+
+					return e;
+				}
+
+			} else if (diff < 0) {
+				return null; // Empty
+
+			} else {
+				Thread.onSpinWait();
+			}
+		}
+	}
+
+	/**
+	 * Number of elements in the ring, at the time of the call.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		long size = tail.get() - head.get();
+
+		return (int) Math.max(0, Math.min(size, capacity()));
+	}
+}
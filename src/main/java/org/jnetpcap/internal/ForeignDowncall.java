@@ -17,15 +17,36 @@
  */
 package org.jnetpcap.internal;
 
+import java.lang.foreign.Addressable;
 import java.lang.foreign.MemoryAddress;
 import java.lang.foreign.MemorySegment;
 import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
 import java.util.Objects;
 import java.util.function.Function;
 import java.util.function.IntFunction;
 import java.util.function.LongFunction;
 import java.util.function.Supplier;
 
+/**
+ * A native C function downcall.
+ * 
+ * <p>
+ * The generic {@code invokeXXX(Object...)} methods go through
+ * {@code MethodHandle.invokeWithArguments} which allocates a varargs array and
+ * boxes every primitive argument and return value on every call. The
+ * {@code invokeExactXXX} methods, on the other hand, are specialized per native
+ * signature and call {@code MethodHandle.invokeExact} on the exactly typed
+ * handle produced by {@link ForeignInitializer}, with no allocation per call.
+ * Those should be used on any per-packet hot path. The native function
+ * signature must match the invoker's signature exactly, i.e. a
+ * {@code "pcap_dispatch(AIAA)I"} downcall must be called using
+ * {@link #invokeExactInt(Addressable, int, Addressable, Addressable)}, or a
+ * {@code WrongMethodTypeException} is thrown.
+ * </p>
+ *
+ * @param <E> the exception type thrown by the validating invokers
+ */
 public class ForeignDowncall<E extends Throwable> {
 
 	private final MethodHandle handle;
@@ -232,6 +253,320 @@ public class ForeignDowncall<E extends Throwable> {
 		}
 	}
 
+	/**
+	 * Exact invoker for {@code (A)I} native signature.
+	 *
+	 * @param a1 1st pointer argument
+	 * @return the native int result
+	 */
+	public int invokeExactInt(Addressable a1) {
+		try {
+			return (int) handle().invokeExact(a1);
+		} catch (RuntimeException e) {
+			throw e;
+
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Exact invoker for {@code (AA)I} native signature.
+	 *
+	 * @param a1 1st pointer argument
+	 * @param a2 2nd pointer argument
+	 * @return the native int result
+	 */
+	public int invokeExactInt(Addressable a1, Addressable a2) {
+		try {
+			return (int) handle().invokeExact(a1, a2);
+		} catch (RuntimeException e) {
+			throw e;
+
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Exact invoker for {@code (AAA)I} native signature.
+	 *
+	 * @param a1 1st pointer argument
+	 * @param a2 2nd pointer argument
+	 * @param a3 3rd pointer argument
+	 * @return the native int result
+	 */
+	public int invokeExactInt(Addressable a1, Addressable a2, Addressable a3) {
+		try {
+			return (int) handle().invokeExact(a1, a2, a3);
+		} catch (RuntimeException e) {
+			throw e;
+
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Exact invoker for {@code (AAI)I} native signature.
+	 *
+	 * @param a1 1st pointer argument
+	 * @param a2 2nd pointer argument
+	 * @param i3 3rd int argument
+	 * @return the native int result
+	 */
+	public int invokeExactInt(Addressable a1, Addressable a2, int i3) {
+		try {
+			return (int) handle().invokeExact(a1, a2, i3);
+		} catch (RuntimeException e) {
+			throw e;
+
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Exact invoker for {@code (AAJ)I} native signature.
+	 *
+	 * @param a1 1st pointer argument
+	 * @param a2 2nd pointer argument
+	 * @param j3 3rd long argument
+	 * @return the native int result
+	 */
+	public int invokeExactInt(Addressable a1, Addressable a2, long j3) {
+		try {
+			return (int) handle().invokeExact(a1, a2, j3);
+		} catch (RuntimeException e) {
+			throw e;
+
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Exact invoker for {@code (AIAA)I} native signature.
+	 *
+	 * @param a1 1st pointer argument
+	 * @param i2 2nd int argument
+	 * @param a3 3rd pointer argument
+	 * @param a4 4th pointer argument
+	 * @return the native int result
+	 */
+	public int invokeExactInt(Addressable a1, int i2, Addressable a3, Addressable a4) {
+		try {
+			return (int) handle().invokeExact(a1, i2, a3, a4);
+		} catch (RuntimeException e) {
+			throw e;
+
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Exact invoker for {@code (AJI)I} native signature.
+	 *
+	 * @param a1 1st pointer argument
+	 * @param j2 2nd long argument
+	 * @param i3 3rd int argument
+	 * @return the native int result
+	 */
+	public int invokeExactInt(Addressable a1, long j2, int i3) {
+		try {
+			return (int) handle().invokeExact(a1, j2, i3);
+		} catch (RuntimeException e) {
+			throw e;
+
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Exact invoker for {@code ()I} native signature.
+	 *
+	 * @return the native int result
+	 */
+	public int invokeExactInt() {
+		try {
+			return (int) handle().invokeExact();
+		} catch (RuntimeException e) {
+			throw e;
+
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Exact invoker for {@code (IJA)I} native signature.
+	 *
+	 * @param i1 1st int argument
+	 * @param j2 2nd long argument
+	 * @param a3 3rd pointer argument
+	 * @return the native int result
+	 */
+	public int invokeExactInt(int i1, long j2, Addressable a3) {
+		try {
+			return (int) handle().invokeExact(i1, j2, a3);
+		} catch (RuntimeException e) {
+			throw e;
+
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Exact invoker for {@code (A)J} native signature.
+	 *
+	 * @param a1 1st pointer argument
+	 * @return the native long result
+	 */
+	public long invokeExactLong(Addressable a1) {
+		try {
+			return (long) handle().invokeExact(a1);
+		} catch (RuntimeException e) {
+			throw e;
+
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Exact invoker for {@code (AA)A} native signature.
+	 *
+	 * @param a1 1st pointer argument
+	 * @param a2 2nd pointer argument
+	 * @return the native pointer result
+	 */
+	public MemoryAddress invokeExactObj(Addressable a1, Addressable a2) {
+		try {
+			return (MemoryAddress) handle().invokeExact(a1, a2);
+		} catch (RuntimeException e) {
+			throw e;
+
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Exact invoker for {@code (A)V} native signature.
+	 *
+	 * @param a1 1st pointer argument
+	 */
+	public void invokeExactVoid(Addressable a1) {
+		try {
+			handle().invokeExact(a1);
+		} catch (RuntimeException e) {
+			throw e;
+
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Exact invoker for {@code (AAA)V} native signature.
+	 *
+	 * @param a1 1st pointer argument
+	 * @param a2 2nd pointer argument
+	 * @param a3 3rd pointer argument
+	 */
+	public void invokeExactVoid(Addressable a1, Addressable a2, Addressable a3) {
+		try {
+			handle().invokeExact(a1, a2, a3);
+		} catch (RuntimeException e) {
+			throw e;
+
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Exact invoker for {@code (AIAA)I} native signature which validates the
+	 * result, the same way as {@link #invokeInt(IntFunction, Object...)}.
+	 *
+	 * @param messageFactory error message factory, invoked only on error
+	 * @param a1             1st pointer argument
+	 * @param i2             2nd int argument
+	 * @param a3             3rd pointer argument
+	 * @param a4             4th pointer argument
+	 * @return the native int result
+	 * @throws E on negative native result
+	 */
+	public int invokeExactInt(IntFunction<String> messageFactory, Addressable a1, int i2, Addressable a3,
+			Addressable a4) throws E {
+		int result = invokeExactInt(a1, i2, a3, a4);
+
+		validateInt(result, messageFactory);
+
+		return result;
+	}
+
+	/**
+	 * Exact invoker for {@code (AA)I} native signature which validates the
+	 * result, the same way as {@link #invokeInt(IntFunction, Object...)}.
+	 *
+	 * @param messageFactory error message factory, invoked only on error
+	 * @param a1             1st pointer argument
+	 * @param a2             2nd pointer argument
+	 * @return the native int result
+	 * @throws E on negative native result
+	 */
+	public int invokeExactInt(IntFunction<String> messageFactory, Addressable a1, Addressable a2) throws E {
+		int result = invokeExactInt(a1, a2);
+
+		validateInt(result, messageFactory);
+
+		return result;
+	}
+
+	/**
+	 * Exact invoker for {@code (AAI)I} native signature which validates the
+	 * result, the same way as {@link #invokeInt(IntFunction, Object...)}.
+	 *
+	 * @param messageFactory error message factory, invoked only on error
+	 * @param a1             1st pointer argument
+	 * @param a2             2nd pointer argument
+	 * @param i3             3rd int argument
+	 * @return the native int result
+	 * @throws E on negative native result
+	 */
+	public int invokeExactInt(IntFunction<String> messageFactory, Addressable a1, Addressable a2, int i3)
+			throws E {
+		int result = invokeExactInt(a1, a2, i3);
+
+		validateInt(result, messageFactory);
+
+		return result;
+	}
+
+	/**
+	 * Exact invoker for {@code (AAJ)I} native signature which validates the
+	 * result, the same way as {@link #invokeInt(IntFunction, Object...)}.
+	 *
+	 * @param messageFactory error message factory, invoked only on error
+	 * @param a1             1st pointer argument
+	 * @param a2             2nd pointer argument
+	 * @param j3             3rd long argument
+	 * @return the native int result
+	 * @throws E on negative native result
+	 */
+	public int invokeExactInt(IntFunction<String> messageFactory, Addressable a1, Addressable a2, long j3)
+			throws E {
+		int result = invokeExactInt(a1, a2, j3);
+
+		validateInt(result, messageFactory);
+
+		return result;
+	}
+
 	public boolean isNativeSymbolResolved() {
 		return handle != null;
 	}
@@ -244,6 +579,16 @@ public class ForeignDowncall<E extends Throwable> {
 		return symbolName;
 	}
 
+	/**
+	 * The exact method type of the native downcall handle, which determines which
+	 * of the {@code invokeExactXXX} invokers can be used with this function.
+	 *
+	 * @return the method type
+	 */
+	public MethodType type() {
+		return handle().type();
+	}
+
 	protected void validateInt(int value, IntFunction<String> errorFactory) throws E {
 		if (value < 0)
 			throw exceptionFactory.apply(errorFactory.apply(value));
@@ -149,6 +149,9 @@ public class ForeignInitializer<T extends ForeignDowncall<E>, E extends Throwabl
 
 	private static final SymbolLookup C_SYMBOLS = SymbolLookup.loaderLookup();
 	private static final Linker C_LINKER = Linker.nativeLinker();
+
+	/** Fallback lookup for standard C library symbols (libc, etc.) */
+	private static final SymbolLookup C_STDLIB_SYMBOLS = C_LINKER.defaultLookup();
 	private static final MethodHandles.Lookup J_LOOKUP = MethodHandles.lookup();
 
 	@SuppressWarnings({ "unchecked",
@@ -277,6 +280,9 @@ public class ForeignInitializer<T extends ForeignDowncall<E>, E extends Throwabl
 
 	private MemorySegment resolveSymbol(String symbolName) throws NoSuchElementException {
 		Optional<MemorySegment> symbol = C_SYMBOLS.lookup(symbolName);
+		if (symbol.isEmpty())
+			symbol = C_STDLIB_SYMBOLS.lookup(symbolName);
+
 		if (symbol.isEmpty())
 			throw new NoSuchElementException("native C symbol \"" + symbolName + "\" not found");
 
@@ -304,6 +310,25 @@ public class ForeignInitializer<T extends ForeignDowncall<E>, E extends Throwabl
 	}
 
 	public <U> ForeignUpcall<U> upcall(Class<?> clazz, String signature) {
+		return upcall(clazz, signature, false);
+	}
+
+	/**
+	 * Create a bindable ForeignUpcall from given signature. The java method must
+	 * declare one additional, leading, parameter for the target object which is
+	 * bound using {@link ForeignUpcall#bindTo(Object, MemorySession)}. The
+	 * signature describes the native function only.
+	 *
+	 * @param <U>       the bound target type
+	 * @param clazz     the class containing the upcall method
+	 * @param signature the native signature
+	 * @return the bindable foreign upcall
+	 */
+	public <U> ForeignUpcall<U> bindableUpcall(Class<?> clazz, String signature) {
+		return upcall(clazz, signature, true);
+	}
+
+	private <U> ForeignUpcall<U> upcall(Class<?> clazz, String signature, boolean bindable) {
 		if (!PARSER.match(signature))
 			throw new IllegalArgumentException("invalid signature for java method (upcall) " + signature + "in class "
 					+ clazz.getName());
@@ -320,6 +345,9 @@ public class ForeignInitializer<T extends ForeignDowncall<E>, E extends Throwabl
 			Method method = findMethodInClass(clazz, methodName);
 
 			MethodHandle handle = methodToMethodHandle(method, retLayout, argLayouts);
+			if (bindable)
+				return new ForeignUpcall<>(handle, descriptor);
+
 			return new ForeignUpcall<>(handle, descriptor, MemorySession.global());
 		} catch (IllegalAccessException | SecurityException e) {
 			throw new RuntimeException(methodName, e);
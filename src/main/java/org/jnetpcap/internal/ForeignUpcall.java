@@ -22,8 +22,18 @@ import java.lang.foreign.Linker;
 import java.lang.foreign.MemoryAddress;
 import java.lang.foreign.MemorySession;
 import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 
 /**
+ * A java method which can be called from native code. A foreign upcall is
+ * either created with a single, static upcall stub or as a <em>bindable</em>
+ * upcall, where the first argument of the java method is a target object that
+ * is not part of the native function descriptor. Each call to
+ * {@link #bindTo(Object, MemorySession)} creates a new upcall stub with the
+ * target bound directly into the stub's method handle, which makes the upcall
+ * monomorphic and eliminates any lookups of the target at runtime.
+ * 
+ * @param <T> the bound target type
  * @author Sly Technologies Inc
  * @author repos@slytechs.com
  * @author mark
@@ -35,21 +45,44 @@ public class ForeignUpcall<T> {
 
 	private final MemoryAddress address;
 	private final MemorySession scope;
+	private final MethodHandle handle;
+	private final FunctionDescriptor descriptor;
 	private final String message; // Stub error handler
 	private final Throwable cause; // Stub error handler
 
 	public ForeignUpcall(MethodHandle handle, FunctionDescriptor descriptor, MemorySession scope) {
 		this.scope = scope;
+		this.handle = handle;
+		this.descriptor = descriptor;
 		this.address = C_LINKER.upcallStub(handle, descriptor, scope)
 				.address();
 		this.message = null;
 		this.cause = null;
 	}
 
+	/**
+	 * Creates a bindable upcall. The method handle's first parameter is the bound
+	 * target, followed by the parameters described by the function descriptor. No
+	 * upcall stub is created until bound.
+	 *
+	 * @param handle     the handle with the extra, leading target parameter
+	 * @param descriptor the native function descriptor, without the target
+	 */
+	public ForeignUpcall(MethodHandle handle, FunctionDescriptor descriptor) {
+		this.scope = null;
+		this.handle = handle;
+		this.descriptor = descriptor;
+		this.address = null;
+		this.message = "unbound upcall, use bindTo(target)";
+		this.cause = null;
+	}
+
 	public ForeignUpcall(String message, Throwable cause) {
 		this.message = message;
 		this.cause = cause;
 		this.scope = null;
+		this.handle = null;
+		this.descriptor = null;
 		this.address = null;
 	}
 
@@ -57,13 +90,29 @@ public class ForeignUpcall<T> {
 		if (address == null)
 			throw (cause instanceof RuntimeException e)
 					? e
-					: new RuntimeException(message, cause);
+					: new IllegalStateException(message, cause);
 
 		return address;
 	}
 
-	public MemoryAddress bindTo(T target) {
-		throw new UnsupportedOperationException();
+	/**
+	 * Creates a new upcall stub with target bound to the first parameter of the
+	 * upcall method. The returned address does not keep the session reachable,
+	 * the caller must keep the session alive for as long as the stub is in use,
+	 * and close it to free the stub.
+	 *
+	 * @param target  the target to bind
+	 * @param session the session which owns the new upcall stub
+	 * @return the upcall stub address
+	 */
+	public MemoryAddress bindTo(T target, MemorySession session) {
+		if (handle == null)
+			checkedAddress(); // Throws stub error
+
+		MethodHandle bound = MethodHandles.insertArguments(handle, 0, target);
+
+		return C_LINKER.upcallStub(bound, descriptor, session)
+				.address();
 	}
 
 	public MemoryAddress address() {
@@ -0,0 +1,104 @@
+/*
+ * Apache License, Version 2.0
+ *
+ * Copyright 2013-2022 Sly Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jnetpcap.internal;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/** Padding before the value, the first class in the hierarchy */
+@SuppressWarnings("unused")
+abstract class LhsPadding {
+	private long p01, p02, p03, p04, p05, p06, p07;
+}
+
+/** The sequence value, laid out after all of the superclass' fields */
+abstract class SequenceValue extends LhsPadding {
+	volatile long value = PaddedSequence.INITIAL_VALUE;
+}
+
+/** Padding after the value, laid out after all of the superclass' fields */
+@SuppressWarnings("unused")
+abstract class RhsPadding extends SequenceValue {
+	private long p11, p12, p13, p14, p15, p16, p17;
+}
+
+/**
+ * A sequence counter padded on both sides to its own cache line, so that
+ * sequences written by different threads never share a cache line. Used by
+ * ring buffer producers and consumers to publish their progress to each other
+ * with release/acquire semantics, without locks.
+ * 
+ * <p>
+ * The JVM is free to reorder the fields declared within a class, but lays out
+ * a superclass' fields before those of its subclasses. The padding and the
+ * value are therefore declared in separate classes of a hierarchy, as in the
+ * LMAX Disruptor, which keeps the padding on both sides of the value.
+ * </p>
+ *
+ * @author Sly Technologies Inc
+ * @author repos@slytechs.com
+ * @author mark
+ */
+public final class PaddedSequence extends RhsPadding {
+
+	/** Initial value of a sequence, before anything has been published */
+	public static final long INITIAL_VALUE = -1L;
+
+	private static final VarHandle VALUE;
+
+	static {
+		try {
+			VALUE = MethodHandles.lookup().findVarHandle(SequenceValue.class, "value", long.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/**
+	 * Instantiates a new sequence at {@link #INITIAL_VALUE}.
+	 */
+	public PaddedSequence() {
+	}
+
+	/**
+	 * Reads the sequence with acquire semantics.
+	 *
+	 * @return the current value
+	 */
+	public long get() {
+		return (long) VALUE.getAcquire(this);
+	}
+
+	/**
+	 * Publishes a new value with release semantics, making all prior writes
+	 * visible to threads which subsequently read this sequence.
+	 *
+	 * @param newValue the new value
+	 */
+	public void set(long newValue) {
+		VALUE.setRelease(this, newValue);
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return Long.toString(get());
+	}
+}
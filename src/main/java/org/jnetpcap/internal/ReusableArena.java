@@ -0,0 +1,159 @@
+/*
+ * Apache License, Version 2.0
+ *
+ * Copyright 2013-2022 Sly Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jnetpcap.internal;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.MemorySession;
+import java.lang.foreign.SegmentAllocator;
+
+/**
+ * A per-thread, reusable, bump allocator for short lived native memory. Each
+ * thread gets its own native slab which is allocated once and then reused by
+ * all calls on that thread, replacing a new memory session opened and closed
+ * for every native call or packet.
+ *
+ * <p>
+ * Allocations are made within frames. A frame is entered with {@link #enter()}
+ * and all memory allocated within the frame is released, by resetting the
+ * arena's offset, when the frame is closed. Frames can be nested and must be
+ * closed in the reverse order, on the same thread, which is naturally done
+ * using try-with-resources:
+ * </p>
+ *
+ * <pre>
+ * <code>
+try (var arena = ReusableArena.enter()) {
+	MemorySegment mseg = arena.allocate(length);
+	...
+}
+ * </code>
+ * </pre>
+ * <p>
+ * Memory returned by the arena is not zeroed and must not be used after its
+ * frame is closed. Allocations which do not fit into the remaining slab space
+ * fall back to a new native segment in an implicit session.
+ * </p>
+ *
+ * @author Sly Technologies Inc
+ * @author repos@slytechs.com
+ * @author mark
+ *
+ */
+public final class ReusableArena implements SegmentAllocator, AutoCloseable {
+
+	/** Default per-thread slab size */
+	public static final long DEFAULT_CAPACITY = 64 * 1024;
+
+	/** Maximum number of nested frames */
+	private static final int MAX_DEPTH = 16;
+
+	private static final ThreadLocal<ReusableArena> PER_THREAD = ThreadLocal
+			.withInitial(() -> new ReusableArena(DEFAULT_CAPACITY));
+
+	/**
+	 * Enter a new allocation frame on the current thread's arena.
+	 *
+	 * @return the current thread's arena
+	 */
+	public static ReusableArena enter() {
+		return PER_THREAD.get().push();
+	}
+
+	private final Thread owner;
+	private final MemorySession session;
+	private final MemorySegment slab;
+	private final long[] marks = new long[MAX_DEPTH];
+	private int depth;
+	private long offset;
+
+	/**
+	 * Instantiates a new arena with a native slab of given capacity.
+	 *
+	 * @param capacity the slab capacity in bytes
+	 */
+	private ReusableArena(long capacity) {
+		this.owner = Thread.currentThread();
+		this.session = MemorySession.openImplicit();
+		this.slab = MemorySegment.allocateNative(capacity, session);
+	}
+
+	/**
+	 * Allocate memory within the current frame.
+	 *
+	 * @see java.lang.foreign.SegmentAllocator#allocate(long, long)
+	 */
+	@Override
+	public MemorySegment allocate(long bytesSize, long bytesAlignment) {
+		checkFrame();
+
+		long start = (offset + bytesAlignment - 1) & -bytesAlignment;
+		if (start + bytesSize > slab.byteSize())
+			return MemorySegment.allocateNative(bytesSize, bytesAlignment, MemorySession.openImplicit());
+
+		offset = start + bytesSize;
+
+		return slab.asSlice(start, bytesSize);
+	}
+
+	private void checkFrame() {
+		if (depth == 0)
+			throw new IllegalStateException("no arena frame entered");
+
+		if (Thread.currentThread() != owner)
+			throw new IllegalStateException("arena accessed outside of its owner thread");
+	}
+
+	/**
+	 * Close the current frame and release all memory allocated within it.
+	 *
+	 * @see java.lang.AutoCloseable#close()
+	 */
+	@Override
+	public void close() {
+		checkFrame();
+
+		offset = marks[--depth];
+	}
+
+	/**
+	 * Number of bytes currently allocated from the slab, by all active frames.
+	 *
+	 * @return the number of bytes in use
+	 */
+	public long allocated() {
+		return offset;
+	}
+
+	private ReusableArena push() {
+		if (depth == MAX_DEPTH)
+			throw new IllegalStateException("arena frames nested too deeply (%d)".formatted(depth));
+
+		marks[depth++] = offset;
+
+		return this;
+	}
+
+	/**
+	 * The session which owns the arena's native slab.
+	 *
+	 * @return the memory session
+	 */
+	public MemorySession session() {
+		return session;
+	}
+}
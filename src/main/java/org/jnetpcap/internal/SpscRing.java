@@ -0,0 +1,143 @@
+/*
+ * Apache License, Version 2.0
+ *
+ * Copyright 2013-2022 Sly Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jnetpcap.internal;
+
+/**
+ * A bounded, lock-free, single-producer single-consumer ring buffer. Exactly
+ * one thread may offer and exactly one other thread may poll. With only one
+ * writer for each of the head and tail sequences, neither side needs a CAS,
+ * the producer and consumer only publish their positions to each other with
+ * release/acquire semantics.
+ *
+ * @param <E> the element type
+ * @author Sly Technologies Inc
+ * @author repos@slytechs.com
+ * @author mark
+ */
+public final class SpscRing<E> {
+
+	private final Object[] elements;
+	private final int mask;
+
+	/** Sequence of the last element polled, written only by the consumer */
+	private final PaddedSequence head = new PaddedSequence();
+
+	/** Sequence of the last element offered, written only by the producer */
+	private final PaddedSequence tail = new PaddedSequence();
+
+	/** Producer's cached copy of head */
+	private long cachedHead = PaddedSequence.INITIAL_VALUE;
+
+	/** Consumer's cached copy of tail */
+	private long cachedTail = PaddedSequence.INITIAL_VALUE;
+
+	/**
+	 * Instantiates a new ring.
+	 *
+	 * @param capacity the capacity, rounded up to the next power of 2
+	 */
+	public SpscRing(int capacity) {
+		if (capacity <= 0 || capacity > (1 << 30))
+			throw new IllegalArgumentException("invalid capacity (%d)".formatted(capacity));
+
+		int size = Integer.highestOneBit(capacity - 1) << 1;
+		if (size == 0)
+			size = 1;
+
+		this.mask = size - 1;
+		this.elements = new Object[size];
+	}
+
+	/**
+	 * The ring's capacity.
+	 *
+	 * @return the capacity
+	 */
+	public int capacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * Checks if the ring is empty.
+	 *
+	 * @return true, if empty at the time of the call
+	 */
+	public boolean isEmpty() {
+		return head.get() >= tail.get();
+	}
+
+	/**
+	 * Offers a new element to the ring. Must only be called by the producer
+	 * thread.
+	 *
+	 * @param e the non-null element
+	 * @return true, if added, or false if the ring is full
+	 */
+	public boolean offer(E e) {
+		long next = tail.get() + 1;
+		long wrapPoint = next - elements.length;
+
+		if (wrapPoint > cachedHead) {
+			cachedHead = head.get();
+
+			if (wrapPoint > cachedHead)
+				return false; // Full
+		}
+
+		elements[(int) next & mask] = e;
+		tail.set(next);
+
+		return true;
+	}
+
+	/**
+	 * Removes the next element from the ring. Must only be called by the consumer
+	 * thread.
+	 *
+	 * @return the element, or null if the ring is empty
+	 */
+	@SuppressWarnings("unchecked")
+	public E poll() {
+		long next = head.get() + 1;
+
+		if (next > cachedTail) {
+			cachedTail = tail.get();
+
+			if (next > cachedTail)
+				return null; // Empty
+		}
+
+		int index = (int) next & mask;
+		E e = (E) elements[index];
+		elements[index] = null;
+		head.set(next);
+
+		return e;
+	}
+
+	/**
+	 * Number of elements in the ring, at the time of the call.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		long size = tail.get() - head.get();
+
+		return (int) Math.max(0, Math.min(size, capacity()));
+	}
+}
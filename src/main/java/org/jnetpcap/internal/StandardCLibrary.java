@@ -0,0 +1,269 @@
+/*
+ * Apache License, Version 2.0
+ *
+ * Copyright 2013-2022 Sly Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jnetpcap.internal;
+
+import java.lang.foreign.Addressable;
+import java.lang.foreign.MemoryAddress;
+
+/**
+ * A small set of standard C library functions used internally by jNetPcap. The
+ * symbols are resolved from the platform's default C library lookup and are
+ * only available on platforms that provide them (ie. {@code open_memstream}
+ * is POSIX 2008 and not available on Microsoft Windows).
+ *
+ * @author Sly Technologies Inc
+ * @author repos@slytechs.com
+ * @author mark
+ *
+ */
+public final class StandardCLibrary {
+
+	/** Seek relative to start of the stream. */
+	public static final int SEEK_SET = 0;
+
+	/** Poll event, there is data to read. */
+	public static final short POLLIN = 0x0001;
+
+	/** Poll event, error condition (revents only). */
+	public static final short POLLERR = 0x0008;
+
+	/** Poll event, hang up (revents only). */
+	public static final short POLLHUP = 0x0010;
+
+	/** Poll event, invalid file descriptor (revents only). */
+	public static final short POLLNVAL = 0x0020;
+
+	/** Size of {@code struct pollfd { int fd; short events; short revents; }} */
+	public static final int POLLFD_SIZE = 8;
+
+	/** Offset of {@code pollfd.events} field */
+	public static final int POLLFD_EVENTS_OFFSET = 4;
+
+	/** Offset of {@code pollfd.revents} field */
+	public static final int POLLFD_REVENTS_OFFSET = 6;
+
+	/** Number of CPUs in a Linux {@code cpu_set_t} */
+	public static final int CPU_SETSIZE = 1024;
+
+	/** Size in bytes of a Linux {@code cpu_set_t} */
+	public static final int CPU_SET_BYTES = CPU_SETSIZE / 8;
+
+	/**
+	 * @see {@code FILE *open_memstream(char **ptr, size_t *sizeloc)}
+	 * @since POSIX.1-2008
+	 */
+	private static final PcapForeignDowncall open_memstream;
+
+	/**
+	 * @see {@code int fflush(FILE *stream)}
+	 * @since C89
+	 */
+	private static final PcapForeignDowncall fflush;
+
+	/**
+	 * @see {@code long ftell(FILE *stream)}
+	 * @since C89
+	 */
+	private static final PcapForeignDowncall ftell;
+
+	/**
+	 * @see {@code int fseek(FILE *stream, long offset, int whence)}
+	 * @since C89
+	 */
+	private static final PcapForeignDowncall fseek;
+
+	/**
+	 * @see {@code int fclose(FILE *stream)}
+	 * @since C89
+	 */
+	private static final PcapForeignDowncall fclose;
+
+	/**
+	 * @see {@code void free(void *ptr)}
+	 * @since C89
+	 */
+	private static final PcapForeignDowncall free;
+
+	/**
+	 * @see {@code int poll(struct pollfd *fds, nfds_t nfds, int timeout)}
+	 * @since POSIX.1-2001
+	 */
+	private static final PcapForeignDowncall poll;
+
+	/**
+	 * @see {@code int sched_setaffinity(pid_t pid, size_t cpusetsize, const
+	 *      cpu_set_t *mask)}
+	 * @since Linux 2.5.8
+	 */
+	private static final PcapForeignDowncall sched_setaffinity;
+
+	/**
+	 * @see {@code int sched_getcpu(void)}
+	 * @since glibc 2.6
+	 */
+	private static final PcapForeignDowncall sched_getcpu;
+
+	static {
+		try (var foreign = new PcapForeignInitializer(StandardCLibrary.class)) {
+
+			// @formatter:off
+			open_memstream = foreign.downcall("open_memstream(AA)A"); //$NON-NLS-1$
+			fflush         = foreign.downcall("fflush(A)I"); //$NON-NLS-1$
+			ftell          = foreign.downcall("ftell(A)J"); //$NON-NLS-1$
+			fseek          = foreign.downcall("fseek(AJI)I"); //$NON-NLS-1$
+			fclose         = foreign.downcall("fclose(A)I"); //$NON-NLS-1$
+			free           = foreign.downcall("free(A)V"); //$NON-NLS-1$
+			poll           = foreign.downcall("poll(AJI)I"); //$NON-NLS-1$
+			sched_setaffinity = foreign.downcall("sched_setaffinity(IJA)I"); //$NON-NLS-1$
+			sched_getcpu   = foreign.downcall("sched_getcpu()I"); //$NON-NLS-1$
+			// @formatter:on
+
+		}
+	}
+
+	/**
+	 * Checks if the in-memory stream functions are available on this platform.
+	 *
+	 * @return true, if {@code open_memstream} was resolved
+	 */
+	public static boolean isMemstreamSupported() {
+		return open_memstream.isNativeSymbolResolved();
+	}
+
+	/**
+	 * Opens a dynamically growing, in-memory, write stream. The buffer address and
+	 * size are written to the supplied pointer cells on every {@link #fflush} and
+	 * {@link #fclose}. The buffer must be released with {@link #free} after the
+	 * stream is closed.
+	 *
+	 * @param bufferCell pointer cell ({@code char **}) receiving buffer address
+	 * @param sizeCell   pointer cell ({@code size_t *}) receiving buffer size
+	 * @return the {@code FILE *} stream or {@code NULL} on error
+	 */
+	public static MemoryAddress openMemstream(Addressable bufferCell, Addressable sizeCell) {
+		return open_memstream.invokeExactObj(bufferCell, sizeCell);
+	}
+
+	/**
+	 * Flush any buffered data to the underlying stream.
+	 *
+	 * @param stream the {@code FILE *} stream
+	 * @return 0 on success, otherwise EOF
+	 */
+	public static int fflush(Addressable stream) {
+		return fflush.invokeExactInt(stream);
+	}
+
+	/**
+	 * Current stream position.
+	 *
+	 * @param stream the {@code FILE *} stream
+	 * @return the position or -1 on error
+	 */
+	public static long ftell(Addressable stream) {
+		return ftell.invokeExactLong(stream);
+	}
+
+	/**
+	 * Reposition a stream.
+	 *
+	 * @param stream the {@code FILE *} stream
+	 * @param offset the offset
+	 * @param whence one of {@link #SEEK_SET} and friends
+	 * @return 0 on success, otherwise -1
+	 */
+	public static int fseek(Addressable stream, long offset, int whence) {
+		return fseek.invokeExactInt(stream, offset, whence);
+	}
+
+	/**
+	 * Close a stream.
+	 *
+	 * @param stream the {@code FILE *} stream
+	 * @return 0 on success, otherwise EOF
+	 */
+	public static int fclose(Addressable stream) {
+		return fclose.invokeExactInt(stream);
+	}
+
+	/**
+	 * Release memory allocated by the C library.
+	 *
+	 * @param ptr the pointer to release
+	 */
+	public static void free(Addressable ptr) {
+		free.invokeExactVoid(ptr);
+	}
+
+	/**
+	 * Checks if the {@code poll} function is available on this platform.
+	 *
+	 * @return true, if {@code poll} was resolved
+	 */
+	public static boolean isPollSupported() {
+		return poll.isNativeSymbolResolved();
+	}
+
+	/**
+	 * Wait for events on a set of file descriptors.
+	 *
+	 * @param fds     array of {@code struct pollfd}
+	 * @param nfds    number of elements in the array
+	 * @param timeout timeout in milliseconds, -1 blocks indefinitely and 0 returns
+	 *                immediately
+	 * @return number of file descriptors with events, 0 on timeout or -1 on error
+	 */
+	public static int poll(Addressable fds, long nfds, int timeout) {
+		return poll.invokeExactInt(fds, nfds, timeout);
+	}
+
+	/**
+	 * Checks if the thread affinity functions are available on this platform.
+	 *
+	 * @return true, if {@code sched_setaffinity} and {@code sched_getcpu} were
+	 *         resolved
+	 */
+	public static boolean isAffinitySupported() {
+		return sched_setaffinity.isNativeSymbolResolved() && sched_getcpu.isNativeSymbolResolved();
+	}
+
+	/**
+	 * Sets the CPU affinity mask of a thread. On Linux a pid of 0 refers to the
+	 * calling thread only, not the whole process.
+	 *
+	 * @param pid        the thread id, or 0 for the calling thread
+	 * @param cpusetsize size of the mask in bytes
+	 * @param mask       the {@code cpu_set_t} mask
+	 * @return 0 on success, otherwise -1
+	 */
+	public static int schedSetaffinity(int pid, long cpusetsize, Addressable mask) {
+		return sched_setaffinity.invokeExactInt(pid, cpusetsize, mask);
+	}
+
+	/**
+	 * CPU the calling thread is currently running on.
+	 *
+	 * @return the CPU number, or -1 on error
+	 */
+	public static int schedGetcpu() {
+		return sched_getcpu.invokeExactInt();
+	}
+
+	private StandardCLibrary() {
+	}
+}
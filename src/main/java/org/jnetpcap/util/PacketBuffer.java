@@ -0,0 +1,250 @@
+/*
+ * Apache License, Version 2.0
+ *
+ * Copyright 2013-2022 Sly Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jnetpcap.util;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static org.jnetpcap.PcapHeader.PCAP_HEADER_LENGTH;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jnetpcap.PcapHeader;
+import org.jnetpcap.constant.PcapTStampPrecision;
+
+/**
+ * A reference counted handle to a packet stored in a {@link PacketBufferPool}
+ * slab. A new packet buffer holds a single reference, which is given up with
+ * {@link #release()}. The underlying slab memory is reused only after all of
+ * the packet buffers sharing it have been released.
+ *
+ * <p>
+ * To hand the same packet to several consumers without copying, each consumer
+ * gets its own handle using {@link #tee()}, and releases it independently.
+ * Alternatively, a single handle can be shared using {@link #retain()}, in which
+ * case it must be released once per retain plus once for the original
+ * reference.
+ * </p>
+ *
+ * @author Sly Technologies Inc
+ * @author repos@slytechs.com
+ * @author mark
+ */
+public final class PacketBuffer {
+
+	private final PacketBufferPool.Slab slab;
+	private final MemorySegment record;
+	private final AtomicInteger refCount = new AtomicInteger(1);
+	private final long tvSec;
+	private final long tvUsec;
+	private final int captureLength;
+	private final int wireLength;
+
+	PacketBuffer(PacketBufferPool.Slab slab, MemorySegment record, long tvSec, long tvUsec, int caplen,
+			int wirelen) {
+		this.slab = slab;
+		this.record = record;
+		this.tvSec = tvSec;
+		this.tvUsec = tvUsec;
+		this.captureLength = caplen;
+		this.wireLength = wirelen;
+	}
+
+	/**
+	 * Original capture length of the packet, as reported by pcap. The number of
+	 * bytes stored may be less, see {@link #dataLength()}.
+	 *
+	 * @return the capture length
+	 */
+	public int captureLength() {
+		return captureLength;
+	}
+
+	private void checkAccessible() {
+		if (refCount.get() <= 0)
+			throw new IllegalStateException("packet buffer already released");
+	}
+
+	/**
+	 * The packet data stored in the pool.
+	 *
+	 * @return the packet data segment
+	 */
+	public MemorySegment data() {
+		checkAccessible();
+
+		return record.asSlice(PCAP_HEADER_LENGTH);
+	}
+
+	/**
+	 * Number of packet data bytes stored in the pool.
+	 *
+	 * @return the data length
+	 */
+	public int dataLength() {
+		return (int) (record.byteSize() - PCAP_HEADER_LENGTH);
+	}
+
+	/**
+	 * A new, detached, read-only header with this packet's values.
+	 *
+	 * @return the pcap header
+	 */
+	public PcapHeader header() {
+		return PcapHeader.newReadOnlyInstance(tvSec, tvUsec, captureLength, wireLength, ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Checks if this handle still holds a reference.
+	 *
+	 * @return true, if not yet fully released
+	 */
+	public boolean isAccessible() {
+		return refCount.get() > 0;
+	}
+
+	/**
+	 * The packet as a pcap record, a 16 byte compact header in native byte order
+	 * followed by the packet data, as stored in ''savefiles''. The record's
+	 * header capture length is the original capture length.
+	 *
+	 * @return the record segment
+	 */
+	public MemorySegment record() {
+		checkAccessible();
+
+		return record;
+	}
+
+	/**
+	 * Current reference count of this handle.
+	 *
+	 * @return the reference count
+	 */
+	public int refCount() {
+		return refCount.get();
+	}
+
+	/**
+	 * Releases one reference. When the last reference of this handle is released,
+	 * the handle gives up its share of the pool slab.
+	 *
+	 * @return true, if this was the last reference
+	 */
+	public boolean release() {
+		int count = refCount.decrementAndGet();
+		if (count < 0) {
+			refCount.incrementAndGet();
+			throw new IllegalStateException("packet buffer already released");
+		}
+
+		if (count == 0) {
+			slab.release();
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Adds a reference to this handle.
+	 *
+	 * @return this packet buffer
+	 */
+	public PacketBuffer retain() {
+		for (;;) {
+			int count = refCount.get();
+			if (count <= 0)
+				throw new IllegalStateException("packet buffer already released");
+
+			if (refCount.compareAndSet(count, count + 1))
+				return this;
+		}
+	}
+
+	/**
+	 * A new handle to the same packet data, with its own reference count, for
+	 * handing the packet off to another consumer without copying.
+	 *
+	 * @return the new packet buffer
+	 */
+	public PacketBuffer tee() {
+		checkAccessible();
+		slab.retain();
+
+		return new PacketBuffer(slab, record, tvSec, tvUsec, captureLength, wireLength);
+	}
+
+	/**
+	 * Copies the stored packet data into a new array.
+	 *
+	 * @return new array with packet data
+	 */
+	public byte[] toArray() {
+		return data().toArray(JAVA_BYTE);
+	}
+
+	/**
+	 * Packet timestamp in epoch units of the given precision.
+	 *
+	 * @param precision the timestamp precision of the capture handle
+	 * @return the timestamp
+	 */
+	public long toEpochTime(PcapTStampPrecision precision) {
+		return precision.toEpochTime(tvSec, tvUsec);
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "PacketBuffer [captureLength=" + captureLength
+				+ ", wireLength=" + wireLength
+				+ ", dataLength=" + dataLength()
+				+ ", refCount=" + refCount()
+				+ "]";
+	}
+
+	/**
+	 * Timestamp seconds.
+	 *
+	 * @return the seconds
+	 */
+	public long tvSec() {
+		return tvSec;
+	}
+
+	/**
+	 * Timestamp fraction, micro or nano seconds, depending on capture precision.
+	 *
+	 * @return the fraction of a second
+	 */
+	public long tvUsec() {
+		return tvUsec;
+	}
+
+	/**
+	 * Original wire length of the packet.
+	 *
+	 * @return the wire length
+	 */
+	public int wireLength() {
+		return wireLength;
+	}
+}
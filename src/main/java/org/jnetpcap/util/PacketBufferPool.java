@@ -0,0 +1,321 @@
+/*
+ * Apache License, Version 2.0
+ *
+ * Copyright 2013-2022 Sly Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jnetpcap.util;
+
+import static org.jnetpcap.PcapHeader.PCAP_HEADER_LENGTH;
+
+import java.lang.foreign.MemoryAddress;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.MemorySession;
+import java.nio.ByteOrder;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jnetpcap.PcapHeader;
+import org.jnetpcap.internal.PcapHeaderABI;
+
+/**
+ * A pool of fixed-size off-heap slabs, into which packets are copied once and
+ * then shared, without further copies, using reference counted
+ * {@link PacketBuffer} handles.
+ *
+ * <p>
+ * Packets are copied back to back into the current slab, each as a pcap record
+ * with a 16 byte compact header followed by packet data. A slab is returned to
+ * the pool, and reused, only after every packet buffer allocated from it has
+ * been released. Packet buffers can be retained, released and teed from any
+ * thread.
+ * </p>
+ *
+ * <p>
+ * Packets can be added to the pool from any number of threads, such as the
+ * capture threads of several handles. Each writer thread copies packets into
+ * its own current slab, taken from the pool's shared free slabs, so writers
+ * never share a slab while writing to it. A writer thread which stops adding
+ * packets should call {@link #releaseWriter()}, so that its last slab can be
+ * recycled.
+ * </p>
+ *
+ * <pre>
+ * <code>
+try (var pool = new PacketBufferPool()) {
+	receiver.forEach(100, pool, (user, packet) -> {
+		consumer1.offer(packet.tee());
+		consumer2.offer(packet); // consumers call packet.release() when done
+	}, "");
+}
+ * </code>
+ * </pre>
+ *
+ * @author Sly Technologies Inc
+ * @author repos@slytechs.com
+ * @author mark
+ */
+public final class PacketBufferPool implements AutoCloseable {
+
+	/**
+	 * An off-heap slab, reference counted by the packet buffers allocated from it
+	 * plus one reference held by the pool while the slab is still being written
+	 * to.
+	 */
+	final class Slab {
+		private final MemorySegment segment;
+		private final AtomicInteger refCount = new AtomicInteger(1);
+		private long position;
+
+		Slab(MemorySegment segment) {
+			this.segment = segment;
+		}
+
+		void release() {
+			int count = refCount.decrementAndGet();
+			if (count == 0)
+				recycle(this);
+
+			else if (count < 0)
+				throw new IllegalStateException("slab released too many times");
+		}
+
+		void retain() {
+			refCount.incrementAndGet();
+		}
+	}
+
+	/** Default slab size in bytes */
+	public static final long DEFAULT_SLAB_SIZE = 1024 * 1024;
+
+	/** Packet records in a slab are aligned to this many bytes */
+	public static final int RECORD_ALIGNMENT = 8;
+
+	private static final PcapHeaderABI NATIVE_ABI = PcapHeaderABI.nativeAbi();
+
+	private final long slabSize;
+	private final int maxSlabs;
+	private final MemorySession session;
+	private final Queue<Slab> free = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger slabCount = new AtomicInteger();
+	private final AtomicLong exhaustedCount = new AtomicLong();
+
+	/** Slab currently being written to by each writer thread */
+	private final ThreadLocal<Slab> current = new ThreadLocal<>();
+
+	/**
+	 * Instantiates a new, unbounded, pool with default slab size.
+	 */
+	public PacketBufferPool() {
+		this(DEFAULT_SLAB_SIZE, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Instantiates a new pool.
+	 *
+	 * @param slabSize size of each off-heap slab in bytes, which also limits the
+	 *                 largest packet which can be stored without truncation
+	 * @param maxSlabs maximum number of slabs the pool will allocate
+	 */
+	public PacketBufferPool(long slabSize, int maxSlabs) {
+		if (slabSize <= PCAP_HEADER_LENGTH)
+			throw new IllegalArgumentException("slab size too small (%d)".formatted(slabSize));
+
+		if (maxSlabs <= 0)
+			throw new IllegalArgumentException("max slabs must be greater than 0 (%d)".formatted(maxSlabs));
+
+		this.slabSize = slabSize;
+		this.maxSlabs = maxSlabs;
+		this.session = MemorySession.openShared();
+	}
+
+	/**
+	 * Copies a native packet into the pool.
+	 *
+	 * @param header the native pcap header
+	 * @param data   the native packet data
+	 * @return a new packet buffer holding one reference, or null if the pool is
+	 *         exhausted
+	 */
+	public PacketBuffer allocate(MemoryAddress header, MemoryAddress data) {
+		return allocate(header, data, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Copies up to {@code maxCopy} bytes of a native packet into the pool. The
+	 * original capture and wire lengths are preserved in the packet buffer.
+	 *
+	 * @param header  the native pcap header
+	 * @param data    the native packet data
+	 * @param maxCopy maximum number of packet data bytes to copy
+	 * @return a new packet buffer holding one reference, or null if the pool is
+	 *         exhausted
+	 */
+	public PacketBuffer allocate(MemoryAddress header, MemoryAddress data, int maxCopy) {
+		long tvSec = NATIVE_ABI.tvSec(header);
+		long tvUsec = NATIVE_ABI.tvUsec(header);
+		int caplen = NATIVE_ABI.captureLength(header);
+		int wirelen = NATIVE_ABI.wireLength(header);
+
+		long copy = Math.min(Math.min(caplen, maxCopy), slabSize - PCAP_HEADER_LENGTH);
+		long recordLength = PCAP_HEADER_LENGTH + copy;
+
+		Slab slab = current.get();
+		long start = (slab == null) ? 0 : (slab.position + RECORD_ALIGNMENT - 1) & -RECORD_ALIGNMENT;
+
+		if (slab == null || start + recordLength > slabSize) {
+			slab = nextSlab();
+			if (slab == null) {
+				exhaustedCount.incrementAndGet();
+				return null;
+			}
+
+			start = 0;
+		}
+
+		MemorySegment record = slab.segment.asSlice(start, recordLength);
+		PcapHeader.write(tvSec, tvUsec, caplen, wirelen, record, ByteOrder.nativeOrder());
+		MemorySegment.copy(MemorySegment.ofAddress(data, copy, MemorySession.global()), 0,
+				record, PCAP_HEADER_LENGTH, copy);
+
+		slab.position = start + recordLength;
+		slab.retain();
+
+		return new PacketBuffer(slab, record, tvSec, tvUsec, caplen, wirelen);
+	}
+
+	/**
+	 * Closes the pool and frees all of its off-heap memory. Any packet buffers
+	 * still outstanding become inaccessible.
+	 *
+	 * @see java.lang.AutoCloseable#close()
+	 */
+	@Override
+	public void close() {
+		current.remove();
+		free.clear();
+		session.close();
+	}
+
+	/**
+	 * Number of packets which could not be allocated, because all of the slabs
+	 * were in use.
+	 *
+	 * @return the exhausted count
+	 */
+	public long exhaustedCount() {
+		return exhaustedCount.get();
+	}
+
+	/**
+	 * Number of slabs currently free and available for reuse.
+	 *
+	 * @return the free slab count
+	 */
+	public int freeSlabCount() {
+		return free.size();
+	}
+
+	/**
+	 * Retires the calling thread's current slab and takes a free one, or
+	 * allocates a new slab if the pool has not reached its maximum.
+	 */
+	private Slab nextSlab() {
+		Slab slab = free.poll();
+
+		if (slab == null && reserveSlab())
+			slab = new Slab(MemorySegment.allocateNative(slabSize, RECORD_ALIGNMENT, session));
+
+		if (slab == null)
+			return null;
+
+		Slab old = current.get();
+		current.set(slab);
+
+		if (old != null)
+			old.release(); // the pool's write reference
+
+		return slab;
+	}
+
+	/**
+	 * Releases the calling thread's current slab, so that it is recycled once all
+	 * of its packets have been released. Called by a writer thread when it is
+	 * done adding packets to the pool, for example when its capture ends. The
+	 * thread can still add packets afterwards, into a new slab.
+	 */
+	public void releaseWriter() {
+		Slab slab = current.get();
+		if (slab == null)
+			return;
+
+		current.remove();
+		slab.release(); // the pool's write reference
+	}
+
+	/**
+	 * Counts a new slab, unless the pool has reached its maximum.
+	 */
+	private boolean reserveSlab() {
+		int count;
+		do {
+			count = slabCount.get();
+			if (count >= maxSlabs)
+				return false;
+		} while (!slabCount.compareAndSet(count, count + 1));
+
+		return true;
+	}
+
+	private void recycle(Slab slab) {
+		if (!session.isAlive())
+			return;
+
+		slab.position = 0;
+		slab.refCount.set(1);
+		free.offer(slab);
+	}
+
+	/**
+	 * Total number of slabs allocated by the pool.
+	 *
+	 * @return the slab count
+	 */
+	public int slabCount() {
+		return slabCount.get();
+	}
+
+	/**
+	 * Size of each slab in bytes.
+	 *
+	 * @return the slab size
+	 */
+	public long slabSize() {
+		return slabSize;
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "PacketBufferPool [slabSize=" + slabSize
+				+ ", slabs=" + slabCount()
+				+ ", free=" + freeSlabCount()
+				+ ", exhausted=" + exhaustedCount()
+				+ "]";
+	}
+}
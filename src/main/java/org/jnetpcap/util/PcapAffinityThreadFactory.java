@@ -0,0 +1,224 @@
+/*
+ * Apache License, Version 2.0
+ *
+ * Copyright 2013-2022 Sly Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jnetpcap.util;
+
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+import static org.jnetpcap.internal.StandardCLibrary.CPU_SETSIZE;
+import static org.jnetpcap.internal.StandardCLibrary.CPU_SET_BYTES;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.MemorySession;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jnetpcap.internal.StandardCLibrary;
+
+/**
+ * A Linux only thread factory which pins every thread it creates to a single
+ * CPU core, using {@code sched_setaffinity}. The placement of the thread which
+ * dispatches packets has a large effect on drop rates at high packet rates, for
+ * example it should run on a core of the NIC's NUMA node, but not on the core
+ * which services the NIC's interrupts.
+ *
+ * <p>
+ * Cores are assigned to new threads round robin, from the list of cores given
+ * to the factory. Each thread pins itself as the first thing it does once
+ * started. If pinning fails, for example because the core is offline or not
+ * in the process' allowed set, the thread still runs, unpinned, and the
+ * failure is counted. The core a thread was pinned to is reported by
+ * {@link #pinnedCpu()}, and by the capture metrics of the classes which use the
+ * factory, such as {@link PcapCaptureService.PacketChannel#cpu()}.
+ * </p>
+ *
+ * <pre>
+ * <code>
+var captureThreads = new PcapAffinityThreadFactory("pcap-capture", 2, 4);
+var service = new PcapCaptureService(pool, 64 * 1024, 256, captureThreads);
+
+pipeline.setThreadFactory(new PcapAffinityThreadFactory("pcap-worker", 6, 7, 8));
+ * </code>
+ * </pre>
+ *
+ * @author Sly Technologies Inc
+ * @author repos@slytechs.com
+ * @author mark
+ */
+public final class PcapAffinityThreadFactory implements ThreadFactory {
+
+	/** Core the current thread was pinned to by a factory, or -1 */
+	private static final ThreadLocal<Integer> PINNED_CPU = ThreadLocal.withInitial(() -> -1);
+
+	/**
+	 * CPU core the calling thread is running on right now, which for an unpinned
+	 * thread can change at any time.
+	 *
+	 * @return the CPU number, or -1 if not known
+	 */
+	public static int currentCpu() {
+		return isSupported() ? StandardCLibrary.schedGetcpu() : -1;
+	}
+
+	/**
+	 * Checks if thread pinning is supported on this platform.
+	 *
+	 * @return true, on Linux with {@code sched_setaffinity} available
+	 */
+	public static boolean isSupported() {
+		return System.getProperty("os.name", "").startsWith("Linux")
+				&& StandardCLibrary.isAffinitySupported();
+	}
+
+	/**
+	 * Pins the calling thread to a single CPU core.
+	 *
+	 * @param cpu the CPU number
+	 * @return true, if pinned, or false if the kernel rejected the core
+	 * @throws UnsupportedOperationException if not supported on this platform
+	 */
+	public static boolean pinCurrentThread(int cpu) {
+		checkCpu(cpu);
+
+		if (!isSupported())
+			throw new UnsupportedOperationException("thread affinity is only supported on Linux");
+
+		try (var session = MemorySession.openConfined()) {
+			MemorySegment mask = MemorySegment.allocateNative(CPU_SET_BYTES, 8, session);
+			mask.fill((byte) 0);
+			mask.set(JAVA_LONG, (cpu / 64) * 8L, 1L << (cpu % 64));
+
+			if (StandardCLibrary.schedSetaffinity(0, CPU_SET_BYTES, mask) != 0)
+				return false;
+		}
+
+		PINNED_CPU.set(cpu);
+
+		return true;
+	}
+
+	/**
+	 * Core the calling thread was pinned to, by a factory or
+	 * {@link #pinCurrentThread(int)}.
+	 *
+	 * @return the CPU number, or -1 if not pinned
+	 */
+	public static int pinnedCpu() {
+		return PINNED_CPU.get();
+	}
+
+	private static void checkCpu(int cpu) {
+		if (cpu < 0 || cpu >= CPU_SETSIZE)
+			throw new IllegalArgumentException("invalid cpu (%d)".formatted(cpu));
+	}
+
+	private final String namePrefix;
+	private final int[] cpus;
+	private final AtomicInteger threadCount = new AtomicInteger();
+	private final AtomicLong failedCount = new AtomicLong();
+	private boolean daemon = true;
+
+	/**
+	 * Instantiates a new thread factory, creating daemon threads.
+	 *
+	 * @param namePrefix thread name prefix, followed by the thread number and core
+	 * @param cpus       the cores new threads are pinned to, round robin
+	 * @throws UnsupportedOperationException if not supported on this platform
+	 */
+	public PcapAffinityThreadFactory(String namePrefix, int... cpus) {
+		if (cpus.length == 0)
+			throw new IllegalArgumentException("no cpus");
+
+		for (int cpu : cpus)
+			checkCpu(cpu);
+
+		if (!isSupported())
+			throw new UnsupportedOperationException("thread affinity is only supported on Linux");
+
+		this.namePrefix = Objects.requireNonNull(namePrefix, "namePrefix");
+		this.cpus = cpus.clone();
+	}
+
+	/**
+	 * The cores new threads are pinned to.
+	 *
+	 * @return a copy of the cores
+	 */
+	public int[] cpus() {
+		return cpus.clone();
+	}
+
+	/**
+	 * Number of threads which failed to pin themselves and run unpinned.
+	 *
+	 * @return the failed count
+	 */
+	public long failedCount() {
+		return failedCount.get();
+	}
+
+	/**
+	 * Creates a new platform thread, which pins itself to the next core before
+	 * running the task.
+	 *
+	 * @param task the task
+	 * @return the new, unstarted, thread
+	 * @see java.util.concurrent.ThreadFactory#newThread(java.lang.Runnable)
+	 */
+	@Override
+	public Thread newThread(Runnable task) {
+		int n = threadCount.getAndIncrement();
+		int cpu = cpus[n % cpus.length];
+
+		Thread thread = new Thread(() -> {
+			if (!pinCurrentThread(cpu))
+				failedCount.incrementAndGet();
+
+			task.run();
+		}, namePrefix + "-" + (n + 1) + "-cpu" + cpu);
+
+		thread.setDaemon(daemon);
+
+		return thread;
+	}
+
+	/**
+	 * Sets whether new threads are daemon threads.
+	 *
+	 * @param daemon true for daemon threads
+	 * @return this thread factory
+	 */
+	public PcapAffinityThreadFactory setDaemon(boolean daemon) {
+		this.daemon = daemon;
+
+		return this;
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "PcapAffinityThreadFactory [prefix=" + namePrefix
+				+ ", cpus=" + Arrays.toString(cpus)
+				+ ", threads=" + threadCount.get()
+				+ ", failed=" + failedCount()
+				+ "]";
+	}
+}
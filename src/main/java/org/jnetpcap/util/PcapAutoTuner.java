@@ -0,0 +1,565 @@
+/*
+ * Apache License, Version 2.0
+ *
+ * Copyright 2013-2022 Sly Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jnetpcap.util;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.LongSupplier;
+
+import org.jnetpcap.PcapException;
+import org.jnetpcap.PcapStat;
+
+/**
+ * An optional controller which adapts a capture's dispatch count, its consumer
+ * batch size and its recommended kernel buffer size to the traffic, instead of
+ * hand tuning them per site.
+ *
+ * <p>
+ * Once attached to a {@link PcapDispatchLoop} with
+ * {@link PcapDispatchLoop#setAutoTuner(PcapAutoTuner)}, the tuner periodically
+ * samples the increase in the handle's received, dropped and interface dropped
+ * packet counters since the previous sample, from {@link org.jnetpcap.Pcap#stats()},
+ * and the consumer queue lag, through a user supplied function. When the
+ * kernel dropped packets:
+ * </p>
+ * <ul>
+ * <li>if the consumer queue is lagging, the consumers are the bottleneck, and
+ * the consumer batch size is doubled, so that consumers take more packets per
+ * wakeup,</li>
+ * <li>otherwise the capture thread is not draining the kernel buffer fast
+ * enough, and the dispatch count is doubled,</li>
+ * <li>and in both cases, the recommended buffer size is doubled.</li>
+ * </ul>
+ * <p>
+ * After a number of quiet samples, without drops or queue lag, the dispatch
+ * count and consumer batch size are halved again, back towards their minimum,
+ * which keeps per packet latency low. The kernel buffer size can not be
+ * changed on an activated handle, so it is only ever recommended, for use with
+ * {@link org.jnetpcap.Pcap#setBufferSize(int)} when the capture is next
+ * restarted. Packets dropped by the interface are reported but not acted on,
+ * as no capture setting can recover them.
+ * </p>
+ *
+ * <pre>
+ * <code>
+var loop = PcapTuningProfile.BALANCED.newDispatchLoop(pcap);
+var tuner = new PcapAutoTuner(loop, channel::queued, PcapTuningProfile.BALANCED.bufferSize())
+		.setConsumerBatchSize(n -> consumerBatch = n)
+		.setLoggingOutput(System.err);
+
+loop.setAutoTuner(tuner);
+ * </code>
+ * </pre>
+ *
+ * <p>
+ * Every adjustment is logged to the tuner's logging output, which discards all
+ * output by default, passed to an optional decision listener, and counted. The
+ * tuner's checks are made from the capture thread, while its metrics can be
+ * read from any thread.
+ * </p>
+ *
+ * @author Sly Technologies Inc
+ * @author repos@slytechs.com
+ * @author mark
+ */
+public final class PcapAutoTuner {
+
+	/**
+	 * The setting adjusted by a decision.
+	 */
+	public enum Setting {
+
+		/** Maximum number of packets per dispatch call */
+		DISPATCH_COUNT,
+
+		/** Number of packets consumers take per wakeup */
+		CONSUMER_BATCH_SIZE,
+
+		/** Kernel buffer size recommended for the next restart */
+		BUFFER_SIZE,
+	}
+
+	/**
+	 * A single adjustment made by the tuner, and the statistics which caused it.
+	 *
+	 * @param timeMillis  wall clock time of the decision
+	 * @param setting     the adjusted setting
+	 * @param oldValue    the value before the adjustment
+	 * @param newValue    the value after the adjustment
+	 * @param recvDelta   packets received since the previous sample
+	 * @param dropDelta   packets dropped by the kernel since the previous sample
+	 * @param ifdropDelta packets dropped by the interface since the previous
+	 *                    sample
+	 * @param queueLag    consumer queue lag at the time of the sample
+	 */
+	public record Decision(
+			long timeMillis,
+			Setting setting,
+			int oldValue,
+			int newValue,
+			long recvDelta,
+			long dropDelta,
+			long ifdropDelta,
+			long queueLag) {
+
+		/**
+		 * @see java.lang.Record#toString()
+		 */
+		@Override
+		public String toString() {
+			return "%s %d -> %d (recv=%d, drop=%d, ifdrop=%d, lag=%d)"
+					.formatted(setting, oldValue, newValue, recvDelta, dropDelta, ifdropDelta, queueLag);
+		}
+	}
+
+	/** Default interval between samples */
+	public static final long DEFAULT_SAMPLE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	/** Default number of quiet samples before settings are scaled back down */
+	public static final int DEFAULT_QUIET_SAMPLES = 5;
+
+	/** Default largest recommended buffer size */
+	public static final int DEFAULT_MAX_BUFFER_SIZE = 1024 * 1024 * 1024;
+
+	/** Libpcap's stats counters are 32 bit unsigned and wrap around */
+	private static final long COUNTER_MODULUS = 1L << 32;
+
+	private static long counterDelta(long now, long last) {
+		return (last < 0) ? 0 : Math.floorMod(now - last, COUNTER_MODULUS);
+	}
+
+	private final PcapDispatchLoop loop;
+	private final LongSupplier queueLag;
+
+	private int minDispatchCount;
+	private int maxDispatchCount;
+	private int minConsumerBatchSize = 1;
+	private int maxConsumerBatchSize = 1024;
+	private int maxBufferSize = DEFAULT_MAX_BUFFER_SIZE;
+	private long lagThreshold = 1024;
+	private int quietSamples = DEFAULT_QUIET_SAMPLES;
+	private long sampleIntervalNanos = DEFAULT_SAMPLE_INTERVAL_NANOS;
+
+	private IntConsumer consumerBatchSizeAction = n -> {};
+	private Consumer<Decision> decisionListener = d -> {};
+	private Appendable loggingOutput = PrintWriter.nullWriter();
+
+	private volatile int consumerBatchSize = 1;
+	private volatile int recommendedBufferSize;
+	private volatile Decision lastDecision;
+
+	private long nextSample;
+	private long lastRecv = -1;
+	private long lastDrop = -1;
+	private long lastIfdrop = -1;
+	private int quietCount;
+
+	private final AtomicLong sampleCount = new AtomicLong();
+	private final AtomicLong decisionCount = new AtomicLong();
+	private volatile long lastRecvDelta;
+	private volatile long lastDropDelta;
+	private volatile long lastIfdropDelta;
+	private volatile long lastQueueLag;
+
+	/**
+	 * Instantiates a new auto-tuner. The dispatch count is tuned between the
+	 * loop's current batch size and 64 times that size, and the buffer size
+	 * recommendation starts from the size the handle was activated with.
+	 *
+	 * @param loop       the dispatch loop whose batch size is tuned
+	 * @param queueLag   returns the current consumer queue lag, in packets
+	 * @param bufferSize the kernel buffer size the handle was activated with, in
+	 *                   bytes, for example the {@link PcapTuningProfile#bufferSize()}
+	 *                   of the profile used to configure it
+	 */
+	public PcapAutoTuner(PcapDispatchLoop loop, LongSupplier queueLag, int bufferSize) {
+		if (bufferSize <= 0)
+			throw new IllegalArgumentException("buffer size must be greater than 0 (%d)".formatted(bufferSize));
+
+		this.loop = Objects.requireNonNull(loop, "loop");
+		this.queueLag = Objects.requireNonNull(queueLag, "queueLag");
+		this.minDispatchCount = loop.batchSize();
+		this.maxDispatchCount = (int) Math.min(Integer.MAX_VALUE, loop.batchSize() * 64L);
+		this.recommendedBufferSize = bufferSize;
+		this.maxBufferSize = Math.max(DEFAULT_MAX_BUFFER_SIZE, bufferSize);
+	}
+
+	private int adjust(Setting setting, int oldValue, int newValue, long recv, long drop, long ifdrop, long lag) {
+		if (newValue == oldValue)
+			return oldValue;
+
+		var decision = new Decision(System.currentTimeMillis(), setting, oldValue, newValue, recv, drop, ifdrop, lag);
+		lastDecision = decision;
+		decisionCount.incrementAndGet();
+
+		try {
+			loggingOutput.append("pcap auto-tuner: " + decision + System.lineSeparator());
+		} catch (IOException e) {
+			// Logging is best effort
+		}
+
+		decisionListener.accept(decision);
+
+		return newValue;
+	}
+
+	/**
+	 * Samples the statistics now and adjusts the settings. Called from the capture
+	 * thread, usually automatically by the dispatch loop once the sample interval
+	 * has elapsed.
+	 *
+	 * @return true, if any setting was adjusted
+	 */
+	public boolean check() {
+		PcapStat stats;
+		try {
+			stats = loop.pcap().stats();
+		} catch (PcapException | UnsupportedOperationException e) {
+			return false; // Offline handles have no statistics
+		}
+
+		long recv = counterDelta(stats.recv(), lastRecv);
+		long drop = counterDelta(stats.drop(), lastDrop);
+		long ifdrop = counterDelta(stats.ifdrop(), lastIfdrop);
+		long lag = queueLag.getAsLong();
+
+		lastRecv = stats.recv();
+		lastDrop = stats.drop();
+		lastIfdrop = stats.ifdrop();
+
+		lastRecvDelta = recv;
+		lastDropDelta = drop;
+		lastIfdropDelta = ifdrop;
+		lastQueueLag = lag;
+		sampleCount.incrementAndGet();
+
+		long before = decisionCount.get();
+		int dispatchCount = loop.batchSize();
+		int batch = consumerBatchSize;
+		boolean lagging = lag >= lagThreshold;
+
+		if (drop > 0) {
+			quietCount = 0;
+
+			if (lagging)
+				batch = adjust(Setting.CONSUMER_BATCH_SIZE, batch, scaleUp(batch, maxConsumerBatchSize),
+						recv, drop, ifdrop, lag);
+			else
+				dispatchCount = adjust(Setting.DISPATCH_COUNT, dispatchCount, scaleUp(dispatchCount, maxDispatchCount),
+						recv, drop, ifdrop, lag);
+
+			recommendedBufferSize = adjust(Setting.BUFFER_SIZE, recommendedBufferSize,
+					scaleUp(recommendedBufferSize, maxBufferSize), recv, drop, ifdrop, lag);
+
+		} else if (!lagging && ++quietCount >= quietSamples) {
+			quietCount = 0;
+
+			dispatchCount = adjust(Setting.DISPATCH_COUNT, dispatchCount,
+					Math.max(minDispatchCount, dispatchCount / 2), recv, drop, ifdrop, lag);
+			batch = adjust(Setting.CONSUMER_BATCH_SIZE, batch, Math.max(minConsumerBatchSize, batch / 2),
+					recv, drop, ifdrop, lag);
+		}
+
+		if (dispatchCount != loop.batchSize())
+			loop.setBatchSize(dispatchCount);
+
+		if (batch != consumerBatchSize) {
+			consumerBatchSize = batch;
+			consumerBatchSizeAction.accept(batch);
+		}
+
+		return decisionCount.get() != before;
+	}
+
+	/**
+	 * Samples the statistics if the sample interval has elapsed.
+	 */
+	void checkIfDue() {
+		long now = System.nanoTime();
+		if (now - nextSample < 0)
+			return;
+
+		nextSample = now + sampleIntervalNanos;
+		check();
+	}
+
+	/**
+	 * Current consumer batch size.
+	 *
+	 * @return the consumer batch size
+	 */
+	public int consumerBatchSize() {
+		return consumerBatchSize;
+	}
+
+	/**
+	 * Number of adjustments made.
+	 *
+	 * @return the decision count
+	 */
+	public long decisionCount() {
+		return decisionCount.get();
+	}
+
+	/**
+	 * Current dispatch count, the loop's batch size.
+	 *
+	 * @return the dispatch count
+	 */
+	public int dispatchCount() {
+		return loop.batchSize();
+	}
+
+	/**
+	 * The most recent adjustment.
+	 *
+	 * @return the decision, or null if none yet
+	 */
+	public Decision lastDecision() {
+		return lastDecision;
+	}
+
+	/**
+	 * Packets dropped by the kernel between the two most recent samples.
+	 *
+	 * @return the drop delta
+	 */
+	public long lastDropDelta() {
+		return lastDropDelta;
+	}
+
+	/**
+	 * Packets dropped by the interface between the two most recent samples.
+	 *
+	 * @return the interface drop delta
+	 */
+	public long lastIfdropDelta() {
+		return lastIfdropDelta;
+	}
+
+	/**
+	 * Consumer queue lag at the most recent sample.
+	 *
+	 * @return the queue lag
+	 */
+	public long lastQueueLag() {
+		return lastQueueLag;
+	}
+
+	/**
+	 * Packets received between the two most recent samples.
+	 *
+	 * @return the received delta
+	 */
+	public long lastRecvDelta() {
+		return lastRecvDelta;
+	}
+
+	/**
+	 * The dispatch loop being tuned.
+	 *
+	 * @return the dispatch loop
+	 */
+	public PcapDispatchLoop loop() {
+		return loop;
+	}
+
+	/**
+	 * Kernel buffer size recommended for the next time the capture is started,
+	 * with {@link org.jnetpcap.Pcap#setBufferSize(int)}.
+	 *
+	 * @return the recommended buffer size in bytes
+	 */
+	public int recommendedBufferSize() {
+		return recommendedBufferSize;
+	}
+
+	/**
+	 * Number of samples taken.
+	 *
+	 * @return the sample count
+	 */
+	public long sampleCount() {
+		return sampleCount.get();
+	}
+
+	/** Doubles a value up to the max, never reducing a value already above it */
+	private static int scaleUp(int value, int max) {
+		return (int) Math.max(value, Math.min(max, Math.max(1, value * 2L)));
+	}
+
+	/**
+	 * Sets the buffer size the recommendation starts from, usually the size the
+	 * handle was activated with, and the largest size recommended.
+	 *
+	 * @param bufferSize    the current buffer size in bytes
+	 * @param maxBufferSize the largest recommended buffer size in bytes
+	 * @return this auto-tuner
+	 */
+	public PcapAutoTuner setBufferSize(int bufferSize, int maxBufferSize) {
+		checkRange(bufferSize, maxBufferSize);
+
+		this.recommendedBufferSize = bufferSize;
+		this.maxBufferSize = maxBufferSize;
+
+		return this;
+	}
+
+	private static void checkRange(int min, int max) {
+		if (min <= 0 || min > max)
+			throw new IllegalArgumentException("invalid range, min (%d) max (%d)".formatted(min, max));
+	}
+
+	/**
+	 * Sets the action which applies a new consumer batch size, for example to the
+	 * size of the array passed to
+	 * {@link PcapCaptureService.PacketChannel#take(PacketBuffer[])}.
+	 *
+	 * @param action receives every new consumer batch size
+	 * @return this auto-tuner
+	 */
+	public PcapAutoTuner setConsumerBatchSize(IntConsumer action) {
+		this.consumerBatchSizeAction = Objects.requireNonNull(action, "action");
+
+		return this;
+	}
+
+	/**
+	 * Sets the range the consumer batch size is tuned within, and sets the batch
+	 * size to the minimum.
+	 *
+	 * @param min the smallest consumer batch size
+	 * @param max the largest consumer batch size
+	 * @return this auto-tuner
+	 */
+	public PcapAutoTuner setConsumerBatchSizeRange(int min, int max) {
+		checkRange(min, max);
+
+		this.minConsumerBatchSize = min;
+		this.maxConsumerBatchSize = max;
+		this.consumerBatchSize = min;
+
+		return this;
+	}
+
+	/**
+	 * Sets a listener called, on the capture thread, with every adjustment.
+	 *
+	 * @param listener the decision listener
+	 * @return this auto-tuner
+	 */
+	public PcapAutoTuner setDecisionListener(Consumer<Decision> listener) {
+		this.decisionListener = Objects.requireNonNull(listener, "listener");
+
+		return this;
+	}
+
+	/**
+	 * Sets the range the dispatch count is tuned within.
+	 *
+	 * @param min the smallest dispatch count
+	 * @param max the largest dispatch count
+	 * @return this auto-tuner
+	 */
+	public PcapAutoTuner setDispatchCountRange(int min, int max) {
+		checkRange(min, max);
+
+		this.minDispatchCount = min;
+		this.maxDispatchCount = max;
+
+		return this;
+	}
+
+	/**
+	 * Sets the consumer queue lag, in packets, at or above which the consumers are
+	 * considered to be the bottleneck.
+	 *
+	 * @param lagThreshold the lag threshold
+	 * @return this auto-tuner
+	 */
+	public PcapAutoTuner setLagThreshold(long lagThreshold) {
+		if (lagThreshold < 0)
+			throw new IllegalArgumentException("invalid lag threshold (%d)".formatted(lagThreshold));
+
+		this.lagThreshold = lagThreshold;
+
+		return this;
+	}
+
+	/**
+	 * Sets where decisions are logged, by default all output is discarded.
+	 *
+	 * @param out the logging output, such as {@code System.err}
+	 * @return this auto-tuner
+	 */
+	public PcapAutoTuner setLoggingOutput(Appendable out) {
+		this.loggingOutput = Objects.requireNonNull(out, "out");
+
+		return this;
+	}
+
+	/**
+	 * Sets the number of consecutive samples without drops or lag, after which the
+	 * settings are scaled back down.
+	 *
+	 * @param quietSamples the quiet sample count
+	 * @return this auto-tuner
+	 */
+	public PcapAutoTuner setQuietSamples(int quietSamples) {
+		if (quietSamples <= 0)
+			throw new IllegalArgumentException("quiet samples must be greater than 0 (%d)".formatted(quietSamples));
+
+		this.quietSamples = quietSamples;
+
+		return this;
+	}
+
+	/**
+	 * Sets the interval between samples.
+	 *
+	 * @param interval the interval
+	 * @param unit     the interval unit
+	 * @return this auto-tuner
+	 */
+	public PcapAutoTuner setSampleInterval(long interval, TimeUnit unit) {
+		if (interval < 0)
+			throw new IllegalArgumentException("invalid sample interval (%d)".formatted(interval));
+
+		this.sampleIntervalNanos = unit.toNanos(interval);
+
+		return this;
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "PcapAutoTuner [dispatchCount=" + dispatchCount()
+				+ ", consumerBatchSize=" + consumerBatchSize
+				+ ", recommendedBufferSize=" + recommendedBufferSize
+				+ ", samples=" + sampleCount()
+				+ ", decisions=" + decisionCount()
+				+ "]";
+	}
+}
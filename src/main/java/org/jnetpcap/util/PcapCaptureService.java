@@ -0,0 +1,437 @@
+/*
+ * Apache License, Version 2.0
+ *
+ * Copyright 2013-2022 Sly Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jnetpcap.util;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jnetpcap.Pcap;
+import org.jnetpcap.internal.ConcurrentRing;
+
+/**
+ * A capture service which runs native pcap loops on a small set of dedicated
+ * platform threads, and hands packets off to any number of consumer threads,
+ * including virtual threads, through lock-free queues of off-heap packet
+ * buffers.
+ *
+ * <p>
+ * Calling {@code loop}, {@code dispatch} or {@code nextEx} from a virtual
+ * thread pins its carrier thread for the whole duration of the native call,
+ * including all of the packet upcalls. With the capture service, only the
+ * service's own platform threads ever call into libpcap, while consumers block
+ * in {@link PacketChannel#take()} by parking, which unmounts a virtual thread
+ * from its carrier instead of pinning it.
+ * </p>
+ *
+ * <pre>
+ * <code>
+try (var pool = new PacketBufferPool();
+		var service = new PcapCaptureService(pool)) {
+
+	PacketChannel channel = service.open(pcap);
+
+	try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+		executor.submit(() -> {
+			PacketBuffer packet;
+			while ((packet = channel.take()) != null) {
+				process(packet);
+				packet.release();
+			}
+			return null;
+		});
+	}
+}
+ * </code>
+ * </pre>
+ *
+ * @author Sly Technologies Inc
+ * @author repos@slytechs.com
+ * @author mark
+ */
+public final class PcapCaptureService implements AutoCloseable {
+
+	/**
+	 * The consumer side of a single pcap handle's capture. A channel can be
+	 * shared by many consumer threads, each packet is taken by exactly one of
+	 * them. Packets which arrive while the channel's queue is full are dropped
+	 * and counted, the capture thread never blocks on consumers.
+	 *
+	 * <p>
+	 * Every queued packet is matched by a permit, which a consumer acquires before
+	 * taking the packet, so each batch of packets wakes at most one waiting
+	 * consumer per packet instead of all of them. At the end of capture, a single
+	 * extra permit is passed from consumer to consumer, waking them all in turn.
+	 * </p>
+	 */
+	public final class PacketChannel implements AutoCloseable {
+
+		private final Pcap pcap;
+		private final PcapReceiver receiver;
+		private final ConcurrentRing<PacketBuffer> queue;
+		private final Semaphore available = new Semaphore(0);
+		private final AtomicLong receivedCount = new AtomicLong();
+		private final AtomicLong dropCount = new AtomicLong();
+		private final boolean offline;
+		private volatile boolean ended;
+		private volatile Throwable error;
+		private volatile int cpu = -1;
+		private Thread captureThread;
+
+		/** Packets queued during the current dispatch, only used by capture thread */
+		private int enqueued;
+
+		private PacketChannel(Pcap pcap, int queueCapacity) {
+			this.pcap = pcap;
+			this.receiver = new PcapReceiver(pcap::dispatch);
+			this.queue = new ConcurrentRing<>(queueCapacity);
+			this.offline = pcap.isOffline();
+		}
+
+		/**
+		 * Capture loop, run on a dedicated platform thread.
+		 */
+		private void capture() {
+			cpu = PcapAffinityThreadFactory.pinnedCpu();
+
+			try {
+				while (!ended) {
+					int result = receiver.forEach(batchSize, pool, this::enqueue, queue);
+					signalEnqueued();
+
+					if (result < 0 || (result == 0 && offline))
+						break;
+				}
+			} catch (Throwable e) {
+				error = e;
+
+			} finally {
+				signalEnqueued();
+				pool.releaseWriter();
+				ended = true;
+				available.release(); // End of capture permit
+			}
+		}
+
+		/**
+		 * Stops this channel's capture thread and releases any packets still queued.
+		 * Does not close the pcap handle.
+		 *
+		 * @see java.lang.AutoCloseable#close()
+		 */
+		@Override
+		public void close() {
+			if (!ended) {
+				ended = true;
+				if (!offline)
+					pcap.breakloop();
+			}
+
+			if (captureThread != Thread.currentThread()) {
+				try {
+					captureThread.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			PacketBuffer packet;
+			while ((packet = queue.poll()) != null)
+				packet.release();
+
+			channels.remove(this);
+		}
+
+		/**
+		 * CPU core the channel's capture thread is pinned to, when created by a
+		 * {@link PcapAffinityThreadFactory}.
+		 *
+		 * @return the CPU number, or -1 if not pinned
+		 */
+		public int cpu() {
+			return cpu;
+		}
+
+		/**
+		 * Number of packets dropped because the channel's queue was full.
+		 *
+		 * @return the drop count
+		 */
+		public long dropCount() {
+			return dropCount.get();
+		}
+
+		private void enqueue(ConcurrentRing<PacketBuffer> queue, PacketBuffer packet) {
+			receivedCount.incrementAndGet();
+
+			if (queue.offer(packet)) {
+				enqueued++;
+			} else {
+				dropCount.incrementAndGet();
+				packet.release();
+			}
+		}
+
+		/**
+		 * Checks if the capture has ended, because of end of file, breakloop, error
+		 * or close, and all queued packets have been taken.
+		 *
+		 * @return true, if no more packets will be returned
+		 */
+		public boolean isEnded() {
+			return ended && queue.isEmpty();
+		}
+
+		/**
+		 * Returns the next packet if one is immediately available.
+		 *
+		 * @return the next packet, or null if none is available
+		 */
+		public PacketBuffer poll() {
+			if (!available.tryAcquire())
+				return null;
+
+			return pollAcquired();
+		}
+
+		/**
+		 * Takes a packet after a permit was acquired. A permit without a packet is
+		 * the end of capture permit, which is passed on to the next consumer.
+		 */
+		private PacketBuffer pollAcquired() {
+			PacketBuffer packet = queue.poll();
+			if (packet == null)
+				available.release();
+
+			return packet;
+		}
+
+		/**
+		 * Waits up to the timeout for the next packet.
+		 *
+		 * @param timeout the timeout
+		 * @param unit    the timeout unit
+		 * @return the next packet, or null on timeout or end of capture
+		 * @throws InterruptedException if interrupted while waiting
+		 */
+		public PacketBuffer poll(long timeout, TimeUnit unit) throws InterruptedException {
+			if (!available.tryAcquire(timeout, unit))
+				return null;
+
+			return pollAcquired();
+		}
+
+		/**
+		 * Number of packets currently waiting in the channel's queue.
+		 *
+		 * @return the queue size
+		 */
+		public int queued() {
+			return queue.size();
+		}
+
+		/**
+		 * The receiver used to dispatch packets, which can be used to configure
+		 * receive options such as the copy limit or overload control.
+		 *
+		 * @return the receiver
+		 */
+		public PcapReceiver receiver() {
+			return receiver;
+		}
+
+		/**
+		 * Number of packets received from the pcap handle, including any dropped.
+		 *
+		 * @return the received count
+		 */
+		public long receivedCount() {
+			return receivedCount.get();
+		}
+
+		/**
+		 * Waits for the next packet.
+		 *
+		 * @return the next packet, or null at end of capture
+		 * @throws InterruptedException if interrupted while waiting
+		 * @throws IllegalStateException if the capture thread failed, with the
+		 *                               failure as its cause
+		 */
+		public PacketBuffer take() throws InterruptedException {
+			available.acquire();
+
+			PacketBuffer packet = pollAcquired();
+			if (packet == null)
+				checkError();
+
+			return packet;
+		}
+
+		/**
+		 * Waits for at least one packet, then takes as many packets as are
+		 * immediately available, up to the length of the array.
+		 *
+		 * @param batch the array which receives the packets
+		 * @return the number of packets taken, or 0 at end of capture
+		 * @throws InterruptedException if interrupted while waiting
+		 * @throws IllegalStateException if the capture thread failed, with the
+		 *                               failure as its cause
+		 */
+		public int take(PacketBuffer[] batch) throws InterruptedException {
+			PacketBuffer first = take();
+			if (first == null)
+				return 0;
+
+			batch[0] = first;
+
+			int count = 1;
+			PacketBuffer packet;
+			while (count < batch.length && (packet = poll()) != null)
+				batch[count++] = packet;
+
+			return count;
+		}
+
+		private void checkError() {
+			Throwable e = error;
+			if (e != null)
+				throw new IllegalStateException("capture failed on " + pcap, e);
+		}
+
+		/**
+		 * Releases one permit per packet queued by the last dispatch, waking at most
+		 * as many waiting consumers.
+		 */
+		private void signalEnqueued() {
+			if (enqueued > 0) {
+				available.release(enqueued);
+				enqueued = 0;
+			}
+		}
+
+		/**
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "PacketChannel [pcap=" + pcap
+					+ ", queued=" + queue.size()
+					+ ", received=" + receivedCount()
+					+ ", dropped=" + dropCount()
+					+ ", cpu=" + cpu
+					+ ", ended=" + ended
+					+ "]";
+		}
+	}
+
+	/** Default per-channel queue capacity */
+	public static final int DEFAULT_QUEUE_CAPACITY = 64 * 1024;
+
+	/** Default maximum number of packets per dispatch */
+	public static final int DEFAULT_BATCH_SIZE = 256;
+
+	private static final AtomicInteger THREAD_ID = new AtomicInteger();
+
+	private static Thread newCaptureThread(Runnable task) {
+		Thread thread = new Thread(task, "pcap-capture-" + THREAD_ID.incrementAndGet());
+		thread.setDaemon(true);
+
+		return thread;
+	}
+
+	private final PacketBufferPool pool;
+	private final int queueCapacity;
+	private final int batchSize;
+	private final ThreadFactory threadFactory;
+	private final List<PacketChannel> channels = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Instantiates a new capture service with default queue capacity and batch
+	 * size, using daemon platform threads for capture.
+	 *
+	 * @param pool the pool packets are copied into
+	 */
+	public PcapCaptureService(PacketBufferPool pool) {
+		this(pool, DEFAULT_QUEUE_CAPACITY, DEFAULT_BATCH_SIZE, PcapCaptureService::newCaptureThread);
+	}
+
+	/**
+	 * Instantiates a new capture service. All channels copy packets into the same
+	 * pool, each capture thread into its own slab.
+	 *
+	 * @param pool          the pool packets are copied into
+	 * @param queueCapacity per channel queue capacity in packets
+	 * @param batchSize     maximum number of packets per dispatch
+	 * @param threadFactory factory for the capture threads, which must create
+	 *                      platform threads
+	 */
+	public PcapCaptureService(PacketBufferPool pool, int queueCapacity, int batchSize,
+			ThreadFactory threadFactory) {
+		if (batchSize <= 0)
+			throw new IllegalArgumentException("batch size must be greater than 0 (%d)".formatted(batchSize));
+
+		this.pool = Objects.requireNonNull(pool, "pool");
+		this.queueCapacity = queueCapacity;
+		this.batchSize = batchSize;
+		this.threadFactory = Objects.requireNonNull(threadFactory, "threadFactory");
+	}
+
+	/**
+	 * Closes all open channels. Does not close the pcap handles or the pool.
+	 *
+	 * @see java.lang.AutoCloseable#close()
+	 */
+	@Override
+	public void close() {
+		for (PacketChannel channel : channels)
+			channel.close();
+	}
+
+	/**
+	 * Starts capturing on a pcap handle, on a new dedicated capture thread.
+	 *
+	 * @param pcap the activated pcap handle
+	 * @return the channel from which consumers take captured packets
+	 */
+	public PacketChannel open(Pcap pcap) {
+		var channel = new PacketChannel(Objects.requireNonNull(pcap, "pcap"), queueCapacity);
+
+		Thread thread = threadFactory.newThread(channel::capture);
+		if (thread.isVirtual())
+			throw new IllegalArgumentException("capture threads must be platform threads");
+
+		channel.captureThread = thread;
+		channels.add(channel);
+		thread.start();
+
+		return channel;
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "PcapCaptureService [channels=" + channels.size() + "]";
+	}
+}
@@ -0,0 +1,448 @@
+/*
+ * Apache License, Version 2.0
+ *
+ * Copyright 2013-2022 Sly Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jnetpcap.util;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+
+import java.lang.foreign.Addressable;
+import java.lang.foreign.MemoryAddress;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.MemorySession;
+import java.util.Objects;
+
+import org.jnetpcap.PcapHandler.OfRawPacket;
+import org.jnetpcap.PcapHandler.PacketSource.PcapPacketSource;
+import org.jnetpcap.PcapHeader;
+import org.jnetpcap.constant.PcapNextStatus;
+import org.jnetpcap.constant.PcapTStampPrecision;
+
+/**
+ * A reusable, allocation free, cursor over packets pulled from a pcap handle,
+ * an alternative to {@link org.jnetpcap.Pcap#nextEx()} which returns a new
+ * {@link PcapPacketRef} for every packet.
+ *
+ * <p>
+ * A cursor is used in one of two ways. {@link org.jnetpcap.Pcap#nextEx(PcapCursor)}
+ * positions the cursor directly on the packet in libpcap's buffer, without a
+ * copy, valid until the next call on the pcap handle.
+ * {@link org.jnetpcap.Pcap#next(PcapCursor, int)} dispatches several packets in
+ * a single native call, copying them into the cursor's own off-heap buffer,
+ * after which {@link #advance()} steps through them.
+ * </p>
+ *
+ * <pre>
+ * <code>
+var cursor = new PcapCursor(64, pcap.snapshot());
+
+while (pcap.next(cursor, 64) > 0) {
+	while (cursor.advance())
+		process(cursor.tvSec(), cursor.slab(), cursor.dataOffset(), cursor.dataLength());
+}
+ * </code>
+ * </pre>
+ *
+ * @author Sly Technologies Inc
+ * @author repos@slytechs.com
+ * @author mark
+ */
+public final class PcapCursor {
+
+	/** Default number of packets buffered by a bulk cursor */
+	public static final int DEFAULT_CAPACITY = 64;
+
+	/** Default maximum number of bytes buffered per packet */
+	public static final int DEFAULT_MAX_PACKET_LENGTH = 64 * 1024;
+
+	private final PcapPacketFlyweight packet = new PcapPacketFlyweight();
+	private final int capacity;
+	private final int maxPacketLength;
+	private final PcapTStampPrecision precision;
+
+	/** Lazily allocated on first bulk load */
+	private PcapPacketBatch batch;
+
+	/** True after a bulk load, false after binding a single packet */
+	private boolean bulk;
+
+	/** Index of the current packet in the batch, -1 before the first advance */
+	private int index = -1;
+
+	/** Slab of the batch, fixed once the batch is allocated */
+	private MemorySegment slab;
+
+	/** Offset of the current batched packet's data within the slab */
+	private int dataOffset;
+
+	/**
+	 * The same sink for every bulk load, so that loading allocates nothing, and
+	 * the pcap handle can keep the sink's bound upcall stub between calls
+	 */
+	private final OfRawPacket loadSink = this::loadPacket;
+
+	/** Status of the last non-throwing read */
+	private PcapNextStatus status = PcapNextStatus.OK;
+	private int errorCode;
+	private String errorMessage;
+
+	/**
+	 * Instantiates a new cursor with the default bulk capacity and maximum packet
+	 * length, and microsecond timestamps.
+	 */
+	public PcapCursor() {
+		this(DEFAULT_CAPACITY, DEFAULT_MAX_PACKET_LENGTH);
+	}
+
+	/**
+	 * Instantiates a new cursor with microsecond timestamps.
+	 *
+	 * @param capacity        maximum number of packets loaded per bulk call
+	 * @param maxPacketLength maximum number of bytes buffered per packet in bulk
+	 *                        mode, usually the handle's snaplen, longer packets
+	 *                        are truncated while still reporting their original
+	 *                        capture length
+	 */
+	public PcapCursor(int capacity, int maxPacketLength) {
+		this(capacity, maxPacketLength, PcapTStampPrecision.TSTAMP_PRECISION_MICRO);
+	}
+
+	/**
+	 * Instantiates a new cursor.
+	 *
+	 * @param capacity        maximum number of packets loaded per bulk call
+	 * @param maxPacketLength maximum number of bytes buffered per packet in bulk
+	 *                        mode, usually the handle's snaplen
+	 * @param precision       the timestamp precision of the capture handle
+	 */
+	public PcapCursor(int capacity, int maxPacketLength, PcapTStampPrecision precision) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("capacity must be greater than 0 (%d)".formatted(capacity));
+
+		if (maxPacketLength <= 0)
+			throw new IllegalArgumentException("invalid max packet length (%d)".formatted(maxPacketLength));
+
+		this.capacity = capacity;
+		this.maxPacketLength = maxPacketLength;
+		this.precision = Objects.requireNonNull(precision, "precision");
+
+		if (slabSize() > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("capacity * max packet length too large (%d)".formatted(slabSize()));
+	}
+
+	/**
+	 * Moves to the next packet loaded by a bulk call.
+	 *
+	 * @return true, if positioned on a packet, or false if all loaded packets have
+	 *         been visited
+	 */
+	public boolean advance() {
+		if (!bulk || index + 1 >= batch.size())
+			return false;
+
+		index++;
+		dataOffset = batch.offsets()[index];
+
+		return true;
+	}
+
+	/**
+	 * Binds the cursor to a packet in native memory, in single packet mode.
+	 *
+	 * @param header the native pcap header
+	 * @param data   the native packet data
+	 * @return this cursor
+	 */
+	public PcapCursor bind(Addressable header, Addressable data) {
+		packet.bind(header, data);
+		bulk = false;
+		index = -1;
+
+		if (batch != null)
+			batch.clear();
+
+		return this;
+	}
+
+	/**
+	 * Maximum number of packets loaded per bulk call.
+	 *
+	 * @return the capacity
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * Number of packet bytes captured, as reported by the pcap header.
+	 *
+	 * @return the capture length
+	 */
+	public int captureLength() {
+		return isBatched() ? batch.captureLengths()[index] : packet.captureLength();
+	}
+
+	/**
+	 * Address of the current packet's data. In bulk mode this method allocates a
+	 * new address object on every call, use {@link #slab()} and
+	 * {@link #dataOffset()} or {@link #getByte(int)} in tight loops.
+	 *
+	 * @return the data address
+	 */
+	public MemoryAddress data() {
+		return isBatched() ? slab.address().addOffset(dataOffset) : packet.data();
+	}
+
+	/**
+	 * Number of packet data bytes available at {@link #data()}, which is less
+	 * than the capture length only for packets truncated in bulk mode.
+	 *
+	 * @return the data length
+	 */
+	public int dataLength() {
+		return isBatched() ? batch.dataLengths()[index] : packet.captureLength();
+	}
+
+	/**
+	 * Offset of the current bulk loaded packet's data within {@link #slab()}.
+	 *
+	 * @return the data offset
+	 * @throws IllegalStateException if in single packet mode
+	 */
+	public int dataOffset() {
+		if (!isBatched())
+			throw new IllegalStateException("no slab in single packet mode");
+
+		return dataOffset;
+	}
+
+	/**
+	 * A view of the current packet's data. This method allocates a new segment
+	 * object on every call, use {@link #data()} or {@link #getByte(int)} in tight
+	 * loops.
+	 *
+	 * @return the packet data
+	 */
+	public MemorySegment dataSegment() {
+		return MemorySegment.ofAddress(data(), dataLength(), MemorySession.global());
+	}
+
+	/**
+	 * Pcap result code of the last non-throwing read.
+	 *
+	 * @return the pcap result code
+	 */
+	public int errorCode() {
+		return errorCode;
+	}
+
+	/**
+	 * Error message of the last non-throwing read.
+	 *
+	 * @return the error message, or null if the last read did not fail
+	 */
+	public String errorMessage() {
+		return errorMessage;
+	}
+
+	/**
+	 * Reads a byte from the current packet's data.
+	 *
+	 * @param index the offset into the packet
+	 * @return the byte value
+	 */
+	public byte getByte(int index) {
+		if (index < 0 || index >= dataLength())
+			throw new IndexOutOfBoundsException(index);
+
+		return isBatched()
+				? slab.get(JAVA_BYTE, dataOffset + index)
+				: packet.data().get(JAVA_BYTE, index);
+	}
+
+	/**
+	 * The current packet's native header, in single packet mode.
+	 *
+	 * @return the header flyweight
+	 * @throws IllegalStateException if positioned on a bulk loaded packet, whose
+	 *                               header fields are only available through the
+	 *                               cursor's accessors
+	 */
+	public PcapHeader header() {
+		if (isBatched())
+			throw new IllegalStateException("no native header in bulk mode");
+
+		return packet.header();
+	}
+
+	private boolean isBatched() {
+		return bulk;
+	}
+
+	/**
+	 * Loads up to count packets from the packet source, in a single dispatch call,
+	 * copying them into the cursor's buffer and positioning the cursor before the
+	 * first packet loaded.
+	 *
+	 * @param source the packet source, such as {@code pcap::dispatch}
+	 * @param count  the maximum number of packets to load, at most the capacity
+	 * @return the number of packets loaded, or a negative pcap error code
+	 */
+	public int load(PcapPacketSource source, int count) {
+		if (batch == null) {
+			batch = new PcapPacketBatch(capacity, slabSize(), precision);
+			slab = batch.slab();
+		}
+
+		batch.clear();
+		packet.unbind();
+		bulk = true;
+		index = -1;
+
+		int result = source.sourcePackets(Math.min(count, capacity), loadSink);
+
+		return (result < 0) ? result : batch.size();
+	}
+
+	private void loadPacket(Addressable header, Addressable data) {
+		batch.add(header.address(), data.address(), maxPacketLength);
+	}
+
+	/**
+	 * A flyweight view of the current packet, in single packet mode.
+	 *
+	 * @return the packet flyweight
+	 * @throws IllegalStateException if positioned on a bulk loaded packet
+	 */
+	public PcapPacketFlyweight packet() {
+		if (isBatched())
+			throw new IllegalStateException("no native packet in bulk mode");
+
+		return packet;
+	}
+
+	/**
+	 * Slab size which fits capacity packets of max packet length, so that a bulk
+	 * load never runs out of room and has to drop a dispatched packet.
+	 */
+	private long slabSize() {
+		long aligned = (maxPacketLength + PcapPacketBatch.DATA_ALIGNMENT - 1) & -PcapPacketBatch.DATA_ALIGNMENT;
+
+		return capacity * aligned;
+	}
+
+	/**
+	 * The buffer holding all bulk loaded packets, whose data is found at
+	 * {@link #dataOffset()}.
+	 *
+	 * @return the slab
+	 * @throws IllegalStateException if in single packet mode
+	 */
+	public MemorySegment slab() {
+		if (!isBatched())
+			throw new IllegalStateException("no slab in single packet mode");
+
+		return slab;
+	}
+
+	/**
+	 * Records the outcome of a non-throwing read.
+	 *
+	 * @param status       the status
+	 * @param errorCode    the pcap result code
+	 * @param errorMessage the error message, or null
+	 * @return the status
+	 */
+	public PcapNextStatus setStatus(PcapNextStatus status, int errorCode, String errorMessage) {
+		this.status = status;
+		this.errorCode = errorCode;
+		this.errorMessage = errorMessage;
+
+		return status;
+	}
+
+	/**
+	 * Number of packets loaded by the last bulk call.
+	 *
+	 * @return the loaded packet count
+	 */
+	public int size() {
+		return bulk ? batch.size() : 0;
+	}
+
+	/**
+	 * Copies the current packet's data into a new array.
+	 *
+	 * @return the packet data
+	 */
+	public byte[] toArray() {
+		return dataSegment().toArray(JAVA_BYTE);
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "PcapCursor [mode=" + (isBatched() ? "bulk" : "single")
+				+ ", index=" + index
+				+ ", size=" + size()
+				+ ", capacity=" + capacity
+				+ "]";
+	}
+
+	/**
+	 * Status of the last non-throwing read.
+	 *
+	 * @return the status
+	 * @see org.jnetpcap.Pcap#nextExStatus(PcapCursor)
+	 */
+	public PcapNextStatus status() {
+		return status;
+	}
+
+	/**
+	 * Timestamp seconds of the current packet.
+	 *
+	 * @return the epoch seconds
+	 */
+	public long tvSec() {
+		return isBatched()
+				? precision.toEpochSecond(batch.timestamps()[index])
+				: packet.header().tvSec();
+	}
+
+	/**
+	 * Timestamp fraction of a second of the current packet, in micro or nano
+	 * seconds depending on the handle's precision.
+	 *
+	 * @return the fraction of a second
+	 */
+	public long tvUsec() {
+		return isBatched()
+				? precision.toFractionOfSecond(batch.timestamps()[index])
+				: packet.header().tvUsec();
+	}
+
+	/**
+	 * Original length of the packet on the wire.
+	 *
+	 * @return the wire length
+	 */
+	public int wireLength() {
+		return isBatched() ? batch.wireLengths()[index] : packet.wireLength();
+	}
+}
@@ -0,0 +1,343 @@
+/*
+ * Apache License, Version 2.0
+ *
+ * Copyright 2013-2022 Sly Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jnetpcap.util;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.jnetpcap.Pcap;
+import org.jnetpcap.PcapException;
+import org.jnetpcap.PcapHandler;
+
+/**
+ * A capture loop which repeatedly dispatches packets from a pcap handle, using
+ * the polling strategy of a {@link PcapTuningProfile}.
+ *
+ * <p>
+ * In blocking mode the loop simply calls dispatch back to back, and waits for
+ * packets inside libpcap, up to the handle's buffer timeout. In non-blocking,
+ * busy-poll, mode a dispatch returns immediately when no packets are
+ * available, and the loop spins on the CPU, so that the next packet is picked
+ * up with the least possible delay. Spinning is bounded by the spin budget,
+ * once the loop has been idle for longer than the budget it parks the thread
+ * for the idle park time between dispatches, until packets arrive again.
+ * </p>
+ *
+ * <pre>
+ * <code>
+var loop = PcapTuningProfile.LOW_LATENCY.newDispatchLoop(pcap);
+
+int result = loop.run((user, packet) -> process(packet), null);
+ * </code>
+ * </pre>
+ *
+ * <p>
+ * The loop runs on the calling thread, until {@link #stop()} is called from
+ * another thread, the end of a ``savefile'' is reached, or a pcap error
+ * occurs. The counters can be read from any thread.
+ * </p>
+ *
+ * @author Sly Technologies Inc
+ * @author repos@slytechs.com
+ * @author mark
+ */
+public final class PcapDispatchLoop {
+
+	private final Pcap pcap;
+	private final PcapReceiver receiver;
+	private final boolean offline;
+	private final boolean nonBlocking;
+
+	private volatile int batchSize;
+	private volatile long spinBudgetNanos;
+	private volatile long idleParkNanos;
+	private volatile boolean stopped;
+	private volatile PcapAutoTuner autoTuner;
+
+	private volatile long packetCount;
+	private volatile long dispatchCount;
+	private volatile long emptyCount;
+	private volatile long parkCount;
+
+	/**
+	 * Instantiates a new dispatch loop.
+	 *
+	 * @param pcap        the activated pcap handle
+	 * @param nonBlocking true to put the handle in non-blocking mode and busy-poll
+	 * @param batchSize   maximum number of packets per dispatch call
+	 * @param spinBudget  how long a non-blocking loop spins without packets before
+	 *                    it starts parking
+	 * @param idlePark    how long an idle non-blocking loop parks between
+	 *                    dispatches, once the spin budget is exhausted
+	 * @param unit        the spin budget and idle park time unit
+	 */
+	public PcapDispatchLoop(Pcap pcap, boolean nonBlocking, int batchSize, long spinBudget, long idlePark,
+			TimeUnit unit) {
+		this.pcap = Objects.requireNonNull(pcap, "pcap");
+		this.receiver = new PcapReceiver(pcap::dispatch);
+		this.offline = pcap.isOffline();
+		this.nonBlocking = nonBlocking && !offline;
+
+		setBatchSize(batchSize);
+		setSpinBudget(spinBudget, unit);
+		setIdlePark(idlePark, unit);
+	}
+
+	/**
+	 * Maximum number of packets per dispatch call.
+	 *
+	 * @return the batch size
+	 */
+	public int batchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Number of dispatch calls made.
+	 *
+	 * @return the dispatch count
+	 */
+	public long dispatchCount() {
+		return dispatchCount;
+	}
+
+	/**
+	 * Number of dispatch calls which returned no packets.
+	 *
+	 * @return the empty dispatch count
+	 */
+	public long emptyCount() {
+		return emptyCount;
+	}
+
+	/**
+	 * Waits after a dispatch which returned no packets. Spins until the spin budget
+	 * is used up, then parks.
+	 */
+	private void idle(long idleSince) {
+		if (System.nanoTime() - idleSince < spinBudgetNanos) {
+			Thread.onSpinWait();
+
+		} else {
+			parkCount++;
+			LockSupport.parkNanos(idleParkNanos);
+		}
+	}
+
+	/**
+	 * Checks if the loop busy-polls a non-blocking handle.
+	 *
+	 * @return true, if non-blocking
+	 */
+	public boolean isNonBlocking() {
+		return nonBlocking;
+	}
+
+	/**
+	 * Number of packets dispatched.
+	 *
+	 * @return the packet count
+	 */
+	public long packetCount() {
+		return packetCount;
+	}
+
+	/**
+	 * Number of times an idle loop parked, after using up its spin budget.
+	 *
+	 * @return the park count
+	 */
+	public long parkCount() {
+		return parkCount;
+	}
+
+	/**
+	 * The pcap handle the loop dispatches from.
+	 *
+	 * @return the pcap handle
+	 */
+	public Pcap pcap() {
+		return pcap;
+	}
+
+	/**
+	 * The receiver used to dispatch packets, which can be used to configure
+	 * receive options.
+	 *
+	 * @return the receiver
+	 */
+	public PcapReceiver receiver() {
+		return receiver;
+	}
+
+	/**
+	 * Runs the loop on the calling thread. The packet flyweight is only valid for
+	 * the duration of the handler call.
+	 *
+	 * @param <U>     the generic user type
+	 * @param handler the packet handler
+	 * @param user    the user opaque data object
+	 * @return 0 if stopped or at the end of a ``savefile'', PCAP_ERROR_BREAK if
+	 *         broken out of with {@link Pcap#breakloop()}, or another negative pcap
+	 *         error code
+	 * @throws PcapException if the handle could not be put in non-blocking mode
+	 */
+	public <U> int run(PcapHandler.OfPacketFlyweight<U> handler, U user) throws PcapException {
+		Objects.requireNonNull(handler, "handler");
+
+		if (nonBlocking)
+			pcap.setNonBlock(true);
+
+		long idleSince = 0;
+
+		while (!stopped) {
+			int result = receiver.forEach(batchSize, handler, user);
+			dispatchCount++;
+
+			PcapAutoTuner tuner = autoTuner;
+			if (tuner != null)
+				tuner.checkIfDue();
+
+			if (result < 0)
+				return stopped ? 0 : result;
+
+			if (result > 0) {
+				packetCount += result;
+				idleSince = 0;
+				continue;
+			}
+
+			if (offline)
+				return 0;
+
+			emptyCount++;
+
+			if (nonBlocking) {
+				if (idleSince == 0)
+					idleSince = System.nanoTime();
+
+				idle(idleSince);
+			}
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Sets an auto-tuner, which is checked on the loop's thread after every
+	 * dispatch call, and adjusts the loop's batch size while it runs.
+	 *
+	 * @param autoTuner the auto-tuner, or null to remove it
+	 * @return this dispatch loop
+	 * @throws IllegalArgumentException if the auto-tuner tunes another loop
+	 */
+	public PcapDispatchLoop setAutoTuner(PcapAutoTuner autoTuner) {
+		if (autoTuner != null && autoTuner.loop() != this)
+			throw new IllegalArgumentException("auto-tuner belongs to another dispatch loop");
+
+		this.autoTuner = autoTuner;
+
+		return this;
+	}
+
+	/**
+	 * Sets the maximum number of packets per dispatch call. Can be changed while
+	 * the loop is running.
+	 *
+	 * @param batchSize the batch size
+	 * @return this dispatch loop
+	 */
+	public PcapDispatchLoop setBatchSize(int batchSize) {
+		if (batchSize <= 0)
+			throw new IllegalArgumentException("batch size must be greater than 0 (%d)".formatted(batchSize));
+
+		this.batchSize = batchSize;
+
+		return this;
+	}
+
+	/**
+	 * Sets how long an idle non-blocking loop parks between dispatches, once its
+	 * spin budget is used up.
+	 *
+	 * @param idlePark the park time
+	 * @param unit     the time unit
+	 * @return this dispatch loop
+	 */
+	public PcapDispatchLoop setIdlePark(long idlePark, TimeUnit unit) {
+		if (idlePark <= 0)
+			throw new IllegalArgumentException("idle park must be greater than 0 (%d)".formatted(idlePark));
+
+		this.idleParkNanos = unit.toNanos(idlePark);
+
+		return this;
+	}
+
+	/**
+	 * Sets how long a non-blocking loop spins on the CPU without receiving any
+	 * packets, before it starts parking. A budget of 0 never spins.
+	 *
+	 * @param spinBudget the spin budget
+	 * @param unit       the time unit
+	 * @return this dispatch loop
+	 */
+	public PcapDispatchLoop setSpinBudget(long spinBudget, TimeUnit unit) {
+		if (spinBudget < 0)
+			throw new IllegalArgumentException("invalid spin budget (%d)".formatted(spinBudget));
+
+		this.spinBudgetNanos = unit.toNanos(spinBudget);
+
+		return this;
+	}
+
+	/**
+	 * The spin budget.
+	 *
+	 * @param unit the time unit
+	 * @return the spin budget in the given unit
+	 */
+	public long spinBudget(TimeUnit unit) {
+		return unit.convert(spinBudgetNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Stops the loop, from any thread. A blocked dispatch is broken out of with
+	 * {@link Pcap#breakloop()}.
+	 */
+	public void stop() {
+		stopped = true;
+
+		if (!offline)
+			pcap.breakloop();
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "PcapDispatchLoop [nonBlocking=" + nonBlocking
+				+ ", batchSize=" + batchSize
+				+ ", packets=" + packetCount
+				+ ", dispatches=" + dispatchCount
+				+ ", empty=" + emptyCount
+				+ ", parks=" + parkCount
+				+ "]";
+	}
+}
@@ -0,0 +1,285 @@
+/*
+ * Apache License, Version 2.0
+ *
+ * Copyright 2013-2022 Sly Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jnetpcap.util;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+
+import java.lang.foreign.MemoryAddress;
+
+import org.jnetpcap.constant.PcapDlt;
+
+/**
+ * Computes a symmetric flow hash of a packet's IPv4 or IPv6 5-tuple, directly
+ * from the packet data in native memory. Both directions of a connection hash
+ * to the same value, so the hash can be used to steer all packets of a flow to
+ * the same worker, much like receive side scaling (RSS) in network adapters.
+ *
+ * <p>
+ * The following link types are supported, others hash to {@link #NO_FLOW}:
+ * </p>
+ * <ul>
+ * <li>{@link PcapDlt#EN10MB}, with up to 2 stacked 802.1Q/802.1ad VLAN
+ * tags</li>
+ * <li>{@link PcapDlt#LINUX_SLL} and Linux cooked capture v2
+ * ({@link #DLT_LINUX_SLL2})</li>
+ * <li>{@link PcapDlt#RAW} and the raw IPv4 and IPv6 link types</li>
+ * </ul>
+ *
+ * <p>
+ * The ports of TCP, UDP and SCTP packets are included in the hash. For other
+ * protocols, and for IP fragments which may not carry the transport header, only
+ * the addresses and protocol are hashed, so that all fragments of a datagram
+ * stay with the same flow.
+ * </p>
+ *
+ * @author Sly Technologies Inc
+ * @author repos@slytechs.com
+ * @author mark
+ */
+public final class PcapFlowHash {
+
+	/** Hash value of packets which are not IPv4 or IPv6, or are truncated */
+	public static final int NO_FLOW = 0;
+
+	/** Linux cooked capture v2 link type, not defined in {@link PcapDlt} */
+	public static final int DLT_LINUX_SLL2 = 276;
+
+	/** Alternate raw IP link type used on some platforms */
+	private static final int DLT_RAW_ALT = 14;
+
+	/** LINKTYPE_RAW, as found in pcap file headers */
+	private static final int LINKTYPE_RAW = 101;
+
+	private static final int DLT_IPV4 = 228;
+	private static final int DLT_IPV6 = 229;
+
+	private static final int ETHER_HEADER_LENGTH = 14;
+	private static final int SLL_HEADER_LENGTH = 16;
+	private static final int SLL2_HEADER_LENGTH = 20;
+
+	private static final int ETHER_TYPE_IPV4 = 0x0800;
+	private static final int ETHER_TYPE_IPV6 = 0x86DD;
+	private static final int ETHER_TYPE_VLAN = 0x8100;
+	private static final int ETHER_TYPE_QINQ = 0x88A8;
+	private static final int MAX_VLAN_TAGS = 2;
+
+	private static final int IP_PROTO_TCP = 6;
+	private static final int IP_PROTO_UDP = 17;
+	private static final int IP_PROTO_SCTP = 132;
+
+	private static final int IPV6_HEADER_LENGTH = 40;
+	private static final int IPV6_HOP_BY_HOP = 0;
+	private static final int IPV6_ROUTING = 43;
+	private static final int IPV6_FRAGMENT = 44;
+	private static final int IPV6_DEST_OPTIONS = 60;
+	private static final int MAX_IPV6_EXTENSIONS = 4;
+
+	private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+	/**
+	 * Computes the symmetric flow hash of a packet.
+	 *
+	 * @param dlt    the link type of the pcap handle, as an int since not all link
+	 *               types have a {@link PcapDlt} constant
+	 * @param data   address of the packet data
+	 * @param caplen number of captured bytes at the address
+	 * @return the flow hash, or {@link #NO_FLOW} if the packet is not IPv4 or IPv6
+	 */
+	public static int hash(int dlt, MemoryAddress data, int caplen) {
+		int offset;
+		int etherType;
+
+		if (dlt == PcapDlt.EN10MB.intDlt) {
+			if (caplen < ETHER_HEADER_LENGTH)
+				return NO_FLOW;
+
+			offset = ETHER_HEADER_LENGTH;
+			etherType = u16(data, 12);
+
+			for (int i = 0; i < MAX_VLAN_TAGS
+					&& (etherType == ETHER_TYPE_VLAN || etherType == ETHER_TYPE_QINQ); i++) {
+				if (caplen < offset + 4)
+					return NO_FLOW;
+
+				etherType = u16(data, offset + 2);
+				offset += 4;
+			}
+
+		} else if (dlt == PcapDlt.LINUX_SLL.intDlt) {
+			if (caplen < SLL_HEADER_LENGTH)
+				return NO_FLOW;
+
+			offset = SLL_HEADER_LENGTH;
+			etherType = u16(data, 14);
+
+		} else if (dlt == DLT_LINUX_SLL2) {
+			if (caplen < SLL2_HEADER_LENGTH)
+				return NO_FLOW;
+
+			offset = SLL2_HEADER_LENGTH;
+			etherType = u16(data, 0);
+
+		} else if (dlt == PcapDlt.RAW.intDlt || dlt == DLT_RAW_ALT || dlt == LINKTYPE_RAW
+				|| dlt == DLT_IPV4 || dlt == DLT_IPV6) {
+			if (caplen < 1)
+				return NO_FLOW;
+
+			offset = 0;
+			etherType = switch (u8(data, 0) >> 4) {
+			case 4 -> ETHER_TYPE_IPV4;
+			case 6 -> ETHER_TYPE_IPV6;
+			default -> 0;
+			};
+
+		} else {
+			return NO_FLOW;
+		}
+
+		return switch (etherType) {
+		case ETHER_TYPE_IPV4 -> hashIpv4(data, offset, caplen);
+		case ETHER_TYPE_IPV6 -> hashIpv6(data, offset, caplen);
+		default -> NO_FLOW;
+		};
+	}
+
+	/**
+	 * Computes the symmetric flow hash of a packet.
+	 *
+	 * @param dlt    the link type of the pcap handle
+	 * @param data   address of the packet data
+	 * @param caplen number of captured bytes at the address
+	 * @return the flow hash, or {@link #NO_FLOW} if the packet is not IPv4 or IPv6
+	 */
+	public static int hash(PcapDlt dlt, MemoryAddress data, int caplen) {
+		return hash(dlt.intDlt, data, caplen);
+	}
+
+	/**
+	 * Combines the hashes of both endpoints in an order independent way, so that
+	 * swapping source and destination produces the same hash.
+	 */
+	private static int combine(long a, long b, int protocol) {
+		long lo = Math.min(a, b);
+		long hi = Math.max(a, b);
+
+		long h = mix(lo * GOLDEN + hi) ^ protocol;
+		h = mix(h);
+
+		int hash = (int) (h ^ (h >>> 32));
+
+		return (hash == NO_FLOW) ? 1 : hash;
+	}
+
+	private static int hashIpv4(MemoryAddress data, int offset, int caplen) {
+		if (caplen < offset + 20)
+			return NO_FLOW;
+
+		int ihl = (u8(data, offset) & 0x0F) * 4;
+		int protocol = u8(data, offset + 9);
+		int fragment = u16(data, offset + 6) & 0x3FFF; // MF flag and fragment offset
+
+		long src = u32(data, offset + 12);
+		long dst = u32(data, offset + 16);
+
+		int l4 = offset + ihl;
+		if (fragment == 0 && hasPorts(protocol) && ihl >= 20 && caplen >= l4 + 4) {
+			src = (src << 16) | u16(data, l4);
+			dst = (dst << 16) | u16(data, l4 + 2);
+		}
+
+		return combine(mix(src), mix(dst), protocol);
+	}
+
+	private static int hashIpv6(MemoryAddress data, int offset, int caplen) {
+		if (caplen < offset + IPV6_HEADER_LENGTH)
+			return NO_FLOW;
+
+		int protocol = u8(data, offset + 6);
+		long src = hashAddress(data, offset + 8);
+		long dst = hashAddress(data, offset + 24);
+
+		int l4 = offset + IPV6_HEADER_LENGTH;
+		boolean fragmented = false;
+
+		for (int i = 0; i < MAX_IPV6_EXTENSIONS; i++) {
+			if (protocol == IPV6_FRAGMENT) {
+				fragmented = true;
+				if (caplen < l4 + 8)
+					break;
+
+				protocol = u8(data, l4);
+				l4 += 8;
+
+			} else if (protocol == IPV6_HOP_BY_HOP || protocol == IPV6_ROUTING || protocol == IPV6_DEST_OPTIONS) {
+				if (caplen < l4 + 8)
+					break;
+
+				protocol = u8(data, l4);
+				l4 += (u8(data, l4 + 1) + 1) * 8;
+
+			} else {
+				break;
+			}
+		}
+
+		if (!fragmented && hasPorts(protocol) && caplen >= l4 + 4) {
+			src = src * GOLDEN + u16(data, l4);
+			dst = dst * GOLDEN + u16(data, l4 + 2);
+		}
+
+		return combine(mix(src), mix(dst), protocol);
+	}
+
+	private static long hashAddress(MemoryAddress data, int offset) {
+		long h = 0;
+		for (int i = 0; i < 16; i += 4)
+			h = h * GOLDEN + u32(data, offset + i);
+
+		return h;
+	}
+
+	private static boolean hasPorts(int protocol) {
+		return protocol == IP_PROTO_TCP || protocol == IP_PROTO_UDP || protocol == IP_PROTO_SCTP;
+	}
+
+	/** 64-bit finalizer from MurmurHash3 */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+
+		return h;
+	}
+
+	private static int u8(MemoryAddress data, int offset) {
+		return data.get(JAVA_BYTE, offset) & 0xFF;
+	}
+
+	private static int u16(MemoryAddress data, int offset) {
+		return (u8(data, offset) << 8) | u8(data, offset + 1);
+	}
+
+	private static long u32(MemoryAddress data, int offset) {
+		return ((long) u16(data, offset) << 16) | u16(data, offset + 2);
+	}
+
+	private PcapFlowHash() {
+	}
+}
@@ -0,0 +1,474 @@
+/*
+ * Apache License, Version 2.0
+ *
+ * Copyright 2013-2022 Sly Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jnetpcap.util;
+
+import java.lang.foreign.Addressable;
+import java.lang.foreign.MemoryAddress;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+import org.jnetpcap.Pcap;
+import org.jnetpcap.Pcap0_4;
+import org.jnetpcap.PcapException;
+import org.jnetpcap.PcapHandler;
+import org.jnetpcap.internal.PcapHeaderABI;
+import org.jnetpcap.internal.SpscRing;
+import org.jnetpcap.util.PcapPipeline.WaitStrategy;
+
+/**
+ * Software receive side scaling. Steers captured packets to a fixed number of
+ * worker threads by a symmetric flow hash, so that every packet of a
+ * connection, in both directions, is always handled by the same worker.
+ *
+ * <p>
+ * The flow hash is computed by {@link PcapFlowHash} on the capture thread,
+ * directly from the native packet data inside the libpcap callback. The packet
+ * is then copied once into a {@link PacketBufferPool} and offered to the chosen
+ * worker's single-producer single-consumer queue. Since a flow never moves
+ * between workers, per-flow state kept by a worker needs no locks, and
+ * throughput scales with the number of workers. Packets which are not IPv4 or
+ * IPv6 all go to worker 0.
+ * </p>
+ *
+ * <pre>
+ * <code>
+try (var pool = new PacketBufferPool();
+		var steering = new PcapFlowSteering(pcap, pool, 4)) {
+
+	steering.start(worker -> new FlowTable(), (flows, packet) -> {
+		flows.update(packet);
+		packet.release();
+	});
+
+	steering.awaitCompletion();
+}
+ * </code>
+ * </pre>
+ *
+ * <p>
+ * On a live capture, the capture thread never blocks on a worker. A packet is
+ * dropped, and counted by its worker's {@link Worker#dropCount()}, when the
+ * worker's queue is full or the pool is exhausted. When reading an offline
+ * file, the capture thread waits for queue space instead.
+ * </p>
+ *
+ * @author Sly Technologies Inc
+ * @author repos@slytechs.com
+ * @author mark
+ */
+public final class PcapFlowSteering implements AutoCloseable {
+
+	/**
+	 * A worker thread and its queue.
+	 */
+	public final class Worker {
+
+		private final int index;
+		private final SpscRing<PacketBuffer> queue;
+		private final AtomicLong steeredCount = new AtomicLong();
+		private final AtomicLong dropCount = new AtomicLong();
+		private Thread thread;
+
+		private Worker(int index, int queueCapacity) {
+			this.index = index;
+			this.queue = new SpscRing<>(queueCapacity);
+		}
+
+		/**
+		 * Number of packets steered to this worker which were dropped, because its
+		 * queue was full or the pool was exhausted.
+		 *
+		 * @return the drop count
+		 */
+		public long dropCount() {
+			return dropCount.get();
+		}
+
+		/**
+		 * The worker's index, from 0 to the number of workers - 1.
+		 *
+		 * @return the index
+		 */
+		public int index() {
+			return index;
+		}
+
+		/**
+		 * Number of packets currently waiting in this worker's queue.
+		 *
+		 * @return the queue size
+		 */
+		public int queued() {
+			return queue.size();
+		}
+
+		private <U> void run(IntFunction<U> workerUser, PcapHandler.OfPacketBuffer<U> handler) {
+			try {
+				final U user = workerUser.apply(index);
+				int counter = 0;
+
+				for (;;) {
+					PacketBuffer packet = queue.poll();
+
+					if (packet != null) {
+						counter = 0;
+						handler.handlePacketBuffer(user, packet);
+						continue;
+					}
+
+					if (stopped || (captureEnded && queue.isEmpty()))
+						break;
+
+					waitStrategy.idle(counter++);
+				}
+			} catch (Throwable e) {
+				fail(e);
+			}
+		}
+
+		/**
+		 * Total number of packets steered to this worker, including any dropped.
+		 *
+		 * @return the steered count
+		 */
+		public long steeredCount() {
+			return steeredCount.get();
+		}
+
+		/**
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "Worker [index=" + index
+					+ ", queued=" + queued()
+					+ ", steered=" + steeredCount()
+					+ ", dropped=" + dropCount()
+					+ "]";
+		}
+	}
+
+	/** Default per-worker queue capacity */
+	public static final int DEFAULT_QUEUE_CAPACITY = 16 * 1024;
+
+	private static final PcapHeaderABI NATIVE_ABI = PcapHeaderABI.nativeAbi();
+
+	/**
+	 * Reads the handle's link type as an int, since some link types, such as
+	 * Linux cooked capture v2, have no {@code PcapDlt} constant.
+	 */
+	static int datalinkOf(Pcap pcap) {
+		try {
+			if (pcap instanceof Pcap0_4 pcap0_4)
+				return pcap0_4.datalinkGetAsInt();
+
+			return pcap.datalink().intDlt;
+
+		} catch (PcapException e) {
+			throw new IllegalStateException("unable to read datalink of " + pcap, e);
+		}
+	}
+
+	private final Pcap pcap;
+	private final PacketBufferPool pool;
+	private final PcapReceiver receiver;
+	private final int dlt;
+	private final boolean offline;
+	private final Worker[] workers;
+	private final WaitStrategy waitStrategy;
+
+	private ThreadFactory threadFactory = Thread::new;
+	private int batchSize = 256;
+	private Thread captureThread;
+	private volatile boolean stopped;
+	private volatile boolean captureEnded;
+	private volatile Throwable error;
+
+	/**
+	 * Instantiates a new flow steering receiver with default queue capacity and
+	 * {@link WaitStrategy#PARK} idle workers.
+	 *
+	 * @param pcap        the activated pcap handle
+	 * @param pool        the pool packets are copied into
+	 * @param workerCount the number of worker threads
+	 */
+	public PcapFlowSteering(Pcap pcap, PacketBufferPool pool, int workerCount) {
+		this(pcap, pool, workerCount, DEFAULT_QUEUE_CAPACITY, WaitStrategy.PARK);
+	}
+
+	/**
+	 * Instantiates a new flow steering receiver.
+	 *
+	 * @param pcap          the activated pcap handle
+	 * @param pool          the pool packets are copied into
+	 * @param workerCount   the number of worker threads
+	 * @param queueCapacity per worker queue capacity in packets
+	 * @param waitStrategy  how idle workers wait for packets
+	 */
+	public PcapFlowSteering(Pcap pcap, PacketBufferPool pool, int workerCount, int queueCapacity,
+			WaitStrategy waitStrategy) {
+		if (workerCount <= 0)
+			throw new IllegalArgumentException("worker count must be greater than 0 (%d)".formatted(workerCount));
+
+		this.pcap = Objects.requireNonNull(pcap, "pcap");
+		this.pool = Objects.requireNonNull(pool, "pool");
+		this.waitStrategy = Objects.requireNonNull(waitStrategy, "waitStrategy");
+		this.receiver = new PcapReceiver(pcap::dispatch);
+		this.dlt = datalinkOf(pcap);
+		this.offline = pcap.isOffline();
+		this.workers = IntStream.range(0, workerCount)
+				.mapToObj(i -> new Worker(i, queueCapacity))
+				.toArray(Worker[]::new);
+	}
+
+	/**
+	 * Waits for the capture to end, by end of file, breakloop or {@link #stop()},
+	 * and for all workers to drain their queues.
+	 *
+	 * @throws InterruptedException  if interrupted while waiting
+	 * @throws IllegalStateException if the capture or a worker failed, with the
+	 *                               failure as its cause
+	 */
+	public void awaitCompletion() throws InterruptedException {
+		if (captureThread != null)
+			captureThread.join();
+
+		for (Worker w : workers)
+			if (w.thread != null)
+				w.thread.join();
+
+		Throwable e = error;
+		if (e != null)
+			throw new IllegalStateException("flow steering failed", e);
+	}
+
+	/**
+	 * Capture loop, run on the capture thread.
+	 */
+	private void capture() {
+		try {
+			while (!stopped) {
+				int result = receiver.sourcePackets(batchSize, this::steer);
+
+				if (result < 0 || (result == 0 && offline))
+					break;
+			}
+		} catch (Throwable e) {
+			fail(e);
+
+		} finally {
+			pool.releaseWriter();
+			captureEnded = true;
+		}
+	}
+
+	/**
+	 * Stops capture and all workers, and releases any packets still queued. Does
+	 * not close the pcap handle or the pool.
+	 *
+	 * @see java.lang.AutoCloseable#close()
+	 */
+	@Override
+	public void close() {
+		stop();
+
+		try {
+			awaitCompletion();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IllegalStateException e) {
+			// Failure already reported through awaitCompletion to interested callers
+		}
+
+		for (Worker w : workers) {
+			PacketBuffer packet;
+			while ((packet = w.queue.poll()) != null)
+				packet.release();
+		}
+	}
+
+	/**
+	 * Total number of packets dropped across all workers.
+	 *
+	 * @return the drop count
+	 */
+	public long dropCount() {
+		long total = 0;
+		for (Worker w : workers)
+			total += w.dropCount();
+
+		return total;
+	}
+
+	private void fail(Throwable e) {
+		if (error == null)
+			error = e;
+
+		stop();
+	}
+
+	/**
+	 * The receiver used to dispatch packets, which can be used to configure
+	 * receive options such as the copy limit.
+	 *
+	 * @return the receiver
+	 */
+	public PcapReceiver receiver() {
+		return receiver;
+	}
+
+	/**
+	 * Sets the maximum number of packets per dispatch call.
+	 *
+	 * @param batchSize the batch size
+	 * @return this flow steering receiver
+	 */
+	public PcapFlowSteering setBatchSize(int batchSize) {
+		if (batchSize <= 0)
+			throw new IllegalArgumentException("batch size must be greater than 0 (%d)".formatted(batchSize));
+
+		this.batchSize = batchSize;
+
+		return this;
+	}
+
+	/**
+	 * Sets the factory used to create the capture and worker threads.
+	 *
+	 * @param threadFactory the thread factory
+	 * @return this flow steering receiver
+	 */
+	public PcapFlowSteering setThreadFactory(ThreadFactory threadFactory) {
+		if (captureThread != null)
+			throw new IllegalStateException("already started");
+
+		this.threadFactory = Objects.requireNonNull(threadFactory, "threadFactory");
+
+		return this;
+	}
+
+	/**
+	 * Starts the worker threads and the capture thread.
+	 *
+	 * @param <U>        the generic per worker user type
+	 * @param workerUser creates each worker's user object, called once on the
+	 *                   worker's own thread with the worker index, a natural
+	 *                   place to create lock free per-flow state
+	 * @param handler    the packet handler, which owns the packet's reference
+	 * @return this flow steering receiver
+	 */
+	public <U> PcapFlowSteering start(IntFunction<U> workerUser, PcapHandler.OfPacketBuffer<U> handler) {
+		Objects.requireNonNull(workerUser, "workerUser");
+		Objects.requireNonNull(handler, "handler");
+
+		if (captureThread != null)
+			throw new IllegalStateException("already started");
+
+		for (Worker w : workers) {
+			w.thread = threadFactory.newThread(() -> w.run(workerUser, handler));
+			w.thread.setName("pcap-flow-worker-" + w.index);
+			w.thread.start();
+		}
+
+		captureThread = threadFactory.newThread(this::capture);
+		captureThread.setName("pcap-flow-capture");
+		captureThread.start();
+
+		return this;
+	}
+
+	/**
+	 * Hashes, copies and queues a single packet, on the capture thread.
+	 */
+	private void steer(Addressable header, Addressable data) {
+		MemoryAddress hdr = header.address();
+		int caplen = NATIVE_ABI.captureLength(hdr);
+		int hash = PcapFlowHash.hash(dlt, data.address(), caplen);
+
+		Worker worker = workers[workerIndex(hash, workers.length)];
+		worker.steeredCount.incrementAndGet();
+
+		int limit = receiver.admitLimit(hdr, data.address());
+		if (limit < 0)
+			return; // Shed by the overload control
+
+		PacketBuffer packet = pool.allocate(hdr, data.address(), limit);
+		if (packet == null) {
+			worker.dropCount.incrementAndGet();
+			return;
+		}
+
+		/* Offline files have no kernel buffer to overflow, wait for the worker */
+		for (int counter = 0; !worker.queue.offer(packet); counter++) {
+			if (!offline || stopped) {
+				worker.dropCount.incrementAndGet();
+				packet.release();
+				return;
+			}
+
+			waitStrategy.idle(counter);
+		}
+	}
+
+	/**
+	 * Stops capturing and all workers, without waiting for queued packets to be
+	 * handled.
+	 */
+	public void stop() {
+		stopped = true;
+
+		if (!offline && captureThread != null)
+			pcap.breakloop();
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "PcapFlowSteering [workers=" + workers.length
+				+ ", dlt=" + dlt
+				+ ", dropped=" + dropCount()
+				+ "]";
+	}
+
+	/**
+	 * Maps a flow hash onto a worker index, by multiply and shift which avoids a
+	 * division and uses all bits of the hash.
+	 *
+	 * @param hash        the flow hash
+	 * @param workerCount the number of workers
+	 * @return the worker index
+	 */
+	static int workerIndex(int hash, int workerCount) {
+		return (int) (((hash & 0xFFFFFFFFL) * workerCount) >>> 32);
+	}
+
+	/**
+	 * All workers, in index order.
+	 *
+	 * @return unmodifiable list of workers
+	 */
+	public List<Worker> workers() {
+		return List.of(workers);
+	}
+}
@@ -0,0 +1,387 @@
+/*
+ * Apache License, Version 2.0
+ *
+ * Copyright 2013-2022 Sly Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jnetpcap.util;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.invoke.MethodType.methodType;
+
+import java.lang.foreign.Addressable;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.MemoryAddress;
+import java.lang.foreign.MemorySession;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.UnaryOperator;
+
+import org.jnetpcap.BpFilter;
+import org.jnetpcap.Pcap;
+import org.jnetpcap.PcapHandler.OfRawPacket;
+import org.jnetpcap.internal.ForeignUpcall;
+
+/**
+ * A packet handler chain, such as filter, map, tee and sink, composed into a
+ * single constant {@link MethodHandle} tree and bound directly into its own
+ * native upcall stub.
+ *
+ * <p>
+ * Handlers composed as chains of lambdas around {@link OfRawPacket} are all
+ * called through the same, shared, upcall site, which quickly becomes
+ * megamorphic once several chain shapes are in use, and the JIT stops inlining
+ * the chain. A handler chain instead combines its stages using
+ * {@link MethodHandles#guardWithTest}, {@link MethodHandles#foldArguments} and
+ * friends, with every stage object bound into the tree as a constant. The tree
+ * is the target of a dedicated upcall stub, so the whole per-packet pipeline is
+ * compiled as one unit.
+ * </p>
+ *
+ * <pre>
+ * <code>
+var chain = PcapHandlerChain.builder()
+		.filter((header, data) -> data.get(JAVA_BYTE, 12) == 0x08)
+		.tee(counter)
+		.sink(processor);
+
+while (pcap.dispatch(1000, chain) > 0)
+	;
+ * </code>
+ * </pre>
+ *
+ * <p>
+ * A chain is immutable, and its upcall stub is created once, on first use, and
+ * released when the chain is no longer reachable. The same chain should
+ * therefore be reused across dispatch calls. Every stage is called on the
+ * capture thread.
+ * </p>
+ *
+ * @author Sly Technologies Inc
+ * @author repos@slytechs.com
+ * @author mark
+ */
+public final class PcapHandlerChain {
+
+	/**
+	 * Builds a handler chain, from the first stage to the sink.
+	 */
+	public static final class Builder {
+
+		/** Stages in the order added, each wrapping its downstream handle */
+		private final List<UnaryOperator<MethodHandle>> stages = new ArrayList<>();
+
+		private Builder() {
+		}
+
+		/**
+		 * Drops all packets not matched by a BPF filter.
+		 *
+		 * @param bpFilter the filter
+		 * @return this builder
+		 * @see Pcap#offlineFilter(BpFilter, Addressable, Addressable)
+		 */
+		public Builder filter(BpFilter bpFilter) {
+			Objects.requireNonNull(bpFilter, "bpFilter");
+
+			return filter(MethodHandles.insertArguments(OFFLINE_FILTER, 0, bpFilter)
+					.asType(PREDICATE_TYPE));
+		}
+
+		/**
+		 * Drops all packets for which the test method handle returns false. For best
+		 * results the handle should be a direct handle to a static method.
+		 *
+		 * @param test the test handle, of type
+		 *             {@code (MemoryAddress, MemoryAddress)boolean}
+		 * @return this builder
+		 */
+		public Builder filter(MethodHandle test) {
+			checkType(test, PREDICATE_TYPE);
+
+			stages.add(next -> MethodHandles.guardWithTest(test, next, DROP));
+
+			return this;
+		}
+
+		/**
+		 * Drops all packets for which the predicate returns false.
+		 *
+		 * @param predicate the predicate
+		 * @return this builder
+		 */
+		public Builder filter(RawPredicate predicate) {
+			Objects.requireNonNull(predicate, "predicate");
+
+			return filter(PREDICATE_TEST.bindTo(predicate));
+		}
+
+		/**
+		 * Replaces the packet data passed downstream with the address returned by the
+		 * mapping method handle. The header is passed downstream unchanged.
+		 *
+		 * @param mapper the mapping handle, of type
+		 *               {@code (MemoryAddress, MemoryAddress)MemoryAddress}
+		 * @return this builder
+		 */
+		public Builder map(MethodHandle mapper) {
+			checkType(mapper, MAPPER_TYPE);
+
+			/* (mapped, header, data) -> next(header, mapped) */
+			stages.add(next -> MethodHandles.foldArguments(
+					MethodHandles.permuteArguments(
+							MethodHandles.dropArguments(next, 2, MemoryAddress.class),
+							methodType(void.class, MemoryAddress.class, MemoryAddress.class, MemoryAddress.class),
+							1, 0, 2),
+					mapper));
+
+			return this;
+		}
+
+		/**
+		 * Replaces the packet data passed downstream with the address returned by the
+		 * mapper. The header is passed downstream unchanged.
+		 *
+		 * @param mapper the mapper
+		 * @return this builder
+		 */
+		public Builder map(RawMapper mapper) {
+			Objects.requireNonNull(mapper, "mapper");
+
+			return map(MAPPER_MAP.bindTo(mapper));
+		}
+
+		/**
+		 * Builds the chain, with a sink method handle as its last stage. For best
+		 * results the handle should be a direct handle to a static method.
+		 *
+		 * @param sink the sink handle, of type {@code (MemoryAddress, MemoryAddress)void}
+		 * @return the handler chain
+		 */
+		public PcapHandlerChain sink(MethodHandle sink) {
+			checkType(sink, HANDLER_TYPE);
+
+			MethodHandle handle = sink;
+			for (int i = stages.size() - 1; i >= 0; i--)
+				handle = stages.get(i).apply(handle);
+
+			return new PcapHandlerChain(handle);
+		}
+
+		/**
+		 * Builds the chain, with a sink as its last stage.
+		 *
+		 * @param sink the sink
+		 * @return the handler chain
+		 */
+		public PcapHandlerChain sink(OfRawPacket sink) {
+			Objects.requireNonNull(sink, "sink");
+
+			return sink(asHandle(sink));
+		}
+
+		/**
+		 * Passes every packet to a tee handler, before passing it downstream.
+		 *
+		 * @param tee the tee handle, of type {@code (MemoryAddress, MemoryAddress)void}
+		 * @return this builder
+		 */
+		public Builder tee(MethodHandle tee) {
+			checkType(tee, HANDLER_TYPE);
+
+			stages.add(next -> MethodHandles.foldArguments(next, tee));
+
+			return this;
+		}
+
+		/**
+		 * Passes every packet to a tee handler, before passing it downstream.
+		 *
+		 * @param tee the tee handler
+		 * @return this builder
+		 */
+		public Builder tee(OfRawPacket tee) {
+			Objects.requireNonNull(tee, "tee");
+
+			return tee(asHandle(tee));
+		}
+	}
+
+	/**
+	 * Maps a packet's data to a different address, for example past a link-layer
+	 * header.
+	 */
+	@FunctionalInterface
+	public interface RawMapper {
+
+		/**
+		 * Maps the packet data.
+		 *
+		 * @param header address of the native pcap header
+		 * @param data   address of the native packet data
+		 * @return the data address passed downstream
+		 */
+		MemoryAddress map(MemoryAddress header, MemoryAddress data);
+	}
+
+	/**
+	 * Tests a packet in native memory.
+	 */
+	@FunctionalInterface
+	public interface RawPredicate {
+
+		/**
+		 * Tests the packet.
+		 *
+		 * @param header address of the native pcap header
+		 * @param data   address of the native packet data
+		 * @return true, to pass the packet downstream
+		 */
+		boolean test(MemoryAddress header, MemoryAddress data);
+	}
+
+	/** Type of every handler in the chain, {@code (header, data)void} */
+	public static final MethodType HANDLER_TYPE = methodType(void.class, MemoryAddress.class, MemoryAddress.class);
+
+	/** Type of a filter stage, {@code (header, data)boolean} */
+	public static final MethodType PREDICATE_TYPE = methodType(boolean.class, MemoryAddress.class,
+			MemoryAddress.class);
+
+	/** Type of a map stage, {@code (header, data)MemoryAddress} */
+	public static final MethodType MAPPER_TYPE = methodType(MemoryAddress.class, MemoryAddress.class,
+			MemoryAddress.class);
+
+	/** Native pcap_handler: {@code void (*)(u_char *user, pcap_pkthdr *h, u_char *bytes)} */
+	private static final FunctionDescriptor PCAP_HANDLER = FunctionDescriptor.ofVoid(ADDRESS, ADDRESS, ADDRESS);
+
+	private static final MethodHandle DROP = MethodHandles.empty(HANDLER_TYPE);
+	private static final MethodHandle HANDLE_RAW_PACKET;
+	private static final MethodHandle PREDICATE_TEST;
+	private static final MethodHandle MAPPER_MAP;
+	private static final MethodHandle OFFLINE_FILTER;
+
+	static {
+		var lookup = MethodHandles.lookup();
+
+		try {
+			HANDLE_RAW_PACKET = lookup.findVirtual(OfRawPacket.class, "handleRawPacket",
+					methodType(void.class, Addressable.class, Addressable.class));
+			PREDICATE_TEST = lookup.findVirtual(RawPredicate.class, "test", PREDICATE_TYPE);
+			MAPPER_MAP = lookup.findVirtual(RawMapper.class, "map", MAPPER_TYPE);
+			OFFLINE_FILTER = lookup.findStatic(Pcap.class, "offlineFilter",
+					methodType(boolean.class, BpFilter.class, Addressable.class, Addressable.class));
+
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private static MethodHandle asHandle(OfRawPacket handler) {
+		return HANDLE_RAW_PACKET.bindTo(handler).asType(HANDLER_TYPE);
+	}
+
+	/**
+	 * Creates a new chain builder.
+	 *
+	 * @return the builder
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	private static void checkType(MethodHandle handle, MethodType expected) {
+		Objects.requireNonNull(handle, "handle");
+
+		if (!handle.type().equals(expected))
+			throw new IllegalArgumentException("invalid handle type %s, expected %s"
+					.formatted(handle.type(), expected));
+	}
+
+	/**
+	 * Creates a chain of a single sink.
+	 *
+	 * @param sink the sink
+	 * @return the handler chain
+	 */
+	public static PcapHandlerChain of(OfRawPacket sink) {
+		return builder().sink(sink);
+	}
+
+	private final MethodHandle handle;
+
+	/** Lazily created on first dispatch, released with the chain */
+	private MemorySession stubSession;
+	private MemoryAddress stub;
+
+	private PcapHandlerChain(MethodHandle handle) {
+		this.handle = handle;
+	}
+
+	/**
+	 * The composed method handle, of type {@link #HANDLER_TYPE}.
+	 *
+	 * @return the method handle
+	 */
+	public MethodHandle handle() {
+		return handle;
+	}
+
+	/**
+	 * Calls the chain directly from java, for example to feed it packets which did
+	 * not come from a pcap dispatch call.
+	 *
+	 * @param header address of the native pcap header
+	 * @param data   address of the native packet data
+	 */
+	public void handleRawPacket(MemoryAddress header, MemoryAddress data) {
+		try {
+			handle.invokeExact(header, data);
+
+		} catch (RuntimeException | Error e) {
+			throw e;
+
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "PcapHandlerChain [handle=" + handle + "]";
+	}
+
+	/**
+	 * Native pcap_handler upcall stub which calls the chain, created on first use.
+	 * The stub remains valid for as long as this chain is reachable.
+	 *
+	 * @return the upcall stub address
+	 */
+	public synchronized MemoryAddress upcallStub() {
+		if (stub == null) {
+			MethodHandle target = MethodHandles.dropArguments(handle, 0, MemoryAddress.class); // u_char *user
+
+			stubSession = MemorySession.openImplicit();
+			stub = new ForeignUpcall<>(target, PCAP_HANDLER, stubSession).address();
+		}
+
+		return stub;
+	}
+}
@@ -0,0 +1,663 @@
+/*
+ * Apache License, Version 2.0
+ *
+ * Copyright 2013-2022 Sly Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jnetpcap.util;
+
+import static org.jnetpcap.PcapHeader.PCAP_HEADER_LENGTH;
+
+import java.lang.foreign.Addressable;
+import java.lang.foreign.MemoryAddress;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.MemorySession;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+import org.jnetpcap.Pcap;
+import org.jnetpcap.PcapException;
+import org.jnetpcap.PcapHandler;
+import org.jnetpcap.PcapHandler.OfRawPacket;
+import org.jnetpcap.PcapHeaderFlyweight;
+import org.jnetpcap.constant.PcapTStampPrecision;
+import org.jnetpcap.internal.PcapHeaderABI;
+
+/**
+ * Merges packets pulled from several pcap handles, such as several interfaces
+ * or several fanout group members, into a single stream in global timestamp
+ * order.
+ *
+ * <p>
+ * Every handle, or source, has its own bounded reorder window, a ring of
+ * off-heap slots into which its packets are copied as they are dispatched. The
+ * oldest packet of each non-empty window is kept in a primitive min-heap keyed
+ * on its timestamp, so the next packet in global order is always at the top of
+ * the heap. No objects are allocated per packet, all slot addresses are
+ * computed once and packets are delivered through a reused
+ * {@link PcapPacketFlyweight}.
+ * </p>
+ *
+ * <p>
+ * A packet is only emitted once the merge watermark has reached its timestamp.
+ * The watermark is the smallest of the newest timestamps seen from every
+ * source which is still active, that is the point in time up to which every
+ * source has reported. A source which has not produced a packet within the
+ * idle timeout no longer holds back the watermark, and a source whose window
+ * is full forces the oldest packets out ahead of the watermark, so that a
+ * quiet or slow handle can not stall the merge. Packets which arrive behind
+ * the watermark are still delivered, and are counted as late.
+ * </p>
+ *
+ * <pre>
+ * <code>
+var merge = new PcapMergeReceiver(4096, pcap1.snapshot() + 16);
+merge.addSource(pcap1);
+merge.addSource(pcap2);
+
+while (merge.poll(256, (user, packet) -> process(packet), null) >= 0)
+	;
+ * </code>
+ * </pre>
+ *
+ * <p>
+ * Packets are pulled from each handle in turn, on the polling thread, so live
+ * handles should be put in non-blocking mode, or given a short buffer timeout.
+ * Timestamps are normalized to nanoseconds since epoch, so handles with micro
+ * and nano second precision can be merged. The headers of delivered packets
+ * are always in nanosecond precision, their {@code tvUsec} field holding the
+ * nanosecond fraction of the second, whatever the precision of the source
+ * handle. Packets longer than a slot are
+ * truncated, their header reporting the number of bytes stored as the capture
+ * length, while the wire length is unchanged.
+ * </p>
+ *
+ * @author Sly Technologies Inc
+ * @author repos@slytechs.com
+ * @author mark
+ */
+public final class PcapMergeReceiver {
+
+	/**
+	 * A pcap handle being merged and its reorder window.
+	 */
+	public final class Source {
+
+		private final int id;
+		private final Pcap pcap;
+		private final PcapReceiver receiver;
+		private final boolean offline;
+		private final boolean nanoPrecision;
+		private final MemoryAddress[] headers;
+		private final MemoryAddress[] datas;
+		private final long[] timestamps;
+		private final int mask;
+		private final OfRawPacket sink = this::enqueue;
+
+		/** Next slot to emit and next slot to fill */
+		private long head;
+		private long tail;
+
+		private long highTimestamp = Long.MIN_VALUE;
+		private long lastActiveNanos;
+		private boolean ended;
+		private int endResult;
+
+		private long packetCount;
+		private long lateCount;
+		private long truncatedCount;
+
+		private Source(int id, Pcap pcap, MemorySegment window) {
+			this.id = id;
+			this.pcap = pcap;
+			this.receiver = new PcapReceiver(pcap::dispatch);
+			this.offline = pcap.isOffline();
+			this.nanoPrecision = isNanoPrecision(pcap);
+			this.mask = windowSize - 1;
+			this.headers = new MemoryAddress[windowSize];
+			this.datas = new MemoryAddress[windowSize];
+			this.timestamps = new long[windowSize];
+
+			for (int i = 0; i < windowSize; i++) {
+				headers[i] = window.address().addOffset((long) i * slotSize);
+				datas[i] = headers[i].addOffset(PCAP_HEADER_LENGTH);
+			}
+		}
+
+		/**
+		 * Copies a dispatched packet into the window. The window always has room,
+		 * since no more packets than free slots are dispatched.
+		 */
+		private void enqueue(Addressable header, Addressable data) {
+			MemoryAddress hdr = header.address();
+			MemoryAddress bytes = data.address();
+
+			int limit = receiver.admitLimit(hdr, bytes);
+			if (limit < 0)
+				return;
+
+			int caplen = NATIVE_ABI.captureLength(hdr);
+			int copy = Math.min(Math.min(caplen, limit), slotSize - PCAP_HEADER_LENGTH);
+			long tvFraction = NATIVE_ABI.tvUsec(hdr);
+			long ts = NANO_PRECISION.toEpochTime(NATIVE_ABI.tvSec(hdr),
+					nanoPrecision ? tvFraction : tvFraction * 1000);
+
+			int index = (int) (tail & mask);
+			MemoryAddress slot = headers[index];
+
+			/* Delivered headers are always in nanosecond precision */
+			COMPACT_ABI.tvSec(slot, Math.floorDiv(ts, NANOS_PER_SECOND));
+			COMPACT_ABI.tvUsec(slot, Math.floorMod(ts, NANOS_PER_SECOND));
+			COMPACT_ABI.captureLength(slot, copy);
+			COMPACT_ABI.wireLength(slot, NATIVE_ABI.wireLength(hdr));
+			MemorySegment.copy(ALL_MEMORY, bytes.toRawLongValue(), ALL_MEMORY, datas[index].toRawLongValue(), copy);
+
+			timestamps[index] = ts;
+			tail++;
+			packetCount++;
+
+			if (copy < caplen)
+				truncatedCount++;
+
+			if (ts <= watermark)
+				lateCount++;
+
+			if (ts > highTimestamp)
+				highTimestamp = ts;
+
+			if (size() == windowSize)
+				fullWindows++;
+		}
+
+		/**
+		 * Pcap result code which ended this source, 0 at the end of a savefile, or
+		 * a negative pcap error code.
+		 *
+		 * @return the result code, valid once ended
+		 */
+		public int endResult() {
+			return endResult;
+		}
+
+		/**
+		 * Newest packet timestamp seen from this source.
+		 *
+		 * @return nanoseconds since epoch, or {@link Long#MIN_VALUE} if none yet
+		 */
+		public long highTimestamp() {
+			return highTimestamp;
+		}
+
+		/**
+		 * Checks if the source has ended, at the end of a savefile, after a
+		 * breakloop or an error.
+		 *
+		 * @return true, if ended
+		 */
+		public boolean isEnded() {
+			return ended;
+		}
+
+		/**
+		 * Number of packets received behind the merge watermark, which could not be
+		 * delivered in global order.
+		 *
+		 * @return the late packet count
+		 */
+		public long lateCount() {
+			return lateCount;
+		}
+
+		/**
+		 * Number of packets received from this source.
+		 *
+		 * @return the packet count
+		 */
+		public long packetCount() {
+			return packetCount;
+		}
+
+		/**
+		 * The source's pcap handle.
+		 *
+		 * @return the pcap handle
+		 */
+		public Pcap pcap() {
+			return pcap;
+		}
+
+		/**
+		 * The receiver used to dispatch packets from this source, which can be used to
+		 * configure receive options.
+		 *
+		 * @return the receiver
+		 */
+		public PcapReceiver receiver() {
+			return receiver;
+		}
+
+		/**
+		 * Number of packets currently buffered in the reorder window.
+		 *
+		 * @return the window size in use
+		 */
+		public int size() {
+			return (int) (tail - head);
+		}
+
+		/**
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "Source [id=" + id
+					+ ", buffered=" + size()
+					+ ", packets=" + packetCount
+					+ ", late=" + lateCount
+					+ ", ended=" + ended
+					+ "]";
+		}
+
+		/**
+		 * Number of packets truncated to the slot size.
+		 *
+		 * @return the truncated count
+		 */
+		public long truncatedCount() {
+			return truncatedCount;
+		}
+	}
+
+	/** Default number of slots in each source's reorder window */
+	public static final int DEFAULT_WINDOW_SIZE = 1024;
+
+	/** Default slot size, fits a 16 byte header and a full ethernet frame */
+	public static final int DEFAULT_SLOT_SIZE = PCAP_HEADER_LENGTH + 1536;
+
+	/** Default time after which a quiet source no longer holds back the watermark */
+	public static final long DEFAULT_IDLE_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private static final PcapHeaderABI NATIVE_ABI = PcapHeaderABI.nativeAbi();
+	private static final PcapHeaderABI COMPACT_ABI = PcapHeaderABI.compactAbi();
+	private static final PcapTStampPrecision NANO_PRECISION = PcapTStampPrecision.TSTAMP_PRECISION_NANO;
+	private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+	/** Covers all of native memory, copies through it do not allocate a segment */
+	private static final MemorySegment ALL_MEMORY = MemorySegment.ofAddress(MemoryAddress.NULL, Long.MAX_VALUE,
+			MemorySession.global());
+
+	private static boolean isNanoPrecision(Pcap pcap) {
+		try {
+			return pcap.getTstampPrecision() == NANO_PRECISION;
+		} catch (PcapException | UnsupportedOperationException e) {
+			return false; // Older libpcap, always microsecond precision
+		}
+	}
+
+	private final int windowSize;
+	private final int slotSize;
+	private final MemorySession session = MemorySession.openImplicit();
+	private final List<Source> sources = new ArrayList<>();
+	private final PcapPacketFlyweight packet = new PcapPacketFlyweight(PcapHeaderFlyweight.ofCompactHeader());
+
+	/** Min-heap of each non-empty window's oldest timestamp and its source id */
+	private long[] heapKeys = new long[0];
+	private int[] heapSources = new int[0];
+	private int heapSize;
+
+	private Source[] sourceArray = new Source[0];
+	private int fullWindows;
+	private int batchSize = 64;
+	private long idleTimeoutNanos = DEFAULT_IDLE_TIMEOUT_NANOS;
+	private LongConsumer watermarkListener;
+
+	/** Every packet at or before the watermark has been emitted */
+	private long watermark = Long.MIN_VALUE;
+	private long lastEmitted = Long.MIN_VALUE;
+	private long emittedCount;
+
+	/**
+	 * Instantiates a new merge receiver with the default window and slot sizes.
+	 */
+	public PcapMergeReceiver() {
+		this(DEFAULT_WINDOW_SIZE, DEFAULT_SLOT_SIZE);
+	}
+
+	/**
+	 * Instantiates a new merge receiver.
+	 *
+	 * @param windowSize number of packets buffered per source, rounded up to the
+	 *                   next power of 2
+	 * @param slotSize   size of each slot in bytes, including 16 bytes for the
+	 *                   header
+	 */
+	public PcapMergeReceiver(int windowSize, int slotSize) {
+		if (windowSize <= 0 || windowSize > (1 << 24))
+			throw new IllegalArgumentException("invalid window size (%d)".formatted(windowSize));
+
+		if (slotSize <= PCAP_HEADER_LENGTH)
+			throw new IllegalArgumentException("slot size too small (%d)".formatted(slotSize));
+
+		this.windowSize = Math.max(1, Integer.highestOneBit(windowSize - 1) << 1);
+		this.slotSize = (slotSize + 7) & -8;
+	}
+
+	/**
+	 * Adds a pcap handle to the merge. Sources should all be added before the
+	 * first poll.
+	 *
+	 * @param pcap the pcap handle
+	 * @return the new source, which reports the handle's merge statistics
+	 */
+	public Source addSource(Pcap pcap) {
+		Objects.requireNonNull(pcap, "pcap");
+
+		var window = MemorySegment.allocateNative((long) windowSize * slotSize, 8, session);
+		var source = new Source(sources.size(), pcap, window);
+		source.lastActiveNanos = System.nanoTime();
+
+		sources.add(source);
+		sourceArray = sources.toArray(Source[]::new);
+		heapKeys = new long[sourceArray.length];
+		heapSources = new int[sourceArray.length];
+		heapSize = 0;
+
+		for (Source s : sourceArray)
+			if (s.size() > 0)
+				heapPush(s.timestamps[(int) (s.head & s.mask)], s.id);
+
+		return source;
+	}
+
+	/**
+	 * Total number of packets emitted in merged order.
+	 *
+	 * @return the emitted count
+	 */
+	public long emittedCount() {
+		return emittedCount;
+	}
+
+	/**
+	 * Pulls packets from every source with room in its window.
+	 */
+	private void fill(long now) {
+		for (Source s : sourceArray) {
+			if (s.ended)
+				continue;
+
+			int room = windowSize - s.size();
+			if (room == 0)
+				continue;
+
+			boolean wasEmpty = (s.size() == 0);
+			int result = s.receiver.sourcePackets(Math.min(room, batchSize), s.sink);
+
+			if (result < 0 || (result == 0 && s.offline)) {
+				s.ended = true;
+				s.endResult = Math.min(result, 0);
+
+			} else if (result > 0) {
+				s.lastActiveNanos = now;
+			}
+
+			if (wasEmpty && s.size() > 0)
+				heapPush(s.timestamps[(int) (s.head & s.mask)], s.id);
+		}
+	}
+
+	private void heapPush(long key, int source) {
+		int i = heapSize++;
+
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!less(key, source, heapKeys[parent], heapSources[parent]))
+				break;
+
+			heapKeys[i] = heapKeys[parent];
+			heapSources[i] = heapSources[parent];
+			i = parent;
+		}
+
+		heapKeys[i] = key;
+		heapSources[i] = source;
+	}
+
+	/**
+	 * Replaces the top of the heap, or removes it if source is -1, and restores the
+	 * heap order.
+	 */
+	private void heapReplaceTop(long key, int source) {
+		if (source < 0) {
+			if (--heapSize == 0)
+				return;
+
+			key = heapKeys[heapSize];
+			source = heapSources[heapSize];
+		}
+
+		int i = 0;
+		int half = heapSize >>> 1;
+
+		while (i < half) {
+			int child = 2 * i + 1;
+			int right = child + 1;
+
+			if (right < heapSize && less(heapKeys[right], heapSources[right], heapKeys[child], heapSources[child]))
+				child = right;
+
+			if (!less(heapKeys[child], heapSources[child], key, source))
+				break;
+
+			heapKeys[i] = heapKeys[child];
+			heapSources[i] = heapSources[child];
+			i = child;
+		}
+
+		heapKeys[i] = key;
+		heapSources[i] = source;
+	}
+
+	/**
+	 * Checks if every source has ended and all windows have been drained.
+	 *
+	 * @return true, if done
+	 */
+	public boolean isDone() {
+		if (heapSize > 0)
+			return false;
+
+		for (Source s : sourceArray)
+			if (!s.ended)
+				return false;
+
+		return true;
+	}
+
+	/** Heap order, by timestamp and then by source for a stable merge */
+	private static boolean less(long key1, int source1, long key2, int source2) {
+		return (key1 < key2) || (key1 == key2 && source1 < source2);
+	}
+
+	/**
+	 * Pulls packets from every source and delivers up to count packets, in global
+	 * timestamp order, which are at or before the watermark. The packet flyweight
+	 * is only valid for the duration of the handler call, and its header is in
+	 * nanosecond precision.
+	 *
+	 * @param <U>     the generic user type
+	 * @param count   the maximum number of packets to deliver
+	 * @param handler the packet handler
+	 * @param user    the user opaque data object
+	 * @return the number of packets delivered, which can be 0 if the watermark has
+	 *         not advanced, or -1 once every source has ended and all packets have
+	 *         been delivered
+	 */
+	public <U> int poll(int count, PcapHandler.OfPacketFlyweight<U> handler, U user) {
+		if (count <= 0)
+			throw new IllegalArgumentException("count must be greater than 0 (%d)".formatted(count));
+
+		Objects.requireNonNull(handler, "handler");
+
+		long now = System.nanoTime();
+		fill(now);
+
+		long inputWatermark = sourceWatermark(now);
+		int delivered = 0;
+
+		while (delivered < count && heapSize > 0) {
+			long ts = heapKeys[0];
+			if (ts > inputWatermark && fullWindows == 0)
+				break;
+
+			Source s = sourceArray[heapSources[0]];
+			int index = (int) (s.head & s.mask);
+
+			if (s.size() == windowSize)
+				fullWindows--;
+
+			s.head++;
+
+			if (s.size() > 0)
+				heapReplaceTop(s.timestamps[(int) (s.head & s.mask)], s.id);
+			else
+				heapReplaceTop(0, -1);
+
+			lastEmitted = Math.max(lastEmitted, ts);
+			emittedCount++;
+			delivered++;
+
+			handler.handlePacket(user, packet.bind(s.headers[index], s.datas[index]));
+		}
+
+		updateWatermark(inputWatermark);
+
+		return (delivered == 0 && isDone()) ? -1 : delivered;
+	}
+
+	/**
+	 * Sets the maximum number of packets pulled from a source per dispatch call.
+	 *
+	 * @param batchSize the batch size
+	 * @return this merge receiver
+	 */
+	public PcapMergeReceiver setBatchSize(int batchSize) {
+		if (batchSize <= 0)
+			throw new IllegalArgumentException("batch size must be greater than 0 (%d)".formatted(batchSize));
+
+		this.batchSize = batchSize;
+
+		return this;
+	}
+
+	/**
+	 * Sets the time after which a source that has not produced any packets no
+	 * longer holds back the watermark.
+	 *
+	 * @param timeout the timeout
+	 * @param unit    the timeout unit
+	 * @return this merge receiver
+	 */
+	public PcapMergeReceiver setIdleTimeout(long timeout, TimeUnit unit) {
+		if (timeout < 0)
+			throw new IllegalArgumentException("invalid idle timeout (%d)".formatted(timeout));
+
+		this.idleTimeoutNanos = unit.toNanos(timeout);
+
+		return this;
+	}
+
+	/**
+	 * Sets a listener called, on the polling thread, every time the watermark
+	 * advances.
+	 *
+	 * @param listener the listener, or null to remove
+	 * @return this merge receiver
+	 */
+	public PcapMergeReceiver setWatermarkListener(LongConsumer listener) {
+		this.watermarkListener = listener;
+
+		return this;
+	}
+
+	/**
+	 * Smallest of the newest timestamps of every active source, or
+	 * {@link Long#MAX_VALUE} if no source holds back the merge.
+	 */
+	private long sourceWatermark(long now) {
+		long min = Long.MAX_VALUE;
+
+		for (Source s : sourceArray) {
+			if (s.ended || (now - s.lastActiveNanos) > idleTimeoutNanos)
+				continue;
+
+			min = Math.min(min, s.highTimestamp);
+		}
+
+		return min;
+	}
+
+	/**
+	 * The merge's sources.
+	 *
+	 * @return unmodifiable list of sources
+	 */
+	public List<Source> sources() {
+		return Collections.unmodifiableList(sources);
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "PcapMergeReceiver [sources=" + sources.size()
+				+ ", windowSize=" + windowSize
+				+ ", emitted=" + emittedCount
+				+ ", watermark=" + watermark
+				+ "]";
+	}
+
+	private void updateWatermark(long inputWatermark) {
+		long w = inputWatermark;
+
+		if (heapSize > 0)
+			w = Math.min(w, heapKeys[0] - 1);
+
+		else if (w == Long.MAX_VALUE && !isDone())
+			w = lastEmitted; // Every source is idle, more packets may still arrive
+
+		if (w > watermark) {
+			watermark = w;
+
+			if (watermarkListener != null)
+				watermarkListener.accept(w);
+		}
+	}
+
+	/**
+	 * The merge watermark, in nanoseconds since epoch. Every packet with a
+	 * timestamp at or before the watermark has been delivered, and packets
+	 * received later with earlier timestamps are counted as late.
+	 *
+	 * @return the watermark, or {@link Long#MIN_VALUE} before any progress
+	 */
+	public long watermark() {
+		return watermark;
+	}
+}
@@ -0,0 +1,419 @@
+/*
+ * Apache License, Version 2.0
+ *
+ * Copyright 2013-2022 Sly Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jnetpcap.util;
+
+import java.lang.foreign.MemoryAddress;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.jnetpcap.BpFilter;
+import org.jnetpcap.Pcap;
+import org.jnetpcap.PcapException;
+import org.jnetpcap.constant.PcapDlt;
+import org.jnetpcap.internal.PcapHeaderABI;
+
+/**
+ * Deliberate, measurable, load shedding for a receive path whose consumers fall
+ * behind. Installed on a {@link PcapReceiver} with
+ * {@link PcapReceiver#setOverloadControl(PcapOverloadControl)}, it is consulted
+ * for every packet copied by the receiver's pooled and batch receive modes.
+ *
+ * <p>
+ * The control periodically samples two overload signals, the depth of the
+ * consumer queue, through a user supplied function, and the number of packets
+ * dropped by the kernel since the previous sample, from {@link Pcap#stats()}.
+ * When either signal reaches its high watermark, the control enters overload
+ * mode and starts applying its {@link Policy} to every packet. It only leaves
+ * overload mode once both signals are back at or below their low watermarks,
+ * so that the receive path does not flap between modes around a single
+ * threshold.
+ * </p>
+ *
+ * <p>
+ * The clock is read every 64 packets, and the receiver also checks the signals
+ * after every dispatch, with {@link #checkIfDue()}, so that overload mode is
+ * left once traffic slows down or stops, as long as dispatch returns. A handle
+ * in blocking mode without a packet buffer timeout may not return from
+ * dispatch until the next packet arrives, and then remains in overload mode
+ * until it does.
+ * </p>
+ *
+ * <pre>
+ * <code>
+var overload = new PcapOverloadControl(pcap, channel::queued, Policy.sample(10))
+		.setQueueWatermarks(48 * 1024, 16 * 1024)
+		.setDropWatermarks(1, 0);
+
+receiver.setOverloadControl(overload);
+ * </code>
+ * </pre>
+ *
+ * <p>
+ * Every packet affected by the policy is counted, either as shed, not
+ * delivered at all, or as truncated, delivered with fewer bytes than captured.
+ * The control's packet checks must all be made from the capture thread, while
+ * the counters can be read from any thread.
+ * </p>
+ *
+ * @author Sly Technologies Inc
+ * @author repos@slytechs.com
+ * @author mark
+ */
+public final class PcapOverloadControl {
+
+	/**
+	 * Decides what happens to a packet while the receive path is overloaded.
+	 */
+	@FunctionalInterface
+	public interface Policy {
+
+		/** Returned by a policy to shed, not deliver, a packet */
+		int SHED = -1;
+
+		/**
+		 * Shed packets matched by a filter, for example low priority bulk traffic,
+		 * and deliver all others in full.
+		 *
+		 * @param lowPriority the filter which matches packets to be shed
+		 * @return the policy
+		 */
+		static Policy shedMatching(BpFilter lowPriority) {
+			Objects.requireNonNull(lowPriority, "lowPriority");
+
+			return (header, data, copyLimit) -> Pcap.offlineFilter(lowPriority, header, data)
+					? SHED
+					: copyLimit;
+		}
+
+		/**
+		 * Deliver only the protocol headers of each packet.
+		 *
+		 * @param dlt the data link type of the capture handle
+		 * @return the policy
+		 * @see PcapReceiver#headerOnlyLength(PcapDlt)
+		 */
+		static Policy headerOnly(PcapDlt dlt) {
+			final int length = PcapReceiver.headerOnlyLength(dlt);
+
+			return (header, data, copyLimit) -> Math.min(copyLimit, length);
+		}
+
+		/**
+		 * Deliver only 1 in every {@code n} packets and shed the others.
+		 *
+		 * @param n the sampling rate
+		 * @return the policy
+		 */
+		static Policy sample(int n) {
+			if (n <= 0)
+				throw new IllegalArgumentException("sampling rate must be greater than 0 (%d)".formatted(n));
+
+			return new Policy() {
+				private int counter;
+
+				@Override
+				public int admit(MemoryAddress header, MemoryAddress data, int copyLimit) {
+					if (++counter < n)
+						return SHED;
+
+					counter = 0;
+					return copyLimit;
+				}
+			};
+		}
+
+		/**
+		 * Decides how much of a packet to deliver.
+		 *
+		 * @param header    address of the native pcap header
+		 * @param data      address of the native packet data
+		 * @param copyLimit the receiver's current copy limit
+		 * @return the number of bytes to copy, at most the copy limit, or
+		 *         {@link #SHED} to not deliver the packet
+		 */
+		int admit(MemoryAddress header, MemoryAddress data, int copyLimit);
+	}
+
+	/** Default interval between overload signal samples */
+	public static final long DEFAULT_CHECK_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	/** Number of packets between reads of the clock */
+	private static final int CLOCK_CHECK_MASK = 63;
+
+	private static final PcapHeaderABI NATIVE_ABI = PcapHeaderABI.nativeAbi();
+
+	private final Pcap pcap;
+	private final LongSupplier queueDepth;
+	private final Policy policy;
+
+	private long queueHigh = Long.MAX_VALUE;
+	private long queueLow = Long.MAX_VALUE;
+	private long dropHigh = Long.MAX_VALUE;
+	private long dropLow = Long.MAX_VALUE;
+	private long checkIntervalNanos = DEFAULT_CHECK_INTERVAL_NANOS;
+
+	private volatile boolean overloaded;
+	private long nextCheck;
+	private long lastDrop = -1;
+	private int packetCounter;
+
+	private final AtomicLong shedCount = new AtomicLong();
+	private final AtomicLong truncatedCount = new AtomicLong();
+	private final AtomicLong overloadCount = new AtomicLong();
+	private volatile long lastQueueDepth;
+	private volatile long lastDropDelta;
+
+	/**
+	 * Instantiates a new overload control. Until watermarks are set, the control
+	 * never enters overload mode.
+	 *
+	 * @param pcap       the pcap handle whose drop statistics are sampled
+	 * @param queueDepth returns the current depth of the consumer queue
+	 * @param policy     the policy applied to packets while overloaded
+	 */
+	public PcapOverloadControl(Pcap pcap, LongSupplier queueDepth, Policy policy) {
+		this.pcap = Objects.requireNonNull(pcap, "pcap");
+		this.queueDepth = Objects.requireNonNull(queueDepth, "queueDepth");
+		this.policy = Objects.requireNonNull(policy, "policy");
+		this.nextCheck = System.nanoTime(); // May be negative
+	}
+
+	/**
+	 * Decides how much of a packet to copy, sampling the overload signals if the
+	 * check interval has elapsed. Called from the capture thread.
+	 *
+	 * @param header    address of the native pcap header
+	 * @param data      address of the native packet data
+	 * @param copyLimit the receiver's current copy limit
+	 * @return the number of bytes to copy, or {@link Policy#SHED} to not deliver
+	 *         the packet
+	 */
+	public int admit(MemoryAddress header, MemoryAddress data, int copyLimit) {
+		if ((++packetCounter & CLOCK_CHECK_MASK) == 0)
+			checkIfDue();
+
+		if (!overloaded)
+			return copyLimit;
+
+		int limit = policy.admit(header, data, copyLimit);
+		if (limit < 0) {
+			shedCount.incrementAndGet();
+			return Policy.SHED;
+		}
+
+		if (limit < Math.min(copyLimit, NATIVE_ABI.captureLength(header)))
+			truncatedCount.incrementAndGet();
+
+		return limit;
+	}
+
+	/**
+	 * Samples the overload signals now, and switches modes if a watermark has been
+	 * crossed. Called from the capture thread, usually automatically from
+	 * {@link #admit(MemoryAddress, MemoryAddress, int)}.
+	 *
+	 * @return true, if overloaded after the check
+	 */
+	public boolean check() {
+		long depth = queueDepth.getAsLong();
+		long dropDelta = sampleDropDelta();
+
+		this.lastQueueDepth = depth;
+		this.lastDropDelta = dropDelta;
+
+		if (!overloaded) {
+			if (depth >= queueHigh || dropDelta >= dropHigh) {
+				overloaded = true;
+				overloadCount.incrementAndGet();
+			}
+
+		} else if (depth <= queueLow && dropDelta <= dropLow) {
+			overloaded = false;
+		}
+
+		return overloaded;
+	}
+
+	/**
+	 * Samples the overload signals if the check interval has elapsed. Called from
+	 * the capture thread, by the receiver after every dispatch.
+	 *
+	 * @return true, if overloaded after the check
+	 */
+	public boolean checkIfDue() {
+		long now = System.nanoTime();
+		if (now - nextCheck < 0)
+			return overloaded;
+
+		nextCheck = now + checkIntervalNanos;
+
+		return check();
+	}
+
+	/**
+	 * Checks if the receive path is currently in overload mode.
+	 *
+	 * @return true, if overloaded
+	 */
+	public boolean isOverloaded() {
+		return overloaded;
+	}
+
+	/**
+	 * Number of packets dropped by the kernel between the two most recent checks.
+	 *
+	 * @return the drop delta
+	 */
+	public long lastDropDelta() {
+		return lastDropDelta;
+	}
+
+	/**
+	 * Consumer queue depth at the most recent check.
+	 *
+	 * @return the queue depth
+	 */
+	public long lastQueueDepth() {
+		return lastQueueDepth;
+	}
+
+	/**
+	 * Number of times the control has entered overload mode.
+	 *
+	 * @return the overload count
+	 */
+	public long overloadCount() {
+		return overloadCount.get();
+	}
+
+	/**
+	 * The policy applied while overloaded.
+	 *
+	 * @return the policy
+	 */
+	public Policy policy() {
+		return policy;
+	}
+
+	/**
+	 * Reads the kernel drop counter and returns the increase since the previous
+	 * read. Handles without statistics, such as offline handles, report no drops.
+	 */
+	private long sampleDropDelta() {
+		long drop;
+		try {
+			drop = pcap.stats().drop();
+		} catch (PcapException | UnsupportedOperationException e) {
+			return 0;
+		}
+
+		long delta = (lastDrop < 0) ? 0 : Math.max(0, drop - lastDrop);
+		lastDrop = drop;
+
+		return delta;
+	}
+
+	/**
+	 * Sets the interval between samples of the overload signals.
+	 *
+	 * @param interval the interval
+	 * @param unit     the interval unit
+	 * @return this overload control
+	 */
+	public PcapOverloadControl setCheckInterval(long interval, TimeUnit unit) {
+		if (interval < 0)
+			throw new IllegalArgumentException("invalid check interval (%d)".formatted(interval));
+
+		this.checkIntervalNanos = unit.toNanos(interval);
+
+		return this;
+	}
+
+	/**
+	 * Sets the kernel drop watermarks, in packets dropped between two checks.
+	 *
+	 * @param high overload is entered when drops reach this many
+	 * @param low  overload can be left when drops are at or below this many
+	 * @return this overload control
+	 */
+	public PcapOverloadControl setDropWatermarks(long high, long low) {
+		checkWatermarks(high, low);
+
+		this.dropHigh = high;
+		this.dropLow = low;
+
+		return this;
+	}
+
+	/**
+	 * Sets the consumer queue depth watermarks.
+	 *
+	 * @param high overload is entered when the queue depth reaches this value
+	 * @param low  overload can be left when the queue depth is at or below this
+	 *             value
+	 * @return this overload control
+	 */
+	public PcapOverloadControl setQueueWatermarks(long high, long low) {
+		checkWatermarks(high, low);
+
+		this.queueHigh = high;
+		this.queueLow = low;
+
+		return this;
+	}
+
+	private static void checkWatermarks(long high, long low) {
+		if (low < 0 || low > high)
+			throw new IllegalArgumentException("invalid watermarks, low (%d) high (%d)".formatted(low, high));
+	}
+
+	/**
+	 * Number of packets shed, not delivered, by the policy.
+	 *
+	 * @return the shed count
+	 */
+	public long shedCount() {
+		return shedCount.get();
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "PcapOverloadControl [overloaded=" + overloaded
+				+ ", overloads=" + overloadCount()
+				+ ", shed=" + shedCount()
+				+ ", truncated=" + truncatedCount()
+				+ ", queueDepth=" + lastQueueDepth
+				+ ", dropDelta=" + lastDropDelta
+				+ "]";
+	}
+
+	/**
+	 * Number of packets delivered truncated by the policy, with fewer bytes than
+	 * the receiver's copy limit would have copied.
+	 *
+	 * @return the truncated count
+	 */
+	public long truncatedCount() {
+		return truncatedCount.get();
+	}
+}
@@ -0,0 +1,300 @@
+/*
+ * Apache License, Version 2.0
+ *
+ * Copyright 2013-2022 Sly Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jnetpcap.util;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+
+import java.lang.foreign.MemoryAddress;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.MemorySession;
+import java.util.Objects;
+
+import org.jnetpcap.constant.PcapTStampPrecision;
+import org.jnetpcap.internal.PcapHeaderABI;
+
+/**
+ * A reusable, columnar, batch of packets. Packet metadata is stored as a
+ * struct-of-arrays in primitive arrays, while packet data is copied back to
+ * back into a single off-heap slab. The batch is filled by
+ * {@link PcapReceiver#forEachBatch(int, PcapPacketBatch, org.jnetpcap.PcapHandler.OfBatch, Object)}
+ * and handed to a batch handler once per dispatch, or once every time the
+ * batch fills up.
+ *
+ * <p>
+ * Only the first {@link #size()} entries of each column are valid. The arrays
+ * and the slab are reused for every batch, so the handler must copy any data it
+ * wants to retain before returning.
+ * </p>
+ *
+ * <pre>
+ * <code>
+(user, batch) -> {
+	long[] ts = batch.timestamps();
+	int[] caplen = batch.captureLengths();
+
+	for (int i = 0; i < batch.size(); i++)
+		bytes += caplen[i];
+}
+ * </code>
+ * </pre>
+ *
+ * @author Sly Technologies Inc
+ * @author repos@slytechs.com
+ * @author mark
+ */
+public final class PcapPacketBatch {
+
+	/** Default maximum number of packets per batch */
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	/** Default off-heap slab size in bytes */
+	public static final long DEFAULT_SLAB_SIZE = 4 * 1024 * 1024;
+
+	/** Packet data offsets in the slab are aligned to this many bytes */
+	public static final int DATA_ALIGNMENT = 8;
+
+	private static final PcapHeaderABI ABI = PcapHeaderABI.nativeAbi();
+
+	private final long[] timestamps;
+	private final int[] captureLengths;
+	private final int[] wireLengths;
+	private final int[] dataLengths;
+	private final int[] offsets;
+	private final MemorySegment slab;
+	private final PcapTStampPrecision precision;
+
+	private int size;
+	private long slabOffset;
+
+	/**
+	 * Instantiates a new batch with default capacity and slab size, and microsecond
+	 * timestamps.
+	 */
+	public PcapPacketBatch() {
+		this(DEFAULT_CAPACITY, DEFAULT_SLAB_SIZE);
+	}
+
+	/**
+	 * Instantiates a new batch with microsecond timestamps.
+	 *
+	 * @param capacity maximum number of packets per batch
+	 * @param slabSize size in bytes of the off-heap data slab
+	 */
+	public PcapPacketBatch(int capacity, long slabSize) {
+		this(capacity, slabSize, PcapTStampPrecision.TSTAMP_PRECISION_MICRO);
+	}
+
+	/**
+	 * Instantiates a new batch.
+	 *
+	 * @param capacity  maximum number of packets per batch
+	 * @param slabSize  size in bytes of the off-heap data slab, must fit within an
+	 *                  int
+	 * @param precision the timestamp precision of the capture handle, used to
+	 *                  compute the epoch timestamps
+	 */
+	public PcapPacketBatch(int capacity, long slabSize, PcapTStampPrecision precision) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("capacity must be greater than 0 (%d)".formatted(capacity));
+
+		if (slabSize <= 0 || slabSize > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("invalid slab size (%d)".formatted(slabSize));
+
+		this.precision = Objects.requireNonNull(precision, "precision");
+		this.timestamps = new long[capacity];
+		this.captureLengths = new int[capacity];
+		this.wireLengths = new int[capacity];
+		this.dataLengths = new int[capacity];
+		this.offsets = new int[capacity];
+		this.slab = MemorySegment.allocateNative(slabSize, DATA_ALIGNMENT, MemorySession.openImplicit());
+	}
+
+	/**
+	 * Adds a packet to the batch, copying up to {@code maxCopy} bytes of its data
+	 * into the slab. An empty batch always accepts a packet, truncating its data
+	 * to the slab size if needed.
+	 *
+	 * @param header  the native pcap header
+	 * @param data    the native packet data
+	 * @param maxCopy maximum number of data bytes to copy
+	 * @return true, if added, or false if the batch is full and must be flushed
+	 */
+	boolean add(MemoryAddress header, MemoryAddress data, int maxCopy) {
+		if (size == timestamps.length)
+			return false;
+
+		int caplen = ABI.captureLength(header);
+		long start = (slabOffset + DATA_ALIGNMENT - 1) & -DATA_ALIGNMENT;
+		long copy = Math.min(caplen, maxCopy);
+
+		if (start + copy > slab.byteSize()) {
+			if (size > 0)
+				return false;
+
+			copy = slab.byteSize();
+		}
+
+		MemorySegment.copy(MemorySegment.ofAddress(data, copy, MemorySession.global()), 0, slab, start, copy);
+
+		timestamps[size] = precision.toEpochTime(ABI.tvSec(header), ABI.tvUsec(header));
+		captureLengths[size] = caplen;
+		wireLengths[size] = ABI.wireLength(header);
+		dataLengths[size] = (int) copy;
+		offsets[size] = (int) start;
+
+		slabOffset = start + copy;
+		size++;
+
+		return true;
+	}
+
+	/**
+	 * Maximum number of packets per batch.
+	 *
+	 * @return the capacity
+	 */
+	public int capacity() {
+		return timestamps.length;
+	}
+
+	/**
+	 * Original capture lengths column, as reported by the pcap header, even if
+	 * less data was copied into the slab.
+	 *
+	 * @return the capture lengths
+	 */
+	public int[] captureLengths() {
+		return captureLengths;
+	}
+
+	/**
+	 * Clears the batch for reuse.
+	 */
+	public void clear() {
+		size = 0;
+		slabOffset = 0;
+	}
+
+	/**
+	 * A view of a single packet's data in the slab. This method allocates a new
+	 * segment object on every call, use {@link #slab()} and {@link #offsets()} in
+	 * tight loops.
+	 *
+	 * @param index the packet index within the batch
+	 * @return the packet data
+	 */
+	public MemorySegment data(int index) {
+		Objects.checkIndex(index, size);
+
+		return slab.asSlice(offsets[index], dataLengths[index]);
+	}
+
+	/**
+	 * Number of data bytes actually copied into the slab for each packet.
+	 *
+	 * @return the data lengths
+	 */
+	public int[] dataLengths() {
+		return dataLengths;
+	}
+
+	/**
+	 * Checks if the batch is empty.
+	 *
+	 * @return true, if empty
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Offsets of each packet's data within the slab.
+	 *
+	 * @return the offsets
+	 */
+	public int[] offsets() {
+		return offsets;
+	}
+
+	/**
+	 * Timestamp precision of the {@link #timestamps()} column.
+	 *
+	 * @return the precision
+	 */
+	public PcapTStampPrecision precision() {
+		return precision;
+	}
+
+	/**
+	 * Number of packets in the batch.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Off-heap slab containing all of the packet data in the batch.
+	 *
+	 * @return the slab
+	 */
+	public MemorySegment slab() {
+		return slab;
+	}
+
+	/**
+	 * Epoch timestamps column, in units of {@link #precision()}.
+	 *
+	 * @return the timestamps
+	 */
+	public long[] timestamps() {
+		return timestamps;
+	}
+
+	/**
+	 * Copies a single packet's data out of the slab into a new array.
+	 *
+	 * @param index the packet index within the batch
+	 * @return the packet data
+	 */
+	public byte[] toArray(int index) {
+		return data(index).toArray(JAVA_BYTE);
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "PcapPacketBatch [size=" + size
+				+ ", capacity=" + capacity()
+				+ ", slabUsed=" + slabOffset
+				+ ", slabSize=" + slab.byteSize()
+				+ "]";
+	}
+
+	/**
+	 * Original wire lengths column.
+	 *
+	 * @return the wire lengths
+	 */
+	public int[] wireLengths() {
+		return wireLengths;
+	}
+}
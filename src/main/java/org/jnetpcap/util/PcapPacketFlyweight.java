@@ -0,0 +1,282 @@
+/*
+ * Apache License, Version 2.0
+ *
+ * Copyright 2013-2022 Sly Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jnetpcap.util;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_SHORT;
+import static java.nio.ByteOrder.BIG_ENDIAN;
+
+import java.lang.foreign.Addressable;
+import java.lang.foreign.MemoryAddress;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.MemorySession;
+import java.lang.foreign.ValueLayout.OfInt;
+import java.lang.foreign.ValueLayout.OfShort;
+import java.util.Objects;
+
+import org.jnetpcap.PcapHeaderFlyweight;
+
+/**
+ * A mutable, re-pointable, view of a native pcap packet, its header and data.
+ * A single flyweight is rebound to the native header and packet data addresses
+ * on every packet received, allowing packet handlers which do not retain
+ * packets to run without producing any garbage per packet.
+ *
+ * <p>
+ * The flyweight references libpcap packet memory directly and is only valid
+ * for the duration of the packet handler call. All reads are bounds checked
+ * against the packet's capture length. Use {@link #toArray()} or
+ * {@link PcapHeaderFlyweight#asReadOnly()} copies to retain any of the packet's
+ * contents.
+ * </p>
+ *
+ * @author Sly Technologies Inc
+ * @author repos@slytechs.com
+ * @author mark
+ */
+public final class PcapPacketFlyweight {
+
+	/** Packet data is always in network byte order and may be unaligned */
+	private static final OfShort NETWORK_SHORT = JAVA_SHORT.withOrder(BIG_ENDIAN).withBitAlignment(8);
+	private static final OfInt NETWORK_INT = JAVA_INT.withOrder(BIG_ENDIAN).withBitAlignment(8);
+
+	private final PcapHeaderFlyweight header;
+	private MemoryAddress data = MemoryAddress.NULL;
+	private int captureLength;
+
+	/**
+	 * Instantiates a new, unbound, packet flyweight for native pcap headers.
+	 */
+	public PcapPacketFlyweight() {
+		this(new PcapHeaderFlyweight());
+	}
+
+	/**
+	 * Instantiates a new, unbound, packet flyweight using the given header
+	 * flyweight.
+	 *
+	 * @param header the header flyweight
+	 */
+	public PcapPacketFlyweight(PcapHeaderFlyweight header) {
+		this.header = Objects.requireNonNull(header, "header");
+	}
+
+	/**
+	 * Rebind this flyweight to a new native packet.
+	 *
+	 * @param header the native pcap header address
+	 * @param data   the native packet data address
+	 * @return this flyweight
+	 */
+	public PcapPacketFlyweight bind(Addressable header, Addressable data) {
+		this.header.bind(header);
+		this.data = data.address();
+		this.captureLength = this.header.captureLength();
+
+		return this;
+	}
+
+	/**
+	 * Number of packet data bytes captured.
+	 *
+	 * @return the capture length
+	 */
+	public int captureLength() {
+		return captureLength;
+	}
+
+	private void checkIndex(int index, int size) {
+		Objects.checkFromIndexSize(index, size, captureLength);
+	}
+
+	/**
+	 * Copies packet data into a byte array.
+	 *
+	 * @param offset the offset into the packet
+	 * @param dst    the destination array
+	 * @param dstOff the offset into the destination array
+	 * @param length number of bytes to copy
+	 * @return number of bytes copied
+	 */
+	public int copyTo(int offset, byte[] dst, int dstOff, int length) {
+		checkIndex(offset, length);
+		Objects.checkFromIndexSize(dstOff, length, dst.length);
+
+		MemorySegment.copy(globalView(), JAVA_BYTE, offset, dst, dstOff, length);
+
+		return length;
+	}
+
+	/**
+	 * Copies the entire packet's data into a byte array.
+	 *
+	 * @param dst    the destination array
+	 * @param dstOff the offset into the destination array
+	 * @return number of bytes copied
+	 */
+	public int copyTo(byte[] dst, int dstOff) {
+		return copyTo(0, dst, dstOff, captureLength);
+	}
+
+	/**
+	 * The native packet data address.
+	 *
+	 * @return the data address
+	 */
+	public MemoryAddress data() {
+		return data;
+	}
+
+	/**
+	 * Reads a byte from packet data.
+	 *
+	 * @param index the offset into the packet
+	 * @return the byte value
+	 */
+	public byte getByte(int index) {
+		checkIndex(index, 1);
+
+		return data.get(JAVA_BYTE, index);
+	}
+
+	/**
+	 * Reads an integer from packet data, in network byte order.
+	 *
+	 * @param index the offset into the packet
+	 * @return the int value
+	 */
+	public int getInt(int index) {
+		checkIndex(index, 4);
+
+		return data.get(NETWORK_INT, index);
+	}
+
+	/**
+	 * Reads a short from packet data, in network byte order.
+	 *
+	 * @param index the offset into the packet
+	 * @return the short value
+	 */
+	public short getShort(int index) {
+		checkIndex(index, 2);
+
+		return data.get(NETWORK_SHORT, index);
+	}
+
+	/**
+	 * Reads an unsigned byte from packet data.
+	 *
+	 * @param index the offset into the packet
+	 * @return the unsigned byte value
+	 */
+	public int getUnsignedByte(int index) {
+		return Byte.toUnsignedInt(getByte(index));
+	}
+
+	/**
+	 * Reads an unsigned short from packet data, in network byte order.
+	 *
+	 * @param index the offset into the packet
+	 * @return the unsigned short value
+	 */
+	public int getUnsignedShort(int index) {
+		return Short.toUnsignedInt(getShort(index));
+	}
+
+	/**
+	 * The header flyweight, bound to the current packet's pcap header.
+	 *
+	 * @return the header flyweight
+	 */
+	public PcapHeaderFlyweight header() {
+		return header;
+	}
+
+	/**
+	 * Checks if this flyweight is currently bound to a packet.
+	 *
+	 * @return true, if bound
+	 */
+	public boolean isBound() {
+		return data != MemoryAddress.NULL;
+	}
+
+	/**
+	 * Packet data as a memory segment, in the global scope, for internal bulk
+	 * copies only.
+	 *
+	 * @return the packet data segment
+	 */
+	private MemorySegment globalView() {
+		return MemorySegment.ofAddress(data, captureLength, MemorySession.global());
+	}
+
+	/**
+	 * Packet data as a memory segment, in the given scope. This method allocates a
+	 * new segment object on every call.
+	 *
+	 * @param scope the scope for the new segment
+	 * @return the packet data segment
+	 */
+	public MemorySegment asSegment(MemorySession scope) {
+		return MemorySegment.ofAddress(data, captureLength, scope);
+	}
+
+	/**
+	 * Copies the entire packet data into a new byte array.
+	 *
+	 * @return new array with packet data
+	 */
+	public byte[] toArray() {
+		byte[] array = new byte[captureLength];
+		copyTo(array, 0);
+
+		return array;
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "PcapPacketFlyweight [header=" + header + "]";
+	}
+
+	/**
+	 * Unbind this flyweight from the native packet.
+	 *
+	 * @return this flyweight
+	 */
+	public PcapPacketFlyweight unbind() {
+		this.header.unbind();
+		this.data = MemoryAddress.NULL;
+		this.captureLength = 0;
+
+		return this;
+	}
+
+	/**
+	 * Wire length of the packet.
+	 *
+	 * @return the wire length
+	 */
+	public int wireLength() {
+		return header.wireLength();
+	}
+}
@@ -38,6 +38,15 @@ import org.jnetpcap.constant.PcapConstants;
  */
 public record PcapPacketRef(Addressable header, Addressable data) {
 
+	/**
+	 * Number of packet data bytes captured, read from the pcap header.
+	 *
+	 * @return the capture length
+	 */
+	public int captureLength() {
+		return PcapHeader.readCaptureLength(header);
+	}
+
 	/**
 	 * Returns byte[] representation of the entire packet.
 	 *
@@ -61,7 +70,7 @@ public record PcapPacketRef(Addressable header, Addressable data) {
 		if (length + offset > hdr.captureLength())
 			length = hdr.captureLength() - offset;
 
-		try (var scope = MemorySession.openShared()) {
+		try (var scope = MemorySession.openConfined()) {
 
 			if (data instanceof MemorySegment src) {
 				return src
@@ -76,4 +85,13 @@ public record PcapPacketRef(Addressable header, Addressable data) {
 		}
 	}
 
+	/**
+	 * Original length of the packet on the wire, read from the pcap header.
+	 *
+	 * @return the wire length
+	 */
+	public int wireLength() {
+		return PcapHeader.readWireLength(header);
+	}
+
 }
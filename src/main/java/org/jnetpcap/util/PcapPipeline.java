@@ -0,0 +1,658 @@
+/*
+ * Apache License, Version 2.0
+ *
+ * Copyright 2013-2022 Sly Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jnetpcap.util;
+
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static org.jnetpcap.PcapHeader.PCAP_HEADER_LENGTH;
+
+import java.lang.foreign.Addressable;
+import java.lang.foreign.MemoryAddress;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.MemorySession;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.jnetpcap.Pcap;
+import org.jnetpcap.PcapHeader;
+import org.jnetpcap.PcapHeaderFlyweight;
+import org.jnetpcap.internal.PaddedSequence;
+import org.jnetpcap.internal.PcapHeaderABI;
+
+/**
+ * A multi-stage, lock-free, capture pipeline built around a preallocated
+ * off-heap ring buffer, in the style of the LMAX Disruptor.
+ *
+ * <p>
+ * A single capture thread dispatches packets from libpcap and writes each
+ * packet's header and data into the next free ring slot, then publishes the
+ * slot's sequence number. Downstream stages, each on its own thread, process
+ * the slots in order. Every stage waits on a sequence barrier, the sequence of
+ * the stage before it (or the capture thread for the first stage), using a
+ * configurable {@link WaitStrategy}, and in turn publishes its own progress to
+ * the next stage. On a live capture, the capture thread never waits for the
+ * stages. When the ring is full, because the stages have fallen behind, new
+ * packets are dropped and counted by {@link #dropCount()}, instead of slow
+ * stages stalling the libpcap callback and causing kernel drops. When reading
+ * an offline file, the capture thread waits for free slots instead.
+ * </p>
+ *
+ * <pre>
+ * <code>
+try (var pipeline = new PcapPipeline(pcap, 64 * 1024, 2048, WaitStrategy.YIELD)) {
+	pipeline
+		.addStage("decode", (packet, seq, endOfBatch) -> packet.setTag(decode(packet)))
+		.addStage("filter", (packet, seq, endOfBatch) -> { if (reject(packet)) packet.setTag(-1); })
+		.addStage("sink",   (packet, seq, endOfBatch) -> { if (packet.tag() >= 0) write(packet); })
+		.start();
+
+	pipeline.awaitCompletion();
+}
+ * </code>
+ * </pre>
+ *
+ * <p>
+ * Each ring slot is laid out as a 16 byte compact pcap header in native byte
+ * order, followed by the number of data bytes stored as an int, 4 bytes of
+ * padding and the packet data. Packets larger than a slot are truncated, the
+ * header still reports the original capture and wire lengths.
+ * </p>
+ *
+ * @author Sly Technologies Inc
+ * @author repos@slytechs.com
+ * @author mark
+ */
+public final class PcapPipeline implements AutoCloseable {
+
+	/**
+	 * A reusable view of a ring slot, rebound to every slot a stage processes.
+	 * Only valid for the duration of the stage call.
+	 */
+	public final class PacketEvent {
+
+		private final PcapHeaderFlyweight header = PcapHeaderFlyweight.ofCompactHeader();
+		private MemoryAddress slot;
+		private int index;
+
+		private PacketEvent bind(long sequence) {
+			this.index = (int) (sequence & mask);
+			this.slot = slotAddresses[index];
+			this.header.bind(slot);
+
+			return this;
+		}
+
+		/**
+		 * Attachment object stored with the slot by an earlier stage.
+		 *
+		 * @return the attachment or null
+		 */
+		public Object attachment() {
+			return attachments[index];
+		}
+
+		/**
+		 * Original capture length of the packet.
+		 *
+		 * @return the capture length
+		 */
+		public int captureLength() {
+			return header.captureLength();
+		}
+
+		/**
+		 * Packet data stored in the slot. This method allocates a new segment object
+		 * on every call.
+		 *
+		 * @return the packet data
+		 */
+		public MemorySegment data() {
+			return ring.asSlice((long) index * slotSize + DATA_OFFSET, dataLength());
+		}
+
+		/**
+		 * Address of the packet data stored in the slot.
+		 *
+		 * @return the data address
+		 */
+		public MemoryAddress dataAddress() {
+			return dataAddresses[index];
+		}
+
+		/**
+		 * Number of packet data bytes stored in the slot.
+		 *
+		 * @return the data length
+		 */
+		public int dataLength() {
+			return slot.get(JAVA_INT, DATA_LENGTH_OFFSET);
+		}
+
+		/**
+		 * The slot's compact pcap header.
+		 *
+		 * @return the header view, rebound with this event
+		 */
+		public PcapHeader header() {
+			return header;
+		}
+
+		/**
+		 * Stores an object with the slot, for later stages. The attachment is cleared
+		 * when the slot is reused.
+		 *
+		 * @param attachment the attachment
+		 */
+		public void setAttachment(Object attachment) {
+			attachments[index] = attachment;
+		}
+
+		/**
+		 * Stores a primitive tag with the slot, for later stages. The tag is reset to
+		 * 0 when the slot is reused.
+		 *
+		 * @param tag the tag
+		 */
+		public void setTag(long tag) {
+			tags[index] = tag;
+		}
+
+		/**
+		 * Primitive tag stored with the slot by an earlier stage.
+		 *
+		 * @return the tag
+		 */
+		public long tag() {
+			return tags[index];
+		}
+
+		/**
+		 * Original wire length of the packet.
+		 *
+		 * @return the wire length
+		 */
+		public int wireLength() {
+			return header.wireLength();
+		}
+	}
+
+	/**
+	 * A pipeline stage, called in sequence order for every packet.
+	 */
+	@FunctionalInterface
+	public interface Stage {
+
+		/**
+		 * Processes a single packet.
+		 *
+		 * @param packet     the packet event, rebound to every slot
+		 * @param sequence   the packet's sequence number
+		 * @param endOfBatch true, if this is the last packet currently available to
+		 *                   the stage, a good point to flush any buffered output
+		 */
+		void onPacket(PacketEvent packet, long sequence, boolean endOfBatch);
+	}
+
+	/**
+	 * How a stage waits for its sequence barrier to advance.
+	 */
+	public enum WaitStrategy {
+
+		/** Spins on the barrier, lowest latency, burns a whole core per stage. */
+		BUSY_SPIN,
+
+		/** Spins briefly, then yields the CPU between checks. */
+		YIELD,
+
+		/** Spins briefly, then parks for a short time between checks, lowest CPU. */
+		PARK;
+
+		private static final int SPIN_TRIES = 100;
+		private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+		/**
+		 * Idles once while waiting.
+		 *
+		 * @param counter number of times already idled while waiting
+		 */
+		void idle(int counter) {
+			if (this == BUSY_SPIN || counter < SPIN_TRIES)
+				Thread.onSpinWait();
+
+			else if (this == YIELD)
+				Thread.yield();
+
+			else
+				LockSupport.parkNanos(PARK_NANOS);
+		}
+	}
+
+	/** A stage with its own thread and published sequence. */
+	private final class StageRunner implements Runnable {
+
+		private final String name;
+		private final Stage stage;
+		private final StageRunner previous;
+		private final PaddedSequence barrier;
+		private final PaddedSequence sequence = new PaddedSequence();
+		private final PacketEvent event = new PacketEvent();
+		private Thread thread;
+
+		StageRunner(String name, Stage stage, StageRunner previous) {
+			this.name = name;
+			this.stage = stage;
+			this.previous = previous;
+			this.barrier = (previous == null) ? cursor : previous.sequence;
+		}
+
+		@Override
+		public void run() {
+			long next = sequence.get() + 1;
+
+			try {
+				while (true) {
+					long available = waitFor(next);
+					if (available < next)
+						break; // Pipeline stopped or capture ended
+
+					for (long seq = next; seq <= available; seq++)
+						stage.onPacket(event.bind(seq), seq, seq == available);
+
+					sequence.set(available);
+					next = available + 1;
+				}
+			} catch (Throwable e) {
+				fail(e);
+			}
+		}
+
+		/**
+		 * Waits for the barrier to reach the sequence.
+		 *
+		 * @return the highest available sequence, or less than the requested sequence
+		 *         if the pipeline has ended
+		 */
+		private long waitFor(long next) {
+			int counter = 0;
+			long available;
+
+			while ((available = barrier.get()) < next) {
+				if (stopped)
+					return available;
+
+				/* Upstream publishes before it ends, so reread once it has ended */
+				if (upstreamDone())
+					return barrier.get();
+
+				waitStrategy.idle(counter++);
+			}
+
+			return available;
+		}
+
+		/**
+		 * Checks if the capture thread, or the previous stage, has finished
+		 * publishing.
+		 */
+		private boolean upstreamDone() {
+			return (previous == null) ? captureEnded : !previous.thread.isAlive();
+		}
+	}
+
+	/** Data length is stored right after the compact header */
+	private static final int DATA_LENGTH_OFFSET = PCAP_HEADER_LENGTH;
+
+	/** Data starts 8 byte aligned, after the data length and padding */
+	private static final int DATA_OFFSET = PCAP_HEADER_LENGTH + 8;
+
+	private static final PcapHeaderABI NATIVE_ABI = PcapHeaderABI.nativeAbi();
+
+	private final Pcap pcap;
+	private final PcapReceiver receiver;
+	private final boolean offline;
+	private final int slotSize;
+	private final int mask;
+	private final MemorySession session = MemorySession.openShared();
+	private final MemorySegment ring;
+
+	/** Precomputed slot and data addresses, so binding an event allocates nothing */
+	private final MemoryAddress[] slotAddresses;
+	private final MemoryAddress[] dataAddresses;
+
+	private final long[] tags;
+	private final Object[] attachments;
+	private final WaitStrategy waitStrategy;
+	private final PaddedSequence cursor = new PaddedSequence();
+	private final List<StageRunner> stages = new ArrayList<>();
+	private final AtomicLong dropCount = new AtomicLong();
+
+	private ThreadFactory threadFactory = Thread::new;
+	private int batchSize = 256;
+	private Thread captureThread;
+	private volatile boolean stopped;
+	private volatile boolean captureEnded;
+	private volatile Throwable error;
+
+	/** Next sequence claimed by the capture thread */
+	private long nextSequence;
+
+	/** Cached minimum of the last stage's sequence, to avoid re-reading it */
+	private long cachedGate = PaddedSequence.INITIAL_VALUE;
+
+	/**
+	 * Instantiates a new pipeline.
+	 *
+	 * @param pcap         the pcap handle
+	 * @param slots        number of ring slots, rounded up to the next power of 2
+	 * @param slotSize     size of each slot in bytes, including 24 bytes for the
+	 *                     header and data length
+	 * @param waitStrategy how stages wait for packets
+	 */
+	public PcapPipeline(Pcap pcap, int slots, int slotSize, WaitStrategy waitStrategy) {
+		if (slots <= 0 || slots > (1 << 30))
+			throw new IllegalArgumentException("invalid slot count (%d)".formatted(slots));
+
+		if (slotSize <= DATA_OFFSET)
+			throw new IllegalArgumentException("slot size too small (%d)".formatted(slotSize));
+
+		int size = Math.max(1, Integer.highestOneBit(slots - 1) << 1);
+
+		this.pcap = Objects.requireNonNull(pcap, "pcap");
+		this.waitStrategy = Objects.requireNonNull(waitStrategy, "waitStrategy");
+		this.slotSize = (slotSize + 7) & -8;
+		this.mask = size - 1;
+		this.ring = MemorySegment.allocateNative((long) size * this.slotSize, 8, session);
+		this.slotAddresses = new MemoryAddress[size];
+		this.dataAddresses = new MemoryAddress[size];
+		this.tags = new long[size];
+		this.attachments = new Object[size];
+
+		for (int i = 0; i < size; i++) {
+			slotAddresses[i] = ring.address().addOffset((long) i * this.slotSize);
+			dataAddresses[i] = slotAddresses[i].addOffset(DATA_OFFSET);
+		}
+
+		this.offline = pcap.isOffline();
+		this.receiver = new PcapReceiver(pcap::dispatch);
+	}
+
+	/**
+	 * Adds a new stage after all of the previously added stages.
+	 *
+	 * @param name  the stage name, used for its thread name
+	 * @param stage the stage
+	 * @return this pipeline
+	 */
+	public PcapPipeline addStage(String name, Stage stage) {
+		checkNotStarted();
+
+		StageRunner previous = stages.isEmpty() ? null : stages.get(stages.size() - 1);
+		stages.add(new StageRunner(Objects.requireNonNull(name, "name"), Objects.requireNonNull(stage, "stage"),
+				previous));
+
+		return this;
+	}
+
+	/**
+	 * Waits for the capture to end, by end of file, breakloop or {@link #stop()},
+	 * and for all of the stages to process every packet captured.
+	 *
+	 * @throws InterruptedException  if interrupted while waiting
+	 * @throws IllegalStateException if the capture or a stage failed, with the
+	 *                               failure as its cause
+	 */
+	public void awaitCompletion() throws InterruptedException {
+		if (captureThread != null)
+			captureThread.join();
+
+		for (StageRunner s : stages)
+			if (s.thread != null)
+				s.thread.join();
+
+		Throwable e = error;
+		if (e != null)
+			throw new IllegalStateException("pipeline failed", e);
+	}
+
+	/**
+	 * Capture loop, run on the capture thread.
+	 */
+	private void capture() {
+		try {
+			while (!stopped) {
+				int result = receiver.sourcePackets(batchSize, this::publish);
+
+				if (result < 0 || (result == 0 && offline))
+					break;
+			}
+		} catch (Throwable e) {
+			fail(e);
+
+		} finally {
+			captureEnded = true;
+		}
+	}
+
+	private void checkNotStarted() {
+		if (captureThread != null)
+			throw new IllegalStateException("pipeline already started");
+	}
+
+	/**
+	 * Stops the pipeline, waits for all threads to exit and frees the ring.
+	 *
+	 * @see java.lang.AutoCloseable#close()
+	 */
+	@Override
+	public void close() {
+		stop();
+
+		try {
+			awaitCompletion();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IllegalStateException e) {
+			// Failure already reported through awaitCompletion to interested callers
+		}
+
+		session.close();
+	}
+
+	/**
+	 * Number of packets dropped because the ring was full.
+	 *
+	 * @return the drop count
+	 */
+	public long dropCount() {
+		return dropCount.get();
+	}
+
+	private void fail(Throwable e) {
+		if (error == null)
+			error = e;
+
+		stopped = true;
+		if (!offline)
+			pcap.breakloop();
+	}
+
+	/**
+	 * Sequence of the last packet published by the capture thread.
+	 *
+	 * @return the published sequence, or -1 if none
+	 */
+	public long publishedSequence() {
+		return cursor.get();
+	}
+
+	/**
+	 * Writes a packet into the next free slot and publishes it, or drops it if the
+	 * ring is full.
+	 */
+	private void publish(Addressable header, Addressable data) {
+		long seq = nextSequence;
+		long wrapPoint = seq - (mask + 1);
+
+		if (wrapPoint > cachedGate) {
+			PaddedSequence gate = stages.get(stages.size() - 1).sequence;
+			cachedGate = gate.get();
+
+			/* Offline files have no kernel buffer to overflow, wait for the stages */
+			for (int counter = 0; offline && wrapPoint > cachedGate && !stopped; counter++) {
+				waitStrategy.idle(counter);
+				cachedGate = gate.get();
+			}
+
+			if (wrapPoint > cachedGate) {
+				dropCount.incrementAndGet();
+				return;
+			}
+		}
+
+		MemoryAddress hdr = header.address();
+		int caplen = NATIVE_ABI.captureLength(hdr);
+		int copy = Math.min(caplen, slotSize - DATA_OFFSET);
+		int index = (int) (seq & mask);
+		long offset = (long) index * slotSize;
+
+		PcapHeader.write(NATIVE_ABI.tvSec(hdr), NATIVE_ABI.tvUsec(hdr), caplen, NATIVE_ABI.wireLength(hdr),
+				ring.asSlice(offset, PCAP_HEADER_LENGTH), ByteOrder.nativeOrder());
+		ring.set(JAVA_INT, offset + DATA_LENGTH_OFFSET, copy);
+		MemorySegment.copy(MemorySegment.ofAddress(data.address(), copy, MemorySession.global()), 0,
+				ring, offset + DATA_OFFSET, copy);
+
+		tags[index] = 0;
+		attachments[index] = null;
+
+		nextSequence = seq + 1;
+		cursor.set(seq);
+	}
+
+	/**
+	 * The receiver used to dispatch packets, which can be used to configure
+	 * receive options.
+	 *
+	 * @return the receiver
+	 */
+	public PcapReceiver receiver() {
+		return receiver;
+	}
+
+	/**
+	 * Sets the maximum number of packets per dispatch call.
+	 *
+	 * @param batchSize the batch size
+	 * @return this pipeline
+	 */
+	public PcapPipeline setBatchSize(int batchSize) {
+		if (batchSize <= 0)
+			throw new IllegalArgumentException("batch size must be greater than 0 (%d)".formatted(batchSize));
+
+		this.batchSize = batchSize;
+
+		return this;
+	}
+
+	/**
+	 * Sets the factory used to create the capture and stage threads.
+	 *
+	 * @param threadFactory the thread factory
+	 * @return this pipeline
+	 */
+	public PcapPipeline setThreadFactory(ThreadFactory threadFactory) {
+		checkNotStarted();
+		this.threadFactory = Objects.requireNonNull(threadFactory, "threadFactory");
+
+		return this;
+	}
+
+	/**
+	 * Number of ring slots.
+	 *
+	 * @return the slot count
+	 */
+	public int slotCount() {
+		return mask + 1;
+	}
+
+	/**
+	 * Sequence of the last packet processed by the named stage.
+	 *
+	 * @param name the stage name
+	 * @return the stage's sequence, or -1 if none processed
+	 */
+	public long stageSequence(String name) {
+		for (StageRunner s : stages)
+			if (s.name.equals(name))
+				return s.sequence.get();
+
+		throw new IllegalArgumentException("no such stage " + name);
+	}
+
+	/**
+	 * Starts all of the stage threads and the capture thread.
+	 *
+	 * @return this pipeline
+	 */
+	public PcapPipeline start() {
+		checkNotStarted();
+
+		if (stages.isEmpty())
+			throw new IllegalStateException("pipeline has no stages");
+
+		for (StageRunner s : stages) {
+			s.thread = threadFactory.newThread(s);
+			s.thread.setName("pcap-pipeline-" + s.name);
+			s.thread.start();
+		}
+
+		captureThread = threadFactory.newThread(this::capture);
+		captureThread.setName("pcap-pipeline-capture");
+		captureThread.start();
+
+		return this;
+	}
+
+	/**
+	 * Stops capturing and all stages, without waiting for packets still in the
+	 * ring to be processed.
+	 */
+	public void stop() {
+		stopped = true;
+
+		if (!offline && captureThread != null)
+			pcap.breakloop();
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "PcapPipeline [slots=" + slotCount()
+				+ ", stages=" + stages.size()
+				+ ", published=" + publishedSequence()
+				+ ", dropped=" + dropCount()
+				+ "]";
+	}
+}
@@ -0,0 +1,460 @@
+/*
+ * Apache License, Version 2.0
+ *
+ * Copyright 2013-2022 Sly Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jnetpcap.util;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.jnetpcap.Pcap;
+import org.jnetpcap.PcapException;
+import org.jnetpcap.PcapStat;
+
+/**
+ * A reactive streams publisher of packets captured on a pcap handle, with
+ * demand driven dispatch. Packets are only read from libpcap when subscribers
+ * have outstanding demand, in {@code dispatch} calls of up to the smallest
+ * outstanding demand of all subscribers. While there is no demand, packets
+ * back up in the kernel capture buffer and once it overflows, are dropped by
+ * the kernel and reported by {@link #dropCount()}.
+ *
+ * <p>
+ * A single capture thread, owned by the publisher, reads packets from the
+ * handle. Each packet is copied once into a {@link PacketBufferPool} and every
+ * subscriber receives its own {@link PacketBuffer} handle to the same packet
+ * data, which it must release when done.
+ * </p>
+ *
+ * <p>
+ * Apart from {@code onSubscribe}, all subscriber signals are delivered by the
+ * capture thread, so they are never concurrent. An invalid request is recorded
+ * and reported by the capture thread, and subscribers arriving after the
+ * capture thread has ended are completed on a new thread from the publisher's
+ * thread factory.
+ * </p>
+ *
+ * <pre>
+ * <code>
+try (var pool = new PacketBufferPool();
+		var publisher = new PcapPublisher(pcap, pool)) {
+
+	publisher.subscribe(subscriber1);
+	publisher.subscribe(subscriber2);
+	...
+}
+ * </code>
+ * </pre>
+ *
+ * @author Sly Technologies Inc
+ * @author repos@slytechs.com
+ * @author mark
+ */
+public final class PcapPublisher implements Flow.Publisher<PacketBuffer>, AutoCloseable {
+
+	/**
+	 * A subscription which tracks a single subscriber's outstanding demand.
+	 */
+	private final class PacketSubscription implements Flow.Subscription {
+
+		private final Flow.Subscriber<? super PacketBuffer> subscriber;
+		private final AtomicLong demand = new AtomicLong();
+		private volatile boolean cancelled;
+		private volatile Throwable requestError;
+
+		PacketSubscription(Flow.Subscriber<? super PacketBuffer> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		/**
+		 * @see java.util.concurrent.Flow.Subscription#cancel()
+		 */
+		@Override
+		public void cancel() {
+			cancelled = true;
+			subscriptions.remove(this);
+			signal();
+		}
+
+		/**
+		 * @see java.util.concurrent.Flow.Subscription#request(long)
+		 */
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				if (requestError == null)
+					requestError = new IllegalArgumentException("non-positive request (%d)".formatted(n));
+
+				/* Stays subscribed until the capture thread delivers the error */
+				cancelled = true;
+				requestErrors = true;
+				signal();
+				return;
+			}
+
+			demand.accumulateAndGet(n, (a, b) -> (a + b < 0) ? Long.MAX_VALUE : a + b);
+			signal();
+		}
+	}
+
+	/** Default maximum number of packets per dispatch */
+	public static final int DEFAULT_MAX_BATCH = 256;
+
+	/** How long the capture thread parks when there is no demand */
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	/** How often the capture thread samples the kernel drop counter */
+	private static final long STATS_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private final Pcap pcap;
+	private final PcapReceiver receiver;
+	private final PacketBufferPool pool;
+	private final int maxBatch;
+	private final boolean offline;
+	private final ThreadFactory threadFactory;
+	private final List<PacketSubscription> subscriptions = new CopyOnWriteArrayList<>();
+	private final AtomicLong publishedCount = new AtomicLong();
+
+	private volatile Thread captureThread;
+	private volatile boolean closed;
+	private volatile boolean requestErrors;
+	private volatile long kernelDrops;
+
+	/** Set once the capture thread no longer delivers signals, guarded by this */
+	private boolean ended;
+
+	/** Kernel drop counter when capture started, only used by capture thread */
+	private long dropBaseline;
+	private long nextStatsSample;
+
+	/**
+	 * Instantiates a new publisher with default batch size and capture thread
+	 * factory.
+	 *
+	 * @param pcap the pcap handle
+	 * @param pool the pool packets are copied into
+	 */
+	public PcapPublisher(Pcap pcap, PacketBufferPool pool) {
+		this(pcap, pool, DEFAULT_MAX_BATCH, Executors.defaultThreadFactory());
+	}
+
+	/**
+	 * Instantiates a new publisher.
+	 *
+	 * @param pcap          the pcap handle
+	 * @param pool          the pool packets are copied into
+	 * @param maxBatch      maximum number of packets per dispatch
+	 * @param threadFactory factory for the capture thread
+	 */
+	public PcapPublisher(Pcap pcap, PacketBufferPool pool, int maxBatch, ThreadFactory threadFactory) {
+		if (maxBatch <= 0)
+			throw new IllegalArgumentException("max batch must be greater than 0 (%d)".formatted(maxBatch));
+
+		this.pcap = Objects.requireNonNull(pcap, "pcap");
+		this.pool = Objects.requireNonNull(pool, "pool");
+		this.threadFactory = Objects.requireNonNull(threadFactory, "threadFactory");
+		this.maxBatch = maxBatch;
+		this.offline = pcap.isOffline();
+		this.receiver = new PcapReceiver(pcap::dispatch);
+	}
+
+	/**
+	 * The receiver used to dispatch packets, which can be used to configure
+	 * receive options such as {@link PcapReceiver#setCopyLimit(int)}.
+	 *
+	 * @return the receiver
+	 */
+	public PcapReceiver receiver() {
+		return receiver;
+	}
+
+	/**
+	 * Capture loop, run on the capture thread.
+	 */
+	private void capture() {
+		Throwable error = null;
+
+		dropBaseline = readKernelDrops();
+		nextStatsSample = System.nanoTime() + STATS_INTERVAL_NANOS;
+
+		try {
+			while (!closed) {
+				sampleKernelDrops(false);
+
+				if (requestErrors)
+					deliverRequestErrors();
+
+				long demand = minDemand();
+				if (demand == 0) {
+					LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+					continue;
+				}
+
+				int count = (int) Math.min(demand, maxBatch);
+				int result = receiver.forEach(count, pool, this::publish, subscriptions);
+
+				if (result < 0 || (result == 0 && offline))
+					break;
+			}
+		} catch (Throwable e) {
+			error = e;
+		}
+
+		sampleKernelDrops(true);
+		pool.releaseWriter();
+
+		synchronized (this) {
+			closed = true;
+			ended = true;
+		}
+
+		terminate(error);
+	}
+
+	/**
+	 * Delivers the errors of invalid requests, on the capture thread.
+	 */
+	private void deliverRequestErrors() {
+		requestErrors = false;
+
+		for (PacketSubscription s : subscriptions) {
+			Throwable e = s.requestError;
+
+			if (e != null && subscriptions.remove(s))
+				s.subscriber.onError(e);
+		}
+	}
+
+	/**
+	 * Removes every remaining subscriber and delivers its terminal signal, either
+	 * the error of an invalid request, the capture error, or completion.
+	 */
+	private void terminate(Throwable error) {
+		for (PacketSubscription s : subscriptions) {
+			if (!subscriptions.remove(s))
+				continue; // Already terminated by another thread
+
+			Throwable e = (s.requestError != null) ? s.requestError : error;
+			if (e == null)
+				s.subscriber.onComplete();
+			else
+				s.subscriber.onError(e);
+		}
+	}
+
+	/**
+	 * Stops the capture thread and completes all subscribers. Does not close the
+	 * pcap handle or the pool.
+	 *
+	 * @see java.lang.AutoCloseable#close()
+	 */
+	@Override
+	public void close() {
+		Thread thread;
+
+		synchronized (this) {
+			if (closed)
+				return;
+
+			closed = true;
+			thread = captureThread;
+
+			if (thread == null)
+				ended = true; // Never started, there are no subscribers
+		}
+
+		if (thread == null)
+			return;
+
+		if (!offline)
+			pcap.breakloop();
+
+		LockSupport.unpark(thread);
+
+		if (thread != Thread.currentThread()) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Number of packets dropped by the kernel since the capture thread started,
+	 * because they were not read fast enough or there was no demand, plus any
+	 * packets which could not be copied because the pool was exhausted. Offline
+	 * handles never drop packets in the kernel.
+	 *
+	 * <p>
+	 * The handle is not thread safe, so the kernel drop counter is only sampled
+	 * by the capture thread, about every 100 milliseconds, and the count may lag
+	 * behind by up to that long.
+	 * </p>
+	 *
+	 * @return the drop count
+	 */
+	public long dropCount() {
+		return kernelDrops + pool.exhaustedCount();
+	}
+
+	/**
+	 * Reads the kernel drop counter, on the capture thread.
+	 *
+	 * @return the drop counter, or 0 if not available
+	 */
+	private long readKernelDrops() {
+		if (offline)
+			return 0;
+
+		try {
+			PcapStat stats = pcap.stats();
+
+			return stats.drop();
+
+		} catch (PcapException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Publishes the kernel drops since capture started, if the sample interval has
+	 * elapsed, on the capture thread.
+	 */
+	private void sampleKernelDrops(boolean force) {
+		if (offline)
+			return;
+
+		long now = System.nanoTime();
+		if (!force && now - nextStatsSample < 0)
+			return;
+
+		nextStatsSample = now + STATS_INTERVAL_NANOS;
+		kernelDrops = Math.max(0, readKernelDrops() - dropBaseline);
+	}
+
+	private long minDemand() {
+		long min = Long.MAX_VALUE;
+		boolean any = false;
+
+		for (PacketSubscription s : subscriptions) {
+			if (s.cancelled)
+				continue;
+
+			min = Math.min(min, s.demand.get());
+			any = true;
+		}
+
+		return any ? min : 0;
+	}
+
+	private void publish(List<PacketSubscription> subscriptions, PacketBuffer packet) {
+		publishedCount.incrementAndGet();
+
+		PacketSubscription last = null;
+		for (PacketSubscription s : subscriptions) {
+			if (s.cancelled)
+				continue;
+
+			if (last != null) {
+				last.demand.decrementAndGet();
+				last.subscriber.onNext(packet.tee());
+			}
+
+			last = s;
+		}
+
+		if (last == null) {
+			packet.release();
+			return;
+		}
+
+		last.demand.decrementAndGet();
+		last.subscriber.onNext(packet);
+	}
+
+	/**
+	 * Number of packets published to subscribers.
+	 *
+	 * @return the published count
+	 */
+	public long publishedCount() {
+		return publishedCount.get();
+	}
+
+	private void signal() {
+		Thread thread = captureThread;
+		if (thread != null)
+			LockSupport.unpark(thread);
+	}
+
+	private synchronized void start() {
+		if (captureThread != null || closed)
+			return;
+
+		Thread thread = threadFactory.newThread(this::capture);
+		captureThread = thread;
+		thread.start();
+	}
+
+	/**
+	 * Subscribes a new subscriber. The capture thread is started on first
+	 * subscription. A subscriber arriving after the publisher was closed is
+	 * completed, or receives the error of an invalid request made from
+	 * {@code onSubscribe}, on a new thread from the publisher's thread factory.
+	 *
+	 * @see java.util.concurrent.Flow.Publisher#subscribe(java.util.concurrent.Flow.Subscriber)
+	 */
+	@Override
+	public void subscribe(Flow.Subscriber<? super PacketBuffer> subscriber) {
+		Objects.requireNonNull(subscriber, "subscriber");
+
+		var subscription = new PacketSubscription(subscriber);
+		subscriber.onSubscribe(subscription);
+
+		if (subscription.cancelled && subscription.requestError == null)
+			return;
+
+		synchronized (this) {
+			subscriptions.add(subscription);
+
+			if (!ended) {
+				start(); // No-op if already started, terminates it on exit if closed
+				return;
+			}
+		}
+
+		threadFactory.newThread(() -> terminate(null)).start();
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "PcapPublisher [pcap=" + pcap
+				+ ", subscribers=" + subscriptions.size()
+				+ ", published=" + publishedCount()
+				+ "]";
+	}
+}
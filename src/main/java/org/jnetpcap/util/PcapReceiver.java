@@ -18,11 +18,16 @@
 package org.jnetpcap.util;
 
 import java.lang.foreign.Addressable;
+import java.lang.foreign.MemoryAddress;
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.MemorySession;
 import java.lang.foreign.ValueLayout;
 import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
 import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 import org.jnetpcap.Pcap;
 import org.jnetpcap.PcapException;
@@ -32,7 +37,9 @@ import org.jnetpcap.PcapHandler.OfMemorySegment;
 import org.jnetpcap.PcapHandler.OfRawPacket;
 import org.jnetpcap.PcapHandler.PacketSource.PcapPacketSource;
 import org.jnetpcap.PcapHeader;
+import org.jnetpcap.PcapHeaderFlyweight;
 import org.jnetpcap.constant.PcapConstants;
+import org.jnetpcap.constant.PcapDlt;
 import org.jnetpcap.internal.ArrayAllocator;
 
 /**
@@ -103,6 +110,21 @@ Packet [timestamp=2011-03-01T20:45:13.313Z, wirelen=200  caplen=200  {00:26:62:2
  */
 public final class PcapReceiver implements PcapPacketSource {
 
+	/** Copy limit which copies all of the captured packet data */
+	public static final int COPY_ALL = Integer.MAX_VALUE;
+
+	/**
+	 * Number of bytes allowed for by header-only copies, past the data link
+	 * header, to cover IPv4 with options or IPv6, plus a TCP header with options.
+	 */
+	public static final int HEADER_ONLY_L3_L4_LENGTH = 128;
+
+	/**
+	 * Number of bytes allowed for link headers of unknown length in header-only
+	 * copies.
+	 */
+	private static final int UNKNOWN_LINK_HEADER_LENGTH = 64;
+
 	/**
 	 * Common array-handler, shared between PcapReceiver and Pcap0_4 implementation.
 	 *
@@ -115,35 +137,119 @@ public final class PcapReceiver implements PcapPacketSource {
 	 */
 	public static <U> int commonArrayHandler(PcapPacketSource packetSource, int count,
 			PcapHandler.OfArray<U> handler, U user) {
+		return commonArrayHandler(packetSource, count, handler, user, COPY_ALL);
+	}
 
-		return packetSource.sourcePackets(count, (header, bytes) -> {
+	/**
+	 * Common array-handler, which copies only up to {@code copyLimit} bytes of
+	 * each packet. The header passed to the handler still reports the original
+	 * capture and wire lengths.
+	 *
+	 * @param <U>          the generic type
+	 * @param packetSource the packet source
+	 * @param count        the count
+	 * @param handler      the handler
+	 * @param user         the user
+	 * @param copyLimit    maximum number of packet bytes to copy
+	 * @return the int
+	 */
+	public static <U> int commonArrayHandler(PcapPacketSource packetSource, int count,
+			PcapHandler.OfArray<U> handler, U user, int copyLimit) {
 
-			try (var scope = newScope()) {
+		try (var scope = newScope()) {
+			return packetSource.sourcePackets(count, (header, bytes) -> {
 				PcapHeader hdr = PcapHeader.newReadOnlyInstance(header);
 
 				int caplen = hdr.captureLength();
-				assert caplen < PcapConstants.MAX_SNAPLEN : "caplen/wirelen out of range " + caplen;
+				assert caplen <= PcapConstants.MAX_SNAPLEN : "caplen/wirelen out of range " + caplen;
 
-				byte[] packet = MemorySegment.ofAddress(bytes.address(), caplen, scope)
+				byte[] packet = MemorySegment.ofAddress(bytes.address(), Math.min(caplen, copyLimit), scope)
 						.toArray(ValueLayout.JAVA_BYTE);
 
 				handler.handleArray(user, hdr, packet);
-			}
-		});
+			});
+		}
+	}
+
+	/**
+	 * Number of bytes copied by header-only receive mode for the given data link
+	 * type. The length covers the data link header, plus
+	 * {@value #HEADER_ONLY_L3_L4_LENGTH} bytes for the network and transport
+	 * headers.
+	 *
+	 * @param dlt the data link type of the capture handle
+	 * @return the header-only copy length in bytes
+	 */
+	public static int headerOnlyLength(PcapDlt dlt) {
+		int linkHeaderLength = switch (dlt) {
+		case NULL, LOOP -> 4;
+		case RAW -> 0;
+		case EN10MB -> 14 + 8; // Allow for 2 VLAN tags
+		case LINUX_SLL -> 16;
+		case IEEE802_11 -> 24 + 8; // 802.11 header plus LLC/SNAP
+		default -> UNKNOWN_LINK_HEADER_LENGTH;
+		};
+
+		return linkHeaderLength + HEADER_ONLY_L3_L4_LENGTH;
 	}
 
 	/**
-	 * New scope.
+	 * New scope, opened once per dispatch call and shared by all of the packets
+	 * dispatched. Packet callbacks are always made on the thread which called
+	 * dispatch/loop, so a confined scope is sufficient and much cheaper to close
+	 * than a shared one.
 	 *
 	 * @return the memory session
 	 */
 	private static final MemorySession newScope() {
-		return MemorySession.openShared();
+		return MemorySession.openConfined();
 	}
 
 	/** The packet source from which we receive packets. */
 	private final PcapPacketSource packetSource;
 
+	/** Reusable packet view, rebound to every packet received */
+	private final PcapPacketFlyweight flyweight = new PcapPacketFlyweight();
+
+	/** Reusable batch, lazily allocated on first batch dispatch */
+	private PcapPacketBatch batch;
+
+	/** Reusable header view, for handlers which receive copies of packet data */
+	private final PcapHeaderFlyweight headerFlyweight = new PcapHeaderFlyweight();
+
+	/** Block allocator for array-at-offset copies */
+	private ArrayAllocator arrayAllocator = new ArrayAllocator();
+
+	/** Maximum number of packet bytes copied by the copying receive modes */
+	private int copyLimit = COPY_ALL;
+
+	/** Optional load shedding applied to pooled and batch copies */
+	private PcapOverloadControl overloadControl;
+
+	/*
+	 * Per receive mode sinks, created once, so that the pcap handle is passed the
+	 * same sink on every dispatch and calls it through its own cached, bound,
+	 * upcall stub. The sinks read the state of the receive call in progress from
+	 * the call fields below, which are saved and restored around every call, so
+	 * that a handler can reenter the receiver.
+	 */
+	private final OfRawPacket addressSink = this::sinkAddress;
+	private final OfRawPacket segmentSink = this::sinkSegment;
+	private final OfRawPacket poolSink = this::sinkPool;
+	private final OfRawPacket flyweightSink = this::sinkFlyweight;
+	private final OfRawPacket batchSink = this::sinkBatch;
+	private final OfRawPacket arraySink = this::sinkArray;
+	private final OfRawPacket arrayAtOffsetSink = this::sinkArrayAtOffset;
+	private final OfRawPacket byteBufferSink = this::sinkByteBuffer;
+	private final OfRawPacket directSink = this::sinkDirect;
+
+	/** Handler, user and resources of the receive call in progress */
+	private Object callHandler;
+	private Object callUser;
+	private MemorySession callScope;
+	private PacketBufferPool callPool;
+	private PcapPacketBatch callBatch;
+
 	/**
 	 * Instantiates a new pcap handler using either Pcap.loop() or Pcap.dispatch()
 	 * methods. For example {@code new PcapReceiver(pcap::loop)} or {@code new
@@ -158,40 +264,6 @@ public final class PcapReceiver implements PcapPacketSource {
 		this.packetSource = psource;
 	}
 
-	/**
-	 * Todo: array allocator needs a better design, or does it even makes sense? -
-	 * mark.
-	 *
-	 * @param <U>            the generic type
-	 * @param count          the count
-	 * @param handler        the handler
-	 * @param user           the user
-	 * @param arenaAllocator the arena allocator
-	 * @return the int
-	 */
-	@SuppressWarnings("unused")
-	@Deprecated
-	private <U> int copyEach(int count, PcapHandler.OfArrayAtOffset<U> handler, U user,
-			ArrayAllocator arenaAllocator) {
-		ArrayAllocator heap = arenaAllocator;
-
-		return sourcePackets(count, (header, bytes) -> {
-			try (var scope = newScope()) {
-				PcapHeader hdr = PcapHeader.newReadOnlyInstance(header);
-
-				int caplen = hdr.captureLength();
-				assert caplen < 1560 : "caplen/wirelen out of range " + caplen;
-
-				int offset = heap.allocate(caplen);
-				heap.copy(MemorySegment.ofAddress(bytes.address(), caplen, scope));
-
-				assert heap.length() == caplen;
-
-				handler.handleArray(user, hdr, heap.array(), offset, caplen);
-			}
-		});
-	}
-
 	/**
 	 * Dispatch, by no-copy, up to max count of packets to the memory address
 	 * handler.
@@ -204,14 +276,13 @@ public final class PcapReceiver implements PcapPacketSource {
 	 * @throws PcapException the pcap exception
 	 */
 	public <U> int forEach(int count, OfMemoryAddress<U> handler, U user) throws PcapException {
-		return packetSource.sourcePackets(count, (header, bytes) -> {
-			handler.handleAddress(user, header.address(), bytes.address());
-		});
+		return receive(count, addressSink, handler, user, null, null, null);
 	}
 
 	/**
 	 * Dispatch, by no-copy, up to max count of packets to the memory segment
-	 * handler.
+	 * handler. The scope passed to the handler is confined to the dispatching
+	 * thread and is closed when this dispatch call returns.
 	 *
 	 * @param <U>     the generic type
 	 * @param count   the count
@@ -221,18 +292,105 @@ public final class PcapReceiver implements PcapPacketSource {
 	 * @throws PcapException the pcap exception
 	 */
 	public <U> int forEach(int count, OfMemorySegment<U> handler, U user) throws PcapException {
-		return sourcePackets(count, (header, bytes) -> {
-			try (var scope = MemorySession.openShared()) {
-				MemorySegment hseg = MemorySegment.ofAddress(header.address(),
-						PcapHeader.PCAP_HEADER_PADDED_LENGTH,
-						scope);
+		try (var scope = newScope()) {
+			return receive(count, segmentSink, handler, user, scope, null, null);
+		}
+	}
+
+	/**
+	 * Dispatch, by copy, up to max count of packets into the packet buffer pool
+	 * and hand each pooled packet to the handler. Each packet is copied exactly
+	 * once, from native memory into a pool slab, and can then be retained or teed
+	 * to any number of consumers without further copies. Packets which do not fit
+	 * into an exhausted pool are not delivered and are counted by
+	 * {@link PacketBufferPool#exhaustedCount()}, packets shed by the overload
+	 * control, if any, are not delivered either.
+	 *
+	 * @param <U>     the generic user type
+	 * @param count   the max packet count to capture
+	 * @param pool    the packet buffer pool to copy packets into
+	 * @param handler the pooled packet handler
+	 * @param user    the user opaque data object
+	 * @return the number of packets actually dispatched
+	 */
+	public <U> int forEach(int count, PacketBufferPool pool, PcapHandler.OfPacketBuffer<U> handler, U user) {
+		int result = receive(count, poolSink, handler, user, null, Objects.requireNonNull(pool, "pool"), null);
+
+		checkOverload();
+
+		return result;
+	}
+
+	/**
+	 * Dispatch, by no-copy, up to max count of packets to the flyweight handler.
+	 * The same flyweight instance is rebound to every packet, so no objects are
+	 * allocated per packet. The flyweight must not be retained by the handler.
+	 *
+	 * @param <U>     the generic type
+	 * @param count   the count
+	 * @param handler the handler
+	 * @param user    the user
+	 * @return the int
+	 */
+	public <U> int forEach(int count, PcapHandler.OfPacketFlyweight<U> handler, U user) {
+		try {
+			return receive(count, flyweightSink, handler, user, null, null, null);
+
+		} finally {
+			flyweight.unbind();
+		}
+	}
+
+	/**
+	 * Dispatch, by copy, up to max count of packets into a reusable columnar batch,
+	 * and hand the batch to the handler once per dispatch. The handler is called
+	 * more than once, if the batch fills up before the dispatch completes. The
+	 * batch is allocated on first use with default capacity, in the time stamp
+	 * precision of the packet source's handle, and reused by all subsequent
+	 * calls.
+	 *
+	 * @param <U>     the generic user type
+	 * @param count   the max packet count to capture
+	 * @param handler the batch handler
+	 * @param user    the user opaque data object
+	 * @return the number of packets actually dispatched
+	 */
+	public <U> int forEachBatch(int count, PcapHandler.OfBatch<U> handler, U user) {
+		if (batch == null)
+			batch = new PcapPacketBatch(PcapPacketBatch.DEFAULT_CAPACITY, PcapPacketBatch.DEFAULT_SLAB_SIZE,
+					packetSource.tstampPrecision());
+
+		return forEachBatch(count, batch, handler, user);
+	}
 
-				int caplen = PcapHeader.readCaptureLength(hseg);
-				MemorySegment pseg = MemorySegment.ofAddress(bytes.address(), caplen, scope);
+	/**
+	 * Dispatch, by copy, up to max count of packets into the supplied columnar
+	 * batch, and hand the batch to the handler once per dispatch. The handler is
+	 * called more than once, if the batch fills up before the dispatch completes.
+	 *
+	 * @param <U>     the generic user type
+	 * @param count   the max packet count to capture
+	 * @param batch   the reusable batch to fill
+	 * @param handler the batch handler
+	 * @param user    the user opaque data object
+	 * @return the number of packets actually dispatched
+	 */
+	public <U> int forEachBatch(int count, PcapPacketBatch batch, PcapHandler.OfBatch<U> handler, U user) {
+		batch.clear();
+
+		int result = receive(count, batchSink, handler, user, null, null, batch);
 
-				handler.handleMemorySegment(user, hseg, pseg, scope);
-			}
-		});
+		try {
+			if (!batch.isEmpty())
+				handler.handleBatch(user, batch);
+
+		} finally {
+			batch.clear();
+		}
+
+		checkOverload();
+
+		return result;
 	}
 
 	/**
@@ -246,7 +404,37 @@ public final class PcapReceiver implements PcapPacketSource {
 	 * @return the number of packets actually dispatched
 	 */
 	public <U> int forEachCopy(int count, PcapHandler.OfArray<U> handler, U user) {
-		return commonArrayHandler(packetSource, count, handler, user);
+		try (var scope = newScope()) {
+			return receive(count, arraySink, handler, user, scope, null, null);
+		}
+	}
+
+	/**
+	 * Dispatch, by copy, up to max count packets to the array-at-offset handler.
+	 * Packets are copied back to back into large, recycled, byte array blocks, so
+	 * only one array is allocated per block instead of one per packet. The packet
+	 * data in a block remains valid until the block is retired and handed to the
+	 * block recycler (see {@link #setArrayBlocks(int, IntFunction, Consumer)}).
+	 * 
+	 * <p>
+	 * As with the packet data, the header passed to the handler is a detached,
+	 * read-only copy, which remains valid after the handler returns.
+	 * </p>
+	 *
+	 * @param <U>     the generic user type
+	 * @param count   the max packet count to capture depending if
+	 *                {@link Pcap#loop()} or {@link Pcap#dispatch()} is used.
+	 * @param handler the user packet handler
+	 * @param user    the user opaque data object
+	 * @return the number of packets actually dispatched
+	 */
+	public <U> int forEachCopy(int count, PcapHandler.OfArrayAtOffset<U> handler, U user) {
+		try {
+			return receive(count, arrayAtOffsetSink, handler, user, null, null, null);
+
+		} finally {
+			headerFlyweight.unbind();
+		}
 	}
 
 	/**
@@ -259,18 +447,9 @@ public final class PcapReceiver implements PcapPacketSource {
 	 * @return the int
 	 */
 	public <U> int forEachCopy(int count, PcapHandler.OfByteBuffer<U> handler, U user) {
-		return sourcePackets(count, (Addressable header, Addressable bytes) -> {
-			try (var scope = newScope()) {
-
-				PcapHeader hdr = PcapHeader.newReadOnlyInstance(header);
-
-				var pseg = MemorySegment.ofAddress(bytes.address(), hdr.captureLength(), scope);
-
-				ByteBuffer packet = ByteBuffer.wrap(pseg.toArray(ValueLayout.JAVA_BYTE));
-
-				handler.handleByteBuffer(user, hdr, packet);
-			}
-		});
+		try (var scope = newScope()) {
+			return receive(count, byteBufferSink, handler, user, scope, null, null);
+		}
 	}
 
 	/**
@@ -286,17 +465,282 @@ public final class PcapReceiver implements PcapPacketSource {
 	 */
 	public <U> int forEachDirect(int count, PcapHandler.OfByteBuffer<U> handler, U user) throws PcapException {
 
-		return sourcePackets(count, (header, bytes) -> {
-			try (var scope = newScope()) {
-				PcapHeader hdr = PcapHeader.newReadOnlyInstance(header);
+		try (var scope = newScope()) {
+			return receive(count, directSink, handler, user, scope, null, null);
+		}
+	}
+
+	/**
+	 * Dispatches to one of the receiver's sinks, with the call fields set to the
+	 * handler, user and resources of this call, and restored afterwards.
+	 */
+	private int receive(int count, OfRawPacket sink, Object handler, Object user, MemorySession scope,
+			PacketBufferPool pool, PcapPacketBatch batch) {
+		Objects.requireNonNull(handler, "handler");
+
+		final Object outerHandler = this.callHandler;
+		final Object outerUser = this.callUser;
+		final MemorySession outerScope = this.callScope;
+		final PacketBufferPool outerPool = this.callPool;
+		final PcapPacketBatch outerBatch = this.callBatch;
+
+		this.callHandler = handler;
+		this.callUser = user;
+		this.callScope = scope;
+		this.callPool = pool;
+		this.callBatch = batch;
+
+		try {
+			return packetSource.sourcePackets(count, sink);
+
+		} finally {
+			this.callHandler = outerHandler;
+			this.callUser = outerUser;
+			this.callScope = outerScope;
+			this.callPool = outerPool;
+			this.callBatch = outerBatch;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void sinkAddress(Addressable header, Addressable bytes) {
+		((OfMemoryAddress<Object>) callHandler).handleAddress(callUser, header.address(), bytes.address());
+	}
+
+	@SuppressWarnings("unchecked")
+	private void sinkArray(Addressable header, Addressable bytes) {
+		PcapHeader hdr = PcapHeader.newReadOnlyInstance(header);
+
+		int caplen = hdr.captureLength();
+		assert caplen <= PcapConstants.MAX_SNAPLEN : "caplen/wirelen out of range " + caplen;
+
+		byte[] packet = MemorySegment.ofAddress(bytes.address(), Math.min(caplen, copyLimit), callScope)
+				.toArray(ValueLayout.JAVA_BYTE);
+
+		((PcapHandler.OfArray<Object>) callHandler).handleArray(callUser, hdr, packet);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void sinkArrayAtOffset(Addressable header, Addressable bytes) {
+		final ArrayAllocator heap = this.arrayAllocator;
+		final PcapHeaderFlyweight hdr = this.headerFlyweight;
+
+		int caplen = hdr.bind(header).captureLength();
+		assert caplen <= PcapConstants.MAX_SNAPLEN : "caplen/wirelen out of range " + caplen;
+
+		int length = Math.min(caplen, copyLimit);
+		int offset = heap.allocate(length);
+		heap.copy(MemorySegment.ofAddress(bytes.address(), length, MemorySession.global()));
+
+		((PcapHandler.OfArrayAtOffset<Object>) callHandler)
+				.handleArray(callUser, hdr.asReadOnly(), heap.array(), offset, length);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void sinkBatch(Addressable header, Addressable bytes) {
+		final PcapPacketBatch batch = this.callBatch;
+		MemoryAddress hdr = header.address();
+		MemoryAddress data = bytes.address();
+
+		int limit = admitLimit(hdr, data);
+		if (limit < 0)
+			return;
+
+		if (!batch.add(hdr, data, limit)) {
+			((PcapHandler.OfBatch<Object>) callHandler).handleBatch(callUser, batch);
+			batch.clear();
+
+			batch.add(hdr, data, limit);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void sinkByteBuffer(Addressable header, Addressable bytes) {
+		PcapHeader hdr = PcapHeader.newReadOnlyInstance(header);
+
+		var pseg = MemorySegment.ofAddress(bytes.address(), Math.min(hdr.captureLength(), copyLimit), callScope);
+
+		ByteBuffer packet = ByteBuffer.wrap(pseg.toArray(ValueLayout.JAVA_BYTE));
+
+		((PcapHandler.OfByteBuffer<Object>) callHandler).handleByteBuffer(callUser, hdr, packet);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void sinkDirect(Addressable header, Addressable bytes) {
+		PcapHeader hdr = PcapHeader.newReadOnlyInstance(header);
+
+		ByteBuffer packet = MemorySegment
+				.ofAddress(bytes.address(), hdr.captureLength(), callScope)
+				.asByteBuffer();
+
+		((PcapHandler.OfByteBuffer<Object>) callHandler).handleByteBuffer(callUser, hdr, packet);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void sinkFlyweight(Addressable header, Addressable bytes) {
+		((PcapHandler.OfPacketFlyweight<Object>) callHandler).handlePacket(callUser, flyweight.bind(header, bytes));
+	}
+
+	@SuppressWarnings("unchecked")
+	private void sinkPool(Addressable header, Addressable bytes) {
+		MemoryAddress hdr = header.address();
+		MemoryAddress data = bytes.address();
+
+		int limit = admitLimit(hdr, data);
+		if (limit < 0)
+			return;
+
+		PacketBuffer packet = callPool.allocate(hdr, data, limit);
+		if (packet != null)
+			((PcapHandler.OfPacketBuffer<Object>) callHandler).handlePacketBuffer(callUser, packet);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void sinkSegment(Addressable header, Addressable bytes) {
+		final MemorySession scope = this.callScope;
+
+		MemorySegment hseg = MemorySegment.ofAddress(header.address(),
+				PcapHeader.PCAP_HEADER_PADDED_LENGTH,
+				scope);
+
+		int caplen = PcapHeader.readCaptureLength(hseg);
+		MemorySegment pseg = MemorySegment.ofAddress(bytes.address(), caplen, scope);
+
+		((OfMemorySegment<Object>) callHandler).handleMemorySegment(callUser, hseg, pseg, scope);
+	}
+
+	/**
+	 * Maximum number of packet bytes copied by the copying receive modes.
+	 *
+	 * @return the copy limit, or {@link #COPY_ALL}
+	 * @see #setCopyLimit(int)
+	 */
+	public int copyLimit() {
+		return copyLimit;
+	}
 
-				ByteBuffer packet = MemorySegment
-						.ofAddress(bytes.address(), hdr.captureLength(), scope)
-						.asByteBuffer();
+	/**
+	 * Number of bytes to copy of a packet, the copy limit as reduced by the
+	 * overload control, or a negative value if the packet is shed.
+	 */
+	int admitLimit(MemoryAddress header, MemoryAddress data) {
+		final PcapOverloadControl control = this.overloadControl;
+
+		return (control == null) ? copyLimit : control.admit(header, data, copyLimit);
+	}
+
+	/**
+	 * Samples the overload control's signals after a dispatch, if due, so that it
+	 * can leave overload mode even when few or no packets arrive.
+	 */
+	private void checkOverload() {
+		final PcapOverloadControl control = this.overloadControl;
+
+		if (control != null)
+			control.checkIfDue();
+	}
+
+	/**
+	 * The overload control applied to pooled and batch copies.
+	 *
+	 * @return the overload control, or null if none
+	 */
+	public PcapOverloadControl overloadControl() {
+		return overloadControl;
+	}
+
+	/**
+	 * Retires the current, partially filled, array block used by
+	 * {@link #forEachCopy(int, PcapHandler.OfArrayAtOffset, Object)} and hands it
+	 * to the block recycler. The next packet copied will start a new block.
+	 */
+	public void retireArrayBlock() {
+		arrayAllocator.retire();
+	}
+
+	/**
+	 * Configures the array blocks used by
+	 * {@link #forEachCopy(int, PcapHandler.OfArrayAtOffset, Object)}. Any current
+	 * block is first retired to the previous block recycler.
+	 *
+	 * @param blockSize      the default block size in bytes, packets larger than
+	 *                       the block size get a block of their own
+	 * @param blockAllocator allocates new blocks of at least the requested size,
+	 *                       for example {@code byte[]::new} or a pool of
+	 *                       previously recycled blocks
+	 * @param blockRecycler  receives every block once it is full and no more
+	 *                       packets will be copied into it
+	 * @return this receiver
+	 */
+	public PcapReceiver setArrayBlocks(int blockSize, IntFunction<byte[]> blockAllocator,
+			Consumer<byte[]> blockRecycler) {
+		var newAllocator = new ArrayAllocator(
+				Objects.requireNonNull(blockAllocator, "blockAllocator"),
+				blockSize,
+				Objects.requireNonNull(blockRecycler, "blockRecycler"));
+
+		arrayAllocator.retire();
+		arrayAllocator = newAllocator;
+
+		return this;
+	}
 
-				handler.handleByteBuffer(user, hdr, packet);
-			}
-		});
+	/**
+	 * Sets the default array block size used by
+	 * {@link #forEachCopy(int, PcapHandler.OfArrayAtOffset, Object)}. Full blocks
+	 * are simply dropped and left to the garbage collector.
+	 *
+	 * @param blockSize the default block size in bytes
+	 * @return this receiver
+	 */
+	public PcapReceiver setArrayBlockSize(int blockSize) {
+		return setArrayBlocks(blockSize, byte[]::new, block -> {});
+	}
+
+	/**
+	 * Sets the overload control, which sheds or truncates packets copied into
+	 * packet buffer pools and batches while consumers are falling behind.
+	 *
+	 * @param overloadControl the overload control, or null to disable shedding
+	 * @return this receiver
+	 */
+	public PcapReceiver setOverloadControl(PcapOverloadControl overloadControl) {
+		this.overloadControl = overloadControl;
+
+		return this;
+	}
+
+	/**
+	 * Sets truncated-copy receive mode, where only the first {@code copyLimit}
+	 * bytes of each packet are copied into the handler's buffer. Headers passed to
+	 * the handlers still report the original capture and wire lengths. Applies to
+	 * all of the copying receive modes, {@code forEachCopy}, {@code forEachBatch}
+	 * and pooled packet buffers, while the no-copy modes are unaffected.
+	 *
+	 * @param copyLimit maximum number of bytes to copy, or {@link #COPY_ALL}
+	 * @return this receiver
+	 */
+	public PcapReceiver setCopyLimit(int copyLimit) {
+		if (copyLimit < 0)
+			throw new IllegalArgumentException("invalid copy limit (%d)".formatted(copyLimit));
+
+		this.copyLimit = copyLimit;
+
+		return this;
+	}
+
+	/**
+	 * Sets header-only receive mode, where only the protocol headers of each
+	 * packet are copied, using a copy limit computed for the handle's data link
+	 * type.
+	 *
+	 * @param dlt the data link type of the capture handle, as returned by
+	 *            {@link Pcap#datalink()}
+	 * @return this receiver
+	 * @see #headerOnlyLength(PcapDlt)
+	 */
+	public PcapReceiver setHeaderOnly(PcapDlt dlt) {
+		return setCopyLimit(headerOnlyLength(dlt));
 	}
 
 	/**
@@ -313,4 +757,19 @@ public final class PcapReceiver implements PcapPacketSource {
 		return packetSource.sourcePackets(count, handler);
 	}
 
+	/**
+	 * A lazy, sequential, stream of packets pulled from this receiver's packet
+	 * source in batches of up to {@code batchSize} packets. Each packet is copied
+	 * out of libpcap's buffer and can be retained.
+	 *
+	 * @param batchSize number of packets pulled per dispatch
+	 * @param offline   true if the source is a ''savefile'', where 0 packets
+	 *                  dispatched means end of file and the stream can be split
+	 *                  for parallel processing
+	 * @return the stream of packets
+	 * @see PcapSpliterator
+	 */
+	public Stream<PcapPacketRef> stream(int batchSize, boolean offline) {
+		return PcapSpliterator.stream(packetSource, batchSize, offline);
+	}
 }
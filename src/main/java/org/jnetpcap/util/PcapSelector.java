@@ -0,0 +1,472 @@
+/*
+ * Apache License, Version 2.0
+ *
+ * Copyright 2013-2022 Sly Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jnetpcap.util;
+
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_SHORT;
+import static org.jnetpcap.internal.StandardCLibrary.POLLERR;
+import static org.jnetpcap.internal.StandardCLibrary.POLLFD_EVENTS_OFFSET;
+import static org.jnetpcap.internal.StandardCLibrary.POLLFD_REVENTS_OFFSET;
+import static org.jnetpcap.internal.StandardCLibrary.POLLFD_SIZE;
+import static org.jnetpcap.internal.StandardCLibrary.POLLHUP;
+import static org.jnetpcap.internal.StandardCLibrary.POLLIN;
+import static org.jnetpcap.internal.StandardCLibrary.POLLNVAL;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.MemorySession;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.jnetpcap.Pcap;
+import org.jnetpcap.PcapException;
+import org.jnetpcap.PcapHandler;
+import org.jnetpcap.constant.PcapCode;
+import org.jnetpcap.internal.StandardCLibrary;
+
+/**
+ * Multiplexes many non-blocking pcap handles on a single thread. The selector
+ * waits on the selectable file descriptors of all registered handles at once,
+ * using the C library's {@code poll} function, and then dispatches packets only
+ * from the handles which are ready.
+ *
+ * <p>
+ * Every registration has a quota, the maximum number of packets dispatched
+ * from its handle per {@link #select(long, TimeUnit)} call, and ready handles
+ * are serviced in a rotating order, so that a single busy handle can not
+ * starve the others. A handle with more packets pending than its quota simply
+ * remains ready for the next select.
+ * </p>
+ *
+ * <pre>
+ * <code>
+try (var selector = new PcapSelector()) {
+	for (Pcap.Unix pcap : vlanHandles)
+		selector.register(pcap, 64, (user, packet) -> process(packet), "");
+
+	while (running)
+		selector.select(100, TimeUnit.MILLISECONDS);
+}
+ * </code>
+ * </pre>
+ *
+ * <p>
+ * A handle which fails, either because {@code poll} reports an error, a hang up
+ * or an invalid descriptor for it, or because it returns an error while
+ * dispatching, is cancelled, so that it can not keep every following select
+ * returning immediately. The failure is reported by the registration's
+ * {@link Registration#error()}.
+ * </p>
+ *
+ * <p>
+ * A selector, and all of the handles registered with it, must be used from a
+ * single thread.
+ * </p>
+ *
+ * @author Sly Technologies Inc
+ * @author repos@slytechs.com
+ * @author mark
+ */
+public final class PcapSelector implements AutoCloseable {
+
+	/**
+	 * A pcap handle registered with a selector.
+	 */
+	public final class Registration {
+
+		private final Pcap.Unix pcap;
+		private final int fd;
+		private final PcapReceiver receiver;
+		private final Dispatcher dispatcher;
+		private int quota;
+		private long packetCount;
+		private long readyCount;
+		private PcapException error;
+
+		private Registration(Pcap.Unix pcap, int fd, int quota, Dispatcher dispatcher) {
+			this.pcap = pcap;
+			this.fd = fd;
+			this.quota = quota;
+			this.dispatcher = dispatcher;
+			this.receiver = new PcapReceiver(pcap::dispatch);
+		}
+
+		/**
+		 * Removes this registration from the selector. The pcap handle is not
+		 * closed and remains in non-blocking mode.
+		 */
+		public void cancel() {
+			if (registrations.remove(this))
+				dirty = true;
+		}
+
+		/**
+		 * The error which caused this registration to be cancelled by the selector.
+		 *
+		 * @return the error, or null if the handle has not failed
+		 */
+		public PcapException error() {
+			return error;
+		}
+
+		/**
+		 * Checks if this registration is still registered with the selector.
+		 *
+		 * @return true, if registered
+		 */
+		public boolean isValid() {
+			return registrations.contains(this);
+		}
+
+		/**
+		 * Total number of packets dispatched from this handle.
+		 *
+		 * @return the packet count
+		 */
+		public long packetCount() {
+			return packetCount;
+		}
+
+		/**
+		 * The registered pcap handle.
+		 *
+		 * @return the pcap handle
+		 */
+		public Pcap.Unix pcap() {
+			return pcap;
+		}
+
+		/**
+		 * Maximum number of packets dispatched from this handle per select.
+		 *
+		 * @return the quota
+		 */
+		public int quota() {
+			return quota;
+		}
+
+		/**
+		 * Number of selects in which this handle was ready.
+		 *
+		 * @return the ready count
+		 */
+		public long readyCount() {
+			return readyCount;
+		}
+
+		/**
+		 * The receiver used to dispatch packets from this handle, which can be used
+		 * to configure receive options.
+		 *
+		 * @return the receiver
+		 */
+		public PcapReceiver receiver() {
+			return receiver;
+		}
+
+		/**
+		 * Sets the maximum number of packets dispatched from this handle per select.
+		 *
+		 * @param quota the new quota
+		 * @return this registration
+		 */
+		public Registration setQuota(int quota) {
+			this.quota = checkQuota(quota);
+
+			return this;
+		}
+
+		/**
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "Registration [pcap=" + pcap
+					+ ", fd=" + fd
+					+ ", quota=" + quota
+					+ ", packets=" + packetCount
+					+ ((error == null) ? "" : ", error=" + error.getMessage())
+					+ "]";
+		}
+	}
+
+	/**
+	 * Dispatches up to a quota of packets from a registration's receiver.
+	 */
+	@FunctionalInterface
+	private interface Dispatcher {
+		int dispatch(PcapReceiver receiver, int quota);
+	}
+
+	private static final short READY_EVENTS = POLLIN | POLLERR | POLLHUP | POLLNVAL;
+	private static final short ERROR_EVENTS = POLLERR | POLLHUP | POLLNVAL;
+
+	/** Number of times a failed poll is retried, as it may have been interrupted */
+	private static final int POLL_RETRIES = 1;
+
+	private static int checkQuota(int quota) {
+		if (quota <= 0)
+			throw new IllegalArgumentException("quota must be greater than 0 (%d)".formatted(quota));
+
+		return quota;
+	}
+
+	private final List<Registration> registrations = new ArrayList<>();
+	private final MemorySession session = MemorySession.openConfined();
+
+	/** Snapshot of registrations, in the same order as the pollfd array */
+	private Registration[] polled = new Registration[0];
+	private MemorySegment pollfds = MemorySegment.allocateNative(POLLFD_SIZE, session);
+	private boolean dirty;
+	private int rotation;
+	private long failedCount;
+
+	/**
+	 * Instantiates a new selector.
+	 *
+	 * @throws UnsupportedOperationException if {@code poll} is not available on
+	 *                                       this platform
+	 */
+	public PcapSelector() {
+		if (!StandardCLibrary.isPollSupported())
+			throw new UnsupportedOperationException("poll() not available on this platform");
+	}
+
+	/**
+	 * Cancels all registrations and releases the selector's native memory. The
+	 * pcap handles are not closed.
+	 *
+	 * @see java.lang.AutoCloseable#close()
+	 */
+	@Override
+	public void close() {
+		registrations.clear();
+		polled = new Registration[0];
+		session.close();
+	}
+
+	/**
+	 * Cancels a registration whose handle failed, and records the error.
+	 */
+	private void fail(Registration registration, PcapException error) {
+		registration.error = error;
+		registration.cancel();
+		failedCount++;
+	}
+
+	/**
+	 * Number of registrations cancelled because their handle failed.
+	 *
+	 * @return the failed count
+	 */
+	public long failedCount() {
+		return failedCount;
+	}
+
+	/**
+	 * Registers a pcap handle, switching it to non-blocking mode.
+	 *
+	 * @param <U>     the generic user type
+	 * @param pcap    the activated pcap handle
+	 * @param quota   maximum number of packets dispatched from this handle per
+	 *                select
+	 * @param handler the packet handler
+	 * @param user    the user opaque data object
+	 * @return the registration
+	 * @throws PcapException if the handle has no selectable file descriptor or can
+	 *                       not be put in non-blocking mode
+	 */
+	public <U> Registration register(Pcap.Unix pcap, int quota, PcapHandler.OfPacketFlyweight<U> handler, U user)
+			throws PcapException {
+		Objects.requireNonNull(handler, "handler");
+
+		return register(pcap, quota, (receiver, count) -> receiver.forEach(count, handler, user));
+	}
+
+	/**
+	 * Registers a pcap handle, switching it to non-blocking mode, with packets
+	 * copied into a packet buffer pool.
+	 *
+	 * @param <U>     the generic user type
+	 * @param pcap    the activated pcap handle
+	 * @param quota   maximum number of packets dispatched from this handle per
+	 *                select
+	 * @param pool    the pool packets are copied into
+	 * @param handler the pooled packet handler
+	 * @param user    the user opaque data object
+	 * @return the registration
+	 * @throws PcapException if the handle has no selectable file descriptor or can
+	 *                       not be put in non-blocking mode
+	 */
+	public <U> Registration register(Pcap.Unix pcap, int quota, PacketBufferPool pool,
+			PcapHandler.OfPacketBuffer<U> handler, U user) throws PcapException {
+		Objects.requireNonNull(pool, "pool");
+		Objects.requireNonNull(handler, "handler");
+
+		return register(pcap, quota, (receiver, count) -> receiver.forEach(count, pool, handler, user));
+	}
+
+	private Registration register(Pcap.Unix pcap, int quota, Dispatcher dispatcher) throws PcapException {
+		checkQuota(quota);
+
+		int fd = pcap.getSelectableFd();
+		if (fd < 0)
+			throw new PcapException("pcap handle has no selectable file descriptor " + pcap);
+
+		pcap.setNonBlock(true);
+
+		var registration = new Registration(pcap, fd, quota, dispatcher);
+		registrations.add(registration);
+		dirty = true;
+
+		return registration;
+	}
+
+	/**
+	 * Currently registered handles.
+	 *
+	 * @return unmodifiable list of registrations
+	 */
+	public List<Registration> registrations() {
+		return List.copyOf(registrations);
+	}
+
+	/**
+	 * Rebuilds the native pollfd array after registrations have changed.
+	 */
+	private void rebuild() {
+		int count = registrations.size();
+		polled = registrations.toArray(Registration[]::new);
+
+		if (pollfds.byteSize() < (long) count * POLLFD_SIZE)
+			pollfds = MemorySegment.allocateNative((long) Math.max(count, 1) * POLLFD_SIZE * 2, session);
+
+		for (int i = 0; i < count; i++) {
+			long offset = (long) i * POLLFD_SIZE;
+
+			pollfds.set(JAVA_INT, offset, polled[i].fd);
+			pollfds.set(JAVA_SHORT, offset + POLLFD_EVENTS_OFFSET, POLLIN);
+			pollfds.set(JAVA_SHORT, offset + POLLFD_REVENTS_OFFSET, (short) 0);
+		}
+
+		dirty = false;
+	}
+
+	/**
+	 * Waits up to the timeout for any registered handle to become ready, then
+	 * dispatches up to each ready handle's quota of packets.
+	 *
+	 * @param timeout the timeout, 0 returns immediately and a negative timeout
+	 *                waits indefinitely
+	 * @param unit    the timeout unit
+	 * @return total number of packets dispatched from all ready handles
+	 * @throws PcapException if {@code poll} failed
+	 */
+	public int select(long timeout, TimeUnit unit) throws PcapException {
+		if (dirty)
+			rebuild();
+
+		final Registration[] polled = this.polled;
+		final int count = polled.length;
+		if (count == 0)
+			return 0;
+
+		int millis = (timeout < 0) ? -1 : (int) Math.min(unit.toMillis(timeout), Integer.MAX_VALUE);
+
+		/* errno is not available, retry in case poll was interrupted (EINTR) */
+		int ready = StandardCLibrary.poll(pollfds, count, millis);
+		for (int retry = 0; (ready < 0) && (retry < POLL_RETRIES); retry++)
+			ready = StandardCLibrary.poll(pollfds, count, millis);
+
+		if (ready < 0)
+			throw new PcapException("poll() failed on %d registered handles".formatted(count));
+
+		if (ready == 0)
+			return 0; // Timeout
+
+		int total = 0;
+		int start = Math.floorMod(rotation++, count);
+
+		for (int n = 0; n < count; n++) {
+			int i = (start + n) % count;
+			long revents = pollfds.get(JAVA_SHORT, (long) i * POLLFD_SIZE + POLLFD_REVENTS_OFFSET);
+
+			if ((revents & READY_EVENTS) == 0)
+				continue;
+
+			Registration r = polled[i];
+			r.readyCount++;
+
+			int result = 0;
+			if ((revents & POLLNVAL) == 0)
+				result = r.dispatcher.dispatch(r.receiver, r.quota);
+
+			if (result > 0) {
+				r.packetCount += result;
+				total += result;
+
+			} else if ((result < 0) && (result != PcapCode.PCAP_ERROR_BREAK)) {
+				fail(r, new PcapException(result, r.pcap.geterr()));
+				continue;
+			}
+
+			/* Any packets still buffered before a hang up or error were dispatched */
+			if ((revents & ERROR_EVENTS) != 0)
+				fail(r, new PcapException("poll() reported %s on fd %d"
+						.formatted(pollEvents(revents & ERROR_EVENTS), r.fd)));
+		}
+
+		return total;
+	}
+
+	private static String pollEvents(long events) {
+		var sb = new StringBuilder();
+
+		if ((events & POLLERR) != 0)
+			sb.append("POLLERR");
+
+		if ((events & POLLHUP) != 0)
+			sb.append(sb.isEmpty() ? "" : "|").append("POLLHUP");
+
+		if ((events & POLLNVAL) != 0)
+			sb.append(sb.isEmpty() ? "" : "|").append("POLLNVAL");
+
+		return sb.toString();
+	}
+
+	/**
+	 * Dispatches from any registered handles which are ready, without waiting.
+	 *
+	 * @return total number of packets dispatched from all ready handles
+	 * @throws PcapException if {@code poll} failed
+	 */
+	public int selectNow() throws PcapException {
+		return select(0, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "PcapSelector [registrations=" + registrations.size()
+				+ ", failed=" + failedCount
+				+ "]";
+	}
+}
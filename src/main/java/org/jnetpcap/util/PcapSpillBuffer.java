@@ -0,0 +1,593 @@
+/*
+ * Apache License, Version 2.0
+ *
+ * Copyright 2013-2022 Sly Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jnetpcap.util;
+
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_SHORT;
+import static org.jnetpcap.PcapHeader.PCAP_HEADER_LENGTH;
+
+import java.io.IOException;
+import java.lang.foreign.MemoryAddress;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.MemorySession;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jnetpcap.Pcap;
+import org.jnetpcap.PcapException;
+import org.jnetpcap.PcapHandler;
+import org.jnetpcap.PcapHeader;
+import org.jnetpcap.PcapHeaderFlyweight;
+import org.jnetpcap.constant.PcapTStampPrecision;
+import org.jnetpcap.internal.PcapHeaderABI;
+
+/**
+ * An elastic backlog between the capture thread and a slower consumer, which
+ * absorbs capture bursts in memory up to a limit and then spills the overflow
+ * to memory-mapped files on local disk, instead of letting the kernel buffer
+ * overflow and drop packets.
+ *
+ * <p>
+ * Packets are appended, in pcap record format, to a chain of fixed-size
+ * segments. Segments are allocated off-heap while the buffer's memory limit
+ * allows, and are otherwise created as memory-mapped segment files in the
+ * spill directory. Every segment file starts with a standard pcap file header,
+ * so a spilled file can be inspected with any pcap tool while it exists. The
+ * consumer always drains the oldest segment first, so packets are delivered in
+ * capture order regardless of where they were stored, and each segment is freed,
+ * or its file unmapped and deleted, as soon as it has been drained.
+ * </p>
+ *
+ * <pre>
+ * <code>
+try (var backlog = new PcapSpillBuffer(pcap, Path.of("/var/spool/pcap"))) {
+	Thread.ofPlatform().start(() -> {
+		while (backlog.dispatch(256) >= 0);
+	});
+
+	while (running)
+		backlog.drain(1024, (user, packet) -> process(packet), "");
+}
+ * </code>
+ * </pre>
+ *
+ * <p>
+ * Packets must be added from a single capture thread and drained from a single
+ * consumer thread. Packets are only dropped, and counted by
+ * {@link #dropCount()}, once both the memory and disk limits are reached, or if
+ * a segment file can not be created. Segment file errors are counted by
+ * {@link #spillErrorCount()} and the most recent one is kept by
+ * {@link #lastSpillError()}.
+ * </p>
+ *
+ * @author Sly Technologies Inc
+ * @author repos@slytechs.com
+ * @author mark
+ */
+public final class PcapSpillBuffer implements AutoCloseable {
+
+	/**
+	 * A fixed-size chunk of records, either off-heap or a memory-mapped file.
+	 */
+	private final class Segment {
+
+		private final MemorySession session = MemorySession.openShared();
+		private final MemorySegment records;
+		private final FileChannel channel;
+		private final Path file;
+
+		/** Published by the producer after each record */
+		private volatile long writePosition;
+
+		/** Set by the producer once no more records will be appended */
+		private volatile boolean sealed;
+
+		/** Consumer's read position */
+		private long readPosition;
+
+		/** New off-heap segment */
+		Segment() {
+			this.records = MemorySegment.allocateNative(segmentSize, 8, session);
+			this.channel = null;
+			this.file = null;
+		}
+
+		/**
+		 * New memory-mapped file segment, starting with a pcap file header. The file
+		 * has already been created, with a unique name, in the spill directory.
+		 */
+		Segment(Path file) throws IOException {
+			this.file = file;
+			this.channel = FileChannel.open(file,
+					StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+
+			try {
+				this.records = channel.map(MapMode.READ_WRITE, 0, segmentSize, session);
+			} catch (IOException | RuntimeException e) {
+				channel.close();
+				Files.deleteIfExists(file);
+				session.close();
+
+				throw e;
+			}
+
+			MemorySegment.copy(fileHeader, 0, records, 0, PCAP_FILE_HEADER_LENGTH);
+			this.writePosition = PCAP_FILE_HEADER_LENGTH;
+			this.readPosition = PCAP_FILE_HEADER_LENGTH;
+		}
+
+		void free() {
+			session.close();
+
+			if (channel == null) {
+				memoryBytes.addAndGet(-segmentSize);
+				return;
+			}
+
+			diskBytes.addAndGet(-segmentSize);
+
+			try {
+				channel.close();
+				Files.deleteIfExists(file);
+			} catch (IOException e) {
+				// Nothing more can be done, the file is left behind in the spill directory
+			}
+		}
+
+		boolean isFile() {
+			return channel != null;
+		}
+	}
+
+	/** Default segment size in bytes */
+	public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+	/** Default limit on off-heap memory used for segments */
+	public static final long DEFAULT_MEMORY_LIMIT = 64L * 1024 * 1024;
+
+	/** Default limit on disk space used for segment files */
+	public static final long DEFAULT_DISK_LIMIT = 4L * 1024 * 1024 * 1024;
+
+	/** Length of the standard pcap file header */
+	public static final int PCAP_FILE_HEADER_LENGTH = 24;
+
+	private static final int PCAP_MAGIC_MICRO = 0xA1B2C3D4;
+	private static final int PCAP_MAGIC_NANO = 0xA1B23C4D;
+	private static final short PCAP_VERSION_MAJOR = 2;
+	private static final short PCAP_VERSION_MINOR = 4;
+
+	private static final PcapHeaderABI NATIVE_ABI = PcapHeaderABI.nativeAbi();
+
+	private final Path spillDirectory;
+	private final long memoryLimit;
+	private final long diskLimit;
+	private final int segmentSize;
+	private final PcapReceiver receiver;
+	private final MemorySegment fileHeader;
+	private final Queue<Segment> segments = new ConcurrentLinkedQueue<>();
+
+	private final AtomicLong memoryBytes = new AtomicLong();
+	private final AtomicLong diskBytes = new AtomicLong();
+	private final AtomicLong bufferedCount = new AtomicLong();
+	private final AtomicLong spilledCount = new AtomicLong();
+	private final AtomicLong drainedCount = new AtomicLong();
+	private final AtomicLong dropCount = new AtomicLong();
+	private final AtomicLong spillFileCount = new AtomicLong();
+	private final AtomicLong spillErrorCount = new AtomicLong();
+	private volatile Exception lastSpillError;
+
+	/** Producer's current segment */
+	private volatile Segment tail;
+
+	/*
+	 * Records are packed back to back, as in a pcap file, so headers are copied
+	 * through aligned scratch segments instead of being accessed in place.
+	 */
+
+	/** Producer's aligned scratch header, copied into the unaligned record */
+	private final MemorySegment writeHeader = MemorySegment.allocateNative(PCAP_HEADER_LENGTH, 8,
+			MemorySession.openImplicit());
+
+	/** Consumer's aligned scratch header, copied out of the unaligned record */
+	private final MemorySegment readHeader = MemorySegment.allocateNative(PCAP_HEADER_LENGTH, 8,
+			MemorySession.openImplicit());
+
+	private final PcapPacketFlyweight packet = new PcapPacketFlyweight(PcapHeaderFlyweight.ofCompactHeader());
+
+	/**
+	 * Instantiates a new spill buffer with the default segment size, memory and
+	 * disk limits.
+	 *
+	 * @param pcap           the pcap handle packets are dispatched from
+	 * @param spillDirectory existing directory for the segment files
+	 * @throws PcapException if the handle's snaplen or link type can not be read
+	 */
+	public PcapSpillBuffer(Pcap pcap, Path spillDirectory) throws PcapException {
+		this(pcap, spillDirectory, DEFAULT_MEMORY_LIMIT, DEFAULT_DISK_LIMIT, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Instantiates a new spill buffer.
+	 *
+	 * @param pcap           the pcap handle packets are dispatched from
+	 * @param spillDirectory existing directory for the segment files
+	 * @param memoryLimit    maximum off-heap memory used for segments, 0 to spill
+	 *                       every packet to disk
+	 * @param diskLimit      maximum disk space used for segment files
+	 * @param segmentSize    size of each segment in bytes
+	 * @throws PcapException if the handle's snaplen or link type can not be read
+	 */
+	public PcapSpillBuffer(Pcap pcap, Path spillDirectory, long memoryLimit, long diskLimit, int segmentSize)
+			throws PcapException {
+		if (segmentSize < PCAP_FILE_HEADER_LENGTH + PCAP_HEADER_LENGTH + 64)
+			throw new IllegalArgumentException("segment size too small (%d)".formatted(segmentSize));
+
+		if (memoryLimit < 0)
+			throw new IllegalArgumentException("invalid memory limit (%d)".formatted(memoryLimit));
+
+		if (diskLimit < 0)
+			throw new IllegalArgumentException("invalid disk limit (%d)".formatted(diskLimit));
+
+		Objects.requireNonNull(pcap, "pcap");
+
+		this.spillDirectory = Objects.requireNonNull(spillDirectory, "spillDirectory");
+		this.memoryLimit = memoryLimit;
+		this.diskLimit = diskLimit;
+		this.segmentSize = segmentSize;
+		this.receiver = new PcapReceiver(pcap::dispatch);
+		this.fileHeader = newFileHeader(pcap);
+	}
+
+	/**
+	 * Builds the pcap file header written at the start of every segment file.
+	 */
+	private static MemorySegment newFileHeader(Pcap pcap) throws PcapException {
+		int magic = PCAP_MAGIC_MICRO;
+		try {
+			if (pcap.getTstampPrecision() == PcapTStampPrecision.TSTAMP_PRECISION_NANO)
+				magic = PCAP_MAGIC_NANO;
+		} catch (UnsupportedOperationException e) {
+			// Older libpcap, always microsecond precision
+		}
+
+		var header = MemorySegment.allocateNative(PCAP_FILE_HEADER_LENGTH, 8, MemorySession.openImplicit());
+		var order = ByteOrder.nativeOrder();
+
+		header.set(JAVA_INT.withOrder(order), 0, magic);
+		header.set(JAVA_SHORT.withOrder(order), 4, PCAP_VERSION_MAJOR);
+		header.set(JAVA_SHORT.withOrder(order), 6, PCAP_VERSION_MINOR);
+		header.set(JAVA_INT.withOrder(order), 8, 0); // thiszone
+		header.set(JAVA_INT.withOrder(order), 12, 0); // sigfigs
+		header.set(JAVA_INT.withOrder(order), 16, pcap.snapshot());
+		header.set(JAVA_INT.withOrder(order), 20, PcapFlowSteering.datalinkOf(pcap));
+
+		return header;
+	}
+
+	/**
+	 * Number of bytes currently held in memory and disk segments, a measure of
+	 * the consumer's lag.
+	 *
+	 * @return the backlog in bytes
+	 */
+	public long backlogBytes() {
+		return memoryBytes.get() + diskBytes.get();
+	}
+
+	/**
+	 * Number of packets currently buffered and not yet drained.
+	 *
+	 * @return the backlog in packets
+	 */
+	public long backlogCount() {
+		return bufferedCount.get() - drainedCount.get();
+	}
+
+	/**
+	 * Frees all segments, unmapping and deleting any segment files. Packets not
+	 * yet drained are lost.
+	 *
+	 * @see java.lang.AutoCloseable#close()
+	 */
+	@Override
+	public void close() {
+		Segment segment;
+		while ((segment = segments.poll()) != null)
+			segment.free();
+
+		tail = null;
+	}
+
+	/**
+	 * Bytes of disk space currently used by segment files.
+	 *
+	 * @return the disk bytes
+	 */
+	public long diskBytes() {
+		return diskBytes.get();
+	}
+
+	/**
+	 * Dispatches up to count packets from the pcap handle into the buffer. Called
+	 * from the capture thread.
+	 *
+	 * @param count the max packet count to dispatch
+	 * @return the number of packets dispatched, or a negative pcap error code
+	 */
+	public int dispatch(int count) {
+		return receiver.sourcePackets(count, (header, data) -> {
+			MemoryAddress hdr = header.address();
+			MemoryAddress bytes = data.address();
+
+			int limit = receiver.admitLimit(hdr, bytes);
+			if (limit >= 0)
+				offer(hdr, bytes, limit);
+		});
+	}
+
+	/**
+	 * Delivers up to max of the oldest buffered packets to the handler, in capture
+	 * order, freeing each segment once drained. Called from the consumer thread.
+	 * The packet flyweight is only valid for the duration of the handler call.
+	 *
+	 * @param <U>     the generic user type
+	 * @param max     the max number of packets to deliver
+	 * @param handler the packet handler
+	 * @param user    the user opaque data object
+	 * @return the number of packets delivered
+	 */
+	public <U> int drain(int max, PcapHandler.OfPacketFlyweight<U> handler, U user) {
+		int count = 0;
+
+		try {
+			while (count < max) {
+				Segment head = segments.peek();
+				if (head == null)
+					break;
+
+				if (head.readPosition < head.writePosition) {
+					long offset = head.readPosition;
+
+					MemorySegment.copy(head.records, offset, readHeader, 0, PCAP_HEADER_LENGTH);
+					packet.bind(readHeader, head.records.address().addOffset(offset + PCAP_HEADER_LENGTH));
+
+					head.readPosition = offset + PCAP_HEADER_LENGTH + packet.captureLength();
+					drainedCount.incrementAndGet();
+					count++;
+
+					handler.handlePacket(user, packet);
+					continue;
+				}
+
+				/* Sealed is set after the last write position is published */
+				if (head.sealed && head.readPosition >= head.writePosition) {
+					segments.poll();
+					head.free();
+					continue;
+				}
+
+				break; // Caught up with the producer
+			}
+		} finally {
+			packet.unbind();
+		}
+
+		return count;
+	}
+
+	/**
+	 * Number of packets dropped because both the memory and disk limits were
+	 * reached, or a segment file could not be created.
+	 *
+	 * @return the drop count
+	 */
+	public long dropCount() {
+		return dropCount.get();
+	}
+
+	/**
+	 * Checks if the buffer is currently appending to segment files.
+	 *
+	 * @return true, if spilling to disk
+	 */
+	public boolean isSpilling() {
+		Segment t = tail;
+
+		return t != null && t.isFile();
+	}
+
+	/**
+	 * The most recent error creating a segment file, which caused packets to be
+	 * dropped.
+	 *
+	 * @return the error, or null if none
+	 */
+	public Exception lastSpillError() {
+		return lastSpillError;
+	}
+
+	/**
+	 * Bytes of off-heap memory currently used by segments.
+	 *
+	 * @return the memory bytes
+	 */
+	public long memoryBytes() {
+		return memoryBytes.get();
+	}
+
+	/**
+	 * Allocates and links a new tail segment, in memory if the memory limit
+	 * allows, otherwise on disk.
+	 *
+	 * @return the new segment, or null if both limits are reached
+	 */
+	private Segment nextSegment() {
+		Segment segment;
+
+		if (memoryBytes.get() + segmentSize <= memoryLimit) {
+			memoryBytes.addAndGet(segmentSize);
+			segment = new Segment();
+
+		} else if (diskBytes.get() + segmentSize <= diskLimit) {
+			Path file = null;
+			try {
+				file = Files.createTempFile(spillDirectory, "pcap-spill-", ".pcap");
+				segment = new Segment(file);
+
+			} catch (IOException | RuntimeException e) {
+				spillError(file, e);
+
+				return null;
+			}
+
+			diskBytes.addAndGet(segmentSize);
+			spillFileCount.incrementAndGet();
+
+		} else {
+			return null;
+		}
+
+		/* Link the new segment before sealing the old, so the consumer finds it */
+		segments.add(segment);
+
+		if (tail != null)
+			tail.sealed = true;
+
+		tail = segment;
+
+		return segment;
+	}
+
+	/**
+	 * Appends a packet to the buffer. Called from the capture thread.
+	 *
+	 * @param header  address of the native pcap header
+	 * @param data    address of the native packet data
+	 * @param maxCopy maximum number of packet bytes to store
+	 * @return true, if buffered, or false if dropped
+	 */
+	public boolean offer(MemoryAddress header, MemoryAddress data, int maxCopy) {
+		int caplen = NATIVE_ABI.captureLength(header);
+		int copy = Math.min(Math.min(caplen, maxCopy), segmentSize - PCAP_FILE_HEADER_LENGTH - PCAP_HEADER_LENGTH);
+		long recordLength = PCAP_HEADER_LENGTH + copy;
+
+		Segment segment = tail;
+		if (segment == null || segment.writePosition + recordLength > segmentSize) {
+			segment = nextSegment();
+
+			if (segment == null) {
+				dropCount.incrementAndGet();
+				return false;
+			}
+		}
+
+		long offset = segment.writePosition;
+
+		PcapHeader.write(NATIVE_ABI.tvSec(header), NATIVE_ABI.tvUsec(header), copy, NATIVE_ABI.wireLength(header),
+				writeHeader, ByteOrder.nativeOrder());
+		MemorySegment.copy(writeHeader, 0, segment.records, offset, PCAP_HEADER_LENGTH);
+		MemorySegment.copy(MemorySegment.ofAddress(data, copy, MemorySession.global()), 0,
+				segment.records, offset + PCAP_HEADER_LENGTH, copy);
+
+		bufferedCount.incrementAndGet();
+		if (segment.isFile())
+			spilledCount.incrementAndGet();
+
+		segment.writePosition = offset + recordLength;
+
+		return true;
+	}
+
+	/**
+	 * The receiver used to dispatch packets, which can be used to configure
+	 * receive options such as the copy limit or overload control.
+	 *
+	 * @return the receiver
+	 */
+	public PcapReceiver receiver() {
+		return receiver;
+	}
+
+	/**
+	 * Records a failure to create a segment file, and removes the file if it was
+	 * created.
+	 */
+	private void spillError(Path file, Exception e) {
+		spillErrorCount.incrementAndGet();
+		lastSpillError = e;
+
+		if (file == null)
+			return;
+
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e2) {
+			e.addSuppressed(e2);
+		}
+	}
+
+	/**
+	 * Number of times a segment file could not be created or mapped.
+	 *
+	 * @return the spill error count
+	 */
+	public long spillErrorCount() {
+		return spillErrorCount.get();
+	}
+
+	/**
+	 * Number of segment files created so far.
+	 *
+	 * @return the spill file count
+	 */
+	public long spillFileCount() {
+		return spillFileCount.get();
+	}
+
+	/**
+	 * Number of packets written to segment files so far.
+	 *
+	 * @return the spilled count
+	 */
+	public long spilledCount() {
+		return spilledCount.get();
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "PcapSpillBuffer [backlog=" + backlogCount()
+				+ ", memoryBytes=" + memoryBytes()
+				+ ", diskBytes=" + diskBytes()
+				+ ", spilled=" + spilledCount()
+				+ ", dropped=" + dropCount()
+				+ ", spillErrors=" + spillErrorCount()
+				+ "]";
+	}
+}
@@ -0,0 +1,214 @@
+/*
+ * Apache License, Version 2.0
+ *
+ * Copyright 2013-2022 Sly Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jnetpcap.util;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.MemorySession;
+import java.lang.foreign.SegmentAllocator;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.jnetpcap.PcapHandler.PacketSource.PcapPacketSource;
+import org.jnetpcap.PcapHeader;
+import org.jnetpcap.internal.PcapHeaderABI;
+
+/**
+ * A spliterator which pulls packets from a pcap packet source in dispatch sized
+ * batches. Every packet in a batch is copied, header and data, out of libpcap's
+ * buffer into off-heap memory owned by the batch, so the {@link PcapPacketRef}
+ * elements remain valid for as long as they are reachable and can be safely
+ * retained, collected or processed on other threads.
+ *
+ * <p>
+ * For offline captures, a dispatch returning 0 packets means end of file, and
+ * {@link #trySplit()} hands off a whole batch of packets at a time, which
+ * allows {@code parallel()} streams. For live captures, a dispatch returning 0
+ * packets is a timeout and is retried, the stream only ends when
+ * {@code breakloop} is called or an error occurs, and the spliterator does not
+ * split.
+ * </p>
+ *
+ * <pre>
+ * <code>
+try (Pcap pcap = Pcap.openOffline(PCAP_FILE)) {
+	long bytes = pcap.stream()
+			.filter(packet -> packet.captureLength() > 64)
+			.limit(1000)
+			.mapToLong(PcapPacketRef::captureLength)
+			.sum();
+}
+ * </code>
+ * </pre>
+ *
+ * @author Sly Technologies Inc
+ * @author repos@slytechs.com
+ * @author mark
+ */
+public final class PcapSpliterator implements Spliterator<PcapPacketRef> {
+
+	/** Default number of packets pulled per dispatch */
+	public static final int DEFAULT_BATCH_SIZE = 256;
+
+	private static final int CHARACTERISTICS = ORDERED | NONNULL | IMMUTABLE;
+	private static final int HEADER_LENGTH = PcapHeaderABI.nativeAbi().headerLength();
+
+	/**
+	 * New sequential stream of packets from the source.
+	 *
+	 * @param source    the packet source, usually {@code pcap::dispatch}
+	 * @param batchSize the number of packets pulled per dispatch
+	 * @param offline   true if the source is a ''savefile'', where 0 packets
+	 *                  dispatched means end of file
+	 * @return the stream
+	 */
+	public static Stream<PcapPacketRef> stream(PcapPacketSource source, int batchSize, boolean offline) {
+		return StreamSupport.stream(new PcapSpliterator(source, batchSize, offline), false);
+	}
+
+	private final PcapPacketSource source;
+	private final int batchSize;
+	private final boolean offline;
+
+	private PcapPacketRef[] buffer;
+	private int index;
+	private int limit;
+	private boolean done;
+
+	/**
+	 * Instantiates a new pcap spliterator.
+	 *
+	 * @param source    the packet source, usually {@code pcap::dispatch}
+	 * @param batchSize the number of packets pulled per dispatch
+	 * @param offline   true if the source is a ''savefile'', where 0 packets
+	 *                  dispatched means end of file
+	 */
+	public PcapSpliterator(PcapPacketSource source, int batchSize, boolean offline) {
+		if (batchSize <= 0)
+			throw new IllegalArgumentException("batch size must be greater than 0 (%d)".formatted(batchSize));
+
+		this.source = Objects.requireNonNull(source, "source");
+		this.batchSize = batchSize;
+		this.offline = offline;
+		this.buffer = new PcapPacketRef[batchSize];
+	}
+
+	/**
+	 * @see java.util.Spliterator#characteristics()
+	 */
+	@Override
+	public int characteristics() {
+		return CHARACTERISTICS;
+	}
+
+	/**
+	 * @see java.util.Spliterator#estimateSize()
+	 */
+	@Override
+	public long estimateSize() {
+		return done ? (limit - index) : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Pulls the next batch of packets into the buffer, retrying on live capture
+	 * timeouts.
+	 *
+	 * @return true, if any packets were pulled
+	 */
+	private boolean fill() {
+		index = limit = 0;
+
+		while (!done && limit == 0) {
+			/* All packets in a batch share one arena, freed once none are reachable */
+			SegmentAllocator arena = SegmentAllocator.newNativeArena(MemorySession.openImplicit());
+
+			int result = source.sourcePackets(batchSize, (header, bytes) -> {
+				int caplen = PcapHeader.readCaptureLength(header);
+
+				MemorySegment hdr = arena.allocate(HEADER_LENGTH, 8);
+				MemorySegment data = arena.allocate(caplen, 8);
+
+				MemorySegment.copy(MemorySegment.ofAddress(header.address(), HEADER_LENGTH, MemorySession.global()),
+						0, hdr, 0, HEADER_LENGTH);
+				MemorySegment.copy(MemorySegment.ofAddress(bytes.address(), caplen, MemorySession.global()),
+						0, data, 0, caplen);
+
+				if (limit == buffer.length)
+					buffer = Arrays.copyOf(buffer, limit * 2);
+
+				buffer[limit++] = new PcapPacketRef(hdr, data);
+			});
+
+			if (result < 0 || (result == 0 && offline))
+				done = true;
+		}
+
+		return limit > 0;
+	}
+
+	/**
+	 * @see java.util.Spliterator#forEachRemaining(java.util.function.Consumer)
+	 */
+	@Override
+	public void forEachRemaining(Consumer<? super PcapPacketRef> action) {
+		while (index < limit || fill()) {
+			while (index < limit) {
+				PcapPacketRef packet = buffer[index];
+				buffer[index++] = null;
+
+				action.accept(packet);
+			}
+		}
+	}
+
+	/**
+	 * @see java.util.Spliterator#tryAdvance(java.util.function.Consumer)
+	 */
+	@Override
+	public boolean tryAdvance(Consumer<? super PcapPacketRef> action) {
+		if (index == limit && !fill())
+			return false;
+
+		PcapPacketRef packet = buffer[index];
+		buffer[index++] = null;
+
+		action.accept(packet);
+
+		return true;
+	}
+
+	/**
+	 * Splits off the current batch of packets, only for offline captures.
+	 *
+	 * @see java.util.Spliterator#trySplit()
+	 */
+	@Override
+	public Spliterator<PcapPacketRef> trySplit() {
+		if (!offline || (index == limit && !fill()))
+			return null;
+
+		PcapPacketRef[] batch = Arrays.copyOfRange(buffer, index, limit);
+		index = limit;
+
+		return Spliterators.spliterator(batch, CHARACTERISTICS);
+	}
+}
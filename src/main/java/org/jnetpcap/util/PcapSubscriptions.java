@@ -0,0 +1,584 @@
+/*
+ * Apache License, Version 2.0
+ *
+ * Copyright 2013-2022 Sly Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jnetpcap.util;
+
+import java.lang.foreign.Addressable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jnetpcap.BpFilter;
+import org.jnetpcap.Pcap;
+import org.jnetpcap.PcapException;
+import org.jnetpcap.PcapHandler.OfRawPacket;
+import org.jnetpcap.constant.PcapConstants;
+import org.jnetpcap.constant.PcapDlt;
+
+/**
+ * Shares one capture handle between several consumers, each of which
+ * subscribes with its own filter expression, instead of each consumer opening
+ * its own handle and the kernel copying every packet once per handle.
+ *
+ * <p>
+ * The union of all subscription filters, {@code (f1) or (f2) or ...}, is
+ * compiled into a single {@link BpFilter} and set as the handle's kernel
+ * filter, so that the kernel only copies packets at least one subscriber
+ * wants. Each dispatched packet is then demultiplexed in user space, with
+ * {@link Pcap#offlineFilter(BpFilter, Addressable, Addressable)}, to every
+ * subscriber whose own filter matches it. Subscribers with an empty filter
+ * expression receive every packet without a check. With no subscribers the
+ * kernel filter matches no packets.
+ * </p>
+ *
+ * <pre>
+ * <code>
+var subscriptions = new PcapSubscriptions(pcap);
+
+var dns = subscriptions.subscribe("udp port 53", (hdr, data) -> dnsQueue.offer(hdr, data));
+var web = subscriptions.subscribe("tcp port 443", (hdr, data) -> tlsQueue.offer(hdr, data));
+
+while (running)
+	subscriptions.dispatch(256);
+
+dns.close(); // Kernel filter is now "tcp port 443"
+ * </code>
+ * </pre>
+ *
+ * <p>
+ * Subscriptions can be added and closed from any thread, while the capture
+ * thread dispatches. Pcap handles are not thread safe, so the subscribing
+ * thread never touches the handle. It only compiles the new filters, without
+ * the handle, and stages the new set of subscribers together with their union
+ * filter. An expression which does not compile fails the change, leaving the
+ * subscribers as they were. At the start of its next {@link #dispatch(int)}
+ * the capture thread sets the staged filter on the handle and switches to the
+ * staged subscribers in a single step, and then frees the filter programs the
+ * change replaced. Several changes staged between two dispatches are applied
+ * together. If the handle rejects the new filter, the previous filter stays in
+ * place, the new subscribers are still used, and the error is reported by
+ * {@link #lastFilterError()}.
+ * </p>
+ *
+ * <p>
+ * Packets which already passed the previous kernel filter are still
+ * demultiplexed against the new set of subscribers, so a new subscriber may
+ * miss a few packets captured just before its change was applied, but no
+ * subscriber ever receives packets its filter does not match.
+ * </p>
+ *
+ * <p>
+ * Subscriber handlers run on the capture thread, and the packet addresses are
+ * only valid for the duration of the call, so slow consumers should copy
+ * packets and hand them off, for example to a {@link PcapCaptureService}.
+ * The filters of subscribers are matched against the captured part of each
+ * packet only, which for a short snaplen can differ from the kernel's match.
+ * </p>
+ *
+ * @author Sly Technologies Inc
+ * @author repos@slytechs.com
+ * @author mark
+ */
+public final class PcapSubscriptions implements AutoCloseable {
+
+	/**
+	 * A consumer's subscription to the packets matching its filter expression.
+	 * Closing the subscription removes it, and its filter, from the shared
+	 * handle.
+	 */
+	public final class Subscription implements AutoCloseable {
+
+		private final String filter;
+		private final BpFilter program;
+		private final OfRawPacket handler;
+		private final boolean matchAll;
+		private volatile long packetCount;
+
+		private Subscription(String filter, BpFilter program, OfRawPacket handler) {
+			this.filter = filter;
+			this.matchAll = filter.isBlank();
+			this.program = program;
+			this.handler = handler;
+		}
+
+		/**
+		 * Unsubscribes, and stages the shared kernel filter recompiled without this
+		 * subscription's filter.
+		 *
+		 * @throws IllegalStateException if the remaining filters could not be
+		 *                               recompiled, in which case this
+		 *                               subscription remains active
+		 * @see java.lang.AutoCloseable#close()
+		 */
+		@Override
+		public void close() throws IllegalStateException {
+			try {
+				unsubscribe(this);
+			} catch (PcapException e) {
+				throw new IllegalStateException("unable to recompile filter", e);
+			}
+		}
+
+		/**
+		 * The subscription's filter expression.
+		 *
+		 * @return the filter expression
+		 */
+		public String filter() {
+			return filter;
+		}
+
+		/**
+		 * Checks if the subscription is still subscribed.
+		 *
+		 * @return true, if active
+		 */
+		public boolean isActive() {
+			return Arrays.asList(latest).contains(this);
+		}
+
+		/**
+		 * Number of packets delivered to the subscription.
+		 *
+		 * @return the packet count
+		 */
+		public long packetCount() {
+			return packetCount;
+		}
+
+		/**
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "Subscription [filter=" + filter
+					+ ", packets=" + packetCount
+					+ "]";
+		}
+	}
+
+	/**
+	 * An immutable set of subscribers and the kernel filter compiled for them,
+	 * swapped as a whole on every change, and the filter programs which are no
+	 * longer used once the plan is applied.
+	 */
+	private record Plan(Subscription[] subscriptions, BpFilter union, List<BpFilter> retire) {
+
+		private static final Plan EMPTY = new Plan(new Subscription[0], null, List.of());
+	}
+
+	/** Matches no packets, no packet has a length of 0 */
+	private static final String MATCH_NONE = "less 0";
+
+	private static String union(Subscription[] subscriptions) {
+		if (subscriptions.length == 0)
+			return MATCH_NONE;
+
+		var sb = new StringBuilder();
+		for (Subscription s : subscriptions) {
+
+			/* An empty expression matches every packet, and so does the union */
+			if (s.filter.isBlank())
+				return "";
+
+			if (!sb.isEmpty())
+				sb.append(" or ");
+
+			sb.append('(').append(s.filter).append(')');
+		}
+
+		return sb.toString();
+	}
+
+	private final Pcap pcap;
+	private final PcapReceiver receiver;
+	private final int snaplen;
+	private final PcapDlt dlt;
+	private final int netmask;
+	private final OfRawPacket demux = this::demux;
+
+	/** Plan staged by subscribing threads, taken by the capture thread */
+	private final AtomicReference<Plan> staged = new AtomicReference<>();
+
+	/** Subscribers as of the most recent change, applied or not */
+	private volatile Subscription[] latest = new Subscription[0];
+
+	/** Plan applied to the handle, only written by the capture thread */
+	private volatile Plan plan = Plan.EMPTY;
+	private Plan dispatchPlan = Plan.EMPTY;
+	private boolean closed;
+
+	private volatile long packetCount;
+	private volatile long unmatchedCount;
+	private volatile long swapCount;
+	private volatile long filterErrorCount;
+	private volatile Exception lastFilterError;
+
+	/**
+	 * Instantiates new subscriptions on a shared handle, with an unknown netmask.
+	 *
+	 * @param pcap the activated pcap handle
+	 * @throws PcapException if the handle's snaplen or link type can not be read
+	 */
+	public PcapSubscriptions(Pcap pcap) throws PcapException {
+		this(pcap, PcapConstants.PCAP_NETMASK_UNKNOWN);
+	}
+
+	/**
+	 * Instantiates new subscriptions on a shared handle.
+	 *
+	 * @param pcap    the activated pcap handle
+	 * @param netmask the IPv4 netmask of the captured network, used to compile
+	 *                broadcast address tests
+	 * @throws PcapException if the handle's snaplen or link type can not be read
+	 */
+	public PcapSubscriptions(Pcap pcap, int netmask) throws PcapException {
+		this.pcap = Objects.requireNonNull(pcap, "pcap");
+		this.receiver = new PcapReceiver(pcap::dispatch);
+		this.snaplen = pcap.snapshot();
+		this.dlt = pcap.datalink();
+		this.netmask = netmask;
+	}
+
+	/**
+	 * Applies the most recently staged plan, on the capture thread: sets its
+	 * filter on the handle, switches to its subscribers and frees the programs it
+	 * replaced.
+	 */
+	private void applyStaged() {
+		Plan next = staged.getAndSet(null);
+		if (next == null)
+			return;
+
+		Plan old = plan;
+		BpFilter union = next.union;
+
+		try {
+			pcap.setFilter(union);
+
+			/* The handle keeps its own copy of the program */
+			if (old.union != null)
+				old.union.close();
+
+		} catch (PcapException | RuntimeException e) {
+			filterErrorCount++;
+			lastFilterError = e;
+
+			union.close();
+			union = old.union;
+		}
+
+		plan = new Plan(next.subscriptions, union, List.of());
+		swapCount++;
+
+		for (BpFilter program : next.retire)
+			program.close();
+	}
+
+	/**
+	 * Unsubscribes all subscriptions and frees all filter programs. The kernel
+	 * filter is left matching no packets, and the shared handle is not closed.
+	 * Must not be called while the capture thread is dispatching.
+	 *
+	 * @throws PcapException if the handle rejected the filter which matches no
+	 *                       packets
+	 * @see java.lang.AutoCloseable#close()
+	 */
+	@Override
+	public synchronized void close() throws PcapException {
+		if (closed)
+			return;
+
+		closed = true;
+
+		Set<BpFilter> programs = Collections.newSetFromMap(new IdentityHashMap<>());
+		collectPrograms(staged.getAndSet(null), programs);
+		collectPrograms(plan, programs);
+		for (Subscription s : latest)
+			programs.add(s.program);
+
+		latest = new Subscription[0];
+		plan = Plan.EMPTY;
+		dispatchPlan = Plan.EMPTY;
+
+		try (BpFilter none = compile(MATCH_NONE)) {
+			pcap.setFilter(none);
+
+		} finally {
+			for (BpFilter program : programs)
+				program.close();
+		}
+	}
+
+	private static void collectPrograms(Plan plan, Set<BpFilter> programs) {
+		if (plan == null)
+			return;
+
+		if (plan.union != null)
+			programs.add(plan.union);
+
+		programs.addAll(plan.retire);
+
+		for (Subscription s : plan.subscriptions)
+			programs.add(s.program);
+	}
+
+	/**
+	 * Compiles an expression for the handle's link type and snaplen, without using
+	 * the handle itself.
+	 */
+	private BpFilter compile(String expression) throws PcapException {
+		return Pcap.compileNoPcap(snaplen, dlt, expression, true, netmask);
+	}
+
+	/**
+	 * Applies any staged subscription changes, then dispatches up to
+	 * {@code count} packets from the shared handle, on the calling capture thread,
+	 * and delivers each one to every subscriber whose filter matches it.
+	 *
+	 * @param count maximum number of packets to dispatch
+	 * @return number of packets dispatched, 0 at the end of a ``savefile'' or
+	 *         when no packets were available, or a negative pcap error code
+	 */
+	public int dispatch(int count) {
+		applyStaged();
+
+		dispatchPlan = plan;
+
+		return receiver.sourcePackets(count, demux);
+	}
+
+	private void demux(Addressable header, Addressable data) {
+		final Subscription[] subscriptions = dispatchPlan.subscriptions;
+		packetCount++;
+
+		/*
+		 * Every subscriber is matched, even a single one, as the packet may have
+		 * passed a wider kernel filter which has been replaced since
+		 */
+		boolean matched = false;
+		for (Subscription s : subscriptions) {
+			if (s.matchAll || Pcap.offlineFilter(s.program, header, data)) {
+				deliver(s, header, data);
+				matched = true;
+			}
+		}
+
+		if (!matched)
+			unmatchedCount++;
+	}
+
+	private void deliver(Subscription s, Addressable header, Addressable data) {
+		s.packetCount++;
+		s.handler.handleRawPacket(header, data);
+	}
+
+	/**
+	 * The kernel filter expression currently set on the shared handle, which does
+	 * not include changes staged since the capture thread's last dispatch.
+	 *
+	 * @return the union filter expression, or null if no filter has been set yet
+	 */
+	public String filter() {
+		BpFilter union = plan.union;
+
+		return (union == null) ? null : union.toString();
+	}
+
+	/**
+	 * Number of staged filters the handle rejected, in which case the previous
+	 * filter was kept.
+	 *
+	 * @return the filter error count
+	 */
+	public long filterErrorCount() {
+		return filterErrorCount;
+	}
+
+	/**
+	 * The most recent error setting a staged filter on the handle.
+	 *
+	 * @return the error, or null if none
+	 */
+	public Exception lastFilterError() {
+		return lastFilterError;
+	}
+
+	/**
+	 * Number of packets dispatched from the shared handle.
+	 *
+	 * @return the packet count
+	 */
+	public long packetCount() {
+		return packetCount;
+	}
+
+	/**
+	 * The shared pcap handle.
+	 *
+	 * @return the pcap handle
+	 */
+	public Pcap pcap() {
+		return pcap;
+	}
+
+	/**
+	 * The receiver used to dispatch packets, which can be used to configure
+	 * receive options.
+	 *
+	 * @return the receiver
+	 */
+	public PcapReceiver receiver() {
+		return receiver;
+	}
+
+	/**
+	 * Stages a new set of subscribers and their union filter, replacing any plan
+	 * staged earlier and not yet applied, on a subscribing thread.
+	 *
+	 * @param next    the new subscribers
+	 * @param removed the program of a removed subscriber, or null
+	 * @throws PcapException if the union filter does not compile
+	 */
+	private void stage(Subscription[] next, BpFilter removed) throws PcapException {
+		BpFilter union = compile(union(next));
+
+		for (;;) {
+			Plan previous = staged.get();
+
+			List<BpFilter> retire = new ArrayList<>();
+			if (previous != null)
+				retire.addAll(previous.retire);
+
+			if (removed != null)
+				retire.add(removed);
+
+			if (staged.compareAndSet(previous, new Plan(next, union, List.copyOf(retire)))) {
+
+				/* Never applied, so never seen by the capture thread or the handle */
+				if (previous != null)
+					previous.union.close();
+
+				break;
+			}
+		}
+
+		latest = next;
+	}
+
+	/**
+	 * Subscribes a consumer to the packets matching a filter expression, and
+	 * stages the shared kernel filter recompiled to include it. The subscription
+	 * starts receiving packets once the capture thread applies the change, at the
+	 * start of its next dispatch.
+	 *
+	 * @param filter  the filter expression, an empty expression matches all
+	 *                packets
+	 * @param handler the handler receiving matching packets, on the capture thread
+	 * @return the new subscription
+	 * @throws PcapException if the filter expression, or the union of all
+	 *                       filters, does not compile
+	 */
+	public synchronized Subscription subscribe(String filter, OfRawPacket handler) throws PcapException {
+		Objects.requireNonNull(filter, "filter");
+		Objects.requireNonNull(handler, "handler");
+
+		if (closed)
+			throw new IllegalStateException("subscriptions closed");
+
+		BpFilter program = compile(filter);
+		var subscription = new Subscription(filter, program, handler);
+
+		Subscription[] current = latest;
+		Subscription[] next = Arrays.copyOf(current, current.length + 1);
+		next[current.length] = subscription;
+
+		try {
+			stage(next, null);
+		} catch (PcapException | RuntimeException e) {
+			program.close();
+
+			throw e;
+		}
+
+		return subscription;
+	}
+
+	/**
+	 * The active subscriptions, including changes not yet applied by the capture
+	 * thread.
+	 *
+	 * @return an unmodifiable list of subscriptions
+	 */
+	public List<Subscription> subscriptions() {
+		return List.of(latest);
+	}
+
+	/**
+	 * Number of times a staged change has been applied by the capture thread.
+	 *
+	 * @return the swap count
+	 */
+	public long swapCount() {
+		return swapCount;
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "PcapSubscriptions [filter=" + filter()
+				+ ", subscriptions=" + latest.length
+				+ ", packets=" + packetCount
+				+ ", unmatched=" + unmatchedCount
+				+ ", swaps=" + swapCount
+				+ ", filterErrors=" + filterErrorCount
+				+ "]";
+	}
+
+	/**
+	 * Unsubscribes a subscription, and stages the kernel filter recompiled
+	 * without it. Its program is freed once the change is applied.
+	 */
+	private synchronized void unsubscribe(Subscription subscription) throws PcapException {
+		Subscription[] current = latest;
+		Subscription[] next = Arrays.stream(current)
+				.filter(s -> s != subscription)
+				.toArray(Subscription[]::new);
+
+		if (next.length == current.length)
+			return; // Already unsubscribed
+
+		stage(next, subscription.program);
+	}
+
+	/**
+	 * Number of dispatched packets which matched no subscriber, usually packets
+	 * which passed a kernel filter replaced since.
+	 *
+	 * @return the unmatched count
+	 */
+	public long unmatchedCount() {
+		return unmatchedCount;
+	}
+}
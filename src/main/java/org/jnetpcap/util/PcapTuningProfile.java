@@ -0,0 +1,231 @@
+/*
+ * Apache License, Version 2.0
+ *
+ * Copyright 2013-2022 Sly Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jnetpcap.util;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.jnetpcap.Pcap;
+import org.jnetpcap.PcapException;
+
+/**
+ * Named sets of capture handle options, and the matching dispatch loop, for
+ * common operating points. A profile is applied to a created, but not yet
+ * activated, handle, as libpcap only accepts these options before
+ * {@link Pcap#activate()}.
+ *
+ * <pre>
+ * <code>
+var pcap = Pcap.create("eth0");
+PcapTuningProfile.LOW_LATENCY.apply(pcap);
+pcap.activate();
+
+PcapTuningProfile.LOW_LATENCY.newDispatchLoop(pcap)
+		.run((user, packet) -> process(packet), null);
+ * </code>
+ * </pre>
+ *
+ * <table>
+ * <caption>Profile settings</caption>
+ * <tr>
+ * <th>Profile</th>
+ * <th>Immediate</th>
+ * <th>Buffer</th>
+ * <th>Timeout</th>
+ * <th>Loop</th>
+ * <th>Batch</th>
+ * <th>Spin budget</th>
+ * </tr>
+ * <tr>
+ * <td>LOW_LATENCY</td>
+ * <td>yes</td>
+ * <td>4 MiB</td>
+ * <td>1 ms</td>
+ * <td>non-blocking busy-poll</td>
+ * <td>64</td>
+ * <td>100 us</td>
+ * </tr>
+ * <tr>
+ * <td>BALANCED</td>
+ * <td>no</td>
+ * <td>16 MiB</td>
+ * <td>10 ms</td>
+ * <td>blocking</td>
+ * <td>512</td>
+ * <td>0</td>
+ * </tr>
+ * <tr>
+ * <td>HIGH_THROUGHPUT</td>
+ * <td>no</td>
+ * <td>128 MiB</td>
+ * <td>100 ms</td>
+ * <td>blocking</td>
+ * <td>8192</td>
+ * <td>0</td>
+ * </tr>
+ * </table>
+ *
+ * @author Sly Technologies Inc
+ * @author repos@slytechs.com
+ * @author mark
+ */
+public enum PcapTuningProfile {
+
+	/**
+	 * Packets are delivered as soon as they arrive, and picked up by a
+	 * non-blocking loop which busy-polls the handle, within a bounded spin budget.
+	 * Trades CPU for the least delay.
+	 */
+	LOW_LATENCY(true, 4 * 1024 * 1024, 1, true, 64, 100),
+
+	/**
+	 * Moderate buffering and a blocking loop, for mixed workloads.
+	 */
+	BALANCED(false, 16 * 1024 * 1024, 10, false, 512, 0),
+
+	/**
+	 * A large kernel buffer, a long buffer timeout and large dispatch batches,
+	 * which amortize the cost of each wakeup and native call over many packets.
+	 * Trades delay for the fewest drops and the least CPU per packet.
+	 */
+	HIGH_THROUGHPUT(false, 128 * 1024 * 1024, 100, false, 8192, 0),
+
+	;
+
+	/** How long an idle non-blocking loop parks, once its spin budget is used up */
+	private static final long IDLE_PARK_MICROS = 50;
+
+	private final boolean immediateMode;
+	private final int bufferSize;
+	private final int timeoutMillis;
+	private final boolean nonBlocking;
+	private final int batchSize;
+	private final long spinBudgetMicros;
+
+	PcapTuningProfile(boolean immediateMode, int bufferSize, int timeoutMillis, boolean nonBlocking, int batchSize,
+			long spinBudgetMicros) {
+		this.immediateMode = immediateMode;
+		this.bufferSize = bufferSize;
+		this.timeoutMillis = timeoutMillis;
+		this.nonBlocking = nonBlocking;
+		this.batchSize = batchSize;
+		this.spinBudgetMicros = spinBudgetMicros;
+	}
+
+	/**
+	 * Applies the profile's immediate mode, buffer size and timeout to a not yet
+	 * activated handle. Non-blocking mode is set by the profile's dispatch loop,
+	 * once the handle is activated.
+	 *
+	 * @param pcap the created, not activated, pcap handle
+	 * @return the pcap handle
+	 * @throws PcapException if the handle is already activated, or rejects an
+	 *                       option
+	 */
+	public Pcap apply(Pcap pcap) throws PcapException {
+		Objects.requireNonNull(pcap, "pcap");
+
+		pcap.setImmediateMode(immediateMode);
+		pcap.setBufferSize(bufferSize);
+		pcap.setTimeout(timeoutMillis);
+
+		return pcap;
+	}
+
+	/**
+	 * Applies the profile, and a snaplen, to a not yet activated handle.
+	 *
+	 * @param pcap    the created, not activated, pcap handle
+	 * @param snaplen the snapshot length
+	 * @return the pcap handle
+	 * @throws PcapException if the handle is already activated, or rejects an
+	 *                       option
+	 * @see #apply(Pcap)
+	 */
+	public Pcap apply(Pcap pcap, int snaplen) throws PcapException {
+		apply(pcap).setSnaplen(snaplen);
+
+		return pcap;
+	}
+
+	/**
+	 * Maximum number of packets per dispatch call of the profile's loop.
+	 *
+	 * @return the batch size
+	 */
+	public int batchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Kernel capture buffer size.
+	 *
+	 * @return the buffer size in bytes
+	 */
+	public int bufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Checks if the profile enables immediate mode.
+	 *
+	 * @return true, if immediate mode
+	 */
+	public boolean isImmediateMode() {
+		return immediateMode;
+	}
+
+	/**
+	 * Checks if the profile's loop busy-polls a non-blocking handle.
+	 *
+	 * @return true, if non-blocking
+	 */
+	public boolean isNonBlocking() {
+		return nonBlocking;
+	}
+
+	/**
+	 * Creates a new dispatch loop implementing the profile's polling strategy.
+	 *
+	 * @param pcap the activated pcap handle
+	 * @return the new dispatch loop
+	 */
+	public PcapDispatchLoop newDispatchLoop(Pcap pcap) {
+		return new PcapDispatchLoop(pcap, nonBlocking, batchSize, spinBudgetMicros, IDLE_PARK_MICROS,
+				TimeUnit.MICROSECONDS);
+	}
+
+	/**
+	 * How long the profile's loop spins without packets before it parks.
+	 *
+	 * @param unit the time unit
+	 * @return the spin budget
+	 */
+	public long spinBudget(TimeUnit unit) {
+		return unit.convert(spinBudgetMicros, TimeUnit.MICROSECONDS);
+	}
+
+	/**
+	 * Packet buffer timeout.
+	 *
+	 * @return the timeout in milliseconds
+	 */
+	public int timeoutMillis() {
+		return timeoutMillis;
+	}
+}
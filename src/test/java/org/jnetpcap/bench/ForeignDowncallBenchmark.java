@@ -0,0 +1,98 @@
+/*
+ * Apache License, Version 2.0
+ * 
+ * Copyright 2013-2022 Sly Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jnetpcap.bench;
+
+import java.lang.foreign.MemoryAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.jnetpcap.Pcap;
+import org.jnetpcap.PcapException;
+import org.jnetpcap.internal.PcapForeignDowncall;
+import org.jnetpcap.internal.PcapForeignInitializer;
+import org.jnetpcap.internal.UnsafePcapHandle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the generic, boxing {@code invokeWithArguments} downcall path against
+ * the exact typed {@code invokeExact} path. Run with {@code -prof gc} to see the
+ * per call allocation rate of each path.
+ * 
+ * <pre>
+ * java --enable-preview --enable-native-access=ALL-UNNAMED -cp ... org.openjdk.jmh.Main ForeignDowncallBenchmark -prof gc
+ * </pre>
+ * 
+ * @author Sly Technologies Inc
+ * @author repos@slytechs.com
+ * @author mark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {
+		"--enable-preview",
+		"--enable-native-access=ALL-UNNAMED" })
+public class ForeignDowncallBenchmark {
+
+	private static final String OFFLINE_FILE = "src/test/pcaps/HTTP.cap";
+
+	private PcapForeignDowncall pcap_datalink;
+	private PcapForeignDowncall pcap_snapshot;
+
+	private UnsafePcapHandle pcap;
+	private MemoryAddress pcapHandle;
+
+	@Setup
+	public void setup() throws PcapException {
+		Pcap.loadNativePcapLibrary();
+
+		try (var foreign = new PcapForeignInitializer(ForeignDowncallBenchmark.class)) {
+			pcap_datalink = foreign.downcall("pcap_datalink(A)I");
+			pcap_snapshot = foreign.downcall("pcap_snapshot(A)I");
+		}
+
+		pcap = UnsafePcapHandle.openOffline(OFFLINE_FILE);
+		pcapHandle = pcap.address();
+	}
+
+	@TearDown
+	public void tearDown() {
+		pcap.close();
+	}
+
+	@Benchmark
+	public int invokeWithArguments() {
+		return pcap_datalink.invokeInt(pcapHandle) + pcap_snapshot.invokeInt(pcapHandle);
+	}
+
+	@Benchmark
+	public int invokeExact() {
+		return pcap_datalink.invokeExactInt(pcapHandle) + pcap_snapshot.invokeExactInt(pcapHandle);
+	}
+}
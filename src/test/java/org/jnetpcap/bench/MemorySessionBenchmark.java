@@ -0,0 +1,140 @@
+/*
+ * Apache License, Version 2.0
+ * 
+ * Copyright 2013-2022 Sly Technologies Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jnetpcap.bench;
+
+import java.lang.foreign.MemoryAddress;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.MemorySession;
+import java.lang.foreign.ValueLayout;
+import java.util.concurrent.TimeUnit;
+
+import org.jnetpcap.internal.ReusableArena;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Per-packet cost of memory session management, as done by packet handlers
+ * before and after the switch to per-dispatch confined scopes and reusable
+ * per-thread arenas. Each benchmark invocation simulates a dispatch of
+ * {@value #PACKETS} packets, residing in a native buffer, which are copied out
+ * to java byte arrays. Results are reported per packet.
+ * 
+ * <pre>
+ * java --enable-preview -cp ... org.openjdk.jmh.Main MemorySessionBenchmark -t 4
+ * </pre>
+ * <p>
+ * Run with multiple threads ({@code -t}) to see the cost of the thread-local
+ * handshake performed when closing a shared session.
+ * </p>
+ * 
+ * @author Sly Technologies Inc
+ * @author repos@slytechs.com
+ * @author mark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class MemorySessionBenchmark {
+
+	private static final int PACKETS = 64;
+	private static final int PACKET_LENGTH = 128;
+
+	private MemorySegment buffer;
+	private MemoryAddress[] packets;
+
+	@Setup
+	public void setup() {
+		buffer = MemorySegment.allocateNative(PACKETS * PACKET_LENGTH, MemorySession.openImplicit());
+		packets = new MemoryAddress[PACKETS];
+
+		for (int i = 0; i < PACKETS; i++)
+			packets[i] = buffer.address().addOffset(i * PACKET_LENGTH);
+	}
+
+	/** Before: new shared session opened and closed for every packet. */
+	@Benchmark
+	@OperationsPerInvocation(PACKETS)
+	public void sharedSessionPerPacket(Blackhole bh) {
+		for (MemoryAddress packet : packets) {
+			try (var scope = MemorySession.openShared()) {
+				bh.consume(MemorySegment.ofAddress(packet, PACKET_LENGTH, scope).toArray(ValueLayout.JAVA_BYTE));
+			}
+		}
+	}
+
+	/** Intermediate: new confined session opened and closed for every packet. */
+	@Benchmark
+	@OperationsPerInvocation(PACKETS)
+	public void confinedSessionPerPacket(Blackhole bh) {
+		for (MemoryAddress packet : packets) {
+			try (var scope = MemorySession.openConfined()) {
+				bh.consume(MemorySegment.ofAddress(packet, PACKET_LENGTH, scope).toArray(ValueLayout.JAVA_BYTE));
+			}
+		}
+	}
+
+	/** After: one confined session per dispatch, shared by all packets. */
+	@Benchmark
+	@OperationsPerInvocation(PACKETS)
+	public void confinedSessionPerDispatch(Blackhole bh) {
+		try (var scope = MemorySession.openConfined()) {
+			for (MemoryAddress packet : packets)
+				bh.consume(MemorySegment.ofAddress(packet, PACKET_LENGTH, scope).toArray(ValueLayout.JAVA_BYTE));
+		}
+	}
+
+	/** Before: temporary native buffer in a new shared session per call. */
+	@Benchmark
+	@OperationsPerInvocation(PACKETS)
+	public void temporaryAllocationSharedSession(Blackhole bh) {
+		for (MemoryAddress packet : packets) {
+			try (var scope = MemorySession.openShared()) {
+				MemorySegment tmp = scope.allocate(PACKET_LENGTH);
+				MemorySegment.copy(MemorySegment.ofAddress(packet, PACKET_LENGTH, scope), 0, tmp, 0, PACKET_LENGTH);
+				bh.consume(tmp.address());
+			}
+		}
+	}
+
+	/** After: temporary native buffer from the reusable per-thread arena. */
+	@Benchmark
+	@OperationsPerInvocation(PACKETS)
+	public void temporaryAllocationReusableArena(Blackhole bh) {
+		for (MemoryAddress packet : packets) {
+			try (var arena = ReusableArena.enter()) {
+				MemorySegment tmp = arena.allocate(PACKET_LENGTH);
+				MemorySegment.copy(MemorySegment.ofAddress(packet, PACKET_LENGTH, arena.session()), 0, tmp, 0,
+						PACKET_LENGTH);
+				bh.consume(tmp.address());
+			}
+		}
+	}
+}
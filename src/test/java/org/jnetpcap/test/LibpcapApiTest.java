@@ -17,6 +17,7 @@
  */
 package org.jnetpcap.test;
 
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.jnetpcap.constant.PcapConstants.MAX_SNAPLEN;
 import static org.jnetpcap.constant.PcapConstants.PCAP_ERROR_BREAK;
@@ -30,6 +31,7 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
@@ -38,13 +40,23 @@ import java.io.IOException;
 import java.lang.foreign.MemoryAddress;
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.MemorySession;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.jnetpcap.BpFilter;
 import org.jnetpcap.Pcap;
@@ -52,13 +64,37 @@ import org.jnetpcap.Pcap.LibraryPolicy;
 import org.jnetpcap.PcapDumper;
 import org.jnetpcap.PcapException;
 import org.jnetpcap.PcapHandler;
+import org.jnetpcap.PcapHeader;
+import org.jnetpcap.PcapMemoryDumper;
+import org.jnetpcap.constant.PcapCode;
 import org.jnetpcap.constant.PcapConstants;
 import org.jnetpcap.constant.PcapDirection;
 import org.jnetpcap.constant.PcapDlt;
+import org.jnetpcap.constant.PcapNextStatus;
 import org.jnetpcap.constant.PcapTStampPrecision;
 import org.jnetpcap.constant.PcapTstampType;
 import org.jnetpcap.util.NetIp4Address;
+import org.jnetpcap.util.PacketBuffer;
+import org.jnetpcap.util.PacketBufferPool;
+import org.jnetpcap.util.PcapAffinityThreadFactory;
+import org.jnetpcap.util.PcapAutoTuner;
+import org.jnetpcap.util.PcapCaptureService;
+import org.jnetpcap.util.PcapCursor;
+import org.jnetpcap.util.PcapFlowSteering;
+import org.jnetpcap.util.PcapHandlerChain;
+import org.jnetpcap.util.PcapMergeReceiver;
+import org.jnetpcap.util.PcapOverloadControl;
+import org.jnetpcap.util.PcapPacketBatch;
+import org.jnetpcap.util.PcapPacketFlyweight;
 import org.jnetpcap.util.PcapPacketRef;
+import org.jnetpcap.util.PcapPipeline;
+import org.jnetpcap.util.PcapPipeline.WaitStrategy;
+import org.jnetpcap.util.PcapPublisher;
+import org.jnetpcap.util.PcapReceiver;
+import org.jnetpcap.util.PcapSelector;
+import org.jnetpcap.util.PcapSpillBuffer;
+import org.jnetpcap.util.PcapSubscriptions;
+import org.jnetpcap.util.PcapTuningProfile;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Tag;
@@ -428,6 +464,1088 @@ class LibpcapApiTest extends AbstractTestBase {
 		assertEquals(PACKET_COUNT, pcap.dispatchWithAccessToRawPacket(PACKET_COUNT, HANDLER));
 	}
 
+	/**
+	 * Test method for
+	 * {@link org.jnetpcap.Pcap#dispatch(int, org.jnetpcap.PcapHandler.OfRawPacket)}
+	 * where the same sink is reused and a new sink is switched to between calls.
+	 */
+	@Test
+	@Tag("offline-capture")
+	@Tag("user-permission")
+	void testDispatch_OfRawPacket_ReusedSink_OfflineHandle() throws PcapException {
+		var pcap = pcapOpenOfflineTestHandle();
+
+		final int PACKET_COUNT = 5;
+		final int[] counters = new int[2];
+		final PcapHandler.OfRawPacket HANDLER1 = (header, packet) -> counters[0]++;
+		final PcapHandler.OfRawPacket HANDLER2 = (header, packet) -> counters[1]++;
+
+		assertEquals(PACKET_COUNT, pcap.dispatchWithAccessToRawPacket(PACKET_COUNT, HANDLER1));
+		assertEquals(PACKET_COUNT, pcap.dispatchWithAccessToRawPacket(PACKET_COUNT, HANDLER1));
+		assertEquals(PACKET_COUNT, pcap.dispatchWithAccessToRawPacket(PACKET_COUNT, HANDLER2));
+		assertEquals(PACKET_COUNT, pcap.dispatchWithAccessToRawPacket(PACKET_COUNT, HANDLER1));
+
+		assertEquals(PACKET_COUNT * 3, counters[0]);
+		assertEquals(PACKET_COUNT, counters[1]);
+	}
+
+	/**
+	 * Test method for
+	 * {@link org.jnetpcap.Pcap#dispatch(int, org.jnetpcap.util.PcapHandlerChain)}.
+	 */
+	@Test
+	@Tag("offline-capture")
+	@Tag("user-permission")
+	void testDispatch_HandlerChain_OfflineHandle() throws PcapException {
+		var pcap = pcapOpenOfflineTestHandle();
+
+		final int PACKET_COUNT = 10;
+		final int[] counters = new int[3];
+		final long[] offsets = new long[1];
+
+		var chain = PcapHandlerChain.builder()
+				.tee((header, packet) -> counters[0]++)
+				.filter((header, data) -> (counters[1]++ & 1) == 0)
+				.map((header, data) -> data.addOffset(14))
+				.sink((header, data) -> {
+					counters[2]++;
+					offsets[0] = data.address().toRawLongValue();
+				});
+
+		assertEquals(PACKET_COUNT / 2, pcap.dispatch(PACKET_COUNT / 2, chain));
+		assertEquals(PACKET_COUNT / 2, pcap.dispatch(PACKET_COUNT / 2, chain));
+
+		assertEquals(PACKET_COUNT, counters[0]);
+		assertEquals(PACKET_COUNT, counters[1]);
+		assertEquals(PACKET_COUNT / 2, counters[2]);
+		assertNotEquals(0, offsets[0]);
+
+		assertThrows(IllegalArgumentException.class, () -> PcapHandlerChain.builder()
+				.tee(MethodHandles.empty(MethodType.methodType(void.class))));
+	}
+
+	/**
+	 * Test method for
+	 * {@link org.jnetpcap.util.PcapReceiver#forEach(int, org.jnetpcap.util.PacketBufferPool, org.jnetpcap.PcapHandler.OfPacketBuffer, Object)}.
+	 */
+	@Test
+	@Tag("offline-capture")
+	@Tag("user-permission")
+	void testReceiverForEach_PacketBufferPool_OfflineHandle() throws PcapException {
+		var receiver = new PcapReceiver(pcapOpenOfflineTestHandle()::dispatch);
+
+		final int PACKET_COUNT = 10;
+		final List<PacketBuffer> retained = new ArrayList<>();
+
+		try (var pool = new PacketBufferPool(64 * 1024, 4)) {
+			assertEquals(PACKET_COUNT, receiver.forEach(PACKET_COUNT, pool, (String user, PacketBuffer packet) -> {
+				PacketBuffer tee = packet.tee();
+
+				assertArrayEquals(packet.toArray(), tee.toArray());
+				assertEquals(packet.captureLength(), packet.dataLength());
+				assertTrue(tee.release());
+
+				retained.add(packet.retain());
+				assertFalse(packet.release());
+			}, ""));
+
+			assertEquals(PACKET_COUNT, retained.size());
+			assertEquals(1, pool.slabCount());
+
+			for (PacketBuffer packet : retained) {
+				assertTrue(packet.release());
+				assertFalse(packet.isAccessible());
+				assertThrows(IllegalStateException.class, packet::data);
+			}
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link org.jnetpcap.util.PacketBufferPool#exhaustedCount()}.
+	 */
+	@Test
+	@Tag("offline-capture")
+	@Tag("user-permission")
+	void testReceiverForEach_PacketBufferPoolExhausted_OfflineHandle() throws PcapException {
+		var receiver = new PcapReceiver(pcapOpenOfflineTestHandle()::dispatch);
+
+		final int PACKET_COUNT = 10;
+		final List<PacketBuffer> retained = new ArrayList<>();
+
+		try (var pool = new PacketBufferPool(256, 1)) {
+			receiver.forEach(PACKET_COUNT, pool, (String user, PacketBuffer packet) -> retained.add(packet), "");
+
+			assertTrue(pool.exhaustedCount() > 0);
+			assertEquals(PACKET_COUNT, retained.size() + pool.exhaustedCount());
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link org.jnetpcap.util.PcapReceiver#forEach(int, org.jnetpcap.PcapHandler.OfPacketFlyweight, Object)}.
+	 */
+	@Test
+	@Tag("offline-capture")
+	@Tag("user-permission")
+	void testReceiverForEach_OfPacketFlyweight_OfflineHandle() throws PcapException {
+		var pcap = pcapOpenOfflineTestHandle();
+		var receiver = new PcapReceiver(pcap::dispatch);
+
+		final int PACKET_COUNT = 5;
+		final PcapPacketFlyweight[] first = new PcapPacketFlyweight[1];
+		final PcapHandler.OfPacketFlyweight<String> HANDLER = (user, packet) -> {
+			if (first[0] == null)
+				first[0] = packet;
+
+			assertTrue(first[0] == packet, "flyweight must be reused");
+			assertEquals(packet.header().captureLength(), packet.captureLength());
+			assertEquals(packet.captureLength(), packet.toArray().length);
+		};
+
+		assertEquals(PACKET_COUNT, receiver.forEach(PACKET_COUNT, HANDLER, ""));
+		assertFalse(first[0].isBound());
+	}
+
+	/**
+	 * Test method for
+	 * {@link org.jnetpcap.util.PcapReceiver#forEachCopy(int, org.jnetpcap.PcapHandler.OfArrayAtOffset, Object)}.
+	 */
+	@Test
+	@Tag("offline-capture")
+	@Tag("user-permission")
+	void testReceiverForEachCopy_OfArrayAtOffset_OfflineHandle() throws PcapException {
+		final int PACKET_COUNT = 10;
+		final byte[][] expected = new byte[PACKET_COUNT][];
+		final PcapHeader[] expectedHeaders = new PcapHeader[PACKET_COUNT];
+		final PcapHeader[] retained = new PcapHeader[PACKET_COUNT];
+		final int[] index = new int[1];
+
+		new PcapReceiver(pcapOpenOfflineTestHandle()::dispatch)
+				.forEachCopy(PACKET_COUNT, (String user, PcapHeader header, byte[] packet) -> {
+					expectedHeaders[index[0]] = header;
+					expected[index[0]++] = packet;
+				}, "");
+
+		final int[] counters = new int[2]; // 0=blocks allocated, 1=blocks recycled
+		var receiver = new PcapReceiver(pcapOpenOfflineTestHandle()::dispatch)
+				.setArrayBlocks(64 * 1024, len -> {
+					counters[0]++;
+					return new byte[len];
+				}, block -> counters[1]++);
+
+		index[0] = 0;
+		final PcapHandler.OfArrayAtOffset<String> HANDLER = (user, header, packet, offset, caplen) -> {
+			byte[] copy = Arrays.copyOfRange(packet, offset, offset + caplen);
+
+			assertEquals(header.captureLength(), caplen);
+			assertArrayEquals(expected[index[0]], copy);
+			retained[index[0]++] = header;
+		};
+
+		assertEquals(PACKET_COUNT, receiver.forEachCopy(PACKET_COUNT, HANDLER, ""));
+		assertEquals(1, counters[0], "block must be shared between packets");
+
+		/* Headers are detached copies, still valid after the dispatch */
+		for (int i = 0; i < PACKET_COUNT; i++) {
+			assertEquals(expectedHeaders[i].tvSec(), retained[i].tvSec());
+			assertEquals(expectedHeaders[i].tvUsec(), retained[i].tvUsec());
+			assertEquals(expectedHeaders[i].captureLength(), retained[i].captureLength());
+		}
+
+		receiver.retireArrayBlock();
+		assertEquals(counters[0], counters[1]);
+	}
+
+	/**
+	 * Test method for {@link org.jnetpcap.util.PcapReceiver#setCopyLimit(int)}.
+	 */
+	@Test
+	@Tag("offline-capture")
+	@Tag("user-permission")
+	void testReceiverSetCopyLimit_OfflineHandle() throws PcapException {
+		final int PACKET_COUNT = 10;
+		final int COPY_LIMIT = 32;
+
+		var receiver = new PcapReceiver(pcapOpenOfflineTestHandle()::dispatch)
+				.setCopyLimit(COPY_LIMIT);
+
+		receiver.forEachCopy(PACKET_COUNT, (String user, PcapHeader header, byte[] packet) -> {
+			assertEquals(Math.min(header.captureLength(), COPY_LIMIT), packet.length);
+		}, "");
+
+		receiver.forEachBatch(PACKET_COUNT, (String user, PcapPacketBatch batch) -> {
+			for (int i = 0; i < batch.size(); i++) {
+				assertEquals(Math.min(batch.captureLengths()[i], COPY_LIMIT), batch.dataLengths()[i]);
+				assertTrue(batch.wireLengths()[i] >= batch.captureLengths()[i]);
+			}
+		}, "");
+	}
+
+	/**
+	 * Test method for
+	 * {@link org.jnetpcap.util.PcapReceiver#setHeaderOnly(org.jnetpcap.constant.PcapDlt)}.
+	 */
+	@Test
+	@Tag("offline-capture")
+	@Tag("user-permission")
+	void testReceiverSetHeaderOnly_OfflineHandle() throws PcapException {
+		var pcap = pcapOpenOfflineTestHandle();
+		var receiver = new PcapReceiver(pcap::dispatch)
+				.setHeaderOnly(pcap.datalink());
+
+		assertEquals(PcapReceiver.headerOnlyLength(pcap.datalink()), receiver.copyLimit());
+
+		receiver.forEachCopy(10, (String user, PcapHeader header, byte[] packet) -> {
+			assertEquals(Math.min(header.captureLength(), receiver.copyLimit()), packet.length);
+		}, "");
+	}
+
+	/**
+	 * Test method for
+	 * {@link org.jnetpcap.util.PcapReceiver#setOverloadControl(org.jnetpcap.util.PcapOverloadControl)}.
+	 */
+	@Test
+	@Tag("offline-capture")
+	@Tag("user-permission")
+	void testReceiverSetOverloadControl_Sampling_OfflineHandle() throws PcapException {
+		final long expected = pcapOpenOfflineTestHandle().stream().count();
+		final AtomicLong delivered = new AtomicLong();
+
+		var pcap = pcapOpenOfflineTestHandle();
+		var overload = new PcapOverloadControl(pcap, () -> 100, PcapOverloadControl.Policy.sample(2))
+				.setQueueWatermarks(50, 10);
+
+		assertTrue(overload.check());
+		assertEquals(1, overload.overloadCount());
+
+		var receiver = new PcapReceiver(pcap::dispatch)
+				.setOverloadControl(overload);
+
+		try (var pool = new PacketBufferPool()) {
+			receiver.forEach(-1, pool, (String user, PacketBuffer packet) -> {
+				delivered.incrementAndGet();
+				packet.release();
+			}, "");
+		}
+
+		assertEquals(expected / 2, delivered.get());
+		assertEquals(expected - delivered.get(), overload.shedCount());
+		assertEquals(0, overload.truncatedCount());
+	}
+
+	/**
+	 * Test method for
+	 * {@link org.jnetpcap.util.PcapOverloadControl#checkIfDue()}.
+	 */
+	@Test
+	@Tag("offline-capture")
+	@Tag("user-permission")
+	void testOverloadControlCheckIfDue_CopyLimit_OfflineHandle() throws PcapException {
+		final AtomicLong depth = new AtomicLong(100);
+
+		var pcap = pcapOpenOfflineTestHandle();
+		var overload = new PcapOverloadControl(pcap, depth::get, (header, data, copyLimit) -> copyLimit)
+				.setQueueWatermarks(50, 10)
+				.setCheckInterval(0, TimeUnit.NANOSECONDS);
+
+		assertTrue(overload.check());
+
+		var receiver = new PcapReceiver(pcap::dispatch)
+				.setCopyLimit(32)
+				.setOverloadControl(overload);
+
+		try (var pool = new PacketBufferPool()) {
+
+			/* Fewer packets than between clock reads, left by the check after dispatch */
+			depth.set(0);
+			assertEquals(1, receiver.forEach(1, pool, (String user, PacketBuffer packet) -> packet.release(), ""));
+		}
+
+		assertFalse(overload.isOverloaded());
+		assertEquals(0, overload.truncatedCount(), "copy limit is not a policy truncation");
+	}
+
+	/**
+	 * Test method for
+	 * {@link org.jnetpcap.util.PcapPublisher#subscribe(java.util.concurrent.Flow.Subscriber)}.
+	 *
+	 * @throws InterruptedException
+	 */
+	@Test
+	@Tag("offline-capture")
+	@Tag("user-permission")
+	void testPublisherSubscribe_TwoSubscribers_OfflineHandle() throws PcapException, InterruptedException {
+		final long expected = pcapOpenOfflineTestHandle().stream().count();
+
+		final CountDownLatch completed = new CountDownLatch(2);
+		final AtomicLong[] received = {
+				new AtomicLong(),
+				new AtomicLong()
+		};
+
+		class CountingSubscriber implements Flow.Subscriber<PacketBuffer> {
+			final AtomicLong counter;
+			Flow.Subscription subscription;
+
+			CountingSubscriber(AtomicLong counter) {
+				this.counter = counter;
+			}
+
+			@Override
+			public void onSubscribe(Flow.Subscription subscription) {
+				this.subscription = subscription;
+				subscription.request(2);
+			}
+
+			@Override
+			public void onNext(PacketBuffer packet) {
+				assertTrue(packet.dataLength() > 0);
+				assertTrue(packet.release());
+
+				if (counter.incrementAndGet() % 2 == 0)
+					subscription.request(2);
+			}
+
+			@Override
+			public void onError(Throwable throwable) {
+				fail(throwable);
+			}
+
+			@Override
+			public void onComplete() {
+				completed.countDown();
+			}
+		}
+
+		try (var pool = new PacketBufferPool();
+				var publisher = new PcapPublisher(pcapOpenOfflineTestHandle(), pool)) {
+
+			/* Hold back the capture thread until both subscribers are registered */
+			var first = new CountingSubscriber(received[0]) {
+				@Override
+				public void onSubscribe(Flow.Subscription subscription) {
+					this.subscription = subscription;
+				}
+			};
+
+			publisher.subscribe(first);
+			publisher.subscribe(new CountingSubscriber(received[1]));
+			first.subscription.request(2);
+
+			assertTrue(completed.await(10, TimeUnit.SECONDS));
+			assertEquals(expected, received[0].get());
+			assertEquals(expected, received[1].get());
+			assertEquals(expected, publisher.publishedCount());
+			assertEquals(0, publisher.dropCount());
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link org.jnetpcap.util.PcapPublisher#subscribe(java.util.concurrent.Flow.Subscriber)}
+	 * with an invalid request, and after the publisher is closed.
+	 *
+	 * @throws InterruptedException
+	 */
+	@Test
+	@Tag("offline-capture")
+	@Tag("user-permission")
+	void testPublisherSubscribe_TerminalSignals_OfflineHandle() throws PcapException, InterruptedException {
+		final CountDownLatch terminated = new CountDownLatch(2);
+		final Thread caller = Thread.currentThread();
+		final Throwable[] errors = new Throwable[2];
+		final Thread[] threads = new Thread[2];
+
+		class TerminalSubscriber implements Flow.Subscriber<PacketBuffer> {
+			final int index;
+			Flow.Subscription subscription;
+
+			TerminalSubscriber(int index) {
+				this.index = index;
+			}
+
+			@Override
+			public void onSubscribe(Flow.Subscription subscription) {
+				this.subscription = subscription;
+			}
+
+			@Override
+			public void onNext(PacketBuffer packet) {
+				packet.release();
+			}
+
+			@Override
+			public void onError(Throwable throwable) {
+				errors[index] = throwable;
+				threads[index] = Thread.currentThread();
+				terminated.countDown();
+			}
+
+			@Override
+			public void onComplete() {
+				threads[index] = Thread.currentThread();
+				terminated.countDown();
+			}
+		}
+
+		try (var pool = new PacketBufferPool()) {
+			var publisher = new PcapPublisher(pcapOpenOfflineTestHandle(), pool);
+
+			var invalid = new TerminalSubscriber(0);
+			publisher.subscribe(invalid);
+			invalid.subscription.request(0);
+
+			var late = new TerminalSubscriber(1);
+			publisher.close();
+			publisher.subscribe(late);
+
+			assertTrue(terminated.await(10, TimeUnit.SECONDS));
+			assertTrue(errors[0] instanceof IllegalArgumentException);
+			assertNull(errors[1]);
+			assertNotEquals(caller, threads[0]);
+			assertNotEquals(caller, threads[1]);
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link org.jnetpcap.util.PcapCaptureService.PacketChannel#take()}.
+	 *
+	 * @throws InterruptedException
+	 */
+	@Test
+	@Tag("offline-capture")
+	@Tag("user-permission")
+	void testCaptureServiceTake_VirtualThreads_OfflineHandle() throws PcapException, InterruptedException {
+		final long expected = pcapOpenOfflineTestHandle().stream().count();
+		final AtomicLong taken = new AtomicLong();
+
+		try (var pool = new PacketBufferPool();
+				var service = new PcapCaptureService(pool)) {
+
+			var channel = service.open(pcapOpenOfflineTestHandle());
+			var consumers = new Thread[4];
+
+			for (int i = 0; i < consumers.length; i++) {
+				consumers[i] = Thread.ofVirtual().start(() -> {
+					try {
+						PacketBuffer[] batch = new PacketBuffer[8];
+						int count;
+						while ((count = channel.take(batch)) > 0) {
+							for (int j = 0; j < count; j++)
+								batch[j].release();
+
+							taken.addAndGet(count);
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				});
+			}
+
+			for (Thread consumer : consumers)
+				assertTrue(consumer.join(Duration.ofSeconds(10)));
+
+			assertTrue(channel.isEnded());
+			assertEquals(0, channel.dropCount());
+			assertEquals(expected, channel.receivedCount());
+			assertEquals(expected, taken.get());
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link org.jnetpcap.util.PcapCaptureService#open(org.jnetpcap.Pcap)}.
+	 */
+	@Test
+	@Tag("offline-capture")
+	@Tag("user-permission")
+	void testCaptureServiceTake_SharedPool_OfflineHandles() throws PcapException, InterruptedException {
+		final List<byte[]> expected = pcapOpenOfflineTestHandle().stream()
+				.map(PcapPacketRef::toArray)
+				.toList();
+
+		/* Small slabs, so that the capture threads switch slabs often */
+		try (var pool = new PacketBufferPool(16 * 1024, Integer.MAX_VALUE);
+				var service = new PcapCaptureService(pool)) {
+
+			var channels = new PcapCaptureService.PacketChannel[3];
+			final List<List<byte[]>> actual = new ArrayList<>();
+			var consumers = new Thread[channels.length];
+
+			for (int i = 0; i < channels.length; i++)
+				channels[i] = service.open(pcapOpenOfflineTestHandle());
+
+			for (int i = 0; i < channels.length; i++) {
+				final var channel = channels[i];
+				final List<byte[]> packets = new ArrayList<>();
+				actual.add(packets);
+
+				consumers[i] = Thread.ofPlatform().start(() -> {
+					try {
+						PacketBuffer packet;
+						while ((packet = channel.take()) != null) {
+							packets.add(packet.toArray());
+							packet.release();
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				});
+			}
+
+			for (int i = 0; i < channels.length; i++) {
+				assertTrue(consumers[i].join(Duration.ofSeconds(10)));
+				assertEquals(0, channels[i].dropCount());
+				assertEquals(expected.size(), actual.get(i).size());
+
+				for (int j = 0; j < expected.size(); j++)
+					assertArrayEquals(expected.get(j), actual.get(i).get(j));
+			}
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link org.jnetpcap.util.PcapSelector#select(long, java.util.concurrent.TimeUnit)}.
+	 */
+	@Test
+	@Tag("offline-capture")
+	@Tag("user-permission")
+	void testSelectorSelect_OfflineHandles() throws PcapException {
+		final long expected = pcapOpenOfflineTestHandle().stream().count();
+		final long[] counts = new long[2];
+
+		var pcap1 = cleanup(Pcap.Unix.openOffline(OFFLINE_FILE), Pcap::close);
+		var pcap2 = cleanup(Pcap.Unix.openOffline(OFFLINE_FILE), Pcap::close);
+
+		try (var selector = new PcapSelector()) {
+			var r1 = selector.register(pcap1, 2, (user, packet) -> counts[0]++, "");
+			var r2 = selector.register(pcap2, 3, (user, packet) -> counts[1]++, "");
+
+			/* Savefiles are always ready, until both are read to the end */
+			for (int i = 0; i < expected; i++) {
+				int dispatched = selector.selectNow();
+				assertTrue(dispatched <= 2 + 3);
+			}
+
+			assertEquals(expected, counts[0]);
+			assertEquals(expected, counts[1]);
+			assertEquals(expected, r1.packetCount());
+			assertEquals(expected, r2.packetCount());
+			assertTrue(r1.readyCount() > 0);
+
+			r2.cancel();
+			assertFalse(r2.isValid());
+			assertEquals(List.of(r1), selector.registrations());
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link org.jnetpcap.util.PcapSelector#select(long, java.util.concurrent.TimeUnit)}
+	 * with a handle which fails while dispatching.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	@Tag("offline-capture")
+	@Tag("user-permission")
+	void testSelectorSelect_FailedHandle() throws PcapException, IOException {
+		final long expected = pcapOpenOfflineTestHandle().stream().count();
+		final long[] counts = new long[2];
+
+		/* File header, first record header and only part of its packet data */
+		byte[] file = Files.readAllBytes(Path.of(OFFLINE_FILE));
+		Path truncated = Files.createTempFile("pcap-truncated-test", ".cap");
+		Files.write(truncated, Arrays.copyOf(file, 24 + 16 + 8));
+
+		var pcap1 = cleanup(Pcap.Unix.openOffline(OFFLINE_FILE), Pcap::close);
+		var pcap2 = cleanup(Pcap.Unix.openOffline(truncated.toString()), Pcap::close);
+
+		try (var selector = new PcapSelector()) {
+			var r1 = selector.register(pcap1, 4, (user, packet) -> counts[0]++, "");
+			var r2 = selector.register(pcap2, 4, (user, packet) -> counts[1]++, "");
+
+			for (int i = 0; i < expected; i++)
+				selector.selectNow();
+
+			assertEquals(expected, counts[0]);
+			assertEquals(0, counts[1]);
+
+			assertFalse(r2.isValid());
+			assertNotNull(r2.error());
+			assertEquals(1, selector.failedCount());
+			assertEquals(List.of(r1), selector.registrations());
+
+			assertTrue(r1.isValid());
+			assertNull(r1.error());
+
+		} finally {
+			Files.delete(truncated);
+		}
+	}
+
+	/**
+	 * Test method for {@link org.jnetpcap.Pcap#nextEx(org.jnetpcap.util.PcapCursor)}.
+	 *
+	 * @throws TimeoutException
+	 */
+	@Test
+	@Tag("offline-capture")
+	@Tag("user-permission")
+	void testCursorNextEx_OfflineHandle() throws PcapException, TimeoutException {
+		final List<Integer> expected = new ArrayList<>();
+		final List<Integer> actual = new ArrayList<>();
+
+		pcapOpenOfflineTestHandle().stream().forEach(p -> expected.add(p.captureLength()));
+
+		var pcap = pcapOpenOfflineTestHandle();
+		var cursor = new PcapCursor();
+
+		while (pcap.nextEx(cursor)) {
+			assertEquals(cursor.header().captureLength(), cursor.dataLength());
+			actual.add(cursor.captureLength());
+		}
+
+		assertEquals(expected, actual);
+	}
+
+	/**
+	 * Test method for
+	 * {@link org.jnetpcap.Pcap#nextExStatus(org.jnetpcap.util.PcapCursor)}.
+	 */
+	@Test
+	@Tag("offline-capture")
+	@Tag("user-permission")
+	void testCursorNextExStatus_OfflineHandle() throws PcapException {
+		final long expected = pcapOpenOfflineTestHandle().stream().count();
+
+		var pcap = pcapOpenOfflineTestHandle();
+		var cursor = new PcapCursor();
+		long count = 0;
+
+		PcapNextStatus status;
+		while ((status = pcap.nextExStatus(cursor)) == PcapNextStatus.OK) {
+			assertTrue(cursor.captureLength() > 0);
+			count++;
+		}
+
+		assertEquals(PcapNextStatus.EOF, status);
+		assertEquals(PcapNextStatus.EOF, cursor.status());
+		assertEquals(expected, count);
+	}
+
+	/**
+	 * Test method for
+	 * {@link org.jnetpcap.Pcap#nextExStatus(org.jnetpcap.util.PcapCursor)}.
+	 */
+	@Test
+	@Tag("offline-capture")
+	@Tag("user-permission")
+	void testCursorNextExStatus_Breakloop_OfflineHandle() throws PcapException {
+		var pcap = pcapOpenOfflineTestHandle();
+		var cursor = new PcapCursor();
+
+		assertEquals(PcapNextStatus.OK, pcap.nextExStatus(cursor));
+
+		pcap.breakloop();
+		assertEquals(PcapNextStatus.BREAK, pcap.nextExStatus(cursor));
+
+		/* The break is cleared, reading resumes and the end is still EOF */
+		assertEquals(PcapNextStatus.OK, pcap.nextExStatus(cursor));
+
+		PcapNextStatus status;
+		while ((status = pcap.nextExStatus(cursor)) == PcapNextStatus.OK)
+			;
+
+		assertEquals(PcapNextStatus.EOF, status);
+	}
+
+	/**
+	 * Test method for
+	 * {@link org.jnetpcap.util.PcapMergeReceiver#poll(int, org.jnetpcap.PcapHandler.OfPacketFlyweight, Object)}.
+	 */
+	@Test
+	@Tag("offline-capture")
+	@Tag("user-permission")
+	void testMergeReceiverPoll_OfflineHandles() throws PcapException {
+		final long expected = pcapOpenOfflineTestHandle().stream().count();
+
+		final long[] first = new long[1];
+		new PcapReceiver(pcapOpenOfflineTestHandle()::dispatch).forEachCopy(1, (String user, PcapHeader header,
+				byte[] packet) -> first[0] = header.tvSec() * 1_000_000_000 + header.tvUsec() * 1000, "");
+
+		var merge = new PcapMergeReceiver(4, PcapMergeReceiver.DEFAULT_SLOT_SIZE);
+		var source1 = merge.addSource(pcapOpenOfflineTestHandle());
+		var source2 = merge.addSource(pcapOpenOfflineTestHandle());
+
+		final long[] last = { Long.MIN_VALUE, 0 };
+
+		while (merge.poll(3, (user, packet) -> {
+			long ts = packet.header().tvSec() * 1_000_000_000 + packet.header().tvUsec();
+			assertTrue(ts >= last[0]);
+
+			/* Headers are normalized from the savefile's microseconds to nanoseconds */
+			if (last[1] == 0)
+				assertEquals(first[0], ts);
+
+			last[0] = ts;
+			last[1]++;
+		}, null) >= 0)
+			;
+
+		assertTrue(merge.isDone());
+		assertEquals(expected * 2, last[1]);
+		assertEquals(expected * 2, merge.emittedCount());
+		assertEquals(expected, source1.packetCount());
+		assertEquals(expected, source2.packetCount());
+		assertTrue(source1.isEnded() && source2.isEnded());
+	}
+
+	/**
+	 * Test method for
+	 * {@link org.jnetpcap.util.PcapAffinityThreadFactory#newThread(Runnable)}.
+	 */
+	@Test
+	void testAffinityThreadFactory_PinnedCpu() throws InterruptedException {
+		if (!PcapAffinityThreadFactory.isSupported()) {
+			assertThrows(UnsupportedOperationException.class, () -> new PcapAffinityThreadFactory("pcap-test", 0));
+			return;
+		}
+
+		final int cpu = Math.max(0, PcapAffinityThreadFactory.currentCpu());
+		final int[] result = { -2, -2 };
+
+		var factory = new PcapAffinityThreadFactory("pcap-test", cpu);
+		Thread thread = factory.newThread(() -> {
+			result[0] = PcapAffinityThreadFactory.pinnedCpu();
+			result[1] = PcapAffinityThreadFactory.currentCpu();
+		});
+
+		thread.start();
+		thread.join();
+
+		assertEquals(0, factory.failedCount());
+		assertEquals(cpu, result[0]);
+		assertEquals(cpu, result[1]);
+		assertEquals(-1, PcapAffinityThreadFactory.pinnedCpu());
+	}
+
+	/**
+	 * Test method for
+	 * {@link org.jnetpcap.util.PcapTuningProfile#newDispatchLoop(org.jnetpcap.Pcap)}.
+	 */
+	@Test
+	@Tag("offline-capture")
+	@Tag("user-permission")
+	void testTuningProfileDispatchLoop_OfflineHandle() throws PcapException {
+		final long expected = pcapOpenOfflineTestHandle().stream().count();
+		final long[] count = new long[1];
+
+		var loop = PcapTuningProfile.LOW_LATENCY.newDispatchLoop(pcapOpenOfflineTestHandle())
+				.setBatchSize(3);
+
+		assertFalse(loop.isNonBlocking());
+		assertEquals(0, loop.run((user, packet) -> count[0]++, null));
+		assertEquals(expected, count[0]);
+		assertEquals(expected, loop.packetCount());
+		assertTrue(loop.dispatchCount() >= expected / 3);
+	}
+
+	/**
+	 * Test method for {@link org.jnetpcap.util.PcapAutoTuner#check()}.
+	 */
+	@Test
+	@Tag("offline-capture")
+	@Tag("user-permission")
+	void testAutoTunerCheck_OfflineHandle() throws PcapException {
+		final long expected = pcapOpenOfflineTestHandle().stream().count();
+		final List<PcapAutoTuner.Decision> decisions = new ArrayList<>();
+
+		var loop = PcapTuningProfile.HIGH_THROUGHPUT.newDispatchLoop(pcapOpenOfflineTestHandle())
+				.setBatchSize(2);
+		var tuner = new PcapAutoTuner(loop, () -> 0, PcapTuningProfile.HIGH_THROUGHPUT.bufferSize())
+				.setSampleInterval(0, TimeUnit.MILLISECONDS)
+				.setDecisionListener(decisions::add);
+
+		loop.setAutoTuner(tuner);
+
+		assertEquals(0, loop.run((user, packet) -> {}, null));
+		assertEquals(expected, loop.packetCount());
+
+		/* Offline handles have no statistics, so nothing is ever adjusted */
+		assertFalse(tuner.check());
+		assertTrue(decisions.isEmpty());
+		assertEquals(0, tuner.decisionCount());
+		assertEquals(2, tuner.dispatchCount());
+		assertEquals(PcapTuningProfile.HIGH_THROUGHPUT.bufferSize(), tuner.recommendedBufferSize());
+	}
+
+	/**
+	 * Test method for
+	 * {@link org.jnetpcap.util.PcapSubscriptions#subscribe(String, org.jnetpcap.PcapHandler.OfRawPacket)}.
+	 */
+	@Test
+	@Tag("offline-capture")
+	@Tag("user-permission")
+	void testSubscriptionsDemux_OfflineHandle() throws PcapException {
+		final var tcpFiltered = pcapOpenOfflineTestHandle();
+		tcpFiltered.setFilter(tcpFiltered.compile("tcp", true));
+		final long expectedTcp = tcpFiltered.stream().count();
+
+		final var udpFiltered = pcapOpenOfflineTestHandle();
+		udpFiltered.setFilter(udpFiltered.compile("udp", true));
+		final long expectedUdp = udpFiltered.stream().count();
+
+		final long[] tcp = new long[1];
+		final long[] udp = new long[1];
+
+		try (var subscriptions = new PcapSubscriptions(pcapOpenOfflineTestHandle())) {
+			var tcpSub = subscriptions.subscribe("tcp", (hdr, data) -> tcp[0]++);
+			var udpSub = subscriptions.subscribe("udp", (hdr, data) -> udp[0]++);
+
+			assertNull(subscriptions.filter());
+
+			while (subscriptions.dispatch(4) > 0)
+				;
+
+			assertEquals("(tcp) or (udp)", subscriptions.filter());
+
+			assertEquals(expectedTcp, tcp[0]);
+			assertEquals(expectedUdp, udp[0]);
+			assertEquals(expectedTcp, tcpSub.packetCount());
+			assertEquals(expectedTcp + expectedUdp, subscriptions.packetCount());
+			assertEquals(0, subscriptions.unmatchedCount());
+
+			udpSub.close();
+
+			assertFalse(udpSub.isActive());
+			assertEquals("(tcp) or (udp)", subscriptions.filter());
+			assertEquals(0, subscriptions.dispatch(4));
+			assertEquals("(tcp)", subscriptions.filter());
+			assertEquals(2, subscriptions.swapCount());
+			assertEquals(0, subscriptions.filterErrorCount());
+			assertThrows(PcapException.class, () -> subscriptions.subscribe("not a filter (", (hdr, data) -> {}));
+			assertEquals(List.of(tcpSub), subscriptions.subscriptions());
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link org.jnetpcap.PcapException#withoutStackTrace(int, String)}.
+	 */
+	@Test
+	void testPcapExceptionWithoutStackTrace() {
+		var e = PcapException.withoutStackTrace(PcapCode.PCAP_ERROR, "test");
+
+		assertEquals(PcapCode.PCAP_ERROR, e.getCode());
+		assertEquals(0, e.getStackTrace().length);
+	}
+
+	/**
+	 * Test method for {@link org.jnetpcap.Pcap#next(org.jnetpcap.util.PcapCursor, int)}.
+	 */
+	@Test
+	@Tag("offline-capture")
+	@Tag("user-permission")
+	void testCursorNext_Bulk_OfflineHandle() throws PcapException {
+		final List<Integer> expected = new ArrayList<>();
+		final List<Integer> actual = new ArrayList<>();
+
+		pcapOpenOfflineTestHandle().stream().forEach(p -> expected.add(p.captureLength()));
+
+		var pcap = pcapOpenOfflineTestHandle();
+		var cursor = new PcapCursor(8, MAX_SNAPLEN);
+
+		while (pcap.next(cursor, 8) > 0) {
+			assertTrue(cursor.size() <= 8);
+
+			while (cursor.advance()) {
+				assertEquals(cursor.captureLength(), cursor.dataLength());
+				assertArrayEquals(cursor.toArray(),
+						cursor.slab().asSlice(cursor.dataOffset(), cursor.dataLength()).toArray(JAVA_BYTE));
+				actual.add(cursor.captureLength());
+			}
+		}
+
+		assertEquals(expected, actual);
+	}
+
+	/**
+	 * Test method for
+	 * {@link org.jnetpcap.util.PcapFlowSteering#start(java.util.function.IntFunction, org.jnetpcap.PcapHandler.OfPacketBuffer)}.
+	 *
+	 * @throws InterruptedException
+	 */
+	@Test
+	@Tag("offline-capture")
+	@Tag("user-permission")
+	void testFlowSteeringStart_OfflineHandle() throws PcapException, InterruptedException {
+		final long expected = pcapOpenOfflineTestHandle().stream().count();
+		final AtomicLong handled = new AtomicLong();
+
+		try (var pool = new PacketBufferPool();
+				var steering = new PcapFlowSteering(pcapOpenOfflineTestHandle(), pool, 4)) {
+
+			steering.start(worker -> new long[1], (count, packet) -> {
+				count[0]++;
+				handled.incrementAndGet();
+				packet.release();
+			});
+
+			steering.awaitCompletion();
+
+			assertEquals(0, steering.dropCount());
+			assertEquals(expected, handled.get());
+			assertEquals(expected, steering.workers().stream()
+					.mapToLong(PcapFlowSteering.Worker::steeredCount)
+					.sum());
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link org.jnetpcap.util.PcapPipeline#addStage(String, org.jnetpcap.util.PcapPipeline.Stage)}.
+	 *
+	 * @throws InterruptedException
+	 */
+	@Test
+	@Tag("offline-capture")
+	@Tag("user-permission")
+	void testPipelineStages_OfflineHandle() throws PcapException, InterruptedException {
+		final long expected = pcapOpenOfflineTestHandle().stream().count();
+		final AtomicLong tagged = new AtomicLong();
+		final AtomicLong bytes = new AtomicLong();
+
+		try (var pipeline = new PcapPipeline(pcapOpenOfflineTestHandle(), 1024, 2048, WaitStrategy.YIELD)) {
+			pipeline
+					.addStage("decode", (packet, seq, endOfBatch) -> packet.setTag(packet.captureLength()))
+					.addStage("sink", (packet, seq, endOfBatch) -> {
+						if (packet.tag() == packet.captureLength())
+							tagged.incrementAndGet();
+
+						bytes.addAndGet(packet.dataLength());
+					})
+					.start();
+
+			pipeline.awaitCompletion();
+
+			assertEquals(0, pipeline.dropCount());
+			assertEquals(expected - 1, pipeline.publishedSequence());
+			assertEquals(expected - 1, pipeline.stageSequence("sink"));
+			assertEquals(expected, tagged.get());
+			assertTrue(bytes.get() > 0);
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link org.jnetpcap.util.PcapSpillBuffer#drain(int, org.jnetpcap.PcapHandler.OfPacketFlyweight, Object)}.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	@Tag("offline-capture")
+	@Tag("user-permission")
+	void testSpillBufferDrain_SpillToDisk_OfflineHandle() throws PcapException, IOException {
+		final List<Integer> expected = new ArrayList<>();
+		final List<Integer> drained = new ArrayList<>();
+
+		pcapOpenOfflineTestHandle().stream().forEach(p -> expected.add(p.captureLength()));
+
+		Path spillDirectory = Files.createTempDirectory("pcap-spill-test");
+
+		try (var backlog = new PcapSpillBuffer(pcapOpenOfflineTestHandle(), spillDirectory, 0, 1L << 30, 16 * 1024)) {
+			while (backlog.dispatch(64) > 0)
+				;
+
+			assertTrue(backlog.isSpilling());
+			assertEquals(expected.size(), backlog.spilledCount());
+			assertEquals(0, backlog.dropCount());
+			assertEquals(0, backlog.spillErrorCount(), () -> String.valueOf(backlog.lastSpillError()));
+			assertTrue(backlog.spillFileCount() > 0);
+
+			while (backlog.drain(16, (String user, PcapPacketFlyweight packet) -> drained.add(packet.captureLength()),
+					"") > 0)
+				;
+
+			assertEquals(0, backlog.backlogCount());
+		}
+
+		assertEquals(expected, drained);
+
+		try (var files = Files.list(spillDirectory)) {
+			assertEquals(0, files.count());
+		}
+
+		Files.delete(spillDirectory);
+	}
+
+	/**
+	 * Test method for {@link org.jnetpcap.Pcap#stream(int)}.
+	 */
+	@Test
+	@Tag("offline-capture")
+	@Tag("user-permission")
+	void testStream_OfflineHandle() throws PcapException {
+		var pcap = pcapOpenOfflineTestHandle();
+		assertTrue(pcap.isOffline());
+
+		List<PcapPacketRef> packets = pcap.stream(4).toList();
+		assertTrue(packets.size() > 0);
+
+		long bytes = packets.stream()
+				.mapToLong(PcapPacketRef::captureLength)
+				.sum();
+
+		assertEquals(bytes, packets.stream()
+				.mapToLong(packet -> packet.toArray().length)
+				.sum(), "retained packets must remain valid");
+
+		assertEquals(packets.size(), pcapOpenOfflineTestHandle().stream(4).parallel().count());
+		assertEquals(bytes, pcapOpenOfflineTestHandle().stream(4).parallel()
+				.mapToLong(PcapPacketRef::captureLength)
+				.sum());
+
+		assertEquals(3, pcapOpenOfflineTestHandle().stream().limit(3).count());
+	}
+
+	/**
+	 * Test method for
+	 * {@link org.jnetpcap.util.PcapReceiver#forEachBatch(int, org.jnetpcap.util.PcapPacketBatch, org.jnetpcap.PcapHandler.OfBatch, Object)}.
+	 */
+	@Test
+	@Tag("offline-capture")
+	@Tag("user-permission")
+	void testReceiverForEachBatch_SmallBatch_OfflineHandle() throws PcapException {
+		var pcap = pcapOpenOfflineTestHandle();
+		var receiver = new PcapReceiver(pcap::dispatch);
+
+		final int PACKET_COUNT = 5;
+		final int[] counters = new int[2]; // 0=batches, 1=packets
+		final PcapPacketBatch batch = new PcapPacketBatch(2, 64 * 1024);
+		final PcapHandler.OfBatch<String> HANDLER = (user, b) -> {
+			assertTrue(b == batch, "batch must be reused");
+			assertTrue(b.size() > 0 && b.size() <= b.capacity());
+
+			for (int i = 0; i < b.size(); i++) {
+				assertEquals(b.captureLengths()[i], b.dataLengths()[i]);
+				assertEquals(0, b.offsets()[i] % PcapPacketBatch.DATA_ALIGNMENT);
+				assertTrue(b.timestamps()[i] > 0);
+			}
+
+			counters[0]++;
+			counters[1] += b.size();
+		};
+
+		assertEquals(PACKET_COUNT, receiver.forEachBatch(PACKET_COUNT, batch, HANDLER, ""));
+		assertEquals(3, counters[0]);
+		assertEquals(PACKET_COUNT, counters[1]);
+		assertTrue(batch.isEmpty());
+	}
+
 	/**
 	 * Test method for
 	 * {@link org.jnetpcap.Pcap#dispatch(int, org.jnetpcap.PcapDumper)}.
@@ -468,6 +1586,35 @@ class LibpcapApiTest extends AbstractTestBase {
 		}
 	}
 
+	/**
+	 * Test method for {@link org.jnetpcap.Pcap#dumpOpenMemory()}.
+	 * 
+	 * @throws PcapException
+	 */
+	@Test
+	@Tag("offline-capture")
+	@Tag("user-permission")
+	@Tag("libpcap-dumper-api")
+	void testDumpOpenMemory_OfflineHandle() throws PcapException {
+		final var pcap = pcapOpenOfflineTestHandle();
+		final int PACKET_COUNT = 5;
+
+		try (PcapMemoryDumper dumper = pcap.dumpOpenMemory()) {
+			final int[] records = new int[1];
+			final PcapHandler.OfMemorySegment<String> HANDLER = (user, header, packet, scope) -> {
+				assertEquals(PcapHeader.PCAP_HEADER_LENGTH, header.byteSize());
+				records[0]++;
+			};
+
+			assertEquals(PACKET_COUNT, dumper.dispatch(PACKET_COUNT, HANDLER, ""));
+			assertEquals(PACKET_COUNT, records[0]);
+
+			/* Stream is rewound after each dispatch, so each block is new records only */
+			assertEquals(PACKET_COUNT, dumper.dispatch(PACKET_COUNT, HANDLER, ""));
+			assertEquals(PACKET_COUNT * 2, records[0]);
+		}
+	}
+
 	/**
 	 * Test method for {@link org.jnetpcap.Pcap#findAllDevs()}.
 	 * 
@@ -1160,6 +2307,27 @@ class LibpcapApiTest extends AbstractTestBase {
 		}
 	}
 
+	/**
+	 * Test method for {@link org.jnetpcap.Pcap#dispatch()}.
+	 * 
+	 * @throws PcapException
+	 */
+	@Test
+	@Tag("offline-capture")
+	@Tag("user-permission")
+	void testDispatchSource_TstampPrecision() throws PcapException {
+		final PcapTStampPrecision NANO = PcapTStampPrecision.TSTAMP_PRECISION_NANO;
+
+		try (Pcap pcap = Pcap.openDeadWithTstampPrecision(PcapDlt.EN10MB, MAX_SNAPLEN, NANO)) {
+			var source = (PcapHandler.PacketSource.PcapPacketSource) pcap.dispatch();
+
+			assertEquals(NANO, source.tstampPrecision());
+		}
+
+		var source = (PcapHandler.PacketSource.PcapPacketSource) pcapOpenOfflineTestHandle().dispatch();
+		assertEquals(PcapTStampPrecision.TSTAMP_PRECISION_MICRO, source.tstampPrecision());
+	}
+
 	/**
 	 * Test method for
 	 * {@link org.jnetpcap.Pcap#openLive(java.lang.String, int, boolean, long, java.util.concurrent.TimeUnit)}.
@@ -25,9 +25,14 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.Writer;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.MemorySession;
+import java.nio.ByteBuffer;
 
 import org.jnetpcap.Pcap;
 import org.jnetpcap.Pcap.LibraryPolicy;
+import org.jnetpcap.constant.PcapDlt;
+import org.jnetpcap.util.PcapFlowHash;
 import org.jnetpcap.util.PcapVersionException;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
@@ -42,6 +47,180 @@ import org.junit.jupiter.api.Test;
 @Tag("user-permission")
 class NonPcapTest extends AbstractTestBase {
 
+	private static final byte[] IPV4_A = { 10, 0, 0, 1 };
+	private static final byte[] IPV4_B = { (byte) 192, (byte) 168, 1, (byte) 200 };
+	private static final byte[] IPV6_A = { 0x20, 0x01, 0x0d, (byte) 0xb8, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1 };
+	private static final byte[] IPV6_B = { (byte) 0xfe, (byte) 0x80, 0, 0, 0, 0, 0, 0, 0x12, 0x34, 0, 0, 0, 0, 0, 2 };
+
+	private static final int ETHER_TYPE_IPV4 = 0x0800;
+	private static final int ETHER_TYPE_IPV6 = 0x86DD;
+
+	/** IPv4 header followed by a TCP header, without options */
+	private static byte[] ipv4Tcp(byte[] src, byte[] dst, int srcPort, int dstPort) {
+		var b = ByteBuffer.allocate(20 + 20);
+		b.put((byte) 0x45).put((byte) 0).putShort((short) 40);
+		b.putShort((short) 1).putShort((short) 0x4000); // DF, not fragmented
+		b.put((byte) 64).put((byte) 6).putShort((short) 0);
+		b.put(src).put(dst);
+		b.putShort((short) srcPort).putShort((short) dstPort);
+
+		return b.array();
+	}
+
+	/** IPv6 header followed by a UDP header */
+	private static byte[] ipv6Udp(byte[] src, byte[] dst, int srcPort, int dstPort) {
+		var b = ByteBuffer.allocate(40 + 8);
+		b.putInt(0x60000000).putShort((short) 8).put((byte) 17).put((byte) 64);
+		b.put(src).put(dst);
+		b.putShort((short) srcPort).putShort((short) dstPort).putShort((short) 8);
+
+		return b.array();
+	}
+
+	private static byte[] ethernet(int etherType, byte[] ip, int... vlanTypes) {
+		var b = ByteBuffer.allocate(14 + vlanTypes.length * 4 + ip.length);
+		b.position(12);
+
+		for (int vlanType : vlanTypes)
+			b.putShort((short) vlanType).putShort((short) 100);
+
+		b.putShort((short) etherType).put(ip);
+
+		return b.array();
+	}
+
+	private static byte[] sll(int etherType, byte[] ip) {
+		var b = ByteBuffer.allocate(16 + ip.length);
+		b.putShort((short) 0).putShort((short) 1).putShort((short) 6);
+		b.position(14);
+		b.putShort((short) etherType).put(ip);
+
+		return b.array();
+	}
+
+	private static byte[] sll2(int etherType, byte[] ip) {
+		var b = ByteBuffer.allocate(20 + ip.length);
+		b.putShort((short) etherType).putShort((short) 0).putInt(2);
+		b.position(20);
+		b.put(ip);
+
+		return b.array();
+	}
+
+	private static int flowHash(int dlt, byte[] packet) {
+		try (var session = MemorySession.openConfined()) {
+			var segment = MemorySegment.allocateNative(packet.length, session);
+			segment.copyFrom(MemorySegment.ofArray(packet));
+
+			return PcapFlowHash.hash(dlt, segment.address(), packet.length);
+		}
+	}
+
+	private static void assertSymmetric(int dlt, byte[] forward, byte[] reverse) {
+		int hash = flowHash(dlt, forward);
+
+		assertNotEquals(PcapFlowHash.NO_FLOW, hash);
+		assertEquals(hash, flowHash(dlt, reverse));
+	}
+
+	/**
+	 * Test method for
+	 * {@link org.jnetpcap.util.PcapFlowHash#hash(int, java.lang.foreign.MemoryAddress, int)}.
+	 */
+	@Test
+	void testFlowHash_Ipv4_Symmetric() {
+		final int dlt = PcapDlt.EN10MB.intDlt;
+
+		assertSymmetric(dlt,
+				ethernet(ETHER_TYPE_IPV4, ipv4Tcp(IPV4_A, IPV4_B, 49152, 80)),
+				ethernet(ETHER_TYPE_IPV4, ipv4Tcp(IPV4_B, IPV4_A, 80, 49152)));
+
+		assertNotEquals(
+				flowHash(dlt, ethernet(ETHER_TYPE_IPV4, ipv4Tcp(IPV4_A, IPV4_B, 49152, 80))),
+				flowHash(dlt, ethernet(ETHER_TYPE_IPV4, ipv4Tcp(IPV4_A, IPV4_B, 49153, 80))));
+	}
+
+	/**
+	 * Test method for
+	 * {@link org.jnetpcap.util.PcapFlowHash#hash(int, java.lang.foreign.MemoryAddress, int)}.
+	 */
+	@Test
+	void testFlowHash_Ipv6_Symmetric() {
+		final int dlt = PcapDlt.EN10MB.intDlt;
+
+		assertSymmetric(dlt,
+				ethernet(ETHER_TYPE_IPV6, ipv6Udp(IPV6_A, IPV6_B, 5353, 53)),
+				ethernet(ETHER_TYPE_IPV6, ipv6Udp(IPV6_B, IPV6_A, 53, 5353)));
+
+		assertNotEquals(
+				flowHash(dlt, ethernet(ETHER_TYPE_IPV6, ipv6Udp(IPV6_A, IPV6_B, 5353, 53))),
+				flowHash(dlt, ethernet(ETHER_TYPE_IPV6, ipv6Udp(IPV6_A, IPV6_B, 5354, 53))));
+	}
+
+	/**
+	 * Test method for
+	 * {@link org.jnetpcap.util.PcapFlowHash#hash(int, java.lang.foreign.MemoryAddress, int)}.
+	 */
+	@Test
+	void testFlowHash_Vlan_Symmetric() {
+		final int dlt = PcapDlt.EN10MB.intDlt;
+
+		byte[] forward = ipv4Tcp(IPV4_A, IPV4_B, 49152, 443);
+		byte[] reverse = ipv4Tcp(IPV4_B, IPV4_A, 443, 49152);
+
+		assertSymmetric(dlt,
+				ethernet(ETHER_TYPE_IPV4, forward, 0x8100),
+				ethernet(ETHER_TYPE_IPV4, reverse, 0x8100));
+
+		assertSymmetric(dlt,
+				ethernet(ETHER_TYPE_IPV6, ipv6Udp(IPV6_A, IPV6_B, 5353, 53), 0x88A8, 0x8100),
+				ethernet(ETHER_TYPE_IPV6, ipv6Udp(IPV6_B, IPV6_A, 53, 5353), 0x88A8, 0x8100));
+
+		/* The tags do not change the flow */
+		assertEquals(
+				flowHash(dlt, ethernet(ETHER_TYPE_IPV4, forward)),
+				flowHash(dlt, ethernet(ETHER_TYPE_IPV4, reverse, 0x8100)));
+	}
+
+	/**
+	 * Test method for
+	 * {@link org.jnetpcap.util.PcapFlowHash#hash(int, java.lang.foreign.MemoryAddress, int)}.
+	 */
+	@Test
+	void testFlowHash_Sll_Symmetric() {
+		final int dlt = PcapDlt.LINUX_SLL.intDlt;
+
+		assertSymmetric(dlt,
+				sll(ETHER_TYPE_IPV4, ipv4Tcp(IPV4_A, IPV4_B, 49152, 22)),
+				sll(ETHER_TYPE_IPV4, ipv4Tcp(IPV4_B, IPV4_A, 22, 49152)));
+
+		assertSymmetric(dlt,
+				sll(ETHER_TYPE_IPV6, ipv6Udp(IPV6_A, IPV6_B, 5353, 53)),
+				sll(ETHER_TYPE_IPV6, ipv6Udp(IPV6_B, IPV6_A, 53, 5353)));
+	}
+
+	/**
+	 * Test method for
+	 * {@link org.jnetpcap.util.PcapFlowHash#hash(int, java.lang.foreign.MemoryAddress, int)}.
+	 */
+	@Test
+	void testFlowHash_Sll2_Symmetric() {
+		final int dlt = PcapFlowHash.DLT_LINUX_SLL2;
+
+		assertSymmetric(dlt,
+				sll2(ETHER_TYPE_IPV4, ipv4Tcp(IPV4_A, IPV4_B, 49152, 22)),
+				sll2(ETHER_TYPE_IPV4, ipv4Tcp(IPV4_B, IPV4_A, 22, 49152)));
+
+		assertSymmetric(dlt,
+				sll2(ETHER_TYPE_IPV6, ipv6Udp(IPV6_A, IPV6_B, 5353, 53)),
+				sll2(ETHER_TYPE_IPV6, ipv6Udp(IPV6_B, IPV6_A, 53, 5353)));
+
+		/* Same flow, whichever link type it was captured on */
+		assertEquals(
+				flowHash(PcapDlt.EN10MB.intDlt, ethernet(ETHER_TYPE_IPV4, ipv4Tcp(IPV4_A, IPV4_B, 49152, 22))),
+				flowHash(dlt, sll2(ETHER_TYPE_IPV4, ipv4Tcp(IPV4_B, IPV4_A, 22, 49152))));
+	}
+
 	/**
 	 * Test property for {@link org.jnetpcap.Pcap#VERSION}.
 	 */